@@ -4,6 +4,7 @@ import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.glu.GLU;
 
+import com.stephenwranger.graphics.bounds.BoundingVolume;
 import com.stephenwranger.graphics.math.PickingHit;
 import com.stephenwranger.graphics.math.PickingRay;
 
@@ -35,4 +36,14 @@ public interface Animation {
     * @return
     */
    public double[] getNearFar(final Scene scene);
+
+   /**
+    * Returns the world space bounds of everything this animation renders or null if unknown; animations with bounds
+    * are skipped by the {@link Scene} while completely outside the view frustum.
+    * 
+    * @return
+    */
+   public default BoundingVolume getBoundingVolume() {
+      return null;
+   }
 }
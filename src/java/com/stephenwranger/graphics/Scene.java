@@ -1,7 +1,11 @@
 package com.stephenwranger.graphics;
 
 import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.jogamp.opengl.GL;
@@ -15,10 +19,16 @@ import com.jogamp.opengl.awt.GLCanvas;
 import com.jogamp.opengl.fixedfunc.GLLightingFunc;
 import com.jogamp.opengl.glu.GLU;
 import com.jogamp.opengl.util.FPSAnimator;
+import com.stephenwranger.graphics.bounds.BoundingBox;
+import com.stephenwranger.graphics.bounds.BoundingSphere;
 import com.stephenwranger.graphics.bounds.BoundingVolume;
+import com.stephenwranger.graphics.bounds.CullingStats;
+import com.stephenwranger.graphics.bounds.DynamicAabbTree;
+import com.stephenwranger.graphics.bounds.FrustumCuller;
 import com.stephenwranger.graphics.color.Color4f;
 import com.stephenwranger.graphics.math.CameraUtils;
 import com.stephenwranger.graphics.math.Matrix4d;
+import com.stephenwranger.graphics.math.PickingRay;
 import com.stephenwranger.graphics.math.Tuple3d;
 import com.stephenwranger.graphics.math.Vector3d;
 import com.stephenwranger.graphics.math.intersection.Plane;
@@ -32,6 +42,7 @@ import com.stephenwranger.graphics.utils.TupleMath;
 
 public class Scene extends GLCanvas implements GLEventListener {
    private static final long                 serialVersionUID        = -5725872347284851012L;
+   private static final Tuple3d              ZERO                    = new Tuple3d();
 
    private final double[]                    projection              = new double[] {1,0,0,0,0,1,0,0,0,0,1,0,0,0,0,1};
    private final double[]                    modelview               = new double[] {1,0,0,0,0,1,0,0,0,0,1,0,0,0,0,1};
@@ -41,6 +52,17 @@ public class Scene extends GLCanvas implements GLEventListener {
    private final Set<Animation>              animations              = new HashSet<>();
    private final Set<PreRenderable>          preRenderables          = new HashSet<>();
    private final Set<Renderable>             renderables             = new HashSet<>();
+   /** renderables with bounds, keyed by world space bounding volume */
+   private final DynamicAabbTree<Renderable> spatialIndex            = new DynamicAabbTree<>();
+   private final Map<Renderable, Integer>    spatialProxies          = new HashMap<>();
+   /** renderables without bounds; always rendered */
+   private final Set<Renderable>             unboundedRenderables    = new HashSet<>();
+   private final List<Renderable>            visibleRenderables      = new ArrayList<>();
+   private final FrustumCuller               culler                  = new FrustumCuller();
+   private final double[]                    cullExtents             = new double[6];
+   /** culling counters of the last frame */
+   private long                              cullTested, cullPlaneTests;
+   private int                               culledCount, acceptedCount;
    private final Set<RenderableOrthographic> renderablesOrthographic = new HashSet<>();
    private final Set<PostProcessor>          postProcessors          = new HashSet<>();
    private final FPSAnimator                 animator;
@@ -59,6 +81,10 @@ public class Scene extends GLCanvas implements GLEventListener {
    private Tuple3d                           screenLookAt            = null;
    private boolean                           enableFollowTarget      = false;
    private final Renderable                  followTarget            = null;
+   /** origin relative frustum planes of the last frame as (a, b, c, d) each; see CameraUtils#getFrustumPlanes */
+   private final double[]                    frustumCoefficients     = new double[24];
+   private boolean                           hasFrustum              = false;
+   /** created from frustumCoefficients on request */
    private Plane[]                           frustumPlanes           = null;
    private final Tuple3d                     origin                  = new Tuple3d(0, 0, 0);
    private boolean                           originEnabled           = false;
@@ -70,6 +96,21 @@ public class Scene extends GLCanvas implements GLEventListener {
    private float linearAttenuation = 0f;
    private float quadraticAttenuation = 0f;
 
+   // per frame scratch values; display, reshape and setMatrices run on the GL thread and are synchronized
+   private final Tuple3d                     eye                     = new Tuple3d();
+   private final Tuple3d                     center                  = new Tuple3d();
+   private final Vector3d                    viewVector              = new Vector3d();
+   private final float[]                     lightPosition           = new float[4];
+   private final float[]                     lightColor              = new float[4];
+   private final Matrix4d                    mvMatrix                = new Matrix4d();
+   private final Matrix4d                    pMatrix                 = new Matrix4d();
+   private final Matrix4d                    mvpMatrix               = new Matrix4d();
+   private final double[]                    matrix                  = new double[16];
+   private final double[]                    nearFar                 = new double[2];
+   private final double[]                    cameraPlane             = new double[4];
+   private final FrustumCuller               cameraPlaneCuller       = new FrustumCuller();
+   private final List<Renderable>            inFront                 = new ArrayList<>();
+
    public Scene(final Dimension preferredSize) {
       this(preferredSize, 60);
    }
@@ -103,6 +144,7 @@ public class Scene extends GLCanvas implements GLEventListener {
    public synchronized void addRenderable(final Renderable renderable) {
       renderable.setScene(this);
       this.renderables.add(renderable);
+      this.updateRenderable(renderable);
    }
 
    public synchronized void addRenderableOrthographic(final RenderableOrthographic renderableOrthographic) {
@@ -143,16 +185,18 @@ public class Scene extends GLCanvas implements GLEventListener {
 
       this.setMatrices(gl, glDrawable);
       
-      final Vector3d toLight = new Vector3d();
+      final Tuple3d toLight = this.eye;
       toLight.subtract(this.cameraPosition, this.origin);
+      toLight.toFloatArray(this.lightPosition);
+      this.lightPosition[3] = 0;
 
       gl.glEnable(GL2.GL_LIGHTING);
       gl.glEnable(GL2.GL_LIGHT0);
-      gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_POSITION, new float[] { (float) toLight.x, (float) toLight.y, (float) toLight.z, 0 }, 0);
+      gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_POSITION, this.lightPosition, 0);
 
-      gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_SPECULAR, specular.toArray(), 0);
-      gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_AMBIENT, ambient.toArray(), 0);
-      gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_DIFFUSE, diffuse.toArray(), 0);
+      gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_SPECULAR, this.specular.toArray(this.lightColor), 0);
+      gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_AMBIENT, this.ambient.toArray(this.lightColor), 0);
+      gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_DIFFUSE, this.diffuse.toArray(this.lightColor), 0);
 
       gl.glLightf(GL2.GL_LIGHT0, GL2.GL_CONSTANT_ATTENUATION, constantAttenuation);
       gl.glLightf(GL2.GL_LIGHT0, GL2.GL_LINEAR_ATTENUATION, linearAttenuation);
@@ -207,12 +251,11 @@ public class Scene extends GLCanvas implements GLEventListener {
       //      }
 
       if (this.followTarget != null) {
-         final Tuple3d dir = TupleMath.sub(this.cameraPosition, this.lookAt);
+         final Tuple3d dir = TupleMath.sub(this.cameraPosition, this.lookAt, this.eye);
          this.lookAt.set(this.followTarget.getPosition());
-         this.cameraPosition.set(TupleMath.add(dir, this.lookAt));
+         this.cameraPosition.add(dir, this.lookAt);
 
-         final double[] mv = CameraUtils.gluLookAt(gl, this.cameraPosition, this.lookAt, this.up);
-         System.arraycopy(mv, 0, this.modelview, 0, mv.length);
+         CameraUtils.gluLookAt(gl, this.cameraPosition, this.lookAt, this.up, this.modelview);
       }
 
       // System.out.println("near/far: " + ((int)(this.near * 100.0) / 100.0) + ", " + ((int)(this.far * 100.0) /
@@ -222,16 +265,33 @@ public class Scene extends GLCanvas implements GLEventListener {
          renderable.preRender(gl, this.glu, glDrawable, this);
       }
 
-      // setup is done; rendering time
+      // setup is done; rendering time; only animations and renderables in view are drawn
+      this.culler.resetStats();
+      int culled = 0;
+      int accepted = 0;
+
       for (final Animation animation : this.animations) {
-         animation.render(gl, this.glu, glDrawable, this);
+         if (this.isVisible(animation.getBoundingVolume())) {
+            animation.render(gl, this.glu, glDrawable, this);
+            accepted++;
+         } else {
+            culled++;
+         }
       }
 
       // this is for mostly static objects or those that don't need a custom animation
-      for (final Renderable renderable : this.renderables) {
+      this.collectVisibleRenderables(this.visibleRenderables);
+
+      for (final Renderable renderable : this.visibleRenderables) {
          renderable.render(gl, this.glu, glDrawable, this);
       }
 
+      this.cullTested = this.culler.getTested();
+      this.cullPlaneTests = this.culler.getPlaneTests();
+      this.acceptedCount = accepted + this.visibleRenderables.size();
+      this.culledCount = (culled + this.renderables.size()) - this.visibleRenderables.size();
+      this.visibleRenderables.clear();
+
       // this is for screen-space renderables
       for (final RenderableOrthographic renderableOrthographic : this.renderablesOrthographic) {
          renderableOrthographic.render(gl, this.glu, glDrawable, this);
@@ -252,6 +312,21 @@ public class Scene extends GLCanvas implements GLEventListener {
       return new Tuple3d(this.cameraPosition);
    }
 
+   public synchronized Tuple3d getCameraPosition(final Tuple3d out) {
+      out.set(this.cameraPosition);
+
+      return out;
+   }
+
+   /**
+    * Returns the view frustum culling counters of the last frame.
+    *
+    * @return
+    */
+   public synchronized CullingStats getCullingStats() {
+      return this.hasFrustum ? new CullingStats(this.cullTested, this.cullPlaneTests, this.culledCount, this.acceptedCount) : CullingStats.NONE;
+   }
+
    public synchronized double getFar() {
       return this.far;
    }
@@ -268,14 +343,51 @@ public class Scene extends GLCanvas implements GLEventListener {
       return CameraUtils.getFrustumPerspective(mvpMatrix);
    }
 
-   public Plane[] getFrustumPlanes() {
+   /**
+    * Returns the frustum planes of the last frame relative to the origin; created on the first request per frame.
+    * Per-frame code should prefer {@link #getFrustumPlanes(double[])}.
+    *
+    * @return the planes or null before the first frame
+    */
+   public synchronized Plane[] getFrustumPlanes() {
+      if ((this.frustumPlanes == null) && this.hasFrustum) {
+         this.frustumPlanes = new Plane[6];
+
+         for (int i = 0; i < 6; i++) {
+            final double[] c = this.frustumCoefficients;
+            this.frustumPlanes[i] = new Plane(new Vector3d(c[i * 4], c[(i * 4) + 1], c[(i * 4) + 2]), c[(i * 4) + 3]);
+         }
+      }
+
       return this.frustumPlanes;
    }
 
+   /**
+    * Copies the frustum planes of the last frame relative to the origin to the given array as (a, b, c, d) of
+    * ax + by + cz + d = 0 per plane; see {@link FrustumCuller#setPlanes(double[], int, Tuple3d)}.
+    *
+    * @param planes
+    *           receives 24 values
+    * @return false (and planes unchanged) before the first frame
+    */
+   public synchronized boolean getFrustumPlanes(final double[] planes) {
+      if (this.hasFrustum) {
+         System.arraycopy(this.frustumCoefficients, 0, planes, 0, 24);
+      }
+
+      return this.hasFrustum;
+   }
+
    public synchronized Tuple3d getLookAt() {
       return new Tuple3d(this.lookAt);
    }
 
+   public synchronized Tuple3d getLookAt(final Tuple3d out) {
+      out.set(this.lookAt);
+
+      return out;
+   }
+
    public synchronized double[] getModelViewMatrix() {
       return this.modelview;
    }
@@ -288,10 +400,49 @@ public class Scene extends GLCanvas implements GLEventListener {
       return new Tuple3d(this.origin);
    }
 
+   public synchronized Tuple3d getOrigin(final Tuple3d out) {
+      out.set(this.origin);
+
+      return out;
+   }
+
    public synchronized double[] getProjectionMatrix() {
       return this.projection;
    }
 
+   /**
+    * Returns the renderables whose bounds overlap the given volume; spheres are tested as spheres, any other volume
+    * by its axis-aligned extents. Renderables without bounds are never returned.
+    *
+    * @param volume
+    * @return
+    */
+   public synchronized List<Renderable> getRenderables(final BoundingVolume volume) {
+      final List<Renderable> results = new ArrayList<>();
+
+      if (volume instanceof BoundingSphere) {
+         this.spatialIndex.querySphere(volume.getCenter(), volume.getRadius(), results);
+      } else {
+         this.spatialIndex.queryBox((volume instanceof BoundingBox) ? (BoundingBox) volume : new BoundingBox(volume), results);
+      }
+
+      return results;
+   }
+
+   /**
+    * Returns the renderables whose bounds are hit by the given ray; candidates for
+    * {@link Renderable#getIntersection(PickingRay)}. Renderables without bounds are never returned.
+    *
+    * @param ray
+    * @return
+    */
+   public synchronized List<Renderable> getRenderables(final PickingRay ray) {
+      final List<Renderable> results = new ArrayList<>();
+      this.spatialIndex.queryRay(ray.getOrigin(), ray.getDirection(), Double.POSITIVE_INFINITY, results);
+
+      return results;
+   }
+
    public synchronized Vector3d getRightVector() {
       final Vector3d up = this.getUpVector();
       final Vector3d view = this.getViewVector();
@@ -311,11 +462,24 @@ public class Scene extends GLCanvas implements GLEventListener {
    }
 
    public synchronized Vector3d getViewVector() {
-      final Vector3d view = new Vector3d();
-      view.subtract(this.lookAt, this.cameraPosition);
-      view.normalize();
+      return this.getViewVector(new Vector3d());
+   }
 
-      return view;
+   public synchronized Vector3d getViewVector(final Vector3d out) {
+      return Vector3d.getVector(this.cameraPosition, this.lookAt, true, out);
+   }
+
+   /**
+    * Returns the renderables drawn in the last frame: those whose bounds are in the view frustum plus those without
+    * bounds.
+    *
+    * @return
+    */
+   public synchronized List<Renderable> getVisibleRenderables() {
+      final List<Renderable> results = new ArrayList<>();
+      this.collectVisibleRenderables(results);
+
+      return results;
    }
 
    @Override
@@ -346,7 +510,16 @@ public class Scene extends GLCanvas implements GLEventListener {
    }
 
    public synchronized void removeRenderable(final Renderable renderable) {
-      this.renderables.remove(renderable);
+      if (this.renderables.remove(renderable)) {
+         final Integer proxy = this.spatialProxies.remove(renderable);
+
+         if (proxy != null) {
+            this.spatialIndex.remove(proxy);
+         }
+
+         this.unboundedRenderables.remove(renderable);
+      }
+
       renderable.setScene(null);
    }
 
@@ -372,10 +545,9 @@ public class Scene extends GLCanvas implements GLEventListener {
    
          this.near = Double.MAX_VALUE;
          this.far = -Double.MAX_VALUE;
-         double[] nearFar;
    
          for (final Animation animation : this.animations) {
-            nearFar = animation.getNearFar(this);
+            final double[] nearFar = animation.getNearFar(this);
    
             if (nearFar != null) {
                this.near = Math.min(this.near, nearFar[0]);
@@ -383,25 +555,35 @@ public class Scene extends GLCanvas implements GLEventListener {
             }
          }
    
-         for (final Renderable renderable : this.renderables) {
-            nearFar = renderable.getNearFar(this);
-   
-            if ((nearFar != null) && Double.isFinite(nearFar[0]) && Double.isFinite(nearFar[1])) {
-               this.near = Math.min(this.near, nearFar[0]);
-               this.far = Math.max(this.far, nearFar[1]);
-            }
+         // renderables entirely behind the camera cannot affect the depth range
+         final Vector3d view = this.getViewVector(this.viewVector);
+         this.cameraPlane[0] = view.x;
+         this.cameraPlane[1] = view.y;
+         this.cameraPlane[2] = view.z;
+         this.cameraPlane[3] = -TupleMath.dot(view, this.cameraPosition);
+         this.cameraPlaneCuller.setPlanes(this.cameraPlane, 1, Scene.ZERO);
+         this.spatialIndex.queryFrustum(this.cameraPlaneCuller, this.inFront);
+
+         for (int i = 0; i < this.inFront.size(); i++) {
+            this.includeNearFar(this.inFront.get(i).getNearFar(this, this.nearFar));
+         }
+
+         this.inFront.clear();
+
+         // renderables without bounds are not in the index but may still report a depth range
+         for (final Renderable renderable : this.unboundedRenderables) {
+            this.includeNearFar(renderable.getNearFar(this, this.nearFar));
          }
    
          if (this.near >= this.far) {
             if (this.sceneBounds != null) {
-               final Tuple3d direction = TupleMath.sub(this.cameraPosition, this.sceneBounds.getCenter());
+               final Tuple3d direction = TupleMath.sub(this.cameraPosition, this.sceneBounds.getCenter(this.center), this.eye);
                final double directionDistance = TupleMath.length(direction);
-               TupleMath.normalize(direction);
                final double distance = this.sceneBounds.getSpannedDistance(null);
                this.far = distance + ((directionDistance - (distance / 2.0)) * 5.0);
                this.near = this.far / 3000.0;
             } else {
-               this.far = TupleMath.length(TupleMath.sub(this.cameraPosition, this.lookAt)) * 5.0;
+               this.far = this.cameraPosition.distance(this.lookAt) * 5.0;
                this.near = this.far / 3000.0;
             }
          }
@@ -420,8 +602,8 @@ public class Scene extends GLCanvas implements GLEventListener {
          
 //         System.out.println("final: " + String.format("%.2f, %.2f", near, far));
    
-         final double[] proj = CameraUtils.gluPerspective(gl, this.fov, this.viewport[2] / (double) this.viewport[3], this.near, this.far);
-         System.arraycopy(proj, 0, this.projection, 0, 16);
+         CameraUtils.gluPerspective(gl, this.fov, this.viewport[2] / (double) this.viewport[3], this.near, this.far, this.matrix);
+         System.arraycopy(this.matrix, 0, this.projection, 0, 16);
    
          //      System.out.println("near/far: " + String.format("%.2f", near) + " / " + String.format("%.2f", far));
       }
@@ -453,15 +635,20 @@ public class Scene extends GLCanvas implements GLEventListener {
    public synchronized void setMatrices(final GL2 gl, final GLAutoDrawable glDrawable) {
       this.reshape(glDrawable, this.viewport[0], this.viewport[1], this.viewport[2], this.viewport[3]);
 
-      final double[] mv = CameraUtils.gluLookAt(gl, TupleMath.sub(this.cameraPosition, this.origin), TupleMath.sub(this.lookAt, this.origin), this.up);
-      System.arraycopy(mv, 0, this.modelview, 0, 16);
+      TupleMath.sub(this.cameraPosition, this.origin, this.eye);
+      TupleMath.sub(this.lookAt, this.origin, this.center);
+      CameraUtils.gluLookAt(gl, this.eye, this.center, this.up, this.matrix);
+      System.arraycopy(this.matrix, 0, this.modelview, 0, 16);
 
-      final Matrix4d mvMatrix = new Matrix4d(this.modelview);
-      final Matrix4d pMatrix = new Matrix4d(this.projection);
-      final Matrix4d mvpMatrix = new Matrix4d();
-      mvpMatrix.multiply(mvMatrix, pMatrix);
+      this.mvMatrix.set(this.modelview);
+      this.pMatrix.set(this.projection);
+      this.mvpMatrix.multiply(this.mvMatrix, this.pMatrix);
 
-      this.frustumPlanes = CameraUtils.getFrustumPlanes(new Tuple3d(), mvpMatrix);
+      CameraUtils.getFrustumPlanes(Scene.ZERO, this.mvpMatrix, this.frustumCoefficients);
+      this.frustumPlanes = null;
+      this.hasFrustum = true;
+      // the frustum planes are relative to the current origin, the culled bounds are in world space
+      this.culler.setPlanes(this.frustumCoefficients, 6, this.origin);
    }
 
    public synchronized void setOriginEnabled(final boolean isOriginEnabled) {
@@ -492,6 +679,65 @@ public class Scene extends GLCanvas implements GLEventListener {
       this.repaint();
    }
 
+   /**
+    * Updates the spatial index entry of the given renderable after its bounding volume has changed; called by
+    * {@link Renderable} when its position changes. Does nothing if the renderable is not in this scene.
+    *
+    * @param renderable
+    */
+   public synchronized void updateRenderable(final Renderable renderable) {
+      if (!this.renderables.contains(renderable)) {
+         return;
+      }
+
+      final BoundingVolume bounds = renderable.getBoundingVolume();
+      final Integer proxy = this.spatialProxies.get(renderable);
+
+      if (bounds == null) {
+         if (proxy != null) {
+            this.spatialIndex.remove(proxy);
+            this.spatialProxies.remove(renderable);
+         }
+
+         this.unboundedRenderables.add(renderable);
+      } else if (proxy == null) {
+         this.spatialProxies.put(renderable, this.spatialIndex.insert(renderable, bounds));
+         this.unboundedRenderables.remove(renderable);
+      } else {
+         this.spatialIndex.update(proxy, bounds);
+      }
+   }
+
+   private void collectVisibleRenderables(final List<Renderable> results) {
+      if (!this.hasFrustum) {
+         results.addAll(this.renderables);
+      } else {
+         this.spatialIndex.queryFrustum(this.culler, results);
+
+         // not addAll; that copies the set to an array first
+         for (final Renderable renderable : this.unboundedRenderables) {
+            results.add(renderable);
+         }
+      }
+   }
+
+   private void includeNearFar(final double[] nearFar) {
+      if ((nearFar != null) && Double.isFinite(nearFar[0]) && Double.isFinite(nearFar[1])) {
+         this.near = Math.min(this.near, nearFar[0]);
+         this.far = Math.max(this.far, nearFar[1]);
+      }
+   }
+
+   private boolean isVisible(final BoundingVolume bounds) {
+      if ((bounds == null) || !this.hasFrustum) {
+         return true;
+      }
+
+      DynamicAabbTree.getExtents(bounds, this.cullExtents);
+
+      return this.culler.test(this.cullExtents, 0, this.culler.getAllPlanesMask(), 0) != FrustumCuller.OUTSIDE;
+   }
+
    private synchronized void notifyListeners(final long frameTime) {
       for (final AnimationListener listener : this.listeners) {
          listener.animationStep(frameTime);
@@ -84,9 +84,31 @@ public class BoundingBox extends BoundingVolume {
       return new Tuple3d(max);
    }
 
+   /**
+    * Writes min xyz, max xyz to the given array starting at the given offset.
+    *
+    * @param extents
+    * @param offset
+    */
+   public void getExtents(final double[] extents, final int offset) {
+      extents[offset] = this.min.x;
+      extents[offset + 1] = this.min.y;
+      extents[offset + 2] = this.min.z;
+      extents[offset + 3] = this.max.x;
+      extents[offset + 4] = this.max.y;
+      extents[offset + 5] = this.max.z;
+   }
+
    @Override
    public Tuple3d getCenter() {
-      return new Tuple3d((max.x - min.x) / 2.0 + min.x, (max.y - min.y) / 2.0 + min.y, (max.z - min.z) / 2.0 + min.z);
+      return this.getCenter(new Tuple3d());
+   }
+
+   @Override
+   public Tuple3d getCenter(final Tuple3d out) {
+      out.set((max.x - min.x) / 2.0 + min.x, (max.y - min.y) / 2.0 + min.y, (max.z - min.z) / 2.0 + min.z);
+
+      return out;
    }
 
    @Override
@@ -105,9 +127,7 @@ public class BoundingBox extends BoundingVolume {
          return boundingSphereRadius * 2.0;
       }
       
-      final Tuple3d dims = getDimensions();
-      
-      return Math.abs(dims.x * directionVector.x) + Math.abs(dims.y * directionVector.y) + Math.abs(dims.z * directionVector.z);
+      return Math.abs((max.x - min.x) * directionVector.x) + Math.abs((max.y - min.y) * directionVector.y) + Math.abs((max.z - min.z) * directionVector.z);
    }
    
    @Override
@@ -22,6 +22,13 @@ public class BoundingSphere extends BoundingVolume {
       return new Tuple3d(center);
    }
 
+   @Override
+   public Tuple3d getCenter(final Tuple3d out) {
+      out.set(this.center);
+
+      return out;
+   }
+
    @Override
    public Tuple3d getDimensions() {
       return new Tuple3d(radius * 2.0, radius * 2.0, radius * 2.0);
@@ -30,6 +30,18 @@ public abstract class BoundingVolume {
    public abstract boolean contains(final Tuple3d xyz);
    
    public abstract Tuple3d getCenter();
+
+   /**
+    * Stores the center in the given tuple instead of returning a copy.
+    *
+    * @param out
+    * @return out
+    */
+   public Tuple3d getCenter(final Tuple3d out) {
+      out.set(this.getCenter());
+
+      return out;
+   }
    
    public abstract Tuple3d getDimensions();
    
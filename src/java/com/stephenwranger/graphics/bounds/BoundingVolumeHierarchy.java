@@ -0,0 +1,846 @@
+package com.stephenwranger.graphics.bounds;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.stephenwranger.graphics.math.PickingHit;
+import com.stephenwranger.graphics.math.PickingRay;
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Vector3d;
+import com.stephenwranger.graphics.math.intersection.IntersectionUtils;
+import com.stephenwranger.graphics.renderables.Renderable;
+
+/**
+ * Axis-aligned bounding volume hierarchy over an indexed triangle list for ray queries. The tree is built top-down
+ * with binned surface area heuristic (SAH) splits and stored in flat arrays: six floats of bounds per node, and per
+ * node either the index of its first child (the second child always follows it) or the range of its triangles in a
+ * face permutation. The triangle data is referenced, not copied.<br/>
+ * <br/>
+ * Construction runs on a {@link ForkJoinPool}: large subtrees are built as separate tasks and the binning and
+ * partitioning of large nodes is split into parallel chunks. A built tree can be written to a compact binary cache
+ * with {@link #write(File, long, long)} and memory-mapped back in with {@link #read(File, float[], int[], long, long)}.
+ *
+ * @author rangers
+ *
+ */
+public class BoundingVolumeHierarchy {
+   public static final int      MAX_LEAF_SIZE      = 4;
+
+   private static final int     BIN_COUNT          = 16;
+   /** Leaves are forced to split above this size even if SAH would rather not. */
+   private static final int     MAX_FORCED_LEAF    = 32;
+   /** Cost of one node traversal relative to one triangle test. */
+   private static final double  TRAVERSAL_COST     = 1.0;
+   /** Subtrees with more faces than this are built as separate fork-join tasks. */
+   private static final int     FORK_THRESHOLD     = 1 << 12;
+   /** Nodes with more faces than this bin and partition their faces in parallel chunks. */
+   private static final int     PARALLEL_THRESHOLD = 1 << 16;
+   private static final int     CHUNK_SIZE         = 1 << 14;
+
+   private static final int     MAGIC              = 0x31485642;                      // "BVH1" little endian
+   private static final int     HEADER_SIZE        = 48;
+   private static final long    MAP_SIZE           = 1L << 28;
+
+   private final float[]        positions;
+   private final int[]          indices;
+
+   /** Face indices reordered so that each leaf's faces are contiguous. */
+   private final int[]          faces;
+   /** min xyz, max xyz per node */
+   private float[]              nodeBounds;
+   /** first child for interior nodes, first entry in faces for leaves */
+   private int[]                nodeOffsets;
+   /** face count for leaves, zero for interior nodes */
+   private int[]                nodeCounts;
+   private int                  nodeCount;
+   private final int            depth;
+
+   // build scratch; released once the tree is built
+   private float[]              faceBounds;
+   private float[]              centroids;
+   private int[]                scratch;
+   private AtomicInteger        nextNode;
+
+   /**
+    * Builds a hierarchy over the given triangles on the common fork-join pool.
+    *
+    * @param positions
+    *           xyz vertex positions (3 per vertex)
+    * @param indices
+    *           triangle vertex indices (3 per face)
+    */
+   public BoundingVolumeHierarchy(final float[] positions, final int[] indices) {
+      this(positions, indices, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Builds a hierarchy over the given triangles on the given pool.
+    *
+    * @param positions
+    *           xyz vertex positions (3 per vertex)
+    * @param indices
+    *           triangle vertex indices (3 per face)
+    * @param pool
+    *           the pool to build on
+    */
+   public BoundingVolumeHierarchy(final float[] positions, final int[] indices, final ForkJoinPool pool) {
+      if ((indices.length % 3) != 0) {
+         throw new IllegalArgumentException("Indices must contain three values per face.");
+      }
+
+      this.positions = positions;
+      this.indices = indices;
+
+      final int faceCount = indices.length / 3;
+      this.faces = new int[faceCount];
+
+      final int capacity = Math.max(1, (2 * faceCount) - 1);
+      this.nodeBounds = new float[capacity * 6];
+      this.nodeOffsets = new int[capacity];
+      this.nodeCounts = new int[capacity];
+
+      this.faceBounds = new float[faceCount * 6];
+      this.centroids = new float[faceCount * 3];
+      this.scratch = new int[faceCount];
+      this.nextNode = new AtomicInteger(1);
+
+      this.depth = pool.invoke(new RecursiveTask<Integer>() {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected Integer compute() {
+            BoundingVolumeHierarchy.this.forChunks(0, faceCount, faceCount > PARALLEL_THRESHOLD, (start, end) -> {
+               for (int i = start; i < end; i++) {
+                  BoundingVolumeHierarchy.this.faces[i] = i;
+                  BoundingVolumeHierarchy.this.computeFaceBounds(i);
+               }
+
+               return null;
+            });
+
+            return new BuildTask(0, 0, faceCount).compute();
+         }
+      });
+
+      this.nodeCount = this.nextNode.get();
+      this.nodeBounds = Arrays.copyOf(this.nodeBounds, this.nodeCount * 6);
+      this.nodeOffsets = Arrays.copyOf(this.nodeOffsets, this.nodeCount);
+      this.nodeCounts = Arrays.copyOf(this.nodeCounts, this.nodeCount);
+      this.faceBounds = null;
+      this.centroids = null;
+      this.scratch = null;
+      this.nextNode = null;
+   }
+
+   private BoundingVolumeHierarchy(final float[] positions, final int[] indices, final int[] faces, final float[] nodeBounds, final int[] nodeOffsets, final int[] nodeCounts, final int depth) {
+      this.positions = positions;
+      this.indices = indices;
+      this.faces = faces;
+      this.nodeBounds = nodeBounds;
+      this.nodeOffsets = nodeOffsets;
+      this.nodeCounts = nodeCounts;
+      this.nodeCount = nodeCounts.length;
+      this.depth = depth;
+   }
+
+   public int getFaceCount() {
+      return this.faces.length;
+   }
+
+   public int getNodeCount() {
+      return this.nodeCount;
+   }
+
+   /**
+    * Returns the number of levels in the tree; a single leaf has depth one.
+    *
+    * @return
+    */
+   public int getDepth() {
+      return this.depth;
+   }
+
+   /**
+    * Returns the bounds of all triangles or null if there are none.
+    *
+    * @return
+    */
+   public BoundingBox getBoundingBox() {
+      if (this.faces.length == 0) {
+         return null;
+      }
+
+      return new BoundingBox(this.nodeBounds[0], this.nodeBounds[1], this.nodeBounds[2], this.nodeBounds[3], this.nodeBounds[4], this.nodeBounds[5]);
+   }
+
+   /**
+    * Finds the nearest triangle hit by the ray (both faces count).
+    *
+    * @param ox
+    * @param oy
+    * @param oz
+    * @param dx
+    * @param dy
+    * @param dz
+    * @param maxDistance
+    *           hits at or beyond this distance (in units of the direction's length) are ignored
+    * @param faceOutput
+    *           if not null, receives the index of the hit face in its first element (-1 on a miss)
+    * @return the distance to the nearest hit or {@link Double#POSITIVE_INFINITY} if nothing is hit
+    */
+   public double intersect(final double ox, final double oy, final double oz, final double dx, final double dy, final double dz, final double maxDistance, final int[] faceOutput) {
+      return this.traverse(ox, oy, oz, dx, dy, dz, maxDistance, faceOutput, false);
+   }
+
+   /**
+    * Returns true if the ray hits any triangle closer than the given distance; stops at the first hit found.
+    *
+    * @param ox
+    * @param oy
+    * @param oz
+    * @param dx
+    * @param dy
+    * @param dz
+    * @param maxDistance
+    * @return
+    */
+   public boolean intersectsAny(final double ox, final double oy, final double oz, final double dx, final double dy, final double dz, final double maxDistance) {
+      return this.traverse(ox, oy, oz, dx, dy, dz, maxDistance, null, true) < maxDistance;
+   }
+
+   /**
+    * Returns the nearest hit of the given picking ray attributed to the given renderable or {@link PickingRay#NO_HIT}.
+    *
+    * @param parent
+    * @param ray
+    * @return
+    */
+   public PickingHit getIntersection(final Renderable parent, final PickingRay ray) {
+      final Tuple3d origin = ray.getOrigin();
+      final Vector3d direction = ray.getDirection();
+      final double distance = this.intersect(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z, Double.POSITIVE_INFINITY, null);
+
+      if (distance == Double.POSITIVE_INFINITY) {
+         return PickingRay.NO_HIT;
+      }
+
+      final Tuple3d hit = new Tuple3d(origin.x + (direction.x * distance), origin.y + (direction.y * distance), origin.z + (direction.z * distance));
+
+      return new PickingHit(parent, hit, distance);
+   }
+
+   /**
+    * Writes the tree to the given cache file along with the size and hash of the source it was built from; the
+    * triangle data itself is not written.
+    *
+    * @param file
+    *           the cache file to (over)write
+    * @param sourceSize
+    *           the size of the source file in bytes
+    * @param sourceHash
+    *           a hash of the source file's contents
+    * @throws IOException
+    */
+   public void write(final File file, final long sourceSize, final long sourceHash) throws IOException {
+      try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+         buffer.putInt(MAGIC);
+         buffer.putInt(this.depth);
+         buffer.putLong(sourceSize);
+         buffer.putLong(sourceHash);
+         buffer.putLong(BoundingVolumeHierarchy.hashIndices(this.indices));
+         buffer.putInt(this.faces.length);
+         buffer.putInt(this.nodeCount);
+         buffer.putInt(this.positions.length);
+         buffer.putInt(0);
+
+         for (final float value : this.nodeBounds) {
+            BoundingVolumeHierarchy.drain(channel, buffer, 4);
+            buffer.putFloat(value);
+         }
+
+         for (final int[] array : new int[][] { this.nodeOffsets, this.nodeCounts, this.faces }) {
+            for (final int value : array) {
+               BoundingVolumeHierarchy.drain(channel, buffer, 4);
+               buffer.putInt(value);
+            }
+         }
+
+         BoundingVolumeHierarchy.drain(channel, buffer, buffer.capacity());
+      }
+   }
+
+   /**
+    * Memory-maps a tree written by {@link #write(File, long, long)} back in for the given triangles.
+    *
+    * @param file
+    *           the cache file
+    * @param positions
+    *           the vertex positions the tree was built over
+    * @param indices
+    *           the triangle indices the tree was built over
+    * @param sourceSize
+    *           the current size of the source file
+    * @param sourceHash
+    *           the current hash of the source file
+    * @return the tree or null if the cache is missing, truncated or does not match the source or triangles
+    * @throws IOException
+    *            if the cache exists but cannot be read
+    */
+   public static BoundingVolumeHierarchy read(final File file, final float[] positions, final int[] indices, final long sourceSize, final long sourceHash) throws IOException {
+      if (!file.isFile() || (file.length() < HEADER_SIZE)) {
+         return null;
+      }
+
+      try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         final ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+         final int magic = header.getInt();
+         final int depth = header.getInt();
+         final long size = header.getLong();
+         final long hash = header.getLong();
+         final long indexHash = header.getLong();
+         final int faceCount = header.getInt();
+         final int nodeCount = header.getInt();
+         final int positionCount = header.getInt();
+
+         if ((magic != MAGIC) || (size != sourceSize) || (hash != sourceHash) || (faceCount != (indices.length / 3)) || (positionCount != positions.length)) {
+            return null;
+         }
+
+         if ((channel.size() != (HEADER_SIZE + (((nodeCount * 8L) + faceCount) * 4L))) || (indexHash != BoundingVolumeHierarchy.hashIndices(indices))) {
+            return null;
+         }
+
+         final float[] nodeBounds = new float[nodeCount * 6];
+         final int[] nodeOffsets = new int[nodeCount];
+         final int[] nodeCounts = new int[nodeCount];
+         final int[] faces = new int[faceCount];
+         long position = HEADER_SIZE;
+
+         position = BoundingVolumeHierarchy.readFloats(channel, position, nodeBounds);
+         position = BoundingVolumeHierarchy.readInts(channel, position, nodeOffsets);
+         position = BoundingVolumeHierarchy.readInts(channel, position, nodeCounts);
+         BoundingVolumeHierarchy.readInts(channel, position, faces);
+
+         return new BoundingVolumeHierarchy(positions, indices, faces, nodeBounds, nodeOffsets, nodeCounts, depth);
+      }
+   }
+
+   private double traverse(final double ox, final double oy, final double oz, final double dx, final double dy, final double dz, final double maxDistance, final int[] faceOutput, final boolean anyHit) {
+      if (faceOutput != null) {
+         faceOutput[0] = -1;
+      }
+
+      if (this.faces.length == 0) {
+         return Double.POSITIVE_INFINITY;
+      }
+
+      final double ix = 1.0 / dx;
+      final double iy = 1.0 / dy;
+      final double iz = 1.0 / dz;
+
+      // push-two pop-one never holds more than one pending node per level
+      final int[] stack = new int[this.depth + 1];
+      int size = 0;
+      double nearest = maxDistance;
+      stack[size++] = 0;
+
+      while (size > 0) {
+         final int node = stack[--size];
+
+         if (this.slab(node, ox, oy, oz, ix, iy, iz, nearest) == Double.POSITIVE_INFINITY) {
+            continue;
+         }
+
+         final int count = this.nodeCounts[node];
+         final int offset = this.nodeOffsets[node];
+
+         if (count > 0) {
+            for (int i = offset; i < (offset + count); i++) {
+               final int face = this.faces[i];
+               final double distance = this.intersectFace(face, ox, oy, oz, dx, dy, dz);
+
+               if (distance < nearest) {
+                  nearest = distance;
+
+                  if (faceOutput != null) {
+                     faceOutput[0] = face;
+                  }
+
+                  if (anyHit) {
+                     return nearest;
+                  }
+               }
+            }
+         } else {
+            final double left = this.slab(offset, ox, oy, oz, ix, iy, iz, nearest);
+            final double right = this.slab(offset + 1, ox, oy, oz, ix, iy, iz, nearest);
+
+            // visit the nearer child first so that its hits can prune the farther one
+            if (left <= right) {
+               if (right != Double.POSITIVE_INFINITY) {
+                  stack[size++] = offset + 1;
+               }
+
+               if (left != Double.POSITIVE_INFINITY) {
+                  stack[size++] = offset;
+               }
+            } else {
+               if (left != Double.POSITIVE_INFINITY) {
+                  stack[size++] = offset;
+               }
+
+               stack[size++] = offset + 1;
+            }
+         }
+      }
+
+      return (nearest < maxDistance) ? nearest : Double.POSITIVE_INFINITY;
+   }
+
+   /**
+    * Returns the entry distance of the ray into the node's bounds or positive infinity if it misses them or enters at
+    * or beyond the given limit.
+    */
+   private double slab(final int node, final double ox, final double oy, final double oz, final double ix, final double iy, final double iz, final double limit) {
+      final int b = node * 6;
+      final double x0 = (this.nodeBounds[b] - ox) * ix;
+      final double x1 = (this.nodeBounds[b + 3] - ox) * ix;
+      final double y0 = (this.nodeBounds[b + 1] - oy) * iy;
+      final double y1 = (this.nodeBounds[b + 4] - oy) * iy;
+      final double z0 = (this.nodeBounds[b + 2] - oz) * iz;
+      final double z1 = (this.nodeBounds[b + 5] - oz) * iz;
+
+      final double near = Math.max(Math.max(Math.min(x0, x1), Math.min(y0, y1)), Math.max(Math.min(z0, z1), 0));
+      final double far = Math.min(Math.min(Math.max(x0, x1), Math.max(y0, y1)), Math.max(z0, z1));
+
+      return ((near <= far) && (near < limit)) ? near : Double.POSITIVE_INFINITY;
+   }
+
+   private double intersectFace(final int face, final double ox, final double oy, final double oz, final double dx, final double dy, final double dz) {
+      final int p0 = this.indices[face * 3] * 3;
+      final int p1 = this.indices[(face * 3) + 1] * 3;
+      final int p2 = this.indices[(face * 3) + 2] * 3;
+      final float[] p = this.positions;
+
+      return IntersectionUtils.rayTriangleDistance(ox, oy, oz, dx, dy, dz, p[p0], p[p0 + 1], p[p0 + 2], p[p1], p[p1 + 1], p[p1 + 2], p[p2], p[p2 + 1], p[p2 + 2]);
+   }
+
+   private void computeFaceBounds(final int face) {
+      final int b = face * 6;
+      this.faceBounds[b] = this.faceBounds[b + 1] = this.faceBounds[b + 2] = Float.MAX_VALUE;
+      this.faceBounds[b + 3] = this.faceBounds[b + 4] = this.faceBounds[b + 5] = -Float.MAX_VALUE;
+
+      for (int i = 0; i < 3; i++) {
+         final int p = this.indices[(face * 3) + i] * 3;
+
+         for (int axis = 0; axis < 3; axis++) {
+            this.faceBounds[b + axis] = Math.min(this.faceBounds[b + axis], this.positions[p + axis]);
+            this.faceBounds[b + 3 + axis] = Math.max(this.faceBounds[b + 3 + axis], this.positions[p + axis]);
+         }
+      }
+
+      for (int axis = 0; axis < 3; axis++) {
+         this.centroids[(face * 3) + axis] = (this.faceBounds[b + axis] + this.faceBounds[b + 3 + axis]) * 0.5f;
+      }
+   }
+
+   private interface RangeFunction<T> {
+      public T apply(final int start, final int end);
+   }
+
+   /**
+    * Applies the function to [start, end) either directly or, if parallel, to CHUNK_SIZE pieces as fork-join tasks;
+    * the results are returned in range order.
+    */
+   private <T> List<T> forChunks(final int start, final int end, final boolean parallel, final RangeFunction<T> function) {
+      final List<T> results = new ArrayList<>();
+
+      if (!parallel) {
+         results.add(function.apply(start, end));
+         return results;
+      }
+
+      final List<ForkJoinTask<T>> tasks = new ArrayList<>();
+
+      for (int i = start; i < end; i += CHUNK_SIZE) {
+         final int chunkStart = i;
+         final int chunkEnd = Math.min(end, i + CHUNK_SIZE);
+         tasks.add(ForkJoinTask.adapt(() -> function.apply(chunkStart, chunkEnd)));
+      }
+
+      ForkJoinTask.invokeAll(tasks);
+
+      for (final ForkJoinTask<T> task : tasks) {
+         results.add(task.join());
+      }
+
+      return results;
+   }
+
+   /**
+    * Per-axis SAH bins of a range of faces; counts and bounds are indexed by axis * BIN_COUNT + bin.
+    */
+   private static class Bins {
+      private final int[]   counts = new int[3 * BIN_COUNT];
+      private final float[] bounds = new float[3 * BIN_COUNT * 6];
+
+      private Bins() {
+         BoundingVolumeHierarchy.resetBounds(this.bounds, 3 * BIN_COUNT);
+      }
+
+      private void merge(final Bins other) {
+         for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+            BoundingVolumeHierarchy.grow(this.bounds, i * 6, other.bounds, i * 6);
+         }
+      }
+   }
+
+   private class BuildTask extends RecursiveTask<Integer> {
+      private static final long serialVersionUID = 1L;
+
+      private final int         node;
+      private final int         start;
+      private final int         end;
+
+      private BuildTask(final int node, final int start, final int end) {
+         this.node = node;
+         this.start = start;
+         this.end = end;
+      }
+
+      /**
+       * Builds the subtree and returns its depth.
+       */
+      @Override
+      protected Integer compute() {
+         final BoundingVolumeHierarchy bvh = BoundingVolumeHierarchy.this;
+         final int count = this.end - this.start;
+         final boolean parallel = count > PARALLEL_THRESHOLD;
+         final int b = this.node * 6;
+
+         // node bounds in [0, 6), centroid bounds in [6, 12)
+         final float[] bounds = new float[12];
+         BoundingVolumeHierarchy.resetBounds(bounds, 2);
+
+         for (final float[] partial : bvh.forChunks(this.start, this.end, parallel, this::computeBounds)) {
+            BoundingVolumeHierarchy.grow(bounds, 0, partial, 0);
+            BoundingVolumeHierarchy.grow(bounds, 6, partial, 6);
+         }
+
+         System.arraycopy(bounds, 0, bvh.nodeBounds, b, 6);
+
+         if (count <= MAX_LEAF_SIZE) {
+            return this.makeLeaf();
+         }
+
+         final Bins bins = new Bins();
+
+         for (final Bins partial : bvh.forChunks(this.start, this.end, parallel, (start, end) -> this.bin(start, end, bounds))) {
+            bins.merge(partial);
+         }
+
+         // left-to-right and right-to-left sweeps over the bins of each axis for the cheapest split
+         final double[] rightAreas = new double[BIN_COUNT];
+         final float[] sweep = new float[6];
+         double bestCost = Double.POSITIVE_INFINITY;
+         int bestAxis = -1;
+         int bestBin = -1;
+
+         for (int axis = 0; axis < 3; axis++) {
+            if (!((bounds[9 + axis] - bounds[6 + axis]) > 0)) {
+               continue;
+            }
+
+            final int first = axis * BIN_COUNT;
+            BoundingVolumeHierarchy.resetBounds(sweep, 1);
+
+            for (int bin = BIN_COUNT - 1; bin > 0; bin--) {
+               BoundingVolumeHierarchy.grow(sweep, 0, bins.bounds, (first + bin) * 6);
+               rightAreas[bin] = BoundingVolumeHierarchy.getArea(sweep, 0);
+            }
+
+            BoundingVolumeHierarchy.resetBounds(sweep, 1);
+            int leftCount = 0;
+
+            for (int bin = 0; bin < (BIN_COUNT - 1); bin++) {
+               BoundingVolumeHierarchy.grow(sweep, 0, bins.bounds, (first + bin) * 6);
+               leftCount += bins.counts[first + bin];
+               final int rightCount = count - leftCount;
+
+               if ((leftCount == 0) || (rightCount == 0)) {
+                  continue;
+               }
+
+               final double cost = (leftCount * BoundingVolumeHierarchy.getArea(sweep, 0)) + (rightCount * rightAreas[bin + 1]);
+
+               if (cost < bestCost) {
+                  bestCost = cost;
+                  bestAxis = axis;
+                  bestBin = bin;
+               }
+            }
+         }
+
+         final double area = BoundingVolumeHierarchy.getArea(bvh.nodeBounds, b);
+         final double splitCost = TRAVERSAL_COST + ((area > 0) ? (bestCost / area) : bestCost);
+         final int middle;
+
+         if (bestAxis < 0) {
+            // every centroid is in the same place; halve by count so oversized leaves still shrink
+            if (count <= MAX_FORCED_LEAF) {
+               return this.makeLeaf();
+            }
+
+            middle = this.start + (count / 2);
+         } else {
+            if ((splitCost >= count) && (count <= MAX_FORCED_LEAF)) {
+               return this.makeLeaf();
+            }
+
+            middle = this.partition(parallel, bestAxis, bestBin, bounds[6 + bestAxis], bounds[9 + bestAxis] - bounds[6 + bestAxis]);
+         }
+
+         final int child = bvh.nextNode.getAndAdd(2);
+         bvh.nodeOffsets[this.node] = child;
+         bvh.nodeCounts[this.node] = 0;
+
+         final BuildTask left = new BuildTask(child, this.start, middle);
+         final BuildTask right = new BuildTask(child + 1, middle, this.end);
+
+         if (count > FORK_THRESHOLD) {
+            ForkJoinTask.invokeAll(left, right);
+            return 1 + Math.max(left.join(), right.join());
+         }
+
+         return 1 + Math.max(left.compute(), right.compute());
+      }
+
+      private int makeLeaf() {
+         BoundingVolumeHierarchy.this.nodeOffsets[this.node] = this.start;
+         BoundingVolumeHierarchy.this.nodeCounts[this.node] = this.end - this.start;
+
+         return 1;
+      }
+
+      private float[] computeBounds(final int start, final int end) {
+         final BoundingVolumeHierarchy bvh = BoundingVolumeHierarchy.this;
+         final float[] bounds = new float[12];
+         BoundingVolumeHierarchy.resetBounds(bounds, 2);
+
+         for (int i = start; i < end; i++) {
+            final int face = bvh.faces[i];
+            BoundingVolumeHierarchy.grow(bounds, 0, bvh.faceBounds, face * 6);
+
+            for (int axis = 0; axis < 3; axis++) {
+               bounds[6 + axis] = Math.min(bounds[6 + axis], bvh.centroids[(face * 3) + axis]);
+               bounds[9 + axis] = Math.max(bounds[9 + axis], bvh.centroids[(face * 3) + axis]);
+            }
+         }
+
+         return bounds;
+      }
+
+      private Bins bin(final int start, final int end, final float[] bounds) {
+         final BoundingVolumeHierarchy bvh = BoundingVolumeHierarchy.this;
+         final Bins bins = new Bins();
+
+         for (int i = start; i < end; i++) {
+            final int face = bvh.faces[i];
+
+            for (int axis = 0; axis < 3; axis++) {
+               final float extent = bounds[9 + axis] - bounds[6 + axis];
+
+               if (extent > 0) {
+                  final int bin = (axis * BIN_COUNT) + BoundingVolumeHierarchy.getBin(bvh.centroids[(face * 3) + axis], bounds[6 + axis], extent);
+                  bins.counts[bin]++;
+                  BoundingVolumeHierarchy.grow(bins.bounds, bin * 6, bvh.faceBounds, face * 6);
+               }
+            }
+         }
+
+         return bins;
+      }
+
+      /**
+       * Moves the faces whose centroid falls in a bin at or below the split bin to the front of the range and returns
+       * the index of the first face of the back. Large ranges are partitioned stably through the scratch array in
+       * parallel chunks, small ones in place.
+       */
+      private int partition(final boolean parallel, final int axis, final int split, final float min, final float extent) {
+         final BoundingVolumeHierarchy bvh = BoundingVolumeHierarchy.this;
+
+         if (!parallel) {
+            int left = this.start;
+            int right = this.end - 1;
+
+            while (left <= right) {
+               final int face = bvh.faces[left];
+
+               if (BoundingVolumeHierarchy.getBin(bvh.centroids[(face * 3) + axis], min, extent) <= split) {
+                  left++;
+               } else {
+                  bvh.faces[left] = bvh.faces[right];
+                  bvh.faces[right--] = face;
+               }
+            }
+
+            return left;
+         }
+
+         final List<Integer> leftCounts = bvh.forChunks(this.start, this.end, true, (start, end) -> {
+            int leftCount = 0;
+
+            for (int i = start; i < end; i++) {
+               if (BoundingVolumeHierarchy.getBin(bvh.centroids[(bvh.faces[i] * 3) + axis], min, extent) <= split) {
+                  leftCount++;
+               }
+            }
+
+            return leftCount;
+         });
+
+         // exclusive prefix sums give every chunk its own output ranges on both sides of the split
+         final int[] leftStarts = new int[leftCounts.size()];
+         final int[] rightStarts = new int[leftCounts.size()];
+         int totalLeft = 0;
+
+         for (int i = 0; i < leftCounts.size(); i++) {
+            leftStarts[i] = this.start + totalLeft;
+            totalLeft += leftCounts.get(i);
+         }
+
+         int rightStart = this.start + totalLeft;
+
+         for (int i = 0; i < leftCounts.size(); i++) {
+            rightStarts[i] = rightStart;
+            rightStart += Math.min(CHUNK_SIZE, this.end - (this.start + (i * CHUNK_SIZE))) - leftCounts.get(i);
+         }
+
+         bvh.forChunks(this.start, this.end, true, (start, end) -> {
+            final int chunk = (start - this.start) / CHUNK_SIZE;
+            int left = leftStarts[chunk];
+            int right = rightStarts[chunk];
+
+            for (int i = start; i < end; i++) {
+               final int face = bvh.faces[i];
+
+               if (BoundingVolumeHierarchy.getBin(bvh.centroids[(face * 3) + axis], min, extent) <= split) {
+                  bvh.scratch[left++] = face;
+               } else {
+                  bvh.scratch[right++] = face;
+               }
+            }
+
+            return null;
+         });
+
+         bvh.forChunks(this.start, this.end, true, (start, end) -> {
+            System.arraycopy(bvh.scratch, start, bvh.faces, start, end - start);
+            return null;
+         });
+
+         return this.start + totalLeft;
+      }
+   }
+
+   private static int getBin(final float centroid, final float min, final float extent) {
+      return Math.min(BIN_COUNT - 1, (int) (((centroid - min) / extent) * BIN_COUNT));
+   }
+
+   private static void resetBounds(final float[] bounds, final int count) {
+      for (int i = 0; i < count; i++) {
+         Arrays.fill(bounds, i * 6, (i * 6) + 3, Float.MAX_VALUE);
+         Arrays.fill(bounds, (i * 6) + 3, (i * 6) + 6, -Float.MAX_VALUE);
+      }
+   }
+
+   private static void grow(final float[] bounds, final int offset, final float[] other, final int otherOffset) {
+      for (int axis = 0; axis < 3; axis++) {
+         bounds[offset + axis] = Math.min(bounds[offset + axis], other[otherOffset + axis]);
+         bounds[offset + 3 + axis] = Math.max(bounds[offset + 3 + axis], other[otherOffset + 3 + axis]);
+      }
+   }
+
+   private static double getArea(final float[] bounds, final int offset) {
+      final double x = bounds[offset + 3] - bounds[offset];
+      final double y = bounds[offset + 4] - bounds[offset + 1];
+      final double z = bounds[offset + 5] - bounds[offset + 2];
+
+      if ((x < 0) || (y < 0) || (z < 0)) {
+         return 0;
+      }
+
+      return 2.0 * ((x * y) + (y * z) + (z * x));
+   }
+
+   /**
+    * FNV-1a style hash over the triangle indices so a cache written for one face order is not used for another.
+    */
+   private static long hashIndices(final int[] indices) {
+      long hash = 0xcbf29ce484222325L;
+
+      for (final int index : indices) {
+         hash ^= index;
+         hash *= 0x100000001b3L;
+      }
+
+      return hash;
+   }
+
+   /**
+    * Writes out the buffer if it has less than the given number of bytes remaining.
+    */
+   private static void drain(final FileChannel channel, final ByteBuffer buffer, final int needed) throws IOException {
+      if (buffer.remaining() < needed) {
+         buffer.flip();
+
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+
+         buffer.clear();
+      }
+   }
+
+   private static long readFloats(final FileChannel channel, final long position, final float[] output) throws IOException {
+      long current = position;
+
+      for (int i = 0; i < output.length;) {
+         final int count = (int) Math.min(output.length - i, MAP_SIZE / 4);
+         channel.map(MapMode.READ_ONLY, current, count * 4L).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(output, i, count);
+         current += count * 4L;
+         i += count;
+      }
+
+      return current;
+   }
+
+   private static long readInts(final FileChannel channel, final long position, final int[] output) throws IOException {
+      long current = position;
+
+      for (int i = 0; i < output.length;) {
+         final int count = (int) Math.min(output.length - i, MAP_SIZE / 4);
+         channel.map(MapMode.READ_ONLY, current, count * 4L).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(output, i, count);
+         current += count * 4L;
+         i += count;
+      }
+
+      return current;
+   }
+}
@@ -0,0 +1,165 @@
+package com.stephenwranger.graphics.bounds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.math.intersection.IntersectionUtils;
+
+public class BoundingVolumeHierarchyTest {
+   private static final int FACE_COUNT = 5000;
+   private static final int RAY_COUNT  = 2000;
+
+   @Test
+   public void testMatchesBruteForce() {
+      final Random random = new Random(1234);
+      final float[] positions = BoundingVolumeHierarchyTest.createSoup(random, FACE_COUNT);
+      final int[] indices = BoundingVolumeHierarchyTest.createIndices(FACE_COUNT);
+      final BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(positions, indices);
+
+      assertTrue("depth " + bvh.getDepth(), bvh.getDepth() < 40);
+      assertTrue(BoundingVolumeHierarchyTest.assertRays(random, bvh, positions, RAY_COUNT) > (RAY_COUNT / 10));
+   }
+
+   @Test
+   public void testParallelBuild() {
+      // large enough for parallel binning and partitioning at the top levels
+      final int faceCount = 200000;
+      final Random random = new Random(99);
+      final float[] positions = BoundingVolumeHierarchyTest.createSoup(random, faceCount);
+      final int[] indices = BoundingVolumeHierarchyTest.createIndices(faceCount);
+      final BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(positions, indices, new ForkJoinPool(4));
+
+      assertEquals(faceCount, bvh.getFaceCount());
+      assertTrue(BoundingVolumeHierarchyTest.assertRays(random, bvh, positions, 100) > 10);
+   }
+
+   @Test
+   public void testCacheRoundTrip() throws IOException {
+      final Random random = new Random(7);
+      final float[] positions = BoundingVolumeHierarchyTest.createSoup(random, FACE_COUNT);
+      final int[] indices = BoundingVolumeHierarchyTest.createIndices(FACE_COUNT);
+      final BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(positions, indices);
+      final File cache = File.createTempFile("hierarchy", ".bvh");
+      cache.deleteOnExit();
+
+      bvh.write(cache, 1234, 5678);
+
+      final BoundingVolumeHierarchy read = BoundingVolumeHierarchy.read(cache, positions, indices, 1234, 5678);
+      assertNotNull(read);
+      assertEquals(bvh.getNodeCount(), read.getNodeCount());
+      assertEquals(bvh.getDepth(), read.getDepth());
+      assertEquals(bvh.getBoundingBox(), read.getBoundingBox());
+      assertTrue(BoundingVolumeHierarchyTest.assertRays(random, read, positions, 200) > 20);
+
+      // a changed source or face order invalidates the cache
+      assertNull(BoundingVolumeHierarchy.read(cache, positions, indices, 1235, 5678));
+      assertNull(BoundingVolumeHierarchy.read(cache, positions, indices, 1234, 5679));
+
+      final int[] reordered = indices.clone();
+      reordered[0] = indices[3];
+      reordered[3] = indices[0];
+      assertNull(BoundingVolumeHierarchy.read(cache, positions, reordered, 1234, 5678));
+      assertNull(BoundingVolumeHierarchy.read(new File(cache.getPath() + ".missing"), positions, indices, 1234, 5678));
+   }
+
+   @Test
+   public void testCoincidentCentroids() {
+      // identical faces cannot be separated by SAH and must still produce bounded leaves
+      final float[] positions = new float[] { 0, 0, 0, 1, 0, 0, 0, 1, 0 };
+      final int[] indices = new int[300];
+
+      for (int i = 0; i < indices.length; i++) {
+         indices[i] = i % 3;
+      }
+
+      final BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(positions, indices);
+
+      assertEquals(1.0, bvh.intersect(0.25, 0.25, -1, 0, 0, 1, Double.POSITIVE_INFINITY, null), 0.0);
+      assertTrue(bvh.getNodeCount() > 1);
+   }
+
+   /**
+    * Small triangles scattered through a unit cube, three unshared vertices per face.
+    */
+   private static float[] createSoup(final Random random, final int faceCount) {
+      final float[] positions = new float[faceCount * 9];
+
+      for (int i = 0; i < faceCount; i++) {
+         final float cx = random.nextFloat();
+         final float cy = random.nextFloat();
+         final float cz = random.nextFloat();
+
+         for (int j = 0; j < 3; j++) {
+            positions[(i * 9) + (j * 3)] = cx + ((random.nextFloat() - 0.5f) * 0.05f);
+            positions[(i * 9) + (j * 3) + 1] = cy + ((random.nextFloat() - 0.5f) * 0.05f);
+            positions[(i * 9) + (j * 3) + 2] = cz + ((random.nextFloat() - 0.5f) * 0.05f);
+         }
+      }
+
+      return positions;
+   }
+
+   private static int[] createIndices(final int faceCount) {
+      final int[] indices = new int[faceCount * 3];
+
+      for (int i = 0; i < indices.length; i++) {
+         indices[i] = i;
+      }
+
+      return indices;
+   }
+
+   /**
+    * Compares nearest and any-hit queries of random rays through the unit cube against testing every face and returns
+    * the number of rays that hit something.
+    */
+   private static int assertRays(final Random random, final BoundingVolumeHierarchy bvh, final float[] positions, final int rayCount) {
+      final int faceCount = positions.length / 9;
+      final int[] face = new int[1];
+      int hits = 0;
+
+      for (int r = 0; r < rayCount; r++) {
+         final double ox = (random.nextDouble() * 3) - 1;
+         final double oy = (random.nextDouble() * 3) - 1;
+         final double oz = -1;
+         final double dx = random.nextDouble() - ox;
+         final double dy = random.nextDouble() - oy;
+         final double dz = random.nextDouble() - oz;
+
+         double expected = Double.POSITIVE_INFINITY;
+
+         for (int i = 0; i < faceCount; i++) {
+            expected = Math.min(expected, BoundingVolumeHierarchyTest.intersect(positions, i, ox, oy, oz, dx, dy, dz));
+         }
+
+         final double actual = bvh.intersect(ox, oy, oz, dx, dy, dz, Double.POSITIVE_INFINITY, face);
+         assertEquals(expected, actual, 0.0);
+         assertEquals(expected != Double.POSITIVE_INFINITY, bvh.intersectsAny(ox, oy, oz, dx, dy, dz, Double.POSITIVE_INFINITY));
+
+         if (actual != Double.POSITIVE_INFINITY) {
+            hits++;
+            assertEquals(actual, BoundingVolumeHierarchyTest.intersect(positions, face[0], ox, oy, oz, dx, dy, dz), 0.0);
+            assertFalse(bvh.intersectsAny(ox, oy, oz, dx, dy, dz, actual));
+         } else {
+            assertEquals(-1, face[0]);
+         }
+      }
+
+      return hits;
+   }
+
+   private static double intersect(final float[] positions, final int face, final double ox, final double oy, final double oz, final double dx, final double dy, final double dz) {
+      final int p = face * 9;
+      return IntersectionUtils.rayTriangleDistance(ox, oy, oz, dx, dy, dz, positions[p], positions[p + 1], positions[p + 2], positions[p + 3], positions[p + 4], positions[p + 5], positions[p + 6], positions[p + 7], positions[p + 8]);
+   }
+}
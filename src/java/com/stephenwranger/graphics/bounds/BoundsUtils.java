@@ -3,6 +3,7 @@ package com.stephenwranger.graphics.bounds;
 import java.util.List;
 
 import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Tuple3dArray;
 import com.stephenwranger.graphics.math.intersection.Plane;
 import com.stephenwranger.graphics.renderables.RenderablePhysics;
 import com.stephenwranger.graphics.utils.TupleMath;
@@ -12,64 +13,18 @@ public class BoundsUtils {
       IN, OUT, INTERSECT
    }
 
+   private static final ThreadLocal<FrustumScratch> FRUSTUM_SCRATCH = ThreadLocal.withInitial(FrustumScratch::new);
+
+   private static class FrustumScratch {
+      private final FrustumCuller culler  = new FrustumCuller();
+      private final double[]      extents = new double[6];
+      private final Tuple3d       zero    = new Tuple3d();
+   }
+
    private BoundsUtils() {
       // statics only
    }
 
-   //   /**
-   //    * Checks whether the given {@link BoundingVolume} is inside, outside, or intersects with the given frustum planes.<br/><br/>
-   //    *
-   //    * C++ Optimized algorithm from:
-   //    * http://www.gamedev.net/page/resources/_/technical/general-programming/useless-snippet-2-aabbfrustum-test-r3342
-   //    *
-   //    * @param frustumPlanes
-   //    * @param bv
-   //    * @return
-   //    */
-   //   public static FrustumResult testFrustum(final Plane[] frustumPlanes, final BoundingVolume bv) {
-   //      final Vector3d[] absNormals = new Vector3d[6];
-   //
-   //      for(int i = 0; i < 6; i++) {
-   //         absNormals[i] = frustumPlanes[i].getNormal();
-   //         absNormals[i].x = Math.abs(absNormals[i].x);
-   //         absNormals[i].y = Math.abs(absNormals[i].y);
-   //         absNormals[i].z = Math.abs(absNormals[i].z);
-   //      }
-   //
-   //      final Tuple3d aabbCenter = bv.getCenter();
-   //      final Tuple3d aabbSize = bv.getDimensions();
-   //
-   //      FrustumResult result = FrustumResult.IN; // Assume that the aabb will be inside the frustum
-   //
-   //      for(int iPlane = 0;iPlane < 6;++iPlane) {
-   //         final Vector3d frustumPlaneNormal = frustumPlanes[iPlane].getNormal();
-   //         final double distance = frustumPlanes[iPlane].getDistance();
-   //
-   //         final double d = aabbCenter.x * frustumPlaneNormal.x +
-   //              aabbCenter.y * frustumPlaneNormal.y +
-   //              aabbCenter.z * frustumPlaneNormal.z;
-   //
-   //         final double r = aabbSize.x * absNormals[iPlane].x +
-   //              aabbSize.y * absNormals[iPlane].y +
-   //              aabbSize.z * absNormals[iPlane].z;
-   //
-   //         final double d_p_r = d + r + distance;
-   //
-   //         if(IntersectionUtils.isLessThan(d_p_r, 0.0)) {
-   //            result = FrustumResult.OUT;
-   //            break;
-   //         }
-   //
-   //         final double d_m_r = d - r + distance;
-   //
-   //         if(IntersectionUtils.isLessThan(d_m_r, 0.0)) {
-   //            result = FrustumResult.INTERSECT;
-   //         }
-   //      }
-   //
-   //      return result;
-   //   }
-
    /**
     * Returns a {@link BoundingBox} that surrounds all the vertices in the given collection or null if the given
     * collection is empty.
@@ -99,6 +54,22 @@ public class BoundsUtils {
       return new BoundingBox(min, max);
    }
 
+   /**
+    * Returns a {@link BoundingBox} that surrounds all the vertices in the given array or null if the given array is
+    * empty.
+    *
+    * @param points
+    *           the points to encapsulate
+    * @return the surrounding BoundingBox or null
+    */
+   public static BoundingVolume getBoundingBox(final Tuple3dArray points) {
+      if (points.isEmpty()) {
+         return null;
+      }
+
+      return new BoundingBox(points.getMin(new Tuple3d()), points.getMax(new Tuple3d()));
+   }
+
    public static boolean intersect(final RenderablePhysics obj0, final RenderablePhysics obj1) {
       return BoundsUtils.intersectVolumes(obj0.getBoundingVolume(), obj1.getBoundingVolume());
    }
@@ -321,48 +292,22 @@ public class BoundsUtils {
    }
 
    /**
-    * http://www.flipcode.com/archives/Frustum_Culling.shtml
+    * Classifies the given box against the given frustum planes with a center/extent test; see {@link FrustumCuller}.
+    * The planes are copied into a per-thread culler on every call, which is O(planes) like the test itself; to test
+    * many boxes against the same frustum, call {@link FrustumCuller#setPlanes(Plane[], Tuple3d)} once per frame instead.
     *
     * @param frustumPlanes
     * @param bounds
     * @return
     */
    public static FrustumResult testAABBInFrustum(final Plane[] frustumPlanes, final BoundingBox bounds) {
-      final Tuple3d[] vCorner = bounds.getCorners();
-      int iTotalIn = 0;
-
-      // test all 8 corners against the 6 sides
-      // if all points are behind 1 specific plane, we are out
-      // if we are in with all points, then we are fully in
-      for (int p = 0; p < 6; ++p) {
-         int iInCount = 8;
-         int iPtIn = 1;
-
-         for (int i = 0; i < 8; ++i) {
-
-            // test this point against the planes
-            if (!frustumPlanes[p].isInside(vCorner[i])) {
-               iPtIn = 0;
-               --iInCount;
-            }
-         }
+      final FrustumScratch scratch = BoundsUtils.FRUSTUM_SCRATCH.get();
 
-         // were all the points outside of plane p?
-         if (iInCount == 0) {
-            return FrustumResult.OUT;
-         }
-
-         // check if they were all on the right side of the plane
-         iTotalIn += iPtIn;
-      }
-
-      // so if iTotalIn is 6, then all are inside the view
-      if (iTotalIn == 6) {
-         return FrustumResult.IN;
-      }
+      // the planes may have been refilled in place since the last call, so they are never cached
+      scratch.culler.setPlanes(frustumPlanes, scratch.zero);
+      bounds.getExtents(scratch.extents, 0);
 
-      // we must be partly in then otherwise
-      return FrustumResult.INTERSECT;
+      return FrustumCuller.toResult(scratch.culler.test(scratch.extents, 0, scratch.culler.getAllPlanesMask(), 0));
    }
 
    public static FrustumResult testFrustum(final Plane[] frustumPlanes, final BoundingVolume bounds) {
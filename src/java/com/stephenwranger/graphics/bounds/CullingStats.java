@@ -0,0 +1,32 @@
+package com.stephenwranger.graphics.bounds;
+
+/**
+ * Per-frame view frustum culling counters.
+ *
+ * @author rangers
+ *
+ */
+public class CullingStats {
+   public static final CullingStats NONE = new CullingStats(0, 0, 0, 0);
+
+   /** number of bounding boxes (tree nodes and objects) tested */
+   public final long                tested;
+   /** number of single plane evaluations */
+   public final long                planeTests;
+   /** number of objects skipped */
+   public final int                 culled;
+   /** number of objects drawn */
+   public final int                 accepted;
+
+   public CullingStats(final long tested, final long planeTests, final int culled, final int accepted) {
+      this.tested = tested;
+      this.planeTests = planeTests;
+      this.culled = culled;
+      this.accepted = accepted;
+   }
+
+   @Override
+   public String toString() {
+      return "tested: " + this.tested + ", plane tests: " + this.planeTests + ", culled: " + this.culled + ", accepted: " + this.accepted;
+   }
+}
@@ -0,0 +1,615 @@
+package com.stephenwranger.graphics.bounds;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.stephenwranger.graphics.bounds.BoundingVolume.Axis;
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.intersection.Plane;
+
+/**
+ * Dynamic axis-aligned bounding box tree for objects that are added, removed and moved at runtime. Each object is a
+ * leaf holding a "fat" box, its bounds grown by a fraction of their size, so that small movements do not touch the
+ * tree at all; once an object leaves its fat box the leaf is removed and reinserted. Leaves are inserted next to the
+ * sibling with the lowest surface area cost and the tree is kept height balanced with AVL style rotations.<br/>
+ * <br/>
+ * Nodes are stored in flat arrays and addressed by index; the index of a leaf is the proxy id returned by
+ * {@link #insert(Object, BoundingVolume)}. Queries test the fat boxes, so they return every object whose bounds match
+ * plus, possibly, a few close neighbours. The tree is not thread safe.
+ *
+ * @author rangers
+ *
+ * @param <T>
+ *           the type of the indexed objects
+ */
+public class DynamicAabbTree<T> {
+   public static final int     NULL_NODE        = -1;
+
+   /** Fraction of its size each leaf box is grown by on every side. */
+   private static final double FAT_FRACTION     = 0.1;
+   private static final int    INITIAL_CAPACITY = 16;
+
+   /** min xyz, max xyz per node */
+   private double[]            bounds;
+   /** two per node; both NULL_NODE for leaves */
+   private int[]               children;
+   /** parent of allocated nodes, next free node of free ones */
+   private int[]               parents;
+   /** zero for leaves, -1 for free nodes */
+   private int[]               heights;
+   private Object[]            items;
+
+   private int                 root             = NULL_NODE;
+   private int                 freeList         = NULL_NODE;
+   private int                 leafCount        = 0;
+   /** plane that last culled each node, tested first next time */
+   private int[]               cullPlanes;
+   private int[]               stack            = new int[64];
+   private int[]               masks            = new int[64];
+   /** used by collect, which runs while stack is in use */
+   private int[]               collectStack     = new int[64];
+   private final double[]      extents          = new double[6];
+
+   public DynamicAabbTree() {
+      this.bounds = new double[INITIAL_CAPACITY * 6];
+      this.children = new int[INITIAL_CAPACITY * 2];
+      this.parents = new int[INITIAL_CAPACITY];
+      this.heights = new int[INITIAL_CAPACITY];
+      this.items = new Object[INITIAL_CAPACITY];
+      this.cullPlanes = new int[INITIAL_CAPACITY];
+      this.addToFreeList(0, INITIAL_CAPACITY);
+   }
+
+   /**
+    * Adds the given object with the given bounds and returns its proxy id.
+    *
+    * @param item
+    * @param volume
+    * @return
+    */
+   public int insert(final T item, final BoundingVolume volume) {
+      final int leaf = this.allocate();
+      DynamicAabbTree.getExtents(volume, this.extents);
+      this.setFatBounds(leaf, this.extents);
+      this.items[leaf] = item;
+      this.insertLeaf(leaf);
+      this.leafCount++;
+
+      return leaf;
+   }
+
+   /**
+    * Removes the object with the given proxy id.
+    *
+    * @param proxy
+    */
+   public void remove(final int proxy) {
+      this.checkLeaf(proxy);
+      this.removeLeaf(proxy);
+      this.free(proxy);
+      this.leafCount--;
+   }
+
+   /**
+    * Moves the object with the given proxy id to its new bounds. The tree is only restructured if the new bounds are
+    * no longer contained in the leaf's fat box.
+    *
+    * @param proxy
+    * @param volume
+    * @return true if the leaf was reinserted
+    */
+   public boolean update(final int proxy, final BoundingVolume volume) {
+      this.checkLeaf(proxy);
+      DynamicAabbTree.getExtents(volume, this.extents);
+
+      final int b = proxy * 6;
+
+      if ((this.bounds[b] <= this.extents[0]) && (this.bounds[b + 1] <= this.extents[1]) && (this.bounds[b + 2] <= this.extents[2]) && (this.bounds[b + 3] >= this.extents[3]) && (this.bounds[b + 4] >= this.extents[4]) && (this.bounds[b + 5] >= this.extents[5])) {
+         return false;
+      }
+
+      this.removeLeaf(proxy);
+      this.setFatBounds(proxy, this.extents);
+      this.insertLeaf(proxy);
+
+      return true;
+   }
+
+   @SuppressWarnings("unchecked")
+   public T getItem(final int proxy) {
+      this.checkLeaf(proxy);
+      return (T) this.items[proxy];
+   }
+
+   /**
+    * Returns the fat box stored for the given proxy id.
+    *
+    * @param proxy
+    * @return
+    */
+   public BoundingBox getFatBounds(final int proxy) {
+      this.checkLeaf(proxy);
+      final int b = proxy * 6;
+      return new BoundingBox(this.bounds[b], this.bounds[b + 1], this.bounds[b + 2], this.bounds[b + 3], this.bounds[b + 4], this.bounds[b + 5]);
+   }
+
+   public int size() {
+      return this.leafCount;
+   }
+
+   /**
+    * Returns the number of edges on the longest path from the root to a leaf or -1 if the tree is empty.
+    *
+    * @return
+    */
+   public int getHeight() {
+      return (this.root == NULL_NODE) ? -1 : this.heights[this.root];
+   }
+
+   public void clear() {
+      final int capacity = this.heights.length;
+      Arrays.fill(this.items, null);
+      this.root = NULL_NODE;
+      this.freeList = NULL_NODE;
+      this.leafCount = 0;
+      this.addToFreeList(0, capacity);
+   }
+
+   /**
+    * Adds every object whose fat box overlaps the given box to the results.
+    *
+    * @param box
+    * @param results
+    */
+   public void queryBox(final BoundingBox box, final Collection<? super T> results) {
+      final Tuple3d min = box.getMin();
+      final Tuple3d max = box.getMax();
+      int size = this.push(0, this.root, 0);
+
+      while (size > 0) {
+         final int node = this.stack[--size];
+         final int b = node * 6;
+
+         if ((this.bounds[b] > max.x) || (this.bounds[b + 1] > max.y) || (this.bounds[b + 2] > max.z) || (this.bounds[b + 3] < min.x) || (this.bounds[b + 4] < min.y) || (this.bounds[b + 5] < min.z)) {
+            continue;
+         }
+
+         size = this.visit(node, size, results);
+      }
+   }
+
+   /**
+    * Adds every object whose fat box overlaps the given sphere to the results.
+    *
+    * @param center
+    * @param radius
+    * @param results
+    */
+   public void querySphere(final Tuple3d center, final double radius, final Collection<? super T> results) {
+      final double radiusSquared = radius * radius;
+      int size = this.push(0, this.root, 0);
+
+      while (size > 0) {
+         final int node = this.stack[--size];
+         final int b = node * 6;
+         final double dx = Math.max(0, Math.max(this.bounds[b] - center.x, center.x - this.bounds[b + 3]));
+         final double dy = Math.max(0, Math.max(this.bounds[b + 1] - center.y, center.y - this.bounds[b + 4]));
+         final double dz = Math.max(0, Math.max(this.bounds[b + 2] - center.z, center.z - this.bounds[b + 5]));
+
+         if (((dx * dx) + (dy * dy) + (dz * dz)) > radiusSquared) {
+            continue;
+         }
+
+         size = this.visit(node, size, results);
+      }
+   }
+
+   /**
+    * Adds every object whose fat box is hit by the given ray closer than the given distance to the results.
+    *
+    * @param origin
+    * @param direction
+    * @param maxDistance
+    *           in units of the direction's length
+    * @param results
+    */
+   public void queryRay(final Tuple3d origin, final Tuple3d direction, final double maxDistance, final Collection<? super T> results) {
+      final double ix = 1.0 / direction.x;
+      final double iy = 1.0 / direction.y;
+      final double iz = 1.0 / direction.z;
+      int size = this.push(0, this.root, 0);
+
+      while (size > 0) {
+         final int node = this.stack[--size];
+         final int b = node * 6;
+         final double x0 = (this.bounds[b] - origin.x) * ix;
+         final double x1 = (this.bounds[b + 3] - origin.x) * ix;
+         final double y0 = (this.bounds[b + 1] - origin.y) * iy;
+         final double y1 = (this.bounds[b + 4] - origin.y) * iy;
+         final double z0 = (this.bounds[b + 2] - origin.z) * iz;
+         final double z1 = (this.bounds[b + 5] - origin.z) * iz;
+         final double near = Math.max(Math.max(Math.min(x0, x1), Math.min(y0, y1)), Math.max(Math.min(z0, z1), 0));
+         final double far = Math.min(Math.min(Math.max(x0, x1), Math.max(y0, y1)), Math.max(z0, z1));
+
+         if ((near > far) || (near >= maxDistance)) {
+            continue;
+         }
+
+         size = this.visit(node, size, results);
+      }
+   }
+
+   /**
+    * Adds every object whose fat box is inside or intersects all of the given planes to the results.
+    *
+    * @param planes
+    *           any number of planes with normals pointing inwards
+    * @param offset
+    *           the origin of the space the planes are defined in; subtracted from the world space boxes before testing
+    * @param results
+    */
+   public void queryFrustum(final Plane[] planes, final Tuple3d offset, final Collection<? super T> results) {
+      final FrustumCuller culler = new FrustumCuller();
+      culler.setPlanes(planes, offset);
+      this.queryFrustum(culler, results);
+   }
+
+   /**
+    * Adds every object whose fat box is inside or intersects all planes of the given culler to the results. Children
+    * are only tested against the planes their parent intersects and subtrees that are completely inside are added
+    * without further tests. The plane that rejected a node is remembered and tested first for that node next time.
+    *
+    * @param culler
+    * @param results
+    */
+   public void queryFrustum(final FrustumCuller culler, final Collection<? super T> results) {
+      int size = this.push(0, this.root, culler.getAllPlanesMask());
+
+      while (size > 0) {
+         final int node = this.stack[--size];
+         final int result = culler.test(this.bounds, node * 6, this.masks[size], this.cullPlanes[node]);
+
+         if (result == FrustumCuller.OUTSIDE) {
+            this.cullPlanes[node] = culler.getRejectingPlane();
+         } else if (result == 0) {
+            this.collect(node, results);
+         } else if (this.heights[node] == 0) {
+            this.add(node, results);
+         } else {
+            size = this.push(this.push(size, this.children[node * 2], result), this.children[(node * 2) + 1], result);
+         }
+      }
+   }
+
+   /**
+    * Adds the item of the given node if it is a leaf or pushes its children; returns the new stack size.
+    */
+   private int visit(final int node, final int size, final Collection<? super T> results) {
+      if (this.heights[node] == 0) {
+         this.add(node, results);
+         return size;
+      }
+
+      return this.push(this.push(size, this.children[node * 2], 0), this.children[(node * 2) + 1], 0);
+   }
+
+   @SuppressWarnings("unchecked")
+   private void add(final int leaf, final Collection<? super T> results) {
+      results.add((T) this.items[leaf]);
+   }
+
+   /**
+    * Adds the items of all leaves below the given node without further tests.
+    */
+   private void collect(final int node, final Collection<? super T> results) {
+      if (this.collectStack.length < (this.heights[node] + 2)) {
+         this.collectStack = new int[(this.heights[node] + 2) * 2];
+      }
+
+      final int[] local = this.collectStack;
+      int size = 0;
+      local[size++] = node;
+
+      while (size > 0) {
+         final int current = local[--size];
+
+         if (this.heights[current] == 0) {
+            this.add(current, results);
+         } else {
+            local[size++] = this.children[current * 2];
+            local[size++] = this.children[(current * 2) + 1];
+         }
+      }
+   }
+
+   /**
+    * Pushes the given node and its plane mask onto the traversal stack; returns the new stack size.
+    */
+   private int push(final int size, final int node, final int mask) {
+      if (node == NULL_NODE) {
+         return size;
+      }
+
+      if (size == this.stack.length) {
+         this.stack = Arrays.copyOf(this.stack, size * 2);
+         this.masks = Arrays.copyOf(this.masks, size * 2);
+      }
+
+      this.stack[size] = node;
+      this.masks[size] = mask;
+
+      return size + 1;
+   }
+
+   private void insertLeaf(final int leaf) {
+      if (this.root == NULL_NODE) {
+         this.root = leaf;
+         this.parents[leaf] = NULL_NODE;
+         return;
+      }
+
+      // descend towards the sibling that adds the least surface area to the tree
+      int index = this.root;
+
+      while (this.heights[index] > 0) {
+         final int child1 = this.children[index * 2];
+         final int child2 = this.children[(index * 2) + 1];
+         final double area = this.surfaceArea(index);
+         final double combinedArea = this.unionArea(index, leaf);
+
+         // cost of making a new parent for this node and the leaf
+         final double cost = 2.0 * combinedArea;
+         // minimum cost of pushing the leaf further down the tree
+         final double inheritanceCost = 2.0 * (combinedArea - area);
+         final double cost1 = this.descendCost(child1, leaf) + inheritanceCost;
+         final double cost2 = this.descendCost(child2, leaf) + inheritanceCost;
+
+         if ((cost < cost1) && (cost < cost2)) {
+            break;
+         }
+
+         index = (cost1 < cost2) ? child1 : child2;
+      }
+
+      final int sibling = index;
+      final int oldParent = this.parents[sibling];
+      final int newParent = this.allocate();
+      this.parents[newParent] = oldParent;
+      this.heights[newParent] = this.heights[sibling] + 1;
+      this.children[newParent * 2] = sibling;
+      this.children[(newParent * 2) + 1] = leaf;
+      this.parents[sibling] = newParent;
+      this.parents[leaf] = newParent;
+      this.union(newParent, sibling, leaf);
+
+      if (oldParent == NULL_NODE) {
+         this.root = newParent;
+      } else {
+         this.replaceChild(oldParent, sibling, newParent);
+      }
+
+      this.refit(this.parents[leaf]);
+   }
+
+   private void removeLeaf(final int leaf) {
+      if (leaf == this.root) {
+         this.root = NULL_NODE;
+         return;
+      }
+
+      final int parent = this.parents[leaf];
+      final int grandParent = this.parents[parent];
+      final int sibling = (this.children[parent * 2] == leaf) ? this.children[(parent * 2) + 1] : this.children[parent * 2];
+
+      this.parents[sibling] = grandParent;
+      this.free(parent);
+
+      if (grandParent == NULL_NODE) {
+         this.root = sibling;
+      } else {
+         this.replaceChild(grandParent, parent, sibling);
+         this.refit(grandParent);
+      }
+   }
+
+   /**
+    * Rebalances and recomputes the bounds and heights of the given node and its ancestors.
+    */
+   private void refit(final int start) {
+      int index = start;
+
+      while (index != NULL_NODE) {
+         index = this.balance(index);
+
+         final int child1 = this.children[index * 2];
+         final int child2 = this.children[(index * 2) + 1];
+         this.heights[index] = 1 + Math.max(this.heights[child1], this.heights[child2]);
+         this.union(index, child1, child2);
+
+         index = this.parents[index];
+      }
+   }
+
+   /**
+    * Rotates the taller grandchild subtree of the given node up if the node's children differ in height by more than
+    * one; returns the node now at the given node's position.
+    */
+   private int balance(final int a) {
+      if (this.heights[a] < 2) {
+         return a;
+      }
+
+      final int b = this.children[a * 2];
+      final int c = this.children[(a * 2) + 1];
+      final int balance = this.heights[c] - this.heights[b];
+
+      if (balance > 1) {
+         this.rotateUp(a, c, b, 1);
+         return c;
+      } else if (balance < -1) {
+         this.rotateUp(a, b, c, 0);
+         return b;
+      }
+
+      return a;
+   }
+
+   /**
+    * Makes the given child of a the parent of a, moving the taller of the child's children up with it and handing the
+    * shorter one to a in the child's former slot.
+    *
+    * @param a
+    *           the unbalanced node
+    * @param up
+    *           the taller child of a
+    * @param other
+    *           the other child of a
+    * @param slot
+    *           the child slot (0 or 1) of a that holds up
+    */
+   private void rotateUp(final int a, final int up, final int other, final int slot) {
+      final int f = this.children[up * 2];
+      final int g = this.children[(up * 2) + 1];
+
+      this.children[up * 2] = a;
+      this.parents[up] = this.parents[a];
+      this.parents[a] = up;
+
+      if (this.parents[up] == NULL_NODE) {
+         this.root = up;
+      } else {
+         this.replaceChild(this.parents[up], a, up);
+      }
+
+      final int taller = (this.heights[f] > this.heights[g]) ? f : g;
+      final int shorter = (taller == f) ? g : f;
+
+      this.children[(up * 2) + 1] = taller;
+      this.children[(a * 2) + slot] = shorter;
+      this.parents[shorter] = a;
+
+      this.union(a, other, shorter);
+      this.heights[a] = 1 + Math.max(this.heights[other], this.heights[shorter]);
+      this.union(up, a, taller);
+      this.heights[up] = 1 + Math.max(this.heights[a], this.heights[taller]);
+   }
+
+   private void replaceChild(final int parent, final int oldChild, final int newChild) {
+      if (this.children[parent * 2] == oldChild) {
+         this.children[parent * 2] = newChild;
+      } else {
+         this.children[(parent * 2) + 1] = newChild;
+      }
+   }
+
+   private double descendCost(final int child, final int leaf) {
+      final double combined = this.unionArea(child, leaf);
+      return (this.heights[child] == 0) ? combined : combined - this.surfaceArea(child);
+   }
+
+   private double surfaceArea(final int node) {
+      final int b = node * 6;
+      final double dx = this.bounds[b + 3] - this.bounds[b];
+      final double dy = this.bounds[b + 4] - this.bounds[b + 1];
+      final double dz = this.bounds[b + 5] - this.bounds[b + 2];
+
+      return 2.0 * ((dx * dy) + (dy * dz) + (dz * dx));
+   }
+
+   private double unionArea(final int n0, final int n1) {
+      final int b0 = n0 * 6;
+      final int b1 = n1 * 6;
+      final double dx = Math.max(this.bounds[b0 + 3], this.bounds[b1 + 3]) - Math.min(this.bounds[b0], this.bounds[b1]);
+      final double dy = Math.max(this.bounds[b0 + 4], this.bounds[b1 + 4]) - Math.min(this.bounds[b0 + 1], this.bounds[b1 + 1]);
+      final double dz = Math.max(this.bounds[b0 + 5], this.bounds[b1 + 5]) - Math.min(this.bounds[b0 + 2], this.bounds[b1 + 2]);
+
+      return 2.0 * ((dx * dy) + (dy * dz) + (dz * dx));
+   }
+
+   private void union(final int target, final int n0, final int n1) {
+      final int t = target * 6;
+      final int b0 = n0 * 6;
+      final int b1 = n1 * 6;
+
+      for (int i = 0; i < 3; i++) {
+         this.bounds[t + i] = Math.min(this.bounds[b0 + i], this.bounds[b1 + i]);
+         this.bounds[t + i + 3] = Math.max(this.bounds[b0 + i + 3], this.bounds[b1 + i + 3]);
+      }
+   }
+
+   private void setFatBounds(final int node, final double[] extents) {
+      final int b = node * 6;
+
+      for (int i = 0; i < 3; i++) {
+         final double margin = (extents[i + 3] - extents[i]) * FAT_FRACTION;
+         this.bounds[b + i] = extents[i] - margin;
+         this.bounds[b + i + 3] = extents[i + 3] + margin;
+      }
+   }
+
+   private int allocate() {
+      if (this.freeList == NULL_NODE) {
+         final int capacity = this.heights.length;
+         final int newCapacity = capacity * 2;
+         this.bounds = Arrays.copyOf(this.bounds, newCapacity * 6);
+         this.children = Arrays.copyOf(this.children, newCapacity * 2);
+         this.parents = Arrays.copyOf(this.parents, newCapacity);
+         this.heights = Arrays.copyOf(this.heights, newCapacity);
+         this.items = Arrays.copyOf(this.items, newCapacity);
+         this.cullPlanes = Arrays.copyOf(this.cullPlanes, newCapacity);
+         this.addToFreeList(capacity, newCapacity);
+      }
+
+      final int node = this.freeList;
+      this.freeList = this.parents[node];
+      this.parents[node] = NULL_NODE;
+      this.children[node * 2] = NULL_NODE;
+      this.children[(node * 2) + 1] = NULL_NODE;
+      this.heights[node] = 0;
+      this.cullPlanes[node] = 0;
+
+      return node;
+   }
+
+   private void free(final int node) {
+      this.items[node] = null;
+      this.heights[node] = -1;
+      this.parents[node] = this.freeList;
+      this.freeList = node;
+   }
+
+   private void addToFreeList(final int start, final int end) {
+      for (int i = end - 1; i >= start; i--) {
+         this.free(i);
+      }
+   }
+
+   private void checkLeaf(final int proxy) {
+      if ((proxy < 0) || (proxy >= this.heights.length) || (this.heights[proxy] != 0)) {
+         throw new IllegalArgumentException("Not a valid proxy: " + proxy);
+      }
+   }
+
+   /**
+    * Writes the axis-aligned extents (min xyz, max xyz) of the given volume to the given array.
+    *
+    * @param volume
+    * @param extents
+    */
+   public static void getExtents(final BoundingVolume volume, final double[] extents) {
+      if (volume instanceof BoundingBox) {
+         ((BoundingBox) volume).getExtents(extents, 0);
+      } else {
+         final Tuple3d center = volume.getCenter();
+         final double hx = volume.getSpannedDistance(Axis.X_AXIS.getAxis()) / 2.0;
+         final double hy = volume.getSpannedDistance(Axis.Y_AXIS.getAxis()) / 2.0;
+         final double hz = volume.getSpannedDistance(Axis.Z_AXIS.getAxis()) / 2.0;
+         extents[0] = center.x - hx;
+         extents[1] = center.y - hy;
+         extents[2] = center.z - hz;
+         extents[3] = center.x + hx;
+         extents[4] = center.y + hy;
+         extents[5] = center.z + hz;
+      }
+   }
+}
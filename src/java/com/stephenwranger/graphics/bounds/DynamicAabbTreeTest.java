@@ -0,0 +1,136 @@
+package com.stephenwranger.graphics.bounds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Vector3d;
+import com.stephenwranger.graphics.math.intersection.Plane;
+
+public class DynamicAabbTreeTest {
+
+   @Test
+   public void testSmallMoveKeepsLeaf() {
+      final DynamicAabbTree<String> tree = new DynamicAabbTree<>();
+      final int proxy = tree.insert("a", new BoundingBox(0, 0, 0, 10, 10, 10));
+
+      assertFalse(tree.update(proxy, new BoundingBox(0.5, 0.5, 0.5, 10.5, 10.5, 10.5)));
+      assertTrue(tree.update(proxy, new BoundingBox(5, 5, 5, 15, 15, 15)));
+      assertEquals("a", tree.getItem(proxy));
+   }
+
+   @Test
+   public void testCullersWithFewerPlanesShareTree() {
+      final DynamicAabbTree<String> tree = new DynamicAabbTree<>();
+      tree.insert("a", new BoundingBox(0, 0, 30, 1, 1, 31));
+
+      // the box is only outside the last of six planes, which is remembered for its node
+      final Plane[] planes = new Plane[] { new Plane(new Tuple3d(-20, 0, 0), new Vector3d(1, 0, 0)), new Plane(new Tuple3d(20, 0, 0), new Vector3d(-1, 0, 0)), new Plane(new Tuple3d(0, -20, 0), new Vector3d(0, 1, 0)), new Plane(new Tuple3d(0, 20, 0), new Vector3d(0, -1, 0)), new Plane(new Tuple3d(0, 0, -20), new Vector3d(0, 0, 1)), new Plane(new Tuple3d(0, 0, 20), new Vector3d(0, 0, -1)) };
+      final Set<String> frustumHits = new HashSet<>();
+      tree.queryFrustum(planes, new Tuple3d(), frustumHits);
+      assertTrue(frustumHits.isEmpty());
+
+      // a single plane culler on the same tree must still test its one plane
+      final Set<String> planeHits = new HashSet<>();
+      tree.queryFrustum(new Plane[] { planes[5] }, new Tuple3d(), planeHits);
+      assertTrue(planeHits.isEmpty());
+   }
+
+   @Test
+   public void testQueriesMatchBruteForce() {
+      final Random random = new Random(7);
+      final DynamicAabbTree<Integer> tree = new DynamicAabbTree<>();
+      final Map<Integer, Integer> proxies = new HashMap<>();
+
+      for (int i = 0; i < 2000; i++) {
+         proxies.put(i, tree.insert(i, DynamicAabbTreeTest.randomVolume(random)));
+      }
+
+      // churn: move half, remove a quarter
+      for (int i = 0; i < 1000; i++) {
+         tree.update(proxies.get(i), DynamicAabbTreeTest.randomVolume(random));
+      }
+
+      for (int i = 1000; i < 1500; i++) {
+         tree.remove(proxies.remove(i));
+      }
+
+      assertEquals(1500, tree.size());
+      // AVL style balancing keeps the height logarithmic
+      assertTrue(tree.getHeight() < 30);
+
+      final BoundingBox box = new BoundingBox(-20, -20, -20, 20, 20, 20);
+      final Set<Integer> boxHits = new HashSet<>();
+      tree.queryBox(box, boxHits);
+      assertEquals(DynamicAabbTreeTest.bruteForce(tree, proxies, box), boxHits);
+
+      // axis-aligned planes around the same box select the same leaves
+      final Plane[] planes = new Plane[] { new Plane(new Tuple3d(-20, 0, 0), new Vector3d(1, 0, 0)), new Plane(new Tuple3d(20, 0, 0), new Vector3d(-1, 0, 0)), new Plane(new Tuple3d(0, -20, 0), new Vector3d(0, 1, 0)), new Plane(new Tuple3d(0, 20, 0), new Vector3d(0, -1, 0)), new Plane(new Tuple3d(0, 0, -20), new Vector3d(0, 0, 1)), new Plane(new Tuple3d(0, 0, 20), new Vector3d(0, 0, -1)) };
+      final Set<Integer> frustumHits = new HashSet<>();
+      tree.queryFrustum(planes, new Tuple3d(), frustumHits);
+      assertEquals(boxHits, frustumHits);
+
+      // the same planes relative to a shifted origin
+      final Set<Integer> shiftedHits = new HashSet<>();
+      tree.queryFrustum(planes, new Tuple3d(50, 0, 0), shiftedHits);
+      assertEquals(DynamicAabbTreeTest.bruteForce(tree, proxies, new BoundingBox(30, -20, -20, 70, 20, 20)), shiftedHits);
+
+      final Set<Integer> sphereHits = new HashSet<>();
+      tree.querySphere(new Tuple3d(10, 10, 10), 15, sphereHits);
+
+      final Set<Integer> rayHits = new HashSet<>();
+      tree.queryRay(new Tuple3d(-200, 1, 2), new Vector3d(1, 0, 0), Double.POSITIVE_INFINITY, rayHits);
+
+      for (final Map.Entry<Integer, Integer> entry : proxies.entrySet()) {
+         final BoundingBox fat = tree.getFatBounds(entry.getValue());
+         final Tuple3d min = fat.getMin();
+         final Tuple3d max = fat.getMax();
+
+         final double dx = Math.max(0, Math.max(min.x - 10, 10 - max.x));
+         final double dy = Math.max(0, Math.max(min.y - 10, 10 - max.y));
+         final double dz = Math.max(0, Math.max(min.z - 10, 10 - max.z));
+         assertEquals(((dx * dx) + (dy * dy) + (dz * dz)) <= 225, sphereHits.contains(entry.getKey()));
+
+         final boolean onRay = (min.y <= 1) && (max.y >= 1) && (min.z <= 2) && (max.z >= 2);
+         assertEquals(onRay, rayHits.contains(entry.getKey()));
+      }
+   }
+
+   private static Set<Integer> bruteForce(final DynamicAabbTree<Integer> tree, final Map<Integer, Integer> proxies, final BoundingBox box) {
+      final Set<Integer> hits = new HashSet<>();
+
+      final Tuple3d boxMin = box.getMin();
+      final Tuple3d boxMax = box.getMax();
+
+      for (final Map.Entry<Integer, Integer> entry : proxies.entrySet()) {
+         final BoundingBox fat = tree.getFatBounds(entry.getValue());
+         final Tuple3d min = fat.getMin();
+         final Tuple3d max = fat.getMax();
+
+         if ((min.x <= boxMax.x) && (min.y <= boxMax.y) && (min.z <= boxMax.z) && (max.x >= boxMin.x) && (max.y >= boxMin.y) && (max.z >= boxMin.z)) {
+            hits.add(entry.getKey());
+         }
+      }
+
+      return hits;
+   }
+
+   private static BoundingVolume randomVolume(final Random random) {
+      final Tuple3d center = new Tuple3d((random.nextDouble() * 200) - 100, (random.nextDouble() * 200) - 100, (random.nextDouble() * 200) - 100);
+
+      if (random.nextBoolean()) {
+         return new BoundingSphere(center, random.nextDouble() * 5);
+      }
+
+      return new BoundingBox(center, random.nextDouble() * 10, random.nextDouble() * 10, random.nextDouble() * 10);
+   }
+}
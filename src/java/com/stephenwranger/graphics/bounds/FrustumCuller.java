@@ -0,0 +1,251 @@
+package com.stephenwranger.graphics.bounds;
+
+import com.stephenwranger.graphics.bounds.BoundsUtils.FrustumResult;
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Vector3d;
+import com.stephenwranger.graphics.math.intersection.Plane;
+
+/**
+ * Classifies axis-aligned boxes against a set of planes for (hierarchical) culling. The planes and the absolute
+ * values of their normals are copied into primitive arrays once per frame by {@link #setPlanes(Plane[], Tuple3d)};
+ * each box is then tested by projecting its half extents onto the absolute normals and comparing the result with the
+ * signed distance of its center (equivalent to testing the p- and n-vertex), stopping at the first plane it is
+ * completely outside of. No allocation happens per test and {@link #classifyAll(double[], int, int[])} classifies a
+ * whole array of boxes in one call.<br/>
+ * <br/>
+ * Two common optimizations for hierarchies are supported:
+ * <ul>
+ * <li>plane masking: {@link #test(double[], int, int, int)} only tests the planes in the given bit mask and returns the
+ * planes the box straddles; passing that mask on to the children skips the planes the parent was already fully inside
+ * of. A mask of zero means fully inside and needs no further tests.</li>
+ * <li>plane coherency: the plane that rejected a box is available from {@link #getRejectingPlane()} and can be passed as
+ * the first plane to test for the same box next frame, as a box outside one plane usually stays outside it.</li>
+ * </ul>
+ * The number of box tests and plane evaluations since the last {@link #resetStats()} are counted. Instances are not
+ * thread safe.
+ *
+ * @author rangers
+ *
+ */
+public class FrustumCuller {
+   /** Returned by the test methods for boxes completely outside at least one plane. */
+   public static final int OUTSIDE    = -1;
+   /** Masks are ints, one bit per plane. */
+   public static final int MAX_PLANES = 31;
+
+   private final double[]  normalX    = new double[MAX_PLANES];
+   private final double[]  normalY    = new double[MAX_PLANES];
+   private final double[]  normalZ    = new double[MAX_PLANES];
+   private final double[]  absX       = new double[MAX_PLANES];
+   private final double[]  absY       = new double[MAX_PLANES];
+   private final double[]  absZ       = new double[MAX_PLANES];
+   private final double[]  distance   = new double[MAX_PLANES];
+   private final double[]  extents    = new double[6];
+   private int             planeCount = 0;
+   private int             rejectingPlane;
+
+   private long            tested;
+   private long            planeTests;
+
+   /**
+    * Sets the planes to test against.
+    *
+    * @param planes
+    *           up to {@link #MAX_PLANES} planes with normals pointing inwards
+    * @param offset
+    *           the origin of the space the planes are defined in; boxes are given in world space and the offset is
+    *           folded into the plane distances
+    */
+   public void setPlanes(final Plane[] planes, final Tuple3d offset) {
+      if (planes.length > MAX_PLANES) {
+         throw new IllegalArgumentException("At most " + MAX_PLANES + " planes are supported: " + planes.length);
+      }
+
+      for (int i = 0; i < planes.length; i++) {
+         final Vector3d normal = planes[i].getNormal();
+         this.setPlane(i, normal.x, normal.y, normal.z, planes[i].getDistance(), offset);
+      }
+
+      this.planeCount = planes.length;
+   }
+
+   /**
+    * Sets the planes to test against from their coefficients without creating any objects, e.g. as extracted by
+    * {@link com.stephenwranger.graphics.math.CameraUtils#getFrustumPlanes(Tuple3d, com.stephenwranger.graphics.math.Matrix4d, double[])}.
+    *
+    * @param planes
+    *           normalized (a, b, c, d) of ax + by + cz + d = 0 per plane, normals pointing inwards
+    * @param count
+    *           the number of planes; up to {@link #MAX_PLANES}
+    * @param offset
+    *           the origin of the space the planes are defined in
+    */
+   public void setPlanes(final double[] planes, final int count, final Tuple3d offset) {
+      if (count > MAX_PLANES) {
+         throw new IllegalArgumentException("At most " + MAX_PLANES + " planes are supported: " + count);
+      }
+
+      for (int i = 0; i < count; i++) {
+         this.setPlane(i, planes[i * 4], planes[(i * 4) + 1], planes[(i * 4) + 2], planes[(i * 4) + 3], offset);
+      }
+
+      this.planeCount = count;
+   }
+
+   private void setPlane(final int i, final double x, final double y, final double z, final double d, final Tuple3d offset) {
+      this.normalX[i] = x;
+      this.normalY[i] = y;
+      this.normalZ[i] = z;
+      this.absX[i] = Math.abs(x);
+      this.absY[i] = Math.abs(y);
+      this.absZ[i] = Math.abs(z);
+      this.distance[i] = d - ((x * offset.x) + (y * offset.y) + (z * offset.z));
+   }
+
+   public int getPlaneCount() {
+      return this.planeCount;
+   }
+
+   /**
+    * Returns the mask that selects every plane.
+    *
+    * @return
+    */
+   public int getAllPlanesMask() {
+      return (1 << this.planeCount) - 1;
+   }
+
+   /**
+    * Returns the index of the plane that rejected the box of the last test that returned {@link #OUTSIDE}.
+    *
+    * @return
+    */
+   public int getRejectingPlane() {
+      return this.rejectingPlane;
+   }
+
+   /**
+    * Tests the box stored as min xyz, max xyz at the given offset of the given array against the planes in the given
+    * mask, starting with the given plane.
+    *
+    * @param bounds
+    * @param offset
+    * @param mask
+    *           the planes to test; one bit per plane
+    * @param firstPlane
+    *           the plane to test first, typically the one that rejected the same box last time; ignored if this culler
+    *           has fewer planes, as it may come from another culler
+    * @return {@link #OUTSIDE} or the mask of the tested planes the box intersects; zero if it is fully inside them
+    */
+   public int test(final double[] bounds, final int offset, final int mask, final int firstPlane) {
+      this.tested++;
+
+      final double cx = (bounds[offset] + bounds[offset + 3]) * 0.5;
+      final double cy = (bounds[offset + 1] + bounds[offset + 4]) * 0.5;
+      final double cz = (bounds[offset + 2] + bounds[offset + 5]) * 0.5;
+      final double ex = (bounds[offset + 3] - bounds[offset]) * 0.5;
+      final double ey = (bounds[offset + 4] - bounds[offset + 1]) * 0.5;
+      final double ez = (bounds[offset + 5] - bounds[offset + 2]) * 0.5;
+      final int count = this.planeCount;
+      final int first = (firstPlane < count) ? firstPlane : 0;
+      int intersecting = 0;
+
+      for (int j = 0; j < count; j++) {
+         final int i = ((j + first) < count) ? (j + first) : ((j + first) - count);
+         final int bit = 1 << i;
+
+         if ((mask & bit) == 0) {
+            continue;
+         }
+
+         this.planeTests++;
+
+         // signed distance of the center and the box's half size along the normal
+         final double d = (this.normalX[i] * cx) + (this.normalY[i] * cy) + (this.normalZ[i] * cz) + this.distance[i];
+         final double r = (this.absX[i] * ex) + (this.absY[i] * ey) + (this.absZ[i] * ez);
+
+         if ((d + r) < 0) {
+            this.rejectingPlane = i;
+            return OUTSIDE;
+         }
+
+         if ((d - r) < 0) {
+            intersecting |= bit;
+         }
+      }
+
+      return intersecting;
+   }
+
+   /**
+    * Tests each of the given boxes against all planes.
+    *
+    * @param bounds
+    *           min xyz, max xyz per box
+    * @param count
+    *           the number of boxes
+    * @param results
+    *           receives {@link #OUTSIDE} or the mask of intersected planes (zero if fully inside) per box
+    * @return the number of boxes not outside
+    */
+   public int classifyAll(final double[] bounds, final int count, final int[] results) {
+      final int mask = this.getAllPlanesMask();
+      int visible = 0;
+
+      for (int i = 0; i < count; i++) {
+         results[i] = this.test(bounds, i * 6, mask, 0);
+
+         if (results[i] != OUTSIDE) {
+            visible++;
+         }
+      }
+
+      return visible;
+   }
+
+   /**
+    * Classifies the axis-aligned extents of the given volume against all planes.
+    *
+    * @param volume
+    * @return
+    */
+   public FrustumResult classify(final BoundingVolume volume) {
+      DynamicAabbTree.getExtents(volume, this.extents);
+
+      return FrustumCuller.toResult(this.test(this.extents, 0, this.getAllPlanesMask(), 0));
+   }
+
+   /**
+    * Returns the number of boxes tested since the last reset.
+    *
+    * @return
+    */
+   public long getTested() {
+      return this.tested;
+   }
+
+   /**
+    * Returns the number of single plane evaluations since the last reset; with plane masking this is usually far less
+    * than the number of tests times the number of planes.
+    *
+    * @return
+    */
+   public long getPlaneTests() {
+      return this.planeTests;
+   }
+
+   public void resetStats() {
+      this.tested = 0;
+      this.planeTests = 0;
+   }
+
+   /**
+    * Converts the result of {@link #test(double[], int, int, int)} to a {@link FrustumResult}.
+    *
+    * @param result
+    * @return
+    */
+   public static FrustumResult toResult(final int result) {
+      return (result == OUTSIDE) ? FrustumResult.OUT : (result == 0) ? FrustumResult.IN : FrustumResult.INTERSECT;
+   }
+}
@@ -0,0 +1,170 @@
+package com.stephenwranger.graphics.bounds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.bounds.BoundsUtils.FrustumResult;
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Vector3d;
+import com.stephenwranger.graphics.math.intersection.Plane;
+
+public class FrustumCullerTest {
+   private static final Plane[] CUBE = new Plane[] { new Plane(new Tuple3d(-10, 0, 0), new Vector3d(1, 0, 0)), new Plane(new Tuple3d(10, 0, 0), new Vector3d(-1, 0, 0)), new Plane(new Tuple3d(0, -10, 0), new Vector3d(0, 1, 0)), new Plane(new Tuple3d(0, 10, 0), new Vector3d(0, -1, 0)), new Plane(new Tuple3d(0, 0, -10), new Vector3d(0, 0, 1)), new Plane(new Tuple3d(0, 0, 10), new Vector3d(0, 0, -1)) };
+
+   @Test
+   public void testMaskAndCoherency() {
+      final FrustumCuller culler = new FrustumCuller();
+      culler.setPlanes(CUBE, new Tuple3d());
+
+      assertEquals(0x3f, culler.getAllPlanesMask());
+      assertEquals(0, culler.test(new double[] { -1, -1, -1, 1, 1, 1 }, 0, 0x3f, 0));
+      // straddles the +x plane only
+      assertEquals(1 << 1, culler.test(new double[] { 5, -1, -1, 15, 1, 1 }, 0, 0x3f, 0));
+      assertEquals(FrustumCuller.OUTSIDE, culler.test(new double[] { -1, 20, -1, 1, 21, 1 }, 0, 0x3f, 0));
+      assertEquals(3, culler.getRejectingPlane());
+
+      // starting at the rejecting plane needs a single evaluation; an empty mask needs none
+      culler.resetStats();
+      assertEquals(FrustumCuller.OUTSIDE, culler.test(new double[] { -1, 20, -1, 1, 21, 1 }, 0, 0x3f, 3));
+      assertEquals(0, culler.test(new double[] { 5, -1, -1, 15, 1, 1 }, 0, 0, 0));
+      assertEquals(2, culler.getTested());
+      assertEquals(1, culler.getPlaneTests());
+
+      // planes relative to an origin, boxes in world space
+      culler.setPlanes(CUBE, new Tuple3d(1000, 0, 0));
+      assertEquals(FrustumResult.IN, culler.classify(new BoundingSphere(new Tuple3d(1000, 0, 0), 1)));
+      assertEquals(FrustumResult.OUT, culler.classify(new BoundingSphere(new Tuple3d(0, 0, 0), 1)));
+      assertEquals(FrustumResult.INTERSECT, culler.classify(new BoundingBox(985, 0, 0, 995, 1, 1)));
+   }
+
+   @Test
+   public void testRefilledPlanesArray() {
+      final Plane[] planes = CUBE.clone();
+      final BoundingBox box = new BoundingBox(-1, -1, -1, 1, 1, 1);
+      assertEquals(FrustumResult.IN, BoundsUtils.testAABBInFrustum(planes, box));
+
+      // the same array refilled with a frustum that excludes the box
+      for (int i = 0; i < planes.length; i++) {
+         final Vector3d normal = CUBE[i].getNormal();
+         planes[i] = new Plane(new Tuple3d(100 + (normal.x * -10), normal.y * -10, normal.z * -10), normal);
+      }
+
+      assertEquals(FrustumResult.OUT, BoundsUtils.testAABBInFrustum(planes, box));
+   }
+
+   @Test
+   public void testTreeCullingMatchesFlatTests() {
+      final Random random = new Random(3);
+      final DynamicAabbTree<BoundingVolume> tree = new DynamicAabbTree<>();
+      final List<BoundingVolume> volumes = new ArrayList<>();
+      final List<Integer> proxies = new ArrayList<>();
+
+      for (int i = 0; i < 5000; i++) {
+         final Tuple3d center = new Tuple3d((random.nextDouble() * 100) - 50, (random.nextDouble() * 100) - 50, (random.nextDouble() * 100) - 50);
+         final BoundingVolume volume = new BoundingBox(center, 1, 1, 1);
+         proxies.add(tree.insert(volume, volume));
+         volumes.add(volume);
+      }
+
+      final FrustumCuller culler = new FrustumCuller();
+      culler.setPlanes(CUBE, new Tuple3d());
+
+      final Set<BoundingVolume> expected = new HashSet<>();
+
+      for (int i = 0; i < volumes.size(); i++) {
+         if (culler.classify(tree.getFatBounds(proxies.get(i))) != FrustumResult.OUT) {
+            expected.add(volumes.get(i));
+         }
+      }
+
+      culler.resetStats();
+      final Set<BoundingVolume> visible = new HashSet<>();
+      tree.queryFrustum(culler, visible);
+
+      assertEquals(expected, visible);
+      // masking and fully inside subtrees keep the work well below testing every object against every plane
+      assertTrue(culler.getTested() < volumes.size());
+      assertTrue(culler.getPlaneTests() < (culler.getTested() * 6));
+
+      // a second pass starts at the remembered rejecting planes and needs fewer plane evaluations
+      final long firstPass = culler.getPlaneTests();
+      culler.resetStats();
+      visible.clear();
+      tree.queryFrustum(culler, visible);
+
+      assertEquals(expected, visible);
+      assertTrue(culler.getPlaneTests() < firstPass);
+   }
+
+   @Test
+   public void testBatchedMatchesCornerTest() {
+      final Random random = new Random(11);
+      // an oblique, pyramid-like set of planes
+      final Plane[] planes = new Plane[] { new Plane(new Tuple3d(0, 0, 0), new Vector3d(1, 0.3, 1)), new Plane(new Tuple3d(0, 0, 0), new Vector3d(-1, 0.2, 1)), new Plane(new Tuple3d(0, 0, 0), new Vector3d(0.1, 1, 1)), new Plane(new Tuple3d(0, 0, 0), new Vector3d(0, -1, 1)), new Plane(new Tuple3d(0, 0, 5), new Vector3d(0, 0, 1)), new Plane(new Tuple3d(0, 0, 80), new Vector3d(0, 0.1, -1)) };
+      final int count = 2000;
+      final double[] bounds = new double[count * 6];
+
+      for (int i = 0; i < count; i++) {
+         for (int j = 0; j < 3; j++) {
+            final double center = (random.nextDouble() * 200) - 100;
+            final double size = random.nextDouble() * 20;
+            bounds[(i * 6) + j] = center - size;
+            bounds[(i * 6) + j + 3] = center + size;
+         }
+      }
+
+      final FrustumCuller culler = new FrustumCuller();
+      culler.setPlanes(planes, new Tuple3d());
+
+      final int[] results = new int[count];
+      final int visible = culler.classifyAll(bounds, count, results);
+      int expectedVisible = 0;
+
+      for (int i = 0; i < count; i++) {
+         final BoundingBox box = new BoundingBox(bounds[i * 6], bounds[(i * 6) + 1], bounds[(i * 6) + 2], bounds[(i * 6) + 3], bounds[(i * 6) + 4], bounds[(i * 6) + 5]);
+         final FrustumResult expected = FrustumCullerTest.cornerTest(planes, box);
+
+         assertEquals(expected, FrustumCuller.toResult(results[i]));
+         assertEquals(expected, BoundsUtils.testAABBInFrustum(planes, box));
+
+         if (expected != FrustumResult.OUT) {
+            expectedVisible++;
+         }
+      }
+
+      assertEquals(expectedVisible, visible);
+   }
+
+   /**
+    * Reference classification: outside if all eight corners are behind one plane, inside if all are in front of all.
+    */
+   private static FrustumResult cornerTest(final Plane[] planes, final BoundingBox box) {
+      boolean allInside = true;
+
+      for (final Plane plane : planes) {
+         int inside = 0;
+
+         for (final Tuple3d corner : box.getCorners()) {
+            if (plane.distanceToPoint(corner) >= 0) {
+               inside++;
+            }
+         }
+
+         if (inside == 0) {
+            return FrustumResult.OUT;
+         }
+
+         allInside &= (inside == 8);
+      }
+
+      return allInside ? FrustumResult.IN : FrustumResult.INTERSECT;
+   }
+}
@@ -27,6 +27,15 @@ public class Color4f {
    public float[] toArray() {
       return new float[] { r,g,b,a };
    }
+
+   public float[] toArray(final float[] rgba) {
+      rgba[0] = r;
+      rgba[1] = g;
+      rgba[2] = b;
+      rgba[3] = a;
+
+      return rgba;
+   }
    
    @Override
    public boolean equals(final Object obj) {
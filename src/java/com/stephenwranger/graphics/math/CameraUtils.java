@@ -6,7 +6,6 @@ import com.jogamp.opengl.glu.GLU;
 import com.stephenwranger.graphics.Scene;
 import com.stephenwranger.graphics.math.intersection.Plane;
 import com.stephenwranger.graphics.utils.MathUtils;
-import com.stephenwranger.graphics.utils.TupleMath;
 
 /**
  * http://www.scratchapixel.com/lessons/3d-basic-rendering/perspective-and-orthographic-projection-matrix/building-basic-perspective-projection-matrix<br/>
@@ -16,13 +15,17 @@ import com.stephenwranger.graphics.utils.TupleMath;
  *
  */
 public class CameraUtils {
-   public static final int  LEFT_PLANE   = 0;
-   public static final int  RIGHT_PLANE  = 1;
-   public static final int  BOTTOM_PLANE = 2;
-   public static final int  TOP_PLANE    = 3;
-   public static final int  NEAR_PLANE   = 4;
-   public static final int  FAR_PLANE    = 5;
-   private static final GLU GLU_CONTEXT  = new GLU();
+   public static final int                    LEFT_PLANE      = 0;
+   public static final int                    RIGHT_PLANE     = 1;
+   public static final int                    BOTTOM_PLANE    = 2;
+   public static final int                    TOP_PLANE       = 3;
+   public static final int                    NEAR_PLANE      = 4;
+   public static final int                    FAR_PLANE       = 5;
+   private static final GLU                   GLU_CONTEXT     = new GLU();
+   /** gluProject/gluUnProject outputs per thread */
+   private static final ThreadLocal<double[]> WINDOW_POSITION = ThreadLocal.withInitial(() -> new double[3]);
+   private static final ThreadLocal<double[]> WORLD_POSITION  = ThreadLocal.withInitial(() -> new double[4]);
+   private static final ThreadLocal<Tuple3d>  ORIGIN          = ThreadLocal.withInitial(Tuple3d::new);
 
    private CameraUtils() {
       // statics only
@@ -84,9 +87,29 @@ public class CameraUtils {
     * @return
     */
    public static Plane[] getFrustumPlanes(final Tuple3d origin, final Matrix4d mvpMatrix) {
-      final double[] clip = mvpMatrix.get();
-      double t;
+      final double[] coefficients = CameraUtils.getFrustumPlanes(origin, mvpMatrix, new double[24]);
+      final Plane[] planes = new Plane[6];
+
+      for (int i = 0; i < 6; i++) {
+         planes[i] = new Plane(new Vector3d(coefficients[i * 4], coefficients[(i * 4) + 1], coefficients[(i * 4) + 2]), coefficients[(i * 4) + 3]);
+      }
 
+      return planes;
+   }
+
+   /**
+    * Extracts the six frustum planes like {@link #getFrustumPlanes(Tuple3d, Matrix4d)} without creating any objects.
+    * The planes are written as normalized (a, b, c, d) of ax + by + cz + d = 0, four values per plane in the order of
+    * the index constants of this class.
+    *
+    * @param origin
+    *           the planes are translated by this origin
+    * @param mvpMatrix
+    * @param planes
+    *           receives 24 values
+    * @return planes
+    */
+   public static double[] getFrustumPlanes(final Tuple3d origin, final Matrix4d mvpMatrix, final double[] planes) {
       /*
        * Translate the planes by the localeOrigin. The new distance of the plane from the origin is the dot product of
        * the plane normal and the translation vector (ax + by + cz + d = aTx + bTy + cTz). Subtract this value from the
@@ -94,122 +117,34 @@ public class CameraUtils {
        *
        * planeD -= planeNormal.x * origin.x + planeNormal.y * origin.y + planeNormal.z * origin.z;
        */
-
-      /* Extract the numbers for the RIGHT plane */
-      final Vector3d rightNormal = new Vector3d();
-      rightNormal.x = clip[3] - clip[0];
-      rightNormal.y = clip[7] - clip[4];
-      rightNormal.z = clip[11] - clip[8];
-      double rightD = clip[15] - clip[12];
-
-      /* Normalize the result */
-      t = (float) Math.sqrt((rightNormal.x * rightNormal.x) + (rightNormal.y * rightNormal.y) + (rightNormal.z * rightNormal.z));
-      rightNormal.x /= t;
-      rightNormal.y /= t;
-      rightNormal.z /= t;
-      rightD /= t;
-      rightD -= (rightNormal.x * origin.x) + (rightNormal.y * origin.y) + (rightNormal.z * origin.z);
-      final Plane rightPlane = new Plane(rightNormal, rightD);
-
-      /* Extract the numbers for the LEFT Plane */
-      final Vector3d leftNormal = new Vector3d();
-      leftNormal.x = clip[3] + clip[0];
-      leftNormal.y = clip[7] + clip[4];
-      leftNormal.z = clip[11] + clip[8];
-      double leftD = clip[15] + clip[12];
-
-      /* Normalize the result */
-      t = (float) Math.sqrt((leftNormal.x * leftNormal.x) + (leftNormal.y * leftNormal.y) + (leftNormal.z * leftNormal.z));
-      leftNormal.x /= t;
-      leftNormal.y /= t;
-      leftNormal.z /= t;
-      leftD /= t;
-      leftD -= (leftNormal.x * origin.x) + (leftNormal.y * origin.y) + (leftNormal.z * origin.z);
-      final Plane leftPlane = new Plane(leftNormal, leftD);
-
-      /* Extract the BOTTOM Plane */
-      final Vector3d bottomNormal = new Vector3d();
-      bottomNormal.x = clip[3] + clip[1];
-      bottomNormal.y = clip[7] + clip[5];
-      bottomNormal.z = clip[11] + clip[9];
-      double bottomD = clip[15] + clip[13];
-
-      /* Normalize the result */
-      t = (float) Math.sqrt((bottomNormal.x * bottomNormal.x) + (bottomNormal.y * bottomNormal.y) + (bottomNormal.z * bottomNormal.z));
-      bottomNormal.x /= t;
-      bottomNormal.y /= t;
-      bottomNormal.z /= t;
-      bottomD /= t;
-      bottomD -= (bottomNormal.x * origin.x) + (bottomNormal.y * origin.y) + (bottomNormal.z * origin.z);
-      final Plane bottomPlane = new Plane(bottomNormal, bottomD);
-
-      /* Extract the TOP Plane */
-      final Vector3d topNormal = new Vector3d();
-      topNormal.x = clip[3] - clip[1];
-      topNormal.y = clip[7] - clip[5];
-      topNormal.z = clip[11] - clip[9];
-      double topD = clip[15] - clip[13];
-
-      /* Normalize the result */
-      t = (float) Math.sqrt((topNormal.x * topNormal.x) + (topNormal.y * topNormal.y) + (topNormal.z * topNormal.z));
-      topNormal.x /= t;
-      topNormal.y /= t;
-      topNormal.z /= t;
-      topD /= t;
-      topD -= (topNormal.x * origin.x) + (topNormal.y * origin.y) + (topNormal.z * origin.z);
-      final Plane topPlane = new Plane(topNormal, topD);
-
-      /* Extract the NEAR Plane */
-      final Vector3d nearNormal = new Vector3d();
-      nearNormal.x = clip[3] - clip[2];
-      nearNormal.y = clip[7] - clip[6];
-      nearNormal.z = clip[11] - clip[10];
-      double nearD = clip[15] - clip[14];
-
-      /* Normalize the result */
-      t = (float) Math.sqrt((nearNormal.x * nearNormal.x) + (nearNormal.y * nearNormal.y) + (nearNormal.z * nearNormal.z));
-      nearNormal.x /= t;
-      nearNormal.y /= t;
-      nearNormal.z /= t;
-      nearD /= t;
-      nearD -= (nearNormal.x * origin.x) + (nearNormal.y * origin.y) + (nearNormal.z * origin.z);
-      final Plane nearPlane = new Plane(nearNormal, nearD);
-
-      /* Extract the FAR Plane */
-      final Vector3d farNormal = new Vector3d();
-      farNormal.x = clip[3] + clip[2];
-      farNormal.y = clip[7] + clip[6];
-      farNormal.z = clip[11] + clip[10];
-      double farD = clip[15] + clip[14];
-
-      /* Normalize the result */
-      t = (float) Math.sqrt((farNormal.x * farNormal.x) + (farNormal.y * farNormal.y) + (farNormal.z * farNormal.z));
-      farNormal.x /= t;
-      farNormal.y /= t;
-      farNormal.z /= t;
-      farD /= t;
-      farD -= (farNormal.x * origin.x) + (farNormal.y * origin.y) + (farNormal.z * origin.z);
-      final Plane farPlane = new Plane(farNormal, farD);
-
-      final Plane[] planes = new Plane[6];
-      planes[CameraUtils.RIGHT_PLANE] = rightPlane;
-      planes[CameraUtils.LEFT_PLANE] = leftPlane;
-      planes[CameraUtils.BOTTOM_PLANE] = bottomPlane;
-      planes[CameraUtils.TOP_PLANE] = topPlane;
-      planes[CameraUtils.NEAR_PLANE] = nearPlane;
-      planes[CameraUtils.FAR_PLANE] = farPlane;
-
-      //      System.out.println("rightD: " + rightD);
-      //      System.out.println("leftD: " + leftD);
-      //      System.out.println("bottomD: " + bottomD);
-      //      System.out.println("topD: " + topD);
-      //      System.out.println("nearD: " + nearD);
-      //      System.out.println("farD: " + farD);
-      //      System.out.println("near.dot(far): " + nearNormal.dot(farNormal));
+      CameraUtils.extractPlane(mvpMatrix, origin, 0, -1, planes, CameraUtils.RIGHT_PLANE);
+      CameraUtils.extractPlane(mvpMatrix, origin, 0, 1, planes, CameraUtils.LEFT_PLANE);
+      CameraUtils.extractPlane(mvpMatrix, origin, 1, 1, planes, CameraUtils.BOTTOM_PLANE);
+      CameraUtils.extractPlane(mvpMatrix, origin, 1, -1, planes, CameraUtils.TOP_PLANE);
+      CameraUtils.extractPlane(mvpMatrix, origin, 2, -1, planes, CameraUtils.NEAR_PLANE);
+      CameraUtils.extractPlane(mvpMatrix, origin, 2, 1, planes, CameraUtils.FAR_PLANE);
 
       return planes;
    }
 
+   /**
+    * Extracts the plane (column 3) + sign * (column) of the given clip matrix, normalizes it and stores it at the
+    * given plane index.
+    */
+   private static void extractPlane(final Matrix4d clip, final Tuple3d origin, final int column, final double sign, final double[] planes, final int index) {
+      final double x = clip.get(0, 3) + (sign * clip.get(0, column));
+      final double y = clip.get(1, 3) + (sign * clip.get(1, column));
+      final double z = clip.get(2, 3) + (sign * clip.get(2, column));
+      final double d = clip.get(3, 3) + (sign * clip.get(3, column));
+      final double t = Math.sqrt((x * x) + (y * y) + (z * z));
+
+      final int offset = index * 4;
+      planes[offset] = x / t;
+      planes[offset + 1] = y / t;
+      planes[offset + 2] = z / t;
+      planes[offset + 3] = (d / t) - ((planes[offset] * origin.x) + (planes[offset + 1] * origin.y) + (planes[offset + 2] * origin.z));
+   }
+
    /**
     * Computes the ModelView matrix; reference: https://www.opengl.org/wiki/GluLookAt_code.
     *
@@ -219,8 +154,38 @@ public class CameraUtils {
     * @return
     */
    public static double[] gluLookAt(final GL2 gl, final Tuple3d eyePosition3D, final Tuple3d center3D, final Vector3d upVector3D) {
-      final Vector3d forward = Vector3d.getVector(eyePosition3D, center3D, true);
-      final Vector3d side = new Vector3d();
+      return CameraUtils.gluLookAt(gl, eyePosition3D, center3D, upVector3D, new double[16]);
+   }
+
+   /**
+    * Computes the ModelView matrix into the given array; see {@link #gluLookAt(GL2, Tuple3d, Tuple3d, Vector3d)}.
+    *
+    * @param eyePosition3D
+    * @param center3D
+    * @param upVector3D
+    * @param mv
+    *           receives the 16 matrix values
+    * @return mv
+    */
+   public static double[] gluLookAt(final GL2 gl, final Tuple3d eyePosition3D, final Tuple3d center3D, final Vector3d upVector3D, final double[] mv) {
+      final ScratchPool pool = ScratchPool.get();
+      pool.push();
+
+      try {
+         CameraUtils.lookAt(eyePosition3D, center3D, upVector3D, pool.vector(), pool.vector(), mv);
+      } finally {
+         pool.pop();
+      }
+
+      gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
+      gl.glLoadIdentity();
+      gl.glLoadMatrixd(mv, 0);
+
+      return mv;
+   }
+
+   private static void lookAt(final Tuple3d eyePosition3D, final Tuple3d center3D, final Vector3d upVector3D, final Vector3d forward, final Vector3d side, final double[] mv) {
+      Vector3d.getVector(eyePosition3D, center3D, true, forward);
 
       side.cross(forward, upVector3D);
       side.normalize();
@@ -236,7 +201,6 @@ public class CameraUtils {
       final double eyex = -(eyePosition3D.x);
       final double eyey = -(eyePosition3D.y);
       final double eyez = -(eyePosition3D.z);
-      final double[] mv = new double[16];
       mv[0] = side.x;
       mv[4] = side.y;
       mv[8] = side.z;
@@ -263,12 +227,6 @@ public class CameraUtils {
       //         System.out.println("\tglu: " + Arrays.toString(gluVersion));
       //         System.out.println("\tme:  " + Arrays.toString(mv));
       //      }
-
-      gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
-      gl.glLoadIdentity();
-      gl.glLoadMatrixd(mv, 0);
-
-      return mv;
    }
 
    /**
@@ -300,6 +258,21 @@ public class CameraUtils {
     * @return
     */
    public static double[] gluPerspective(final GL2 gl, final double fovyInDegrees, final double aspectRatio, final double znear, final double zfar) {
+      return CameraUtils.gluPerspective(gl, fovyInDegrees, aspectRatio, znear, zfar, new double[16]);
+   }
+
+   /**
+    * Computes Projection Matrix into the given array; see {@link #gluPerspective(GL2, double, double, double, double)}.
+    *
+    * @param fovyInDegrees
+    * @param aspectRatio
+    * @param znear
+    * @param zfar
+    * @param matrix
+    *           receives the 16 matrix values
+    * @return matrix
+    */
+   public static double[] gluPerspective(final GL2 gl, final double fovyInDegrees, final double aspectRatio, final double znear, final double zfar, final double[] matrix) {
       final double ymax = znear * Math.tan(Math.toRadians(fovyInDegrees / 2.0));
       final double xmax = ymax * aspectRatio;
       final double temp = 2.0 * znear;
@@ -310,7 +283,6 @@ public class CameraUtils {
       final double temp2 = right - left;
       final double temp3 = top - bottom;
       final double temp4 = zfar - znear;
-      final double[] matrix = new double[16];
 
       matrix[0] = temp / temp2;
       matrix[1] = 0.0;
@@ -372,18 +344,35 @@ public class CameraUtils {
     * @return screen coordinates as x,y in screen space and z being normalized depth
     */
    public static Tuple3d gluProject(final Scene scene, final Tuple3d worldXyz) {
-      final Tuple3d xyz = TupleMath.sub(worldXyz, scene.getOrigin());
+      final Tuple3d screen = new Tuple3d();
+
+      return CameraUtils.gluProject(scene, worldXyz, screen) ? screen : null;
+   }
+
+   /**
+    * Projects the given world coordinates into the given output tuple; see {@link #gluProject(Scene, Tuple3d)}.
+    *
+    * @param scene
+    * @param worldXyz
+    *           coordinates to convert x,y,z cartesian world coordinate
+    * @param screenXyz
+    *           receives the screen coordinates; may be the input
+    * @return false if the point could not be projected
+    */
+   public static boolean gluProject(final Scene scene, final Tuple3d worldXyz, final Tuple3d screenXyz) {
+      final double[] winPos = CameraUtils.WINDOW_POSITION.get();
       final double[] modelview = scene.getModelViewMatrix();
       final double[] projection = scene.getProjectionMatrix();
       final int[] viewport = scene.getViewport();
-      final double[] winPos = new double[3];
+      scene.getOrigin(screenXyz).set(worldXyz.x - screenXyz.x, worldXyz.y - screenXyz.y, worldXyz.z - screenXyz.z);
 
-      if (CameraUtils.GLU_CONTEXT.gluProject(xyz.x, xyz.y, xyz.z, modelview, 0, projection, 0, viewport, 0, winPos, 0)) {
-         return new Tuple3d(winPos);
+      if (CameraUtils.GLU_CONTEXT.gluProject(screenXyz.x, screenXyz.y, screenXyz.z, modelview, 0, projection, 0, viewport, 0, winPos, 0)) {
+         screenXyz.set(winPos);
+         return true;
       } else {
          //         new RuntimeException("invalid gluProject\n\tworld = " + worldXyz + "\n\tmv = " + Arrays.toString(modelview) + "\n\tproj = " + Arrays.toString(projection) + "\n\tviewport: " + Arrays.toString(viewport)).printStackTrace();
          System.err.println("gluProject invalid");
-         return null;
+         return false;
       }
    }
 
@@ -396,10 +385,30 @@ public class CameraUtils {
     * @return x,y,z cartesian world coordinates
     */
    public static Tuple3d gluUnProject(final Scene scene, final Tuple3d screenXyz) {
+      final Tuple3d value = new Tuple3d();
+
+      return CameraUtils.gluUnProject(scene, screenXyz, value) ? value : null;
+   }
+
+   /**
+    * Unprojects the given screen coordinates into the given output tuple; see {@link #gluUnProject(Scene, Tuple3d)}.
+    *
+    * @param scene
+    * @param screenXyz
+    *           screen coordinates as x,y in screen space and z being normalized depth
+    * @param worldXyz
+    *           receives the x,y,z cartesian world coordinates; may be the input
+    * @return false if the point could not be unprojected
+    */
+   public static boolean gluUnProject(final Scene scene, final Tuple3d screenXyz, final Tuple3d worldXyz) {
       final double[] modelview = scene.getModelViewMatrix();
       final double[] projection = scene.getProjectionMatrix();
       final int[] viewport = scene.getViewport();
-      final double[] worldPos = new double[] { 0, 0, 0, 1 };
+      final double[] worldPos = CameraUtils.WORLD_POSITION.get();
+      worldPos[0] = 0;
+      worldPos[1] = 0;
+      worldPos[2] = 0;
+      worldPos[3] = 1;
 
       final double x = MathUtils.clamp(viewport[0] + 1, viewport[2] - 1, screenXyz.x);
       final double y = MathUtils.clamp(viewport[1] + 1, viewport[3] - 1, screenXyz.y);
@@ -416,13 +425,13 @@ public class CameraUtils {
 //      System.out.println("screen xyz: " + screenXyz);
 
       if (CameraUtils.GLU_CONTEXT.gluUnProject(x, y, z, modelview, 0, projection, 0, viewport, 0, worldPos, 0)) {
-         final Tuple3d value = new Tuple3d(worldPos);
-         value.add(scene.getOrigin());
-         return value;
+         worldXyz.set(worldPos);
+         worldXyz.add(scene.getOrigin(CameraUtils.ORIGIN.get()));
+         return true;
       } else {
          //         new RuntimeException("invalid gluUnProject\n\tscreen = " + screenXyz + "\n\tmv = " + Arrays.toString(modelview) + "\n\tproj = " + Arrays.toString(projection) + "\n\tviewport: " + Arrays.toString(viewport)).printStackTrace();
          System.err.println("gluUnProject invalid");
-         return null;
+         return false;
       }
    }
 }
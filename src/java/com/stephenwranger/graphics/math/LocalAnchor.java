@@ -0,0 +1,91 @@
+package com.stephenwranger.graphics.math;
+
+import java.nio.FloatBuffer;
+
+import com.jogamp.opengl.GL2;
+import com.stephenwranger.graphics.bounds.BoundingVolume;
+
+/**
+ * A fixed, per-object reference point for relative-to-center vertex storage. Vertices are written once as float
+ * offsets from the anchor and the anchor's offset from the current scene origin is applied through the modelview
+ * matrix each frame, so an origin shift costs one translation per object instead of a rewrite of its vertex buffer.
+ * The offsets only carry the precision of the object's own extent if they are computed from double positions, as
+ * {@link #putLocal(FloatBuffer, double, double, double)} does, or were stored relative to a double anchor when loaded
+ * (see {@link com.stephenwranger.graphics.utils.models.IndexedMesh}); anchoring positions that are already absolute
+ * floats gains nothing.
+ *
+ * @author rangers
+ *
+ */
+public class LocalAnchor {
+   private final Tuple3d anchor;
+
+   public LocalAnchor(final Tuple3d anchor) {
+      this.anchor = new Tuple3d(anchor);
+   }
+
+   /**
+    * Anchors at the center of the given double bounds which keeps the largest float offset at half the object's
+    * extent.
+    *
+    * @param bounds
+    * @return
+    */
+   public static LocalAnchor fromBounds(final BoundingVolume bounds) {
+      return new LocalAnchor((bounds == null) ? new Tuple3d() : bounds.getCenter());
+   }
+
+   public Tuple3d getAnchor() {
+      return new Tuple3d(this.anchor);
+   }
+
+   public Tuple3d getAnchor(final Tuple3d out) {
+      out.set(this.anchor);
+
+      return out;
+   }
+
+   /**
+    * Writes the offset of the given global position from the anchor as three floats.
+    *
+    * @param buffer
+    * @param x
+    * @param y
+    * @param z
+    */
+   public void putLocal(final FloatBuffer buffer, final double x, final double y, final double z) {
+      buffer.put((float) (x - this.anchor.x));
+      buffer.put((float) (y - this.anchor.y));
+      buffer.put((float) (z - this.anchor.z));
+   }
+
+   /**
+    * Computes the translation from origin-relative space to anchor-relative space (anchor - origin) into the output.
+    *
+    * @param origin
+    *           the current scene origin
+    * @param output
+    * @return the output tuple
+    */
+   public Tuple3d getTranslation(final Tuple3d origin, final Tuple3d output) {
+      output.set(this.anchor.x - origin.x, this.anchor.y - origin.y, this.anchor.z - origin.z);
+      return output;
+   }
+
+   /**
+    * Multiplies the current modelview matrix by the translation from the scene origin to this anchor; vertices written
+    * with {@link #putLocal(FloatBuffer, double, double, double)} can then be drawn directly.
+    *
+    * @param gl
+    * @param origin
+    *           the current scene origin
+    */
+   public void applyTranslation(final GL2 gl, final Tuple3d origin) {
+      gl.glTranslated(this.anchor.x - origin.x, this.anchor.y - origin.y, this.anchor.z - origin.z);
+   }
+
+   @Override
+   public String toString() {
+      return "LocalAnchor " + this.anchor;
+   }
+}
@@ -0,0 +1,54 @@
+package com.stephenwranger.graphics.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.bounds.BoundingBox;
+
+public class LocalAnchorTest {
+   @Test
+   public void testAnchorAtBoundsCenter() {
+      final LocalAnchor anchor = LocalAnchor.fromBounds(new BoundingBox(10, 20, 30, 20, 40, 60));
+      final Tuple3d center = anchor.getAnchor();
+
+      assertEquals(15, center.x, 0.0);
+      assertEquals(30, center.y, 0.0);
+      assertEquals(45, center.z, 0.0);
+      assertEquals(0, LocalAnchor.fromBounds(null).getAnchor().distance(new Tuple3d()), 0.0);
+   }
+
+   @Test
+   public void testTranslation() {
+      final LocalAnchor anchor = new LocalAnchor(new Tuple3d(6378137, 100, -50));
+      final Tuple3d translation = anchor.getTranslation(new Tuple3d(6378000, 0, 0), new Tuple3d());
+
+      assertEquals(137, translation.x, 0.0);
+      assertEquals(100, translation.y, 0.0);
+      assertEquals(-50, translation.z, 0.0);
+   }
+
+   @Test
+   public void testPrecisionAtEarthScale() {
+      // a point on the earth's surface one camera-length away from the origin; storing it as a float relative to the
+      // origin loses up to a quarter meter, relative to a nearby anchor it stays well below a millimeter
+      final Tuple3d point = new Tuple3d(6378137.123456, 1234.567891, -987.654321);
+      final Tuple3d origin = new Tuple3d(6378000.0, 1000.0, -1000.0);
+      final LocalAnchor anchor = new LocalAnchor(new Tuple3d(6378100.0, 1200.0, -1000.0));
+
+      final FloatBuffer buffer = FloatBuffer.allocate(3);
+      anchor.putLocal(buffer, point.x, point.y, point.z);
+
+      final Tuple3d translation = anchor.getTranslation(origin, new Tuple3d());
+      final Tuple3d rebased = new Tuple3d(buffer.get(0) + translation.x, buffer.get(1) + translation.y, buffer.get(2) + translation.z);
+      final Tuple3d expected = new Tuple3d(point.x - origin.x, point.y - origin.y, point.z - origin.z);
+
+      assertTrue(rebased.distance(expected) < 1e-4);
+
+      final double naiveError = Math.abs(((float) point.x) - point.x);
+      assertTrue(naiveError > 0.01);
+   }
+}
@@ -0,0 +1,110 @@
+package com.stephenwranger.graphics.math;
+
+/**
+ * Chooses levels of detail from the projected screen space error of a node's bounding sphere instead of projecting its
+ * vertices. The error of a node with geometric error e (world units) whose bounding sphere is d units from the camera
+ * is e * k / d pixels, where k = viewport height / (2 tan(fovy / 2)) is taken once per frame from the projection
+ * matrix; see {@link #setFrame(Tuple3d, double[], int)}. A node is refined once its error exceeds the threshold by the
+ * hysteresis fraction and coarsened again only once it falls below the threshold by the same fraction, so nodes near
+ * the threshold do not flicker between levels.
+ *
+ * @author rangers
+ *
+ */
+public class LodSelector {
+   /** the smallest distance used, so the error stays finite with the camera inside a bounding sphere */
+   private static final double MIN_DISTANCE = 1e-6;
+
+   private double              threshold;
+   private double              hysteresis;
+   private double              cameraX      = 0;
+   private double              cameraY      = 0;
+   private double              cameraZ      = 0;
+   private double              scale        = 1;
+
+   /**
+    * @param threshold
+    *           the error in pixels above which nodes are refined
+    * @param hysteresis
+    *           the fraction of the threshold by which the error has to cross it to change level, e.g. 0.1
+    */
+   public LodSelector(final double threshold, final double hysteresis) {
+      this.threshold = threshold;
+      this.hysteresis = hysteresis;
+   }
+
+   /**
+    * Caches the per-frame values.
+    *
+    * @param camera
+    *           the camera position in the coordinates of the nodes
+    * @param projection
+    *           the column major perspective projection matrix
+    * @param viewportHeight
+    *           in pixels
+    */
+   public void setFrame(final Tuple3d camera, final double[] projection, final int viewportHeight) {
+      this.cameraX = camera.x;
+      this.cameraY = camera.y;
+      this.cameraZ = camera.z;
+      // projection[5] is 1 / tan(fovy / 2)
+      this.scale = 0.5 * viewportHeight * projection[5];
+   }
+
+   /**
+    * Returns the distance from the camera to the given bounding sphere; zero if the camera is inside.
+    *
+    * @param center
+    * @param radius
+    * @return
+    */
+   public double getDistance(final Tuple3d center, final double radius) {
+      final double dx = center.x - this.cameraX;
+      final double dy = center.y - this.cameraY;
+      final double dz = center.z - this.cameraZ;
+
+      return Math.max(0, Math.sqrt((dx * dx) + (dy * dy) + (dz * dz)) - radius);
+   }
+
+   /**
+    * Returns the projected error in pixels of the given geometric error at the given distance.
+    *
+    * @param geometricError
+    *           in world units
+    * @param distance
+    *           from {@link #getDistance(Tuple3d, double)}
+    * @return
+    */
+   public double getScreenSpaceError(final double geometricError, final double distance) {
+      return (geometricError * this.scale) / Math.max(LodSelector.MIN_DISTANCE, distance);
+   }
+
+   /**
+    * Returns whether a node with the given error should be refined.
+    *
+    * @param screenSpaceError
+    *           from {@link #getScreenSpaceError(double, double)}
+    * @param isRefined
+    *           whether the node was refined in the previous frame
+    * @return
+    */
+   public boolean isRefined(final double screenSpaceError, final boolean isRefined) {
+      return isRefined ? screenSpaceError > (this.threshold * (1.0 - this.hysteresis)) : screenSpaceError > (this.threshold * (1.0 + this.hysteresis));
+   }
+
+   public double getThreshold() {
+      return this.threshold;
+   }
+
+   public void setThreshold(final double threshold) {
+      this.threshold = threshold;
+   }
+
+   public double getHysteresis() {
+      return this.hysteresis;
+   }
+
+   public void setHysteresis(final double hysteresis) {
+      this.hysteresis = hysteresis;
+   }
+}
@@ -0,0 +1,44 @@
+package com.stephenwranger.graphics.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LodSelectorTest {
+
+   @Test
+   public void testMatchesProjectedSize() {
+      final LodSelector selector = new LodSelector(100, 0.1);
+      final double fovy = 45.0;
+      final double[] projection = new double[16];
+      projection[5] = 1.0 / Math.tan(Math.toRadians(fovy / 2.0));
+      selector.setFrame(new Tuple3d(0, 0, 10), projection, 800);
+
+      // a 2 unit sphere 100 units in front of the camera
+      final double distance = selector.getDistance(new Tuple3d(0, 0, -91), 1);
+      assertEquals(100, distance, 1e-9);
+
+      // its projected height through the perspective divide
+      final double expected = ((2.0 * projection[5]) / distance) * 0.5 * 800;
+      assertEquals(expected, selector.getScreenSpaceError(2, distance), 1e-9);
+
+      // the camera inside the sphere
+      assertEquals(0, selector.getDistance(new Tuple3d(0, 0, 9), 5), 0);
+      assertTrue(Double.isFinite(selector.getScreenSpaceError(2, 0)));
+   }
+
+   @Test
+   public void testHysteresis() {
+      final LodSelector selector = new LodSelector(100, 0.1);
+
+      // coarse segments need 110 pixels to refine
+      assertFalse(selector.isRefined(105, false));
+      assertTrue(selector.isRefined(111, false));
+
+      // refined segments stay refined until below 90 pixels
+      assertTrue(selector.isRefined(95, true));
+      assertFalse(selector.isRefined(89, true));
+   }
+}
@@ -67,12 +67,21 @@ public class Matrix4d {
    }
    
    public float[] getFloats() {
-      final float[] floats = new float[16];
-      
-      for(int i = 0; i < 16; i++) {
+      return this.getFloats(new float[16]);
+   }
+
+   /**
+    * Writes this matrix to the given array as floats.
+    *
+    * @param floats
+    *           at least 16 elements
+    * @return floats
+    */
+   public float[] getFloats(final float[] floats) {
+      for (int i = 0; i < 16; i++) {
          floats[i] = (float) this.m[i];
       }
-      
+
       return floats;
    }
 
@@ -93,44 +102,66 @@ public class Matrix4d {
    }
 
    public double[] multiply(final double[] in) {
-      final double[] result = new double[4];
-      result[0] = (this.m[0] * in[0]) + (this.m[4] * in[1]) + (this.m[8] * in[2]) + (this.m[12] * in[3]);
-      result[1] = (this.m[1] * in[0]) + (this.m[5] * in[1]) + (this.m[9] * in[2]) + (this.m[13] * in[3]);
-      result[2] = (this.m[2] * in[0]) + (this.m[6] * in[1]) + (this.m[10] * in[2]) + (this.m[14] * in[3]);
-      result[3] = (this.m[3] * in[0]) + (this.m[7] * in[1]) + (this.m[11] * in[2]) + (this.m[15] * in[3]);
+      return this.multiply(in, new double[4]);
+   }
 
-      return result;
+   /**
+    * Multiplies the given four element column vector by this matrix and stores the result in the given output array,
+    * which may be the input array.
+    *
+    * @param in
+    * @param out
+    * @return out
+    */
+   public double[] multiply(final double[] in, final double[] out) {
+      final double x = (this.m[0] * in[0]) + (this.m[4] * in[1]) + (this.m[8] * in[2]) + (this.m[12] * in[3]);
+      final double y = (this.m[1] * in[0]) + (this.m[5] * in[1]) + (this.m[9] * in[2]) + (this.m[13] * in[3]);
+      final double z = (this.m[2] * in[0]) + (this.m[6] * in[1]) + (this.m[10] * in[2]) + (this.m[14] * in[3]);
+      final double w = (this.m[3] * in[0]) + (this.m[7] * in[1]) + (this.m[11] * in[2]) + (this.m[15] * in[3]);
+
+      out[0] = x;
+      out[1] = y;
+      out[2] = z;
+      out[3] = w;
+
+      return out;
    }
 
    public Matrix4d multiply(final Matrix4d other) {
-      final double n00 = (this.m[0] * other.m[0]) + (this.m[1] * other.m[4]) + (this.m[2] * other.m[8]) + (this.m[3] * other.m[12]);
-      final double n01 = (this.m[0] * other.m[1]) + (this.m[1] * other.m[5]) + (this.m[2] * other.m[9]) + (this.m[3] * other.m[13]);
-      final double n02 = (this.m[0] * other.m[2]) + (this.m[1] * other.m[6]) + (this.m[2] * other.m[10]) + (this.m[3] * other.m[14]);
-      final double n03 = (this.m[0] * other.m[3]) + (this.m[1] * other.m[7]) + (this.m[2] * other.m[11]) + (this.m[3] * other.m[15]);
-
-      final double n10 = (this.m[4] * other.m[0]) + (this.m[5] * other.m[4]) + (this.m[6] * other.m[8]) + (this.m[7] * other.m[12]);
-      final double n11 = (this.m[4] * other.m[1]) + (this.m[5] * other.m[5]) + (this.m[6] * other.m[9]) + (this.m[7] * other.m[13]);
-      final double n12 = (this.m[4] * other.m[2]) + (this.m[5] * other.m[6]) + (this.m[6] * other.m[10]) + (this.m[7] * other.m[14]);
-      final double n13 = (this.m[4] * other.m[3]) + (this.m[5] * other.m[7]) + (this.m[6] * other.m[11]) + (this.m[7] * other.m[15]);
-
-      final double n20 = (this.m[8] * other.m[0]) + (this.m[9] * other.m[4]) + (this.m[10] * other.m[8]) + (this.m[11] * other.m[12]);
-      final double n21 = (this.m[8] * other.m[1]) + (this.m[9] * other.m[5]) + (this.m[10] * other.m[9]) + (this.m[11] * other.m[13]);
-      final double n22 = (this.m[8] * other.m[2]) + (this.m[9] * other.m[6]) + (this.m[10] * other.m[10]) + (this.m[11] * other.m[14]);
-      final double n23 = (this.m[8] * other.m[3]) + (this.m[9] * other.m[7]) + (this.m[10] * other.m[11]) + (this.m[11] * other.m[15]);
-
-      final double n30 = (this.m[12] * other.m[0]) + (this.m[13] * other.m[4]) + (this.m[14] * other.m[8]) + (this.m[15] * other.m[12]);
-      final double n31 = (this.m[12] * other.m[1]) + (this.m[13] * other.m[5]) + (this.m[14] * other.m[9]) + (this.m[15] * other.m[13]);
-      final double n32 = (this.m[12] * other.m[2]) + (this.m[13] * other.m[6]) + (this.m[14] * other.m[10]) + (this.m[15] * other.m[14]);
-      final double n33 = (this.m[12] * other.m[3]) + (this.m[13] * other.m[7]) + (this.m[14] * other.m[11]) + (this.m[15] * other.m[15]);
-
-      this.set(n00, n01, n02, n03, n10, n11, n12, n13, n20, n21, n22, n23, n30, n31, n32, n33);
-      return this;
+      return this.multiply(this, other);
    }
 
+   /**
+    * Stores the product of the given matrices in this matrix; either may be this matrix.
+    *
+    * @param left
+    * @param right
+    * @return this
+    */
    public Matrix4d multiply(final Matrix4d left, final Matrix4d right) {
-      this.set(left);
-      this.multiply(right);
+      final double[] a = left.m;
+      final double[] b = right.m;
+      final double n00 = (a[0] * b[0]) + (a[1] * b[4]) + (a[2] * b[8]) + (a[3] * b[12]);
+      final double n01 = (a[0] * b[1]) + (a[1] * b[5]) + (a[2] * b[9]) + (a[3] * b[13]);
+      final double n02 = (a[0] * b[2]) + (a[1] * b[6]) + (a[2] * b[10]) + (a[3] * b[14]);
+      final double n03 = (a[0] * b[3]) + (a[1] * b[7]) + (a[2] * b[11]) + (a[3] * b[15]);
+
+      final double n10 = (a[4] * b[0]) + (a[5] * b[4]) + (a[6] * b[8]) + (a[7] * b[12]);
+      final double n11 = (a[4] * b[1]) + (a[5] * b[5]) + (a[6] * b[9]) + (a[7] * b[13]);
+      final double n12 = (a[4] * b[2]) + (a[5] * b[6]) + (a[6] * b[10]) + (a[7] * b[14]);
+      final double n13 = (a[4] * b[3]) + (a[5] * b[7]) + (a[6] * b[11]) + (a[7] * b[15]);
+
+      final double n20 = (a[8] * b[0]) + (a[9] * b[4]) + (a[10] * b[8]) + (a[11] * b[12]);
+      final double n21 = (a[8] * b[1]) + (a[9] * b[5]) + (a[10] * b[9]) + (a[11] * b[13]);
+      final double n22 = (a[8] * b[2]) + (a[9] * b[6]) + (a[10] * b[10]) + (a[11] * b[14]);
+      final double n23 = (a[8] * b[3]) + (a[9] * b[7]) + (a[10] * b[11]) + (a[11] * b[15]);
+
+      final double n30 = (a[12] * b[0]) + (a[13] * b[4]) + (a[14] * b[8]) + (a[15] * b[12]);
+      final double n31 = (a[12] * b[1]) + (a[13] * b[5]) + (a[14] * b[9]) + (a[15] * b[13]);
+      final double n32 = (a[12] * b[2]) + (a[13] * b[6]) + (a[14] * b[10]) + (a[15] * b[14]);
+      final double n33 = (a[12] * b[3]) + (a[13] * b[7]) + (a[14] * b[11]) + (a[15] * b[15]);
 
+      this.set(n00, n01, n02, n03, n10, n11, n12, n13, n20, n21, n22, n23, n30, n31, n32, n33);
       return this;
    }
 
@@ -240,25 +271,44 @@ public class Matrix4d {
    }
    
    public Matrix4d transpose() {
-      final Tuple4d row0 = new Tuple4d(this.get(0,0), this.get(1,0), this.get(2,0), this.get(3,0));
-      final Tuple4d row1 = new Tuple4d(this.get(0,1), this.get(1,1), this.get(2,1), this.get(3,1));
-      final Tuple4d row2 = new Tuple4d(this.get(0,2), this.get(1,2), this.get(2,2), this.get(3,2));
-      final Tuple4d row3 = new Tuple4d(this.get(0,3), this.get(1,3), this.get(2,3), this.get(3,3));
-      
-      this.set(row0, row1, row2, row3);
-      
+      for (int row = 0; row < 4; row++) {
+         for (int column = row + 1; column < 4; column++) {
+            final double temp = this.m[(row * 4) + column];
+            this.m[(row * 4) + column] = this.m[(column * 4) + row];
+            this.m[(column * 4) + row] = temp;
+         }
+      }
+
       return this;
    }
 
    public static void invert(final double[] in) {
-      final Matrix4d inMatrix = new Matrix4d(in);
-      Matrix4d.invert(inMatrix);
+      final ScratchPool pool = ScratchPool.get();
+      pool.push();
+
+      try {
+         final Matrix4d inMatrix = pool.matrix();
+         inMatrix.set(in);
+         Matrix4d.invert(inMatrix);
 
-      System.arraycopy(inMatrix.m, 0, in, 0, 16);
+         System.arraycopy(inMatrix.m, 0, in, 0, 16);
+      } finally {
+         pool.pop();
+      }
    }
 
    public static void invert(final Matrix4d in) {
-      double[] inv = new double[16];
+      final ScratchPool pool = ScratchPool.get();
+      pool.push();
+
+      try {
+         Matrix4d.invertInto(in, pool.matrix().m);
+      } finally {
+         pool.pop();
+      }
+   }
+
+   private static void invertInto(final Matrix4d in, final double[] inv) {
 
       inv[0] = (((in.m[5] * in.m[10] * in.m[15]) - (in.m[5] * in.m[11] * in.m[14]) - (in.m[9] * in.m[6] * in.m[15])) + (in.m[9] * in.m[7] * in.m[14]) + (in.m[13] * in.m[6] * in.m[11]))
             - (in.m[13] * in.m[7] * in.m[10]);
@@ -315,14 +365,12 @@ public class Matrix4d {
    }
 
    public static boolean isSingular(final double[] in) {
-      final double[] inv = new double[16];
-
-      inv[0] = (((in[5] * in[10] * in[15]) - (in[5] * in[11] * in[14]) - (in[9] * in[6] * in[15])) + (in[9] * in[7] * in[14]) + (in[13] * in[6] * in[11])) - (in[13] * in[7] * in[10]);
-      inv[4] = (((-in[4] * in[10] * in[15]) + (in[4] * in[11] * in[14]) + (in[8] * in[6] * in[15])) - (in[8] * in[7] * in[14]) - (in[12] * in[6] * in[11])) + (in[12] * in[7] * in[10]);
-      inv[8] = (((in[4] * in[9] * in[15]) - (in[4] * in[11] * in[13]) - (in[8] * in[5] * in[15])) + (in[8] * in[7] * in[13]) + (in[12] * in[5] * in[11])) - (in[12] * in[7] * in[9]);
-      inv[12] = (((-in[4] * in[9] * in[14]) + (in[4] * in[10] * in[13]) + (in[8] * in[5] * in[14])) - (in[8] * in[6] * in[13]) - (in[12] * in[5] * in[10])) + (in[12] * in[6] * in[9]);
+      final double inv0 = (((in[5] * in[10] * in[15]) - (in[5] * in[11] * in[14]) - (in[9] * in[6] * in[15])) + (in[9] * in[7] * in[14]) + (in[13] * in[6] * in[11])) - (in[13] * in[7] * in[10]);
+      final double inv4 = (((-in[4] * in[10] * in[15]) + (in[4] * in[11] * in[14]) + (in[8] * in[6] * in[15])) - (in[8] * in[7] * in[14]) - (in[12] * in[6] * in[11])) + (in[12] * in[7] * in[10]);
+      final double inv8 = (((in[4] * in[9] * in[15]) - (in[4] * in[11] * in[13]) - (in[8] * in[5] * in[15])) + (in[8] * in[7] * in[13]) + (in[12] * in[5] * in[11])) - (in[12] * in[7] * in[9]);
+      final double inv12 = (((-in[4] * in[9] * in[14]) + (in[4] * in[10] * in[13]) + (in[8] * in[5] * in[14])) - (in[8] * in[6] * in[13]) - (in[12] * in[5] * in[10])) + (in[12] * in[6] * in[9]);
 
-      final double det = (in[0] * inv[0]) + (in[1] * inv[4]) + (in[2] * inv[8]) + (in[3] * inv[12]);
+      final double det = (in[0] * inv0) + (in[1] * inv4) + (in[2] * inv8) + (in[3] * inv12);
 
       return IntersectionUtils.isZero(det);
    }
@@ -38,15 +38,27 @@ public class Quat4d extends Quaternion {
       return "(" + this.getX() + ", " + this.getY() + ", " + this.getZ() + ", " + this.getW() + ")";
    }
 
+   /**
+    * Rotates the given tuple in place by this (unit) quaternion.
+    *
+    * @param offset
+    */
    public void mult(final Tuple3d offset) {
-      final float[] vector = new float[3];
-      this.rotateVector(vector, 0, offset.toFloatArray(), 0);
-      offset.x = vector[0];
-      offset.y = vector[1];
-      offset.z = vector[2];
+      this.rotateVector(offset, offset);
    }
    
    public void rotateVector(final Tuple3d vector) {
+      this.rotateVector(vector, vector);
+   }
+
+   /**
+    * Stores the given vector rotated by this quaternion (q * v * q') in the given output tuple, which may be the input.
+    *
+    * @param vector
+    * @param out
+    * @return out
+    */
+   public Tuple3d rotateVector(final Tuple3d vector, final Tuple3d out) {
       final double x = this.getX();
       final double y = this.getY();
       final double z = this.getZ();
@@ -57,9 +69,11 @@ public class Quat4d extends Quaternion {
       final double conjResultZ = vector.z * w + 0 * -z + vector.x * -y - vector.y * -x;
       final double conjResultW = 0 * w - vector.x * -x - vector.y * -y - vector.z * -z;
 
-      vector.x = x * conjResultW + w * conjResultX + y * conjResultZ - z * conjResultY;
-      vector.y = y * conjResultW + w * conjResultY + z * conjResultX - x * conjResultZ;
-      vector.z = z * conjResultW + w * conjResultZ + x * conjResultY - y * conjResultX;
+      out.x = x * conjResultW + w * conjResultX + y * conjResultZ - z * conjResultY;
+      out.y = y * conjResultW + w * conjResultY + z * conjResultX - x * conjResultZ;
+      out.z = z * conjResultW + w * conjResultZ + x * conjResultY - y * conjResultX;
+
+      return out;
    }
    
    public double normal() {
@@ -0,0 +1,127 @@
+package com.stephenwranger.graphics.math;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-thread pool of temporary math objects for code that runs every frame. Objects are handed out between a
+ * {@link #push()} and the matching {@link #pop()} and returned to the pool by the pop, so a method that needs a few
+ * temporaries does
+ *
+ * <pre>
+ * final ScratchPool pool = ScratchPool.get();
+ * pool.push();
+ *
+ * try {
+ *    final Vector3d temp = pool.vector();
+ *    ...
+ * } finally {
+ *    pool.pop();
+ * }
+ * </pre>
+ *
+ * The pool grows to the largest number of objects in use at once and allocates nothing after that. The contents of a
+ * returned object are undefined; callers set them before use. Objects must not escape the push/pop scope.
+ *
+ * @author rangers
+ *
+ */
+public class ScratchPool {
+   private static final ThreadLocal<ScratchPool> POOLS       = ThreadLocal.withInitial(ScratchPool::new);
+
+   private final List<Tuple3d>                   tuples      = new ArrayList<>();
+   private final List<Vector3d>                  vectors     = new ArrayList<>();
+   private final List<Matrix4d>                  matrices    = new ArrayList<>();
+   /** tuple, vector and matrix counts per push */
+   private int[]                                 marks       = new int[48];
+   private int                                   depth       = 0;
+   private int                                   tupleCount  = 0;
+   private int                                   vectorCount = 0;
+   private int                                   matrixCount = 0;
+
+   private ScratchPool() {
+      // use get()
+   }
+
+   /**
+    * Starts a scope; every object handed out until the matching {@link #pop()} is reused afterwards.
+    */
+   public void push() {
+      if ((this.depth + 3) > this.marks.length) {
+         final int[] temp = new int[this.marks.length * 2];
+         System.arraycopy(this.marks, 0, temp, 0, this.marks.length);
+         this.marks = temp;
+      }
+
+      this.marks[this.depth++] = this.tupleCount;
+      this.marks[this.depth++] = this.vectorCount;
+      this.marks[this.depth++] = this.matrixCount;
+   }
+
+   /**
+    * Ends the current scope.
+    */
+   public void pop() {
+      if (this.depth == 0) {
+         throw new IllegalStateException("pop() without push()");
+      }
+
+      this.matrixCount = this.marks[--this.depth];
+      this.vectorCount = this.marks[--this.depth];
+      this.tupleCount = this.marks[--this.depth];
+   }
+
+   public Tuple3d tuple() {
+      this.checkScope();
+
+      if (this.tupleCount == this.tuples.size()) {
+         this.tuples.add(new Tuple3d());
+      }
+
+      return this.tuples.get(this.tupleCount++);
+   }
+
+   public Vector3d vector() {
+      this.checkScope();
+
+      if (this.vectorCount == this.vectors.size()) {
+         this.vectors.add(new Vector3d());
+      }
+
+      return this.vectors.get(this.vectorCount++);
+   }
+
+   public Matrix4d matrix() {
+      this.checkScope();
+
+      if (this.matrixCount == this.matrices.size()) {
+         this.matrices.add(new Matrix4d());
+      }
+
+      return this.matrices.get(this.matrixCount++);
+   }
+
+   /**
+    * Returns the number of objects currently handed out.
+    *
+    * @return
+    */
+   public int getInUse() {
+      return this.tupleCount + this.vectorCount + this.matrixCount;
+   }
+
+   private void checkScope() {
+      if (this.depth == 0) {
+         throw new IllegalStateException("Scratch objects can only be taken between push() and pop()");
+      }
+   }
+
+   /**
+    * Returns the pool of the calling thread.
+    *
+    * @return
+    */
+   public static ScratchPool get() {
+      return ScratchPool.POOLS.get();
+   }
+}
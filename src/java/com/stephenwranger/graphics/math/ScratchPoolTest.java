@@ -0,0 +1,226 @@
+package com.stephenwranger.graphics.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.stephenwranger.graphics.bounds.BoundingBox;
+import com.stephenwranger.graphics.bounds.BoundingSphere;
+import com.stephenwranger.graphics.bounds.DynamicAabbTree;
+import com.stephenwranger.graphics.bounds.FrustumCuller;
+import com.stephenwranger.graphics.math.intersection.Plane;
+import com.stephenwranger.graphics.renderables.Renderable;
+import com.stephenwranger.graphics.utils.TupleMath;
+
+public class ScratchPoolTest {
+
+   @Test
+   public void testScopesReuseObjects() {
+      final ScratchPool pool = ScratchPool.get();
+      pool.push();
+      final Tuple3d tuple = pool.tuple();
+      final Matrix4d matrix = pool.matrix();
+
+      pool.push();
+      final Vector3d vector = pool.vector();
+      assertTrue(tuple != pool.tuple());
+      pool.pop();
+
+      assertEquals(2, pool.getInUse());
+      pool.pop();
+      assertEquals(0, pool.getInUse());
+
+      pool.push();
+      assertSame(tuple, pool.tuple());
+      assertSame(vector, pool.vector());
+      assertSame(matrix, pool.matrix());
+      pool.pop();
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testOutsideScope() {
+      ScratchPool.get().tuple();
+   }
+
+   @Test
+   public void testIntoOverloadsMatch() {
+      final Matrix4d a = ScratchPoolTest.perspective();
+      final Matrix4d b = ScratchPoolTest.view(new Tuple3d(3, -2, 40));
+      final Matrix4d product = new Matrix4d(a).multiply(b);
+
+      // operands may alias the result
+      final Matrix4d aliased = new Matrix4d(b);
+      aliased.multiply(a, aliased);
+      assertArrayEquals(product.get(), aliased.get(), 0);
+
+      final Matrix4d inverse = new Matrix4d(product);
+      inverse.invert();
+      assertArrayEquals(new Matrix4d().get(), new Matrix4d(product).multiply(inverse).get(), 1e-9);
+      assertArrayEquals(product.get(), new Matrix4d(product).transpose().transpose().get(), 0);
+
+      final double[] in = new double[] { 1, 2, 3, 1 };
+      assertArrayEquals(product.multiply(in), product.multiply(in, in), 0);
+
+      final Quat4d rotation = new Quat4d(new Vector3d(1, 2, -1).normalize(), 35);
+      final float[] expected = new float[3];
+      rotation.rotateVector(expected, 0, new float[] { 4, -5, 6 }, 0);
+      final Tuple3d rotated = new Tuple3d(4, -5, 6);
+      rotation.mult(rotated);
+      assertArrayEquals(new double[] { expected[0], expected[1], expected[2] }, new double[] { rotated.x, rotated.y, rotated.z }, 1e-5);
+
+      final Tuple3d v0 = new Tuple3d(1, 2, 3);
+      final Tuple3d v1 = new Tuple3d(-4, 0.5, 2);
+      assertEquals(TupleMath.cross(v0, v1), TupleMath.cross(v0, v1, new Tuple3d()));
+      assertEquals(TupleMath.sub(v0, v1), TupleMath.sub(v0, v1, new Tuple3d()));
+      assertEquals(Vector3d.getVector(v0, v1, true), Vector3d.getVector(v0, v1, true, new Vector3d()));
+   }
+
+   @Test
+   public void testFrustumCoefficientsMatchPlanes() {
+      final Random random = new Random(5);
+      final Matrix4d mvp = new Matrix4d().multiply(ScratchPoolTest.view(new Tuple3d(0, 0, 50)), ScratchPoolTest.perspective());
+      final Tuple3d origin = new Tuple3d(100, -20, 7);
+      final Plane[] planes = CameraUtils.getFrustumPlanes(new Tuple3d(), mvp);
+      final double[] coefficients = CameraUtils.getFrustumPlanes(new Tuple3d(), mvp, new double[24]);
+
+      final FrustumCuller fromPlanes = new FrustumCuller();
+      fromPlanes.setPlanes(planes, origin);
+      final FrustumCuller fromCoefficients = new FrustumCuller();
+      fromCoefficients.setPlanes(coefficients, 6, origin);
+
+      for (int i = 0; i < 1000; i++) {
+         final Tuple3d center = new Tuple3d((random.nextDouble() * 400) - 100, (random.nextDouble() * 400) - 220, (random.nextDouble() * 400) - 193);
+         final BoundingBox box = new BoundingBox(center, 10, 10, 10);
+
+         assertEquals(fromPlanes.classify(box), fromCoefficients.classify(box));
+      }
+   }
+
+   /**
+    * Runs the per-frame math of the scene (camera matrices, frustum extraction, hierarchical culling, near/far) many
+    * times and checks that the steady state creates no garbage.
+    */
+   @Test
+   public void testFrameMathIsAllocationFree() {
+      final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+
+      final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+      Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+      final Random random = new Random(9);
+      final DynamicAabbTree<Integer> tree = new DynamicAabbTree<>();
+
+      for (int i = 0; i < 500; i++) {
+         tree.insert(i, new BoundingBox(new Tuple3d((random.nextDouble() * 200) - 100, (random.nextDouble() * 200) - 100, (random.nextDouble() * 200) - 100), 2, 2, 2));
+      }
+
+      final Frame frame = new Frame(tree);
+      final long thread = Thread.currentThread().getId();
+
+      for (int i = 0; i < 20000; i++) {
+         frame.run(i);
+      }
+
+      final long before = allocations.getThreadAllocatedBytes(thread);
+
+      for (int i = 0; i < 10000; i++) {
+         frame.run(i);
+      }
+
+      final long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+      // allow for the measurement itself; a single object per frame would be 100s of KB
+      assertTrue("allocated " + allocated + " bytes in 10000 frames", allocated < 1024);
+      assertTrue(frame.visible > 0);
+   }
+
+   private static class Frame {
+      private final DynamicAabbTree<Integer> tree;
+      private final Matrix4d                 modelview   = new Matrix4d();
+      private final Matrix4d                 projection  = ScratchPoolTest.perspective();
+      private final Matrix4d                 mvp         = new Matrix4d();
+      private final Matrix4d                 inverse     = new Matrix4d();
+      private final double[]                 planes      = new double[24];
+      private final FrustumCuller            culler      = new FrustumCuller();
+      private final List<Integer>            results     = new ArrayList<>(1000);
+      private final Tuple3d                  zero        = new Tuple3d();
+      private final Tuple3d                  origin      = new Tuple3d(10, 0, 0);
+      private final Tuple3d                  camera      = new Tuple3d();
+      private final Tuple3d                  lookAt      = new Tuple3d();
+      private final Vector3d                 view        = new Vector3d();
+      private final Tuple3d                  temp        = new Tuple3d();
+      private final Quat4d                   rotation    = new Quat4d(new Vector3d(0, 1, 0), 1);
+      private final BoundingBox              box         = new BoundingBox(-5, -5, -5, 5, 5, 5);
+      private final BoundingSphere           sphere      = new BoundingSphere(new Tuple3d(20, 0, 0), 3);
+      private final double[]                 nearFar     = new double[2];
+      private final double[]                 column      = new double[4];
+      private final float[]                  floats      = new float[16];
+      private long                           visible     = 0;
+
+      private Frame(final DynamicAabbTree<Integer> tree) {
+         this.tree = tree;
+      }
+
+      private void run(final int frame) {
+         // camera orbits the origin
+         this.camera.set(0, 0, 60 + (frame % 10));
+         this.rotation.mult(this.camera);
+         TupleMath.sub(this.camera, this.origin, this.temp);
+         Vector3d.getVector(this.camera, this.lookAt, true, this.view);
+
+         ScratchPoolTest.view(this.temp, this.modelview);
+         this.mvp.multiply(this.modelview, this.projection);
+         this.inverse.set(this.mvp);
+         this.inverse.invert();
+         this.inverse.transpose();
+         this.inverse.getFloats(this.floats);
+         this.column[3] = 1;
+         this.mvp.multiply(this.column, this.column);
+
+         CameraUtils.getFrustumPlanes(this.zero, this.mvp, this.planes);
+         this.culler.setPlanes(this.planes, 6, this.origin);
+         this.tree.queryFrustum(this.culler, this.results);
+         this.visible += this.results.size();
+         this.results.clear();
+         this.culler.classify(this.box);
+
+         Renderable.getNearFar(this.box, this.camera, this.view, this.nearFar);
+         Renderable.getNearFar(this.sphere, this.camera, this.view, this.nearFar);
+         TupleMath.cross(this.camera, this.view, this.temp);
+      }
+   }
+
+   /**
+    * Translation by -eye (a camera looking down -z), into the given matrix.
+    */
+   private static Matrix4d view(final Tuple3d eye, final Matrix4d out) {
+      out.set(1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, -eye.x, -eye.y, -eye.z, 1);
+
+      return out;
+   }
+
+   private static Matrix4d view(final Tuple3d eye) {
+      return ScratchPoolTest.view(eye, new Matrix4d());
+   }
+
+   private static Matrix4d perspective() {
+      final Matrix4d matrix = new Matrix4d();
+      final double near = 1;
+      final double far = 1000;
+      final double f = 1.0 / Math.tan(Math.toRadians(45.0 / 2.0));
+
+      matrix.set(f, 0, 0, 0, 0, f, 0, 0, 0, 0, (far + near) / (near - far), -1, 0, 0, (2 * far * near) / (near - far), 0);
+
+      return matrix;
+   }
+}
@@ -110,6 +110,12 @@ public class Tuple3d {
       this.z = tuple.z;
    }
 
+   public void set(final double[] xyz) {
+      this.x = xyz[0];
+      this.y = xyz[1];
+      this.z = xyz[2];
+   }
+
    public Tuple3d subtract(final Tuple3d other) {
       this.x -= other.x;
       this.y -= other.y;
@@ -130,6 +136,20 @@ public class Tuple3d {
       return new float[] { (float) this.x, (float) this.y, (float) this.z };
    }
 
+   /**
+    * Writes x, y and z to the first three elements of the given array.
+    *
+    * @param xyz
+    * @return xyz
+    */
+   public float[] toFloatArray(final float[] xyz) {
+      xyz[0] = (float) this.x;
+      xyz[1] = (float) this.y;
+      xyz[2] = (float) this.z;
+
+      return xyz;
+   }
+
    @Override
    public String toString() {
       return "(" + this.x + ", " + this.y + ", " + this.z + ")";
@@ -139,6 +159,12 @@ public class Tuple3d {
       return new Tuple2d(this.x, this.y);
    }
 
+   public Tuple2d xy(final Tuple2d out) {
+      out.set(this.x, this.y);
+
+      return out;
+   }
+
    public Tuple2d xz() {
       return new Tuple2d(this.x, this.z);
    }
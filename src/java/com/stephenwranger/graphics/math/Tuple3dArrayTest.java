@@ -0,0 +1,102 @@
+package com.stephenwranger.graphics.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.bounds.BoundingBox;
+import com.stephenwranger.graphics.bounds.BoundsUtils;
+import com.stephenwranger.graphics.utils.TupleMath;
+
+public class Tuple3dArrayTest {
+
+   @Test
+   public void testAdapters() {
+      final List<Tuple3d> tuples = Tuple3dArrayTest.random(100, 1);
+      final Tuple3dArray array = new Tuple3dArray(2);
+      array.appendAll(tuples);
+
+      assertEquals(tuples, array.toList());
+      assertEquals(tuples, Tuple3dArray.fromInterleaved(array.toInterleaved(), array.size()).toList());
+      assertEquals(tuples.get(42), array.get(42, new Tuple3d()));
+
+      final Tuple3dArray copy = new Tuple3dArray(array);
+      copy.append(tuples.get(0));
+      assertEquals(101, copy.size());
+      assertEquals(100, array.size());
+   }
+
+   @Test
+   public void testBulkOpsMatchTupleMath() {
+      final List<Tuple3d> tuples = Tuple3dArrayTest.random(257, 2);
+      final List<Tuple3d> others = Tuple3dArrayTest.random(257, 3);
+      final Tuple3d offset = new Tuple3d(5, -3, 0.25);
+      final Tuple3dArray sum = new Tuple3dArray(tuples).add(new Tuple3dArray(others)).sub(offset);
+      final Tuple3dArray normalized = new Tuple3dArray(tuples).scale(3).normalize();
+      final double[] dots = new Tuple3dArray(tuples).dot(new Tuple3dArray(others), new double[tuples.size()]);
+      final double[] projections = new Tuple3dArray(tuples).dot(offset, new double[tuples.size()]);
+
+      for (int i = 0; i < tuples.size(); i++) {
+         final Tuple3d expected = TupleMath.sub(TupleMath.add(tuples.get(i), others.get(i)), offset);
+         assertArrayEquals(new double[] { expected.x, expected.y, expected.z }, new double[] { sum.getX(i), sum.getY(i), sum.getZ(i) }, 1e-12);
+
+         final Vector3d unit = new Vector3d(tuples.get(i)).normalize();
+         assertArrayEquals(new double[] { unit.x, unit.y, unit.z }, new double[] { normalized.getX(i), normalized.getY(i), normalized.getZ(i) }, 1e-12);
+
+         assertEquals(TupleMath.dot(tuples.get(i), others.get(i)), dots[i], 1e-12);
+         assertEquals(TupleMath.dot(tuples.get(i), offset), projections[i], 1e-12);
+      }
+   }
+
+   @Test
+   public void testTransformMatchesMatrix() {
+      final List<Tuple3d> tuples = Tuple3dArrayTest.random(50, 4);
+      final Matrix4d matrix = new Matrix4d();
+      matrix.set(0.5, 0.2, -0.1, 0, 0.3, 1.5, 0.7, 0, -0.4, 0.1, 2, 0, 10, -20, 30, 1);
+
+      final Tuple3dArray points = new Tuple3dArray(tuples).transform(matrix);
+      final Tuple3dArray vectors = new Tuple3dArray(tuples).transformVectors(matrix);
+
+      for (int i = 0; i < tuples.size(); i++) {
+         final Tuple3d tuple = tuples.get(i);
+         final double[] point = matrix.multiply(new double[] { tuple.x, tuple.y, tuple.z, 1 });
+         final double[] vector = matrix.multiply(new double[] { tuple.x, tuple.y, tuple.z, 0 });
+
+         assertArrayEquals(new double[] { point[0], point[1], point[2] }, new double[] { points.getX(i), points.getY(i), points.getZ(i) }, 1e-9);
+         assertArrayEquals(new double[] { vector[0], vector[1], vector[2] }, new double[] { vectors.getX(i), vectors.getY(i), vectors.getZ(i) }, 1e-9);
+      }
+   }
+
+   @Test
+   public void testBoundsMatchList() {
+      final List<Tuple3d> tuples = Tuple3dArrayTest.random(1000, 5);
+      final BoundingBox expected = (BoundingBox) BoundsUtils.getBoundingBox(tuples);
+      final BoundingBox actual = (BoundingBox) BoundsUtils.getBoundingBox(new Tuple3dArray(tuples));
+
+      assertEquals(expected.getMin(), actual.getMin());
+      assertEquals(expected.getMax(), actual.getMax());
+      assertNull(BoundsUtils.getBoundingBox(new Tuple3dArray()));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testSizeMismatch() {
+      new Tuple3dArray(Tuple3dArrayTest.random(3, 6)).add(new Tuple3dArray(Tuple3dArrayTest.random(4, 7)));
+   }
+
+   private static List<Tuple3d> random(final int count, final long seed) {
+      final Random random = new Random(seed);
+      final List<Tuple3d> tuples = new ArrayList<>();
+
+      for (int i = 0; i < count; i++) {
+         tuples.add(new Tuple3d((random.nextDouble() * 200) - 100, (random.nextDouble() * 200) - 100, (random.nextDouble() * 200) - 100));
+      }
+
+      return tuples;
+   }
+}
@@ -48,6 +48,26 @@ public class Vector3d extends Tuple3d implements Vector {
       return vector;
    }
 
+   /**
+    * Stores the vector pointing towards the destination from the origin (destination - origin) in the given output
+    * vector and, optionally, normalizes it.
+    *
+    * @param origin the origin point
+    * @param destination the destination point
+    * @param normalize flag indicating whether the vector should be normalized
+    * @param out the vector to store the result in
+    * @return out
+    */
+   public static Vector3d getVector(final Tuple3d origin, final Tuple3d destination, final boolean normalize, final Vector3d out) {
+      out.subtract(destination, origin);
+
+      if (normalize) {
+         out.normalize();
+      }
+
+      return out;
+   }
+
    /**
     * Returns angle between two vectors in radians.
     *
@@ -1,5 +1,9 @@
 package com.stephenwranger.graphics.math.intersection;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
 import com.stephenwranger.graphics.math.PickingRay;
 import com.stephenwranger.graphics.math.Tuple3d;
 import com.stephenwranger.graphics.math.Vector3d;
@@ -12,6 +16,8 @@ public class Ellipsoid {
    public static final double MAX_LAT  = MathUtils.HALF_PI;
    public static final double MIN_LON  = -Math.PI;
    public static final double MAX_LON  = Math.PI;
+   /** batch conversions split into tasks of at most this many points */
+   public static final int    PARALLEL_CHUNK_SIZE = 1 << 14;
 
    private final Tuple3d      center;
    private final double       semiMajorAxis;
@@ -28,6 +34,12 @@ public class Ellipsoid {
    private final double       yImplicitCoeff;
    private final double       zImplicitCoeff;
 
+   // constants of the conversions, computed once instead of per point
+   private final double       semiMinorAxis;
+   private final double       semiMinorAxisTimesSecondEccentricitySquared;
+   private final double       semiMajorAxisTimesFirstEccentricitySquared;
+   private final double       oneMinusFirstEccentricitySquared;
+
    public Ellipsoid(final Tuple3d center, final double semiMajorAxis, final double flattening, final double firstEccentricitySquared, final double secondEccentricitySquared) {
       this.center = new Tuple3d(center);
       this.semiMajorAxis = semiMajorAxis;
@@ -42,6 +54,11 @@ public class Ellipsoid {
       this.xImplicitCoeff = 1.0 / (this.xAxisScale * this.xAxisScale);
       this.yImplicitCoeff = 1.0 / (this.yAxisScale * this.yAxisScale);
       this.zImplicitCoeff = 1.0 / (this.zAxisScale * this.zAxisScale);
+
+      this.semiMinorAxis = this.semiMajorAxis * this.invFlattening;
+      this.semiMinorAxisTimesSecondEccentricitySquared = Double.isNaN(this.secondEccentricitySquared) ? 0.0 : this.semiMinorAxis * this.secondEccentricitySquared;
+      this.semiMajorAxisTimesFirstEccentricitySquared = this.semiMajorAxis * this.firstEccentricitySquared;
+      this.oneMinusFirstEccentricitySquared = 1.0 - this.firstEccentricitySquared;
    }
 
    /**
@@ -128,44 +145,60 @@ public class Ellipsoid {
     *         Geocentric to Geodetic Coordinate Conversion', by Ralph Toms, Feb 1996
     */
    public Tuple3d toLonLatAlt(final Tuple3d cartesian) {
-      final Tuple3d cartesianOffset = new Tuple3d(cartesian);
-      cartesianOffset.subtract(this.center);
+      return this.toLonLatAlt(cartesian.x, cartesian.y, cartesian.z, new Tuple3d());
+   }
+
+   /**
+    * Converts the given cartesian coordinates into lon (degrees), lat (degrees) and alt (meters) and stores them in the
+    * given tuple; see {@link #toLonLatAlt(Tuple3d)}.
+    *
+    * @param x
+    * @param y
+    * @param z
+    * @param out
+    * @return out
+    */
+   public Tuple3d toLonLatAlt(final double x, final double y, final double z, final Tuple3d out) {
+      final double dx = x - this.center.x;
+      final double dy = y - this.center.y;
+      final double dz = z - this.center.z;
 
       /* Note: Variable names follow the notation used in Toms, Feb 1996 */
       boolean atPole = false; // indicates whether location is in polar region
-      final double b = this.semiMajorAxis * this.invFlattening; // Semi-minor axis of ellipsoid, in meters
+      final double b = this.semiMinorAxis; // Semi-minor axis of ellipsoid, in meters
       double lat = 0, lon = 0, alt = 0;
 
-      if (cartesianOffset.x != 0) {
-         lon = Math.atan2(cartesianOffset.y, cartesianOffset.x);
+      if (dx != 0) {
+         lon = Math.atan2(dy, dx);
       } else {
-         if (cartesianOffset.y > 0) {
+         if (dy > 0) {
             lon = MathUtils.HALF_PI;
-         } else if (cartesianOffset.y < 0) {
+         } else if (dy < 0) {
             lon = -MathUtils.HALF_PI;
          } else {
             atPole = true;
             lon = 0;
-            if (cartesianOffset.z > 0) { /* north pole */
+            if (dz > 0) { /* north pole */
                lat = Ellipsoid.MAX_LAT;
-            } else if (cartesianOffset.z < 0) { /* south pole */
+            } else if (dz < 0) { /* south pole */
                lat = Ellipsoid.MIN_LAT;
             } else { /* center of earth */
                lat = Ellipsoid.MAX_LAT;
                alt = -b;
-               return new Tuple3d(Math.toDegrees(lon), Math.toDegrees(lat), alt);
+               out.set(Math.toDegrees(lon), Math.toDegrees(lat), alt);
+               return out;
             }
          }
       }
-      final double w2 = (cartesianOffset.x * cartesianOffset.x) + (cartesianOffset.y * cartesianOffset.y); // square of distance from Z axis
+      final double w2 = (dx * dx) + (dy * dy); // square of distance from Z axis
       final double w = Math.sqrt(w2); // distance from Z axis
-      final double t0 = cartesianOffset.z * Ellipsoid.AD_C; // initial estimate of vertical component
+      final double t0 = dz * Ellipsoid.AD_C; // initial estimate of vertical component
       final double s0 = Math.sqrt((t0 * t0) + w2); // initial estimate of horizontal component
       final double sinB0 = t0 / s0; // sin(B0), B0 is estimate of Bowring aux variable
       final double cosB0 = w / s0; // cos(B0)
       final double sin3B0 = sinB0 * sinB0 * sinB0; // cube of sin(B0)
-      final double t1 = cartesianOffset.z + (Double.isNaN(this.secondEccentricitySquared) ? 0.0 : b * this.secondEccentricitySquared * sin3B0); // corrected estimate of vertical component
-      final double sum = w - (this.semiMajorAxis * this.firstEccentricitySquared * cosB0 * cosB0 * cosB0); // numerator of cos(phi1)
+      final double t1 = dz + (this.semiMinorAxisTimesSecondEccentricitySquared * sin3B0); // corrected estimate of vertical component
+      final double sum = w - (this.semiMajorAxisTimesFirstEccentricitySquared * cosB0 * cosB0 * cosB0); // numerator of cos(phi1)
       final double s1 = Math.sqrt((t1 * t1) + (sum * sum)); // corrected estimate of horizontal component
       final double sinP1 = t1 / s1; // sin(phi1), phi1 is estimated latitude
       final double cosP1 = sum / s1; // cos(phi1)
@@ -176,19 +209,83 @@ public class Ellipsoid {
       } else if (cosP1 <= -Ellipsoid.COS_67P5) {
          alt = (w / -cosP1) - Rn;
       } else {
-         alt = (cartesianOffset.z / sinP1) + (Rn * (this.firstEccentricitySquared - 1.0));
+         alt = (dz / sinP1) - (Rn * this.oneMinusFirstEccentricitySquared);
       }
       if (!atPole) {
          lat = Math.atan(sinP1 / cosP1);
       }
 
-      return new Tuple3d(Math.toDegrees(lon), Math.toDegrees(lat), alt);
+      out.set(Math.toDegrees(lon), Math.toDegrees(lat), alt);
+
+      return out;
+   }
+
+   /**
+    * Converts count points starting at offset from cartesian coordinates into lon (degrees), lat (degrees) and alt
+    * (meters); see {@link #toLonLatAlt(Tuple3d)}. The output arrays may be the input arrays.
+    *
+    * @param x
+    * @param y
+    * @param z
+    * @param lon
+    * @param lat
+    * @param alt
+    * @param offset
+    *           the index of the first point
+    * @param count
+    *           the number of points to convert
+    */
+   public void toLonLatAlt(final double[] x, final double[] y, final double[] z, final double[] lon, final double[] lat, final double[] alt, final int offset, final int count) {
+      final Tuple3d lonLatAlt = new Tuple3d();
+
+      for (int i = offset; i < (offset + count); i++) {
+         this.toLonLatAlt(x[i], y[i], z[i], lonLatAlt);
+         lon[i] = lonLatAlt.x;
+         lat[i] = lonLatAlt.y;
+         alt[i] = lonLatAlt.z;
+      }
+   }
+
+   /**
+    * Converts as {@link #toLonLatAlt(double[], double[], double[], double[], double[], double[], int, int)} but splits
+    * more than {@link #PARALLEL_CHUNK_SIZE} points into tasks run on the given pool.
+    *
+    * @param pool
+    * @param x
+    * @param y
+    * @param z
+    * @param lon
+    * @param lat
+    * @param alt
+    * @param offset
+    * @param count
+    */
+   public void toLonLatAlt(final ForkJoinPool pool, final double[] x, final double[] y, final double[] z, final double[] lon, final double[] lat, final double[] alt, final int offset,
+         final int count) {
+      if (count <= Ellipsoid.PARALLEL_CHUNK_SIZE) {
+         this.toLonLatAlt(x, y, z, lon, lat, alt, offset, count);
+      } else {
+         pool.invoke(new ConversionTask(this, false, x, y, z, lon, lat, alt, offset, count));
+      }
    }
 
    public Tuple3d toXYZ(final Tuple3d lonLatAltDeg) {
-      double lon = Math.toRadians(lonLatAltDeg.x);
-      double lat = Math.toRadians(lonLatAltDeg.y);
-      double alt = lonLatAltDeg.z;
+      return this.toXYZ(lonLatAltDeg.x, lonLatAltDeg.y, lonLatAltDeg.z, new Tuple3d());
+   }
+
+   /**
+    * Converts the given lon (degrees), lat (degrees) and alt (meters) into cartesian coordinates and stores them in the
+    * given tuple; see {@link #toXYZ(Tuple3d)}.
+    *
+    * @param lonDeg
+    * @param latDeg
+    * @param alt
+    * @param out
+    * @return out
+    */
+   public Tuple3d toXYZ(final double lonDeg, final double latDeg, final double alt, final Tuple3d out) {
+      double lon = Math.toRadians(lonDeg);
+      final double lat = Math.toRadians(latDeg);
 
       if (lon > Math.PI) {
          lon -= MathUtils.TWO_PI;
@@ -198,12 +295,104 @@ public class Ellipsoid {
       final double sin2Lat = sinLat * sinLat;
       final double Rn = this.semiMajorAxis / Math.sqrt(1 - (this.firstEccentricitySquared * sin2Lat));  // earth radius at location
 
-      final Tuple3d result = new Tuple3d();
+      out.x = (Rn + alt) * cosLat * Math.cos(lon);
+      out.y = (Rn + alt) * cosLat * Math.sin(lon);
+      out.z = ((Rn * this.oneMinusFirstEccentricitySquared) + alt) * sinLat;
 
-      result.x = (Rn + alt) * cosLat * Math.cos(lon);
-      result.y = (Rn + alt) * cosLat * Math.sin(lon);
-      result.z = ((Rn * (1 - this.firstEccentricitySquared)) + alt) * sinLat;
+      return out;
+   }
 
-      return result;
+   /**
+    * Converts count points starting at offset from lon (degrees), lat (degrees) and alt (meters) into cartesian
+    * coordinates; see {@link #toXYZ(Tuple3d)}. The output arrays may be the input arrays.
+    *
+    * @param lon
+    * @param lat
+    * @param alt
+    * @param x
+    * @param y
+    * @param z
+    * @param offset
+    *           the index of the first point
+    * @param count
+    *           the number of points to convert
+    */
+   public void toXYZ(final double[] lon, final double[] lat, final double[] alt, final double[] x, final double[] y, final double[] z, final int offset, final int count) {
+      final Tuple3d xyz = new Tuple3d();
+
+      for (int i = offset; i < (offset + count); i++) {
+         this.toXYZ(lon[i], lat[i], alt[i], xyz);
+         x[i] = xyz.x;
+         y[i] = xyz.y;
+         z[i] = xyz.z;
+      }
+   }
+
+   /**
+    * Converts as {@link #toXYZ(double[], double[], double[], double[], double[], double[], int, int)} but splits more
+    * than {@link #PARALLEL_CHUNK_SIZE} points into tasks run on the given pool.
+    *
+    * @param pool
+    * @param lon
+    * @param lat
+    * @param alt
+    * @param x
+    * @param y
+    * @param z
+    * @param offset
+    * @param count
+    */
+   public void toXYZ(final ForkJoinPool pool, final double[] lon, final double[] lat, final double[] alt, final double[] x, final double[] y, final double[] z, final int offset, final int count) {
+      if (count <= Ellipsoid.PARALLEL_CHUNK_SIZE) {
+         this.toXYZ(lon, lat, alt, x, y, z, offset, count);
+      } else {
+         pool.invoke(new ConversionTask(this, true, lon, lat, alt, x, y, z, offset, count));
+      }
+   }
+
+   /**
+    * Halves its range until it is at most {@link Ellipsoid#PARALLEL_CHUNK_SIZE} points and converts that directly.
+    */
+   private static class ConversionTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Ellipsoid   ellipsoid;
+      private final boolean     isToXYZ;
+      private final double[]    in0, in1, in2;
+      private final double[]    out0, out1, out2;
+      private final int         offset;
+      private final int         count;
+
+      private ConversionTask(final Ellipsoid ellipsoid, final boolean isToXYZ, final double[] in0, final double[] in1, final double[] in2, final double[] out0, final double[] out1,
+            final double[] out2, final int offset, final int count) {
+         this.ellipsoid = ellipsoid;
+         this.isToXYZ = isToXYZ;
+         this.in0 = in0;
+         this.in1 = in1;
+         this.in2 = in2;
+         this.out0 = out0;
+         this.out1 = out1;
+         this.out2 = out2;
+         this.offset = offset;
+         this.count = count;
+      }
+
+      @Override
+      protected void compute() {
+         if (this.count <= Ellipsoid.PARALLEL_CHUNK_SIZE) {
+            if (this.isToXYZ) {
+               this.ellipsoid.toXYZ(this.in0, this.in1, this.in2, this.out0, this.out1, this.out2, this.offset, this.count);
+            } else {
+               this.ellipsoid.toLonLatAlt(this.in0, this.in1, this.in2, this.out0, this.out1, this.out2, this.offset, this.count);
+            }
+         } else {
+            final int half = this.count / 2;
+            ForkJoinTask.invokeAll(this.split(this.offset, half), this.split(this.offset + half, this.count - half));
+         }
+      }
+
+      private ConversionTask split(final int offset, final int count) {
+         return new ConversionTask(this.ellipsoid, this.isToXYZ, this.in0, this.in1, this.in2, this.out0, this.out1, this.out2, offset, count);
+      }
    }
 }
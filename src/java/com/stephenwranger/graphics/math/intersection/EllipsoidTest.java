@@ -0,0 +1,93 @@
+package com.stephenwranger.graphics.math.intersection;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.math.Tuple3d;
+
+public class EllipsoidTest {
+   private static final double    FLATTENING = 1.0 / 298.257223563;
+   private static final double    E2         = FLATTENING * (2 - FLATTENING);
+   private static final Ellipsoid WGS84      = new Ellipsoid(new Tuple3d(), 6378137.0, FLATTENING, E2, E2 / (1 - E2));
+
+   @Test
+   public void testBatchMatchesScalar() {
+      final int count = (Ellipsoid.PARALLEL_CHUNK_SIZE * 3) + 17;
+      final double[] lon = new double[count];
+      final double[] lat = new double[count];
+      final double[] alt = new double[count];
+      EllipsoidTest.random(lon, lat, alt, 3);
+
+      final double[] x = new double[count];
+      final double[] y = new double[count];
+      final double[] z = new double[count];
+      WGS84.toXYZ(ForkJoinPool.commonPool(), lon, lat, alt, x, y, z, 0, count);
+
+      final double[] lon2 = new double[count];
+      final double[] lat2 = new double[count];
+      final double[] alt2 = new double[count];
+      WGS84.toLonLatAlt(ForkJoinPool.commonPool(), x, y, z, lon2, lat2, alt2, 0, count);
+
+      for (int i = 0; i < count; i++) {
+         final Tuple3d xyz = WGS84.toXYZ(new Tuple3d(lon[i], lat[i], alt[i]));
+         assertEquals(xyz.x, x[i], 0.0);
+         assertEquals(xyz.y, y[i], 0.0);
+         assertEquals(xyz.z, z[i], 0.0);
+
+         final Tuple3d lonLatAlt = WGS84.toLonLatAlt(xyz);
+         assertEquals(lonLatAlt.x, lon2[i], 0.0);
+         assertEquals(lonLatAlt.y, lat2[i], 0.0);
+         assertEquals(lonLatAlt.z, alt2[i], 0.0);
+      }
+   }
+
+   @Test
+   public void testRoundTripInPlace() {
+      final int count = 10000;
+      final double[] lon = new double[count];
+      final double[] lat = new double[count];
+      final double[] alt = new double[count];
+      EllipsoidTest.random(lon, lat, alt, 4);
+
+      final double[] a = lon.clone();
+      final double[] b = lat.clone();
+      final double[] c = alt.clone();
+
+      // only the middle of the arrays, in place
+      WGS84.toXYZ(a, b, c, a, b, c, 10, count - 20);
+      WGS84.toLonLatAlt(a, b, c, a, b, c, 10, count - 20);
+
+      for (int i = 0; i < count; i++) {
+         // Toms' method is a single iteration; 1e-7 degrees is ~1cm on the surface
+         assertEquals(lon[i], a[i], 1e-9);
+         assertEquals(lat[i], b[i], 1e-7);
+         assertEquals(alt[i], c[i], 1e-2);
+      }
+   }
+
+   @Test
+   public void testKnownPoints() {
+      final Tuple3d equator = WGS84.toXYZ(new Tuple3d(0, 0, 0));
+      assertEquals(6378137.0, equator.x, 1e-6);
+      assertEquals(0, equator.y, 1e-6);
+      assertEquals(0, equator.z, 1e-6);
+
+      final Tuple3d pole = WGS84.toLonLatAlt(new Tuple3d(0, 0, 6356752.314245 + 100));
+      assertEquals(90, pole.y, 1e-9);
+      assertEquals(100, pole.z, 1e-4);
+   }
+
+   private static void random(final double[] lon, final double[] lat, final double[] alt, final long seed) {
+      final Random random = new Random(seed);
+
+      for (int i = 0; i < lon.length; i++) {
+         lon[i] = (random.nextDouble() * 359.9) - 179.95;
+         lat[i] = (random.nextDouble() * 179.8) - 89.9;
+         alt[i] = (random.nextDouble() * 20000) - 500;
+      }
+   }
+}
@@ -315,4 +315,56 @@ public class IntersectionUtils {
       // No hit, no win
       return null;
    }
+
+   /**
+    * Allocation-free M&ouml;ller-Trumbore test of a ray against the triangle (x0,y0,z0), (x1,y1,z1), (x2,y2,z2); both
+    * faces are hit.<br/>
+    * <br/>
+    * https://en.wikipedia.org/wiki/M%C3%B6ller%E2%80%93Trumbore_intersection_algorithm
+    *
+    * @return the distance along the direction (in units of its length) to the hit or
+    *         {@link Double#POSITIVE_INFINITY} if the ray misses or the triangle is degenerate or edge-on
+    */
+   public static double rayTriangleDistance(final double ox, final double oy, final double oz, final double dx, final double dy, final double dz, final double x0, final double y0, final double z0, final double x1, final double y1, final double z1, final double x2, final double y2, final double z2) {
+      final double e1x = x1 - x0;
+      final double e1y = y1 - y0;
+      final double e1z = z1 - z0;
+      final double e2x = x2 - x0;
+      final double e2y = y2 - y0;
+      final double e2z = z2 - z0;
+
+      // p = d x e2
+      final double px = (dy * e2z) - (dz * e2y);
+      final double py = (dz * e2x) - (dx * e2z);
+      final double pz = (dx * e2y) - (dy * e2x);
+      final double det = (e1x * px) + (e1y * py) + (e1z * pz);
+
+      if (det == 0) {
+         return Double.POSITIVE_INFINITY;
+      }
+
+      final double invDet = 1.0 / det;
+      final double tx = ox - x0;
+      final double ty = oy - y0;
+      final double tz = oz - z0;
+      final double u = ((tx * px) + (ty * py) + (tz * pz)) * invDet;
+
+      if ((u < 0) || (u > 1)) {
+         return Double.POSITIVE_INFINITY;
+      }
+
+      // q = t x e1
+      final double qx = (ty * e1z) - (tz * e1y);
+      final double qy = (tz * e1x) - (tx * e1z);
+      final double qz = (tx * e1y) - (ty * e1x);
+      final double v = ((dx * qx) + (dy * qy) + (dz * qz)) * invDet;
+
+      if ((v < 0) || ((u + v) > 1)) {
+         return Double.POSITIVE_INFINITY;
+      }
+
+      final double t = ((e2x * qx) + (e2y * qy) + (e2z * qz)) * invDet;
+
+      return (t > 0) ? t : Double.POSITIVE_INFINITY;
+   }
 }
@@ -0,0 +1,317 @@
+package com.stephenwranger.graphics.math.intersection;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Vector3d;
+
+/**
+ * Batched, allocation-free M&ouml;ller-Trumbore ray/triangle tests over structure-of-arrays inputs: one ray against a
+ * run of triangles or a packet of rays against one triangle. The inner loops are straight-line arithmetic with a single
+ * select at the end, no calls and no early exits, so that HotSpot's superword pass can vectorize them. Each result is
+ * bitwise identical to {@link IntersectionUtils#rayTriangleDistance}.<br/>
+ * <br/>
+ * https://en.wikipedia.org/wiki/M%C3%B6ller%E2%80%93Trumbore_intersection_algorithm
+ *
+ * @author rangers
+ *
+ */
+public class RayTriangleKernel {
+   /**
+    * Triangle corners as one array per coordinate; triangle i is (x0[i], y0[i], z0[i]), (x1[i], ...), (x2[i], ...).
+    */
+   public static class Triangles {
+      public final float[] x0, y0, z0;
+      public final float[] x1, y1, z1;
+      public final float[] x2, y2, z2;
+
+      public Triangles(final int capacity) {
+         this.x0 = new float[capacity];
+         this.y0 = new float[capacity];
+         this.z0 = new float[capacity];
+         this.x1 = new float[capacity];
+         this.y1 = new float[capacity];
+         this.z1 = new float[capacity];
+         this.x2 = new float[capacity];
+         this.y2 = new float[capacity];
+         this.z2 = new float[capacity];
+      }
+
+      public int getCapacity() {
+         return this.x0.length;
+      }
+
+      /**
+       * Copies the corners of the given faces of an indexed triangle list.
+       *
+       * @param positions
+       *           xyz vertex positions (3 per vertex)
+       * @param indices
+       *           triangle vertex indices (3 per face)
+       * @return
+       */
+      public static Triangles fromIndexed(final float[] positions, final int[] indices) {
+         final Triangles triangles = new Triangles(indices.length / 3);
+
+         for (int i = 0; i < triangles.getCapacity(); i++) {
+            triangles.set(i, positions, indices[i * 3] * 3, indices[(i * 3) + 1] * 3, indices[(i * 3) + 2] * 3);
+         }
+
+         return triangles;
+      }
+
+      public void set(final int index, final float[] positions, final int p0, final int p1, final int p2) {
+         this.x0[index] = positions[p0];
+         this.y0[index] = positions[p0 + 1];
+         this.z0[index] = positions[p0 + 2];
+         this.x1[index] = positions[p1];
+         this.y1[index] = positions[p1 + 1];
+         this.z1[index] = positions[p1 + 2];
+         this.x2[index] = positions[p2];
+         this.y2[index] = positions[p2 + 1];
+         this.z2[index] = positions[p2 + 2];
+      }
+   }
+
+   /**
+    * Rays as one array per coordinate of origin and direction.
+    */
+   public static class Rays {
+      public final double[] ox, oy, oz;
+      public final double[] dx, dy, dz;
+
+      public Rays(final int capacity) {
+         this.ox = new double[capacity];
+         this.oy = new double[capacity];
+         this.oz = new double[capacity];
+         this.dx = new double[capacity];
+         this.dy = new double[capacity];
+         this.dz = new double[capacity];
+      }
+
+      public int getCapacity() {
+         return this.ox.length;
+      }
+
+      public void set(final int index, final double ox, final double oy, final double oz, final double dx, final double dy, final double dz) {
+         this.ox[index] = ox;
+         this.oy[index] = oy;
+         this.oz[index] = oz;
+         this.dx[index] = dx;
+         this.dy[index] = dy;
+         this.dz[index] = dz;
+      }
+   }
+
+   private RayTriangleKernel() {
+      // statics only
+   }
+
+   /**
+    * Intersects one ray with triangles [start, start + count) and writes each distance (or positive infinity for a
+    * miss) to distances[0, count).
+    *
+    * @param ox
+    * @param oy
+    * @param oz
+    * @param dx
+    * @param dy
+    * @param dz
+    * @param triangles
+    * @param start
+    * @param count
+    * @param distances
+    */
+   public static void intersect(final double ox, final double oy, final double oz, final double dx, final double dy, final double dz, final Triangles triangles, final int start, final int count, final double[] distances) {
+      final float[] ax = triangles.x0, ay = triangles.y0, az = triangles.z0;
+      final float[] bx = triangles.x1, by = triangles.y1, bz = triangles.z1;
+      final float[] cx = triangles.x2, cy = triangles.y2, cz = triangles.z2;
+
+      for (int i = 0; i < count; i++) {
+         final int j = start + i;
+         final double x0 = ax[j], y0 = ay[j], z0 = az[j];
+         final double e1x = bx[j] - x0, e1y = by[j] - y0, e1z = bz[j] - z0;
+         final double e2x = cx[j] - x0, e2y = cy[j] - y0, e2z = cz[j] - z0;
+
+         final double px = (dy * e2z) - (dz * e2y);
+         final double py = (dz * e2x) - (dx * e2z);
+         final double pz = (dx * e2y) - (dy * e2x);
+         final double det = (e1x * px) + (e1y * py) + (e1z * pz);
+         final double invDet = 1.0 / det;
+
+         final double tx = ox - x0, ty = oy - y0, tz = oz - z0;
+         final double u = ((tx * px) + (ty * py) + (tz * pz)) * invDet;
+
+         final double qx = (ty * e1z) - (tz * e1y);
+         final double qy = (tz * e1x) - (tx * e1z);
+         final double qz = (tx * e1y) - (ty * e1x);
+         final double v = ((dx * qx) + (dy * qy) + (dz * qz)) * invDet;
+         final double t = ((e2x * qx) + (e2y * qy) + (e2z * qz)) * invDet;
+
+         // NaNs from a zero determinant fail every comparison
+         final boolean hit = (det != 0) & (u >= 0) & (u <= 1) & (v >= 0) & ((u + v) <= 1) & (t > 0);
+         distances[i] = hit ? t : Double.POSITIVE_INFINITY;
+      }
+   }
+
+   /**
+    * Intersects rays [start, start + count) with one triangle and keeps the nearest hit per ray: where the triangle is
+    * closer than distances[i] it replaces it and faces[i] is set to the given face id.
+    *
+    * @param rays
+    * @param start
+    * @param count
+    * @param x0
+    * @param y0
+    * @param z0
+    * @param x1
+    * @param y1
+    * @param z1
+    * @param x2
+    * @param y2
+    * @param z2
+    * @param face
+    *           the id to record for hits on this triangle
+    * @param distances
+    *           the nearest distance per ray so far (indexed from zero); positive infinity for none
+    * @param faces
+    *           the nearest face per ray so far (indexed from zero) or null
+    */
+   public static void intersect(final Rays rays, final int start, final int count, final double x0, final double y0, final double z0, final double x1, final double y1, final double z1, final double x2, final double y2, final double z2, final int face, final double[] distances, final int[] faces) {
+      final double e1x = x1 - x0, e1y = y1 - y0, e1z = z1 - z0;
+      final double e2x = x2 - x0, e2y = y2 - y0, e2z = z2 - z0;
+      final double[] rox = rays.ox, roy = rays.oy, roz = rays.oz;
+      final double[] rdx = rays.dx, rdy = rays.dy, rdz = rays.dz;
+
+      for (int i = 0; i < count; i++) {
+         final int j = start + i;
+         final double dx = rdx[j], dy = rdy[j], dz = rdz[j];
+
+         final double px = (dy * e2z) - (dz * e2y);
+         final double py = (dz * e2x) - (dx * e2z);
+         final double pz = (dx * e2y) - (dy * e2x);
+         final double det = (e1x * px) + (e1y * py) + (e1z * pz);
+         final double invDet = 1.0 / det;
+
+         final double tx = rox[j] - x0, ty = roy[j] - y0, tz = roz[j] - z0;
+         final double u = ((tx * px) + (ty * py) + (tz * pz)) * invDet;
+
+         final double qx = (ty * e1z) - (tz * e1y);
+         final double qy = (tz * e1x) - (tx * e1z);
+         final double qz = (tx * e1y) - (ty * e1x);
+         final double v = ((dx * qx) + (dy * qy) + (dz * qz)) * invDet;
+         final double t = ((e2x * qx) + (e2y * qy) + (e2z * qz)) * invDet;
+
+         final boolean hit = (det != 0) & (u >= 0) & (u <= 1) & (v >= 0) & ((u + v) <= 1) & (t > 0) & (t < distances[i]);
+         distances[i] = hit ? t : distances[i];
+
+         if (faces != null) {
+            faces[i] = hit ? face : faces[i];
+         }
+      }
+   }
+
+   /**
+    * Returns the index of the smallest finite distance in [0, count) or -1 if all are infinite.
+    *
+    * @param distances
+    * @param count
+    * @return
+    */
+   public static int nearest(final double[] distances, final int count) {
+      int nearest = -1;
+      double min = Double.POSITIVE_INFINITY;
+
+      for (int i = 0; i < count; i++) {
+         if (distances[i] < min) {
+            min = distances[i];
+            nearest = i;
+         }
+      }
+
+      return nearest;
+   }
+
+   /**
+    * Rough comparison of the allocating single-ray test, the scalar allocation-free test and the batched kernel. JMH is
+    * not part of this build so this uses warmed-up System.nanoTime loops; run with -server and compare orders of
+    * magnitude only.
+    *
+    * @param args
+    */
+   public static void main(final String[] args) {
+      final int triangleCount = 4096;
+      final int rayCount = 256;
+      final Random random = new Random(42);
+      final float[] positions = new float[triangleCount * 9];
+      final int[] indices = new int[triangleCount * 3];
+
+      for (int i = 0; i < positions.length; i++) {
+         positions[i] = random.nextFloat();
+      }
+
+      for (int i = 0; i < indices.length; i++) {
+         indices[i] = i;
+      }
+
+      final Triangles triangles = Triangles.fromIndexed(positions, indices);
+      final Rays rays = new Rays(rayCount);
+
+      for (int i = 0; i < rayCount; i++) {
+         rays.set(i, random.nextDouble(), random.nextDouble(), -1, random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1);
+      }
+
+      final double[] distances = new double[Math.max(triangleCount, rayCount)];
+      final int[] faces = new int[rayCount];
+      final Tuple3d v0 = new Tuple3d(), v1 = new Tuple3d(), v2 = new Tuple3d(), origin = new Tuple3d();
+      final Vector3d direction = new Vector3d();
+      final double tests = (double) triangleCount * rayCount;
+
+      for (int round = 0; round < 5; round++) {
+         long start = System.nanoTime();
+         int hits = 0;
+
+         for (int r = 0; r < rayCount; r++) {
+            origin.set(rays.ox[r], rays.oy[r], rays.oz[r]);
+            direction.set(rays.dx[r], rays.dy[r], rays.dz[r]);
+
+            for (int i = 0; i < triangleCount; i++) {
+               v0.set(triangles.x0[i], triangles.y0[i], triangles.z0[i]);
+               v1.set(triangles.x1[i], triangles.y1[i], triangles.z1[i]);
+               v2.set(triangles.x2[i], triangles.y2[i], triangles.z2[i]);
+               hits += (IntersectionUtils.rayTriangleIntersection(v0, v1, v2, origin, direction) == null) ? 0 : 1;
+            }
+         }
+
+         final double allocating = (System.nanoTime() - start) / tests;
+         start = System.nanoTime();
+
+         for (int r = 0; r < rayCount; r++) {
+            for (int i = 0; i < triangleCount; i++) {
+               hits += (IntersectionUtils.rayTriangleDistance(rays.ox[r], rays.oy[r], rays.oz[r], rays.dx[r], rays.dy[r], rays.dz[r], triangles.x0[i], triangles.y0[i], triangles.z0[i], triangles.x1[i], triangles.y1[i], triangles.z1[i], triangles.x2[i], triangles.y2[i], triangles.z2[i]) == Double.POSITIVE_INFINITY) ? 0 : 1;
+            }
+         }
+
+         final double scalar = (System.nanoTime() - start) / tests;
+         start = System.nanoTime();
+
+         for (int r = 0; r < rayCount; r++) {
+            RayTriangleKernel.intersect(rays.ox[r], rays.oy[r], rays.oz[r], rays.dx[r], rays.dy[r], rays.dz[r], triangles, 0, triangleCount, distances);
+            hits += RayTriangleKernel.nearest(distances, triangleCount) + 1;
+         }
+
+         final double batched = (System.nanoTime() - start) / tests;
+         start = System.nanoTime();
+         Arrays.fill(distances, 0, rayCount, Double.POSITIVE_INFINITY);
+
+         for (int i = 0; i < triangleCount; i++) {
+            RayTriangleKernel.intersect(rays, 0, rayCount, triangles.x0[i], triangles.y0[i], triangles.z0[i], triangles.x1[i], triangles.y1[i], triangles.z1[i], triangles.x2[i], triangles.y2[i], triangles.z2[i], i, distances, faces);
+         }
+
+         final double packet = (System.nanoTime() - start) / tests;
+
+         System.out.println(String.format("round %d: allocating %.2f ns, scalar %.2f ns, one ray/many triangles %.2f ns, packet %.2f ns per test (%d)", round, allocating, scalar, batched, packet, hits));
+      }
+   }
+}
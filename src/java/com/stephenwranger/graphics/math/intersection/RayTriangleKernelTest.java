@@ -0,0 +1,77 @@
+package com.stephenwranger.graphics.math.intersection;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RayTriangleKernelTest {
+   private static final int TRIANGLE_COUNT = 500;
+   private static final int RAY_COUNT      = 200;
+
+   @Test
+   public void testMatchesScalar() {
+      final Random random = new Random(5);
+      final float[] positions = new float[TRIANGLE_COUNT * 9];
+      final int[] indices = new int[TRIANGLE_COUNT * 3];
+
+      for (int i = 0; i < positions.length; i++) {
+         positions[i] = random.nextFloat();
+      }
+
+      for (int i = 0; i < indices.length; i++) {
+         indices[i] = i;
+      }
+
+      // a degenerate (zero area) triangle
+      System.arraycopy(positions, 0, positions, 3, 3);
+
+      final RayTriangleKernel.Triangles triangles = RayTriangleKernel.Triangles.fromIndexed(positions, indices);
+      final RayTriangleKernel.Rays rays = new RayTriangleKernel.Rays(RAY_COUNT);
+
+      for (int i = 0; i < RAY_COUNT; i++) {
+         rays.set(i, random.nextDouble(), random.nextDouble(), -1, random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1);
+      }
+
+      final double[] expected = new double[RAY_COUNT];
+      final int[] expectedFaces = new int[RAY_COUNT];
+      final double[] distances = new double[TRIANGLE_COUNT];
+      Arrays.fill(expected, Double.POSITIVE_INFINITY);
+      Arrays.fill(expectedFaces, -1);
+
+      for (int r = 0; r < RAY_COUNT; r++) {
+         RayTriangleKernel.intersect(rays.ox[r], rays.oy[r], rays.oz[r], rays.dx[r], rays.dy[r], rays.dz[r], triangles, 0, TRIANGLE_COUNT, distances);
+
+         for (int i = 0; i < TRIANGLE_COUNT; i++) {
+            final int p = i * 9;
+            final double scalar = IntersectionUtils.rayTriangleDistance(rays.ox[r], rays.oy[r], rays.oz[r], rays.dx[r], rays.dy[r], rays.dz[r], positions[p], positions[p + 1], positions[p + 2], positions[p + 3], positions[p + 4], positions[p + 5], positions[p + 6], positions[p + 7], positions[p + 8]);
+            assertEquals(scalar, distances[i], 0.0);
+
+            if (scalar < expected[r]) {
+               expected[r] = scalar;
+               expectedFaces[r] = i;
+            }
+         }
+
+         assertEquals(expectedFaces[r], RayTriangleKernel.nearest(distances, TRIANGLE_COUNT));
+      }
+
+      // the packet kernel over every triangle must end with the same nearest hits
+      final double[] packet = new double[RAY_COUNT];
+      final int[] faces = new int[RAY_COUNT];
+      Arrays.fill(packet, Double.POSITIVE_INFINITY);
+      Arrays.fill(faces, -1);
+
+      for (int i = 0; i < TRIANGLE_COUNT; i++) {
+         final int p = i * 9;
+         RayTriangleKernel.intersect(rays, 0, RAY_COUNT, positions[p], positions[p + 1], positions[p + 2], positions[p + 3], positions[p + 4], positions[p + 5], positions[p + 6], positions[p + 7], positions[p + 8], i, packet, faces);
+      }
+
+      for (int r = 0; r < RAY_COUNT; r++) {
+         assertEquals(expected[r], packet[r], 0.0);
+         assertEquals(expectedFaces[r], faces[r]);
+      }
+   }
+}
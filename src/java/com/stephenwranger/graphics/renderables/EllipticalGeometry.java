@@ -1,12 +1,15 @@
 package com.stephenwranger.graphics.renderables;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
 
+import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.fixedfunc.GLLightingFunc;
@@ -14,10 +17,11 @@ import com.jogamp.opengl.glu.GLU;
 import com.stephenwranger.graphics.Scene;
 import com.stephenwranger.graphics.bounds.BoundingSphere;
 import com.stephenwranger.graphics.bounds.BoundingVolume;
-import com.stephenwranger.graphics.bounds.BoundsUtils;
 import com.stephenwranger.graphics.bounds.BoundsUtils.FrustumResult;
+import com.stephenwranger.graphics.bounds.DynamicAabbTree;
+import com.stephenwranger.graphics.bounds.FrustumCuller;
 import com.stephenwranger.graphics.color.Color4f;
-import com.stephenwranger.graphics.math.CameraUtils;
+import com.stephenwranger.graphics.math.LodSelector;
 import com.stephenwranger.graphics.math.PickingHit;
 import com.stephenwranger.graphics.math.PickingRay;
 import com.stephenwranger.graphics.math.Quat4d;
@@ -25,9 +29,18 @@ import com.stephenwranger.graphics.math.Tuple2d;
 import com.stephenwranger.graphics.math.Tuple3d;
 import com.stephenwranger.graphics.math.Vector3d;
 import com.stephenwranger.graphics.math.intersection.Ellipsoid;
-import com.stephenwranger.graphics.math.intersection.Plane;
-import com.stephenwranger.graphics.utils.BiConsumerSupplier;
-import com.stephenwranger.graphics.utils.TupleMath;
+import com.stephenwranger.graphics.utils.BoundedLoadScheduler;
+import com.stephenwranger.graphics.utils.LoadScheduler;
+import com.stephenwranger.graphics.utils.LoadStats;
+import com.stephenwranger.graphics.utils.ResidencyCache;
+import com.stephenwranger.graphics.utils.ResidencyStats;
+import com.stephenwranger.graphics.utils.buffers.ColorRegion;
+import com.stephenwranger.graphics.utils.buffers.DataType;
+import com.stephenwranger.graphics.utils.buffers.NormalRegion;
+import com.stephenwranger.graphics.utils.buffers.SegmentedVertexBufferPool;
+import com.stephenwranger.graphics.utils.buffers.TextureRegion;
+import com.stephenwranger.graphics.utils.buffers.VertexRegion;
+import com.stephenwranger.graphics.utils.terrain.AltitudeSource;
 
 public class EllipticalGeometry extends Renderable {
    public static final int                                  CENTER             = 0;
@@ -41,9 +54,15 @@ public class EllipticalGeometry extends Renderable {
    public static final int                                  WEST               = 8;
 
    private static final double                              SCREEN_EDGE_FACTOR = 500;
-   private static final double                              SCREEN_AREA_FACTOR = EllipticalGeometry.SCREEN_EDGE_FACTOR * EllipticalGeometry.SCREEN_EDGE_FACTOR;
+   private static final double                              DEFAULT_LOAD_FACTOR = 0.75;
+   /** skirt depth as a fraction of the segment's bounding radius */
+   private static final double                              SKIRT_FACTOR       = 0.05;
    private static final int                                 MAX_DEPTH          = Integer.MAX_VALUE;
    private static final double                              MAX_OFFSET         = 30.0;
+   /** 72 vertices of 48 bytes per segment, so about 3.5MB per buffer */
+   private static final int                                 SEGMENTS_PER_BUFFER = 1024;
+   /** the time spent each frame moving buffered segments into lower buffers so emptied ones can be deleted */
+   private static final long                                COMPACTION_NANOS   = 1000000L;
 
    //@formatter:off
    private static final double[] LONGITUDE_OFFSETS = new double[] {
@@ -71,26 +90,53 @@ public class EllipticalGeometry extends Renderable {
    //@formatter:on
 
    private final Ellipsoid                                  ellipsoid;
-   private final BiConsumerSupplier<Double, Double, Double> altitudeSupplier;
+   private final AltitudeSource                             altitudeSource;
    private final Consumer<EllipticalSegment>                setTextureFunction;
    private final BoundingSphere                             bounds;
    private final Tuple3d[]                                  mainVertices       = new Tuple3d[12];
    private final int[][]                                    mainFaces          = new int[20][3];
    private final List<EllipticalSegment>                    segments           = new LinkedList<>();
-   private final Set<EllipticalSegment>                     renderedSegments   = new HashSet<>();
-   private final Tuple3d                                    origin             = new Tuple3d(0, 0, 0);
+   // identity sets; unlike HashSet they do not create an entry object per add, so swapping them every frame is free
+   private final Set<EllipticalSegment>                     renderedSegments   = Collections.newSetFromMap(new IdentityHashMap<>());
+   private final List<EllipticalSegment>                    texturesToClear    = new ArrayList<>();
+   private final List<EllipticalSegment>                    evicted            = new ArrayList<>();
+   private final List<EllipticalSegment>                    buffersToClear     = new ArrayList<>();
+   /** the buffered segments of the frame by their anchor, which compare by identity; the lists are reused */
+   private final Map<Tuple3d, List<EllipticalSegment>>      anchorGroups       = new IdentityHashMap<>();
+   private final List<List<EllipticalSegment>>              usedGroups         = new ArrayList<>();
+   private final List<List<EllipticalSegment>>              freeGroups         = new ArrayList<>();
+   private final List<EllipticalSegment>                    segmentsToLoad     = new ArrayList<>();
+   private final ResidencyCache<EllipticalSegment>          geometryCache      = new ResidencyCache<>(256L << 20, this::evictChildren);
+   private final ResidencyCache<EllipticalSegment>          textureCache       = new ResidencyCache<>(512L << 20, this.texturesToClear::add);
    private final Color4f                                    color              = Color4f.white();
-   //   private final SegmentedVertexBufferPool                  vbo;
-
-   private double                                           loadFactor         = 0.75;
+   private final FrustumCuller                              culler             = new FrustumCuller();
+   /** min xyz, max xyz of each top level segment in list order */
+   private final double[]                                   segmentBounds;
+   private final int[]                                      segmentResults;
+   private final double[]                                   extents            = new double[6];
+   private final double[]                                   frustumPlanes      = new double[24];
+   private final Tuple3d                                    sceneOrigin        = new Tuple3d();
+   private final Tuple3d                                    camera             = new Tuple3d();
+   private final LodSelector                                lodSelector        = new LodSelector(EllipticalGeometry.getThreshold(EllipticalGeometry.DEFAULT_LOAD_FACTOR), 0.1);
+   private final MidpointCache                              midpoints          = new MidpointCache();
+   private final LoadScheduler<EllipticalSegment>           immediateLoader    = LoadScheduler.immediate();
+   private LoadScheduler<EllipticalSegment>                 loadScheduler      = EllipticalGeometry.createLoadScheduler();
+   private final SegmentedVertexBufferPool                  vbo                = new SegmentedVertexBufferPool(EllipticalSegment.MAX_VERTEX_COUNT, EllipticalGeometry.SEGMENTS_PER_BUFFER,
+         GL.GL_TRIANGLES, GL.GL_DYNAMIC_DRAW, new VertexRegion(3, DataType.FLOAT), new NormalRegion(DataType.FLOAT), new TextureRegion(2, DataType.FLOAT), new ColorRegion(4, DataType.FLOAT));
+
+   private double                                           loadFactor         = EllipticalGeometry.DEFAULT_LOAD_FACTOR;
    private boolean                                          isLightingEnabled  = true;
+   private boolean                                          isSkirtsEnabled    = false;
+   private boolean                                          isBuffersEnabled   = true;
+   /** incremented whenever all buffered segments have to be uploaded again */
+   private int                                              bufferVersion      = 0;
 
-   public EllipticalGeometry(final GL2 gl, final Ellipsoid ellipsoid, final double boundedRadius, final int subdivisions, final BiConsumerSupplier<Double, Double, Double> altitudeSupplier,
+   public EllipticalGeometry(final GL2 gl, final Ellipsoid ellipsoid, final double boundedRadius, final int subdivisions, final AltitudeSource altitudeSource,
          final Consumer<EllipticalSegment> setTextureFunction) {
       super(new Tuple3d(), new Quat4d());
 
       this.ellipsoid = ellipsoid;
-      this.altitudeSupplier = altitudeSupplier;
+      this.altitudeSource = altitudeSource;
       this.setTextureFunction = setTextureFunction;
       this.bounds = new BoundingSphere(new Tuple3d(), boundedRadius);
 
@@ -101,7 +147,7 @@ public class EllipticalGeometry extends Renderable {
             for (int i = 0; i < EllipticalGeometry.LONGITUDE_OFFSETS.length; i++) {
                final double lonWithOffset = lon + EllipticalGeometry.LONGITUDE_OFFSETS[i];
                final double latWithOffset = lat + EllipticalGeometry.LATITUDE_OFFSETS[i];
-               final double alt = altitudeSupplier.getValue(lonWithOffset, latWithOffset);
+               final double alt = altitudeSource.sample(lonWithOffset, latWithOffset);
 
                final Tuple3d lonLatAlt = new Tuple3d(lonWithOffset, latWithOffset, alt);
                final Tuple3d xyz = this.ellipsoid.toXYZ(lonLatAlt);
@@ -118,6 +164,16 @@ public class EllipticalGeometry extends Renderable {
          }
       }
 
+      this.segmentBounds = new double[this.segments.size() * 6];
+      this.segmentResults = new int[this.segments.size()];
+      int index = 0;
+
+      for (final EllipticalSegment segment : this.segments) {
+         DynamicAabbTree.getExtents(segment.getBoundingVolume(), this.extents);
+         System.arraycopy(this.extents, 0, this.segmentBounds, index * 6, 6);
+         index++;
+      }
+
       if (subdivisions > 0) {
          // pre-segment so initial rendering isn't chunky
          for (final EllipticalSegment segment : this.segments) {
@@ -150,6 +206,36 @@ public class EllipticalGeometry extends Renderable {
       return this.loadFactor;
    }
 
+   public LoadStats getLoadStats() {
+      return this.loadScheduler.getStats();
+   }
+
+   /**
+    * Shuts down the load scheduler, which ends the worker threads of the default one; segments are no longer split
+    * afterwards.
+    */
+   public void dispose() {
+      this.loadScheduler.shutdown();
+   }
+
+   /**
+    * Returns the residency of split segments; a hit is a rendered segment whose children were loaded.
+    *
+    * @return
+    */
+   public ResidencyStats getGeometryStats() {
+      return this.geometryCache.getStats();
+   }
+
+   /**
+    * Returns the residency of segment textures; a hit is a rendered segment whose textures were uploaded.
+    *
+    * @return
+    */
+   public ResidencyStats getTextureStats() {
+      return this.textureCache.getStats();
+   }
+
    public boolean isLightingEnabled() {
       return this.isLightingEnabled;
    }
@@ -168,44 +254,96 @@ public class EllipticalGeometry extends Renderable {
          gl.glDisable(GLLightingFunc.GL_COLOR_MATERIAL);
       }
 
-      final Tuple3d origin = scene.getOrigin();
+      final Tuple3d origin = scene.getOrigin(this.sceneOrigin);
+      this.renderedSegments.clear();
 
-      // TODO split/add/remove via LOD
-      //      boolean originChanged = false;
+      // classify all top level segments in one pass; the frustum planes are relative to the scene origin and no
+      // planes (everything inside) before the scene has set up its first frame
+      this.culler.setPlanes(this.frustumPlanes, scene.getFrustumPlanes(this.frustumPlanes) ? 6 : 0, origin);
+      this.culler.classifyAll(this.segmentBounds, this.segmentResults.length, this.segmentResults);
+      scene.getCameraPosition(this.camera);
+      this.lodSelector.setFrame(this.camera, scene.getProjectionMatrix(), scene.getViewport()[3]);
+      int index = 0;
 
-      if (this.origin.distance(origin) > 1) {
-         this.origin.set(origin);
-         //         originChanged = true;
+      for (final EllipticalSegment segment : this.segments) {
+         if (this.segmentResults[index++] != FrustumCuller.OUTSIDE) {
+            this.addSegmentsToRender(segment, 0, this.renderedSegments);
+         }
       }
 
-      final List<EllipticalSegment> previous = new ArrayList<>();
-      previous.addAll(this.renderedSegments);
-      this.renderedSegments.clear();
+      // splits not requested again this frame are out of view or no longer detailed enough to be needed
+      this.loadScheduler.endFrame();
 
-      for (final EllipticalSegment segment : this.segments) {
-         this.renderedSegments.addAll(this.getSegmentsToRender(gl, scene, segment, false, 0));
+      for (final EllipticalSegment segment : this.renderedSegments) {
+         if (!this.textureCache.touch(segment) && (segment.getTextureCount() > 0)) {
+            this.textureCache.put(segment, segment.getTextureBytes());
+         }
       }
-      //      System.out.println("segment count: " + this.renderedSegments.size());
 
-      //      for (final EllipticalSegment segment : this.renderedSegments) {
-      //         this.loadVertices(gl, segment, originChanged);
-      //      }
+      // release the least recently rendered subtrees and textures over budget; they are recreated when needed again
+      this.geometryCache.endFrame();
+      this.textureCache.endFrame();
 
-      for (final EllipticalSegment segment : previous) {
-         if (!this.renderedSegments.contains(segment)) {
-            //            this.vbo.clearSegmentObject(gl, segment);
-            segment.clearTextures(gl);
-         }
+      for (final EllipticalSegment segment : this.texturesToClear) {
+         segment.clearTextures(gl);
       }
 
+      this.texturesToClear.clear();
+
+      for (final EllipticalSegment segment : this.buffersToClear) {
+         this.vbo.clearSegmentObject(gl, segment);
+      }
+
+      this.buffersToClear.clear();
+      this.vbo.compact(gl, EllipticalGeometry.COMPACTION_NANOS);
+
       gl.glLineWidth(3f);
-      //      this.vbo.render(gl, this.renderedSegments);
+
+      // segments with a single texture are drawn from the pooled buffers, uploaded once, in as few calls as possible;
+      // the others, and all of them if the buffers are disabled, in immediate mode
+      if (this.isBuffersEnabled) {
+         for (final EllipticalSegment segment : this.renderedSegments) {
+            if (segment.getTextureCount() <= 1) {
+               this.collectVertices(segment);
+               this.addToAnchorGroup(segment);
+            }
+         }
+
+         // everything that changed this frame goes up in one transfer per buffer; the segments write their vertices
+         // relative to their anchors, not the origin
+         this.vbo.setSegmentObjects(gl, origin, this.segmentsToLoad);
+
+         for (final EllipticalSegment segment : this.segmentsToLoad) {
+            segment.setBufferVersion(this.bufferVersion);
+         }
+
+         this.segmentsToLoad.clear();
+
+         // the segments sharing an anchor are drawn together, moved from their anchor to the current origin
+         for (int i = 0; i < this.usedGroups.size(); i++) {
+            final List<EllipticalSegment> group = this.usedGroups.get(i);
+            final Tuple3d anchor = group.get(0).getAnchor();
+
+            gl.glPushMatrix();
+            gl.glTranslated(anchor.x - origin.x, anchor.y - origin.y, anchor.z - origin.z);
+            this.vbo.render(gl, group);
+            gl.glPopMatrix();
+
+            group.clear();
+            this.freeGroups.add(group);
+         }
+
+         this.anchorGroups.clear();
+         this.usedGroups.clear();
+      }
 
       EllipticalSegment currentSegment = null;
 
       for (final EllipticalSegment segment : this.renderedSegments) {
-         currentSegment = segment;
-         segment.render(gl, glu, scene);
+         if (!this.isBuffersEnabled || (segment.getTextureCount() > 1)) {
+            currentSegment = segment;
+            segment.render(gl, glu, scene, this.getSkirtDepth(segment));
+         }
       }
 
       if (currentSegment != null) {
@@ -222,80 +360,135 @@ public class EllipticalGeometry extends Renderable {
       this.color.setColor(color);
    }
 
+   /**
+    * Sets the approximate heap memory allowed for split segments before the least recently rendered are dropped.
+    *
+    * @param bytes
+    */
+   public void setGeometryBudget(final long bytes) {
+      this.geometryCache.setBudget(bytes);
+   }
+
+   /**
+    * Sets the texture memory allowed for segment textures before the least recently rendered are released.
+    *
+    * @param bytes
+    */
+   public void setTextureBudget(final long bytes) {
+      this.textureCache.setBudget(bytes);
+   }
+
+   /**
+    * Enables skirts along the segment edges that hide the cracks between neighbouring segments of different depths.
+    *
+    * @param isSkirtsEnabled
+    */
+   public void setSkirtsEnabled(final boolean isSkirtsEnabled) {
+      if (this.isSkirtsEnabled != isSkirtsEnabled) {
+         this.isSkirtsEnabled = isSkirtsEnabled;
+         this.bufferVersion++;
+      }
+   }
+
+   /**
+    * Renders segments from pooled vertex buffers, which is the default, or in immediate mode if disabled.
+    *
+    * @param isBuffersEnabled
+    */
+   public void setBuffersEnabled(final boolean isBuffersEnabled) {
+      this.isBuffersEnabled = isBuffersEnabled;
+   }
+
+   public boolean isBuffersEnabled() {
+      return this.isBuffersEnabled;
+   }
+
+   /**
+    * Sets the fraction of the split threshold by which a segment's projected size has to cross the threshold before
+    * it is split or merged again; avoids flickering between levels.
+    *
+    * @param hysteresis
+    */
+   public void setLodHysteresis(final double hysteresis) {
+      this.lodSelector.setHysteresis(hysteresis);
+   }
+
    public void setLightingEnabled(final boolean isLightingEnabled) {
       this.isLightingEnabled = isLightingEnabled;
    }
 
    public void setLoadFactor(final double loadFactor) {
       this.loadFactor = loadFactor;
+      this.lodSelector.setThreshold(EllipticalGeometry.getThreshold(loadFactor));
    }
 
-   private List<EllipticalSegment> getSegmentsToRender(final GL2 gl, final Scene scene, final EllipticalSegment segment, final boolean ignoreFrustum, final int depth) {
-      final List<EllipticalSegment> toRender = new ArrayList<>();
-      final BoundingVolume bounds = segment.getBoundingVolume();
-      final Tuple3d origin = scene.getOrigin();
-      FrustumResult result = null;
+   /**
+    * Sets the scheduler that splits segments in the background; the default is a {@link BoundedLoadScheduler} with
+    * one worker per processor but one. The previous scheduler is shut down.
+    *
+    * @param loadScheduler
+    */
+   public void setLoadScheduler(final LoadScheduler<EllipticalSegment> loadScheduler) {
+      this.loadScheduler.shutdown();
+      this.loadScheduler = loadScheduler;
+   }
 
-      if (ignoreFrustum) {
-         result = FrustumResult.IN;
-      } else {
-         final Plane[] frustumPlanes = scene.getFrustumPlanes();
-         result = BoundsUtils.testFrustum(frustumPlanes, bounds.offset(origin));
-         //         ignoreFrustum = (result == FrustumResult.IN);
-      }
+   /**
+    * The default scheduler; a segment whose split failed stays unsplit and is requested again while it is refined.
+    */
+   private static LoadScheduler<EllipticalSegment> createLoadScheduler() {
+      final LoadScheduler<EllipticalSegment> scheduler = new BoundedLoadScheduler<>();
+      scheduler.setFailureHandler((segment, failure) -> {
+         System.err.println("could not split segment at depth " + segment.getDepth());
+         failure.printStackTrace();
+      });
+
+      return scheduler;
+   }
 
-      if (result != FrustumResult.OUT) {
-         if (depth < EllipticalGeometry.MAX_DEPTH) {
-            final GeodesicVertex[] vertices = segment.getVertices();
-            final Tuple2d[] screenSpace = new Tuple2d[vertices.length];
+   /**
+    * Adds the segments to render for the given segment, which must not be outside the view frustum, to the given set;
+    * the culler has to hold the current frustum planes and the LOD selector the current camera.
+    */
+   private void addSegmentsToRender(final EllipticalSegment segment, final int depth, final Set<EllipticalSegment> toRender) {
+      // the projected size of the segment's bounding sphere
+      final double distance = this.lodSelector.getDistance(segment.getBoundingCenter(), segment.getBoundingRadius());
+      final double error = this.lodSelector.getScreenSpaceError(2.0 * segment.getBoundingRadius(), distance);
+      boolean isRefined = false;
+
+      if ((depth < EllipticalGeometry.MAX_DEPTH) && this.lodSelector.isRefined(error, segment.isRefined())) {
+         final boolean hasChildren = segment.isSplit();
+
+         if (!this.geometryCache.touch(segment) && hasChildren) {
+            this.geometryCache.put(segment, EllipticalSegment.ESTIMATED_BYTES * 4);
+         }
 
-            for (int i = 0; i < vertices.length; i++) {
-               final Tuple3d screen = CameraUtils.gluProject(scene, vertices[i].getVertex());
+         final List<EllipticalSegment> children = segment.getChildSegments(this.ellipsoid, this.altitudeSource, this.setTextureFunction, this.midpoints, this.loadScheduler, error, distance);
 
-               if (screen == null) {
-                  return toRender;
-               }
+         // only go deeper if the current segment had already split
+         // this is so it doesn't attempt to go super deep in a single frame
+         isRefined = hasChildren && !children.isEmpty() && EllipticalGeometry.hasTextures(children);
 
-               screenSpace[i] = screen.xy();
-            }
+         if (isRefined) {
+            for (int i = 0; i < children.size(); i++) {
+               final EllipticalSegment child = children.get(i);
 
-            final Tuple2d max = TupleMath.getMax(screenSpace);
-            final Tuple2d min = TupleMath.getMin(screenSpace);
-            final double base = max.x - min.x;
-            final double height = max.y - min.y;
-            final double area = base * height;
-
-            final boolean isArea = area >= (EllipticalGeometry.SCREEN_AREA_FACTOR * this.loadFactor);
-            final boolean isEdges = ((base >= EllipticalGeometry.SCREEN_EDGE_FACTOR) && (height >= (EllipticalGeometry.SCREEN_EDGE_FACTOR / 2.0)))
-                  || ((height >= EllipticalGeometry.SCREEN_EDGE_FACTOR) && (base >= (EllipticalGeometry.SCREEN_EDGE_FACTOR / 2.0)));
-
-            if (isArea || isEdges) {
-               final boolean hasChildren = segment.isSplit();
-               final List<EllipticalSegment> children = segment.getChildSegments(this.ellipsoid, this.altitudeSupplier, this.setTextureFunction, true);
-
-               if ((children == null) || children.isEmpty() || !EllipticalGeometry.hasTextures(children)) {
-                  toRender.add(segment);
-               } else if (hasChildren) {
-                  // only go deeper if the current segment had already split
-                  // this is so it doesn't attempt to go super deep in a single frame
-                  for (final EllipticalSegment child : children) {
-                     toRender.addAll(this.getSegmentsToRender(gl, scene, child, ignoreFrustum, depth + 1));
-                  }
+               if (this.culler.classify(child.getBoundingVolume()) != FrustumResult.OUT) {
+                  this.addSegmentsToRender(child, depth + 1, toRender);
                }
-            } else {
-               toRender.add(segment);
             }
-         } else {
-            toRender.add(segment);
          }
       }
 
-      return toRender;
+      segment.setRefined(isRefined);
 
+      if (!isRefined) {
+         toRender.add(segment);
+      }
    }
 
    private void split(final EllipticalSegment segment, final int depth, final int maxDepth) {
-      final List<EllipticalSegment> children = segment.getChildSegments(this.ellipsoid, this.altitudeSupplier, this.setTextureFunction, false);
+      final List<EllipticalSegment> children = segment.getChildSegments(this.ellipsoid, this.altitudeSource, this.setTextureFunction, this.midpoints, this.immediateLoader, 0, 0);
 
       if (depth < maxDepth) {
          for (final EllipticalSegment child : children) {
@@ -304,9 +497,39 @@ public class EllipticalGeometry extends Renderable {
       }
    }
 
+   /**
+    * Drops the children of the given evicted segment and everything cached for its descendants.
+    */
+   private void evictChildren(final EllipticalSegment segment) {
+      this.evicted.clear();
+      segment.unsplit(this.evicted);
+
+      for (final EllipticalSegment descendant : this.evicted) {
+         this.geometryCache.remove(descendant);
+
+         // only the edge midpoints no longer used by a split neighbour leave the cache
+         descendant.releaseMidpoints(this.midpoints);
+
+         if (this.textureCache.remove(descendant)) {
+            this.texturesToClear.add(descendant);
+         }
+
+         if (descendant.getBufferIndex() != -1) {
+            this.buffersToClear.add(descendant);
+         }
+      }
+
+      this.evicted.clear();
+   }
+
+   private static double getThreshold(final double loadFactor) {
+      // the former area criterion: split once the projected area exceeds SCREEN_EDGE_FACTOR^2 * loadFactor
+      return EllipticalGeometry.SCREEN_EDGE_FACTOR * Math.sqrt(loadFactor);
+   }
+
    private static boolean hasTextures(final List<EllipticalSegment> segments) {
-      for (final EllipticalSegment segment : segments) {
-         if (segment.getTextureCount() == 0) {
+      for (int i = 0; i < segments.size(); i++) {
+         if (segments.get(i).getTextureCount() == 0) {
             return false;
          }
       }
@@ -314,9 +537,30 @@ public class EllipticalGeometry extends Renderable {
       return true;
    }
 
-   //   private void loadVertices(final GL2 gl, final EllipticalSegment segment, final boolean originChanged) {
-   //      if (originChanged || (segment.getSegmentPoolIndex() == -1) || (segment.getBufferIndex() == -1)) {
-   //         this.vbo.setSegmentObject(gl, this.origin, segment);
-   //      }
-   //   }
+   /**
+    * Queues the given segment for upload into its buffer slot unless it is there already with the current skirts.
+    */
+   private void collectVertices(final EllipticalSegment segment) {
+      if ((segment.getSegmentPoolIndex() == -1) || (segment.getBufferIndex() == -1) || (segment.getBufferVersion() != this.bufferVersion)) {
+         segment.setSkirtDepth(this.getSkirtDepth(segment));
+         this.segmentsToLoad.add(segment);
+      }
+   }
+
+   private void addToAnchorGroup(final EllipticalSegment segment) {
+      final Tuple3d anchor = segment.getAnchor();
+      List<EllipticalSegment> group = this.anchorGroups.get(anchor);
+
+      if (group == null) {
+         group = this.freeGroups.isEmpty() ? new ArrayList<>() : this.freeGroups.remove(this.freeGroups.size() - 1);
+         this.anchorGroups.put(anchor, group);
+         this.usedGroups.add(group);
+      }
+
+      group.add(segment);
+   }
+
+   private double getSkirtDepth(final EllipticalSegment segment) {
+      return this.isSkirtsEnabled ? segment.getBoundingRadius() * EllipticalGeometry.SKIRT_FACTOR : 0;
+   }
 }
@@ -2,6 +2,7 @@ package com.stephenwranger.graphics.renderables;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Consumer;
@@ -16,34 +17,60 @@ import com.stephenwranger.graphics.bounds.BoundingVolume;
 import com.stephenwranger.graphics.color.Color4f;
 import com.stephenwranger.graphics.math.PickingHit;
 import com.stephenwranger.graphics.math.PickingRay;
+import com.stephenwranger.graphics.math.ScratchPool;
 import com.stephenwranger.graphics.math.Tuple2d;
 import com.stephenwranger.graphics.math.Tuple3d;
 import com.stephenwranger.graphics.math.Vector3d;
 import com.stephenwranger.graphics.math.intersection.Ellipsoid;
 import com.stephenwranger.graphics.math.intersection.IntersectionUtils;
-import com.stephenwranger.graphics.utils.BiConsumerSupplier;
+import com.stephenwranger.graphics.utils.LoadScheduler;
 import com.stephenwranger.graphics.utils.TupleMath;
 import com.stephenwranger.graphics.utils.buffers.SegmentObject;
+import com.stephenwranger.graphics.utils.terrain.AltitudeSource;
 import com.stephenwranger.graphics.utils.textures.Texture2d;
 
 public class EllipticalSegment implements SegmentObject {
+   /** rough heap size of a segment: nine vertices of five tuples each plus the cached vertex arrays and bounds */
+   public static final long              ESTIMATED_BYTES = 2048;
+
    private static int[][]                faces          = new int[][] { { 0, 1, 2 }, { 0, 2, 3 }, { 0, 3, 4 }, { 0, 4, 5 }, { 0, 5, 6 }, { 0, 6, 7 }, { 0, 7, 8 }, { 0, 8, 1 } };
+   /** the triangles of the surface in {@link #loadBuffer(Tuple3d, ByteBuffer)} */
+   private static final int              SURFACE_VERTEX_COUNT = EllipticalSegment.faces.length * 3;
+   /** the triangles of the skirt, two per outer edge, that follow the surface if the skirt depth is not zero */
+   private static final int              SKIRT_VERTEX_COUNT   = EllipticalSegment.faces.length * 6;
+   /** the most vertices a segment puts into a buffer */
+   public static final int               MAX_VERTEX_COUNT     = EllipticalSegment.SURFACE_VERTEX_COUNT + EllipticalSegment.SKIRT_VERTEX_COUNT;
+   /**
+    * every this many levels a segment anchors its descendants at its own bounding center; the anchor stays within
+    * eight times a segment's size, so its float vertices keep their precision, and the segments sharing one can be
+    * drawn together
+    */
+   public static final int               ANCHOR_DEPTHS        = 3;
 
    private final GeodesicVertex[]        vertices;
    private final Tuple3d[]               cartesianVertices;
    private final Tuple3d[]               geodesicVertices;
-   private final List<EllipticalSegment> splitSegments   = new ArrayList<>();
+   private volatile List<EllipticalSegment> splitSegments   = Collections.emptyList();
    private final BoundingVolume          bounds;
+   private final Tuple3d                 center;
+   private final double                  radius;
    private final int                     depth;
+   /** the buffered vertices are relative to this; shared with the descendants up to {@link #ANCHOR_DEPTHS} down */
+   private Tuple3d                       anchor;
 
    private Texture2d                     baseTexture     = null;
    private Texture2d[]                   customTextures  = null;
    private Tuple2d[][]                   customTexCoords = null;
    private int                           poolIndex       = -1;
    private int                           bufferIndex     = -1;
+   /** the skirt depth and version of the vertices in the buffer */
+   private double                        skirtDepth      = 0;
+   private int                           bufferVersion   = -1;
+   /** whether the render traversal refined this segment in the previous frame; for LOD hysteresis */
+   private boolean                       isRefined       = false;
+   /** set once the parent dropped this segment; a split still loading is then discarded; guarded by this */
+   private boolean                       isDetached      = false;
 
-   private boolean                       hasChildren     = false;
-   
    private Texture2d enabledTexture = null;
 
    public EllipticalSegment(final GeodesicVertex[] vertices, final int depth) {
@@ -61,6 +88,16 @@ public class EllipticalSegment implements SegmentObject {
       final Tuple3d min = TupleMath.getMin(this.cartesianVertices);
       final Tuple3d max = TupleMath.getMax(this.cartesianVertices);
       this.bounds = new BoundingBox(min, max);
+      this.center = this.bounds.getCenter();
+
+      double radiusSquared = 0;
+
+      for (final Tuple3d vertex : this.cartesianVertices) {
+         radiusSquared = Math.max(radiusSquared, this.center.distanceSquared(vertex));
+      }
+
+      this.radius = Math.sqrt(radiusSquared);
+      this.anchor = this.center;
    }
 
    public void clearTextures(final GL2 gl) {
@@ -80,34 +117,155 @@ public class EllipticalSegment implements SegmentObject {
       return this.bufferIndex;
    }
 
+   /**
+    * Returns the version set with the last upload into a buffer or -1.
+    *
+    * @return
+    */
+   public int getBufferVersion() {
+      return this.bufferVersion;
+   }
+
    public Tuple3d[] getCartesianVertices() {
       return this.cartesianVertices.clone();
    }
 
-   public List<EllipticalSegment> getChildSegments(final Ellipsoid ellipsoid, final BiConsumerSupplier<Double, Double, Double> altitudeSupplier, final Consumer<EllipticalSegment> setTextureFunction, final boolean threaded) {
-      synchronized (this.splitSegments) {
-         if (!this.hasChildren) {
-            this.hasChildren = true;
-            
-            if (threaded) {
-               new Thread() {
-                  @Override
-                  public void run() {
-                     getChildSegmentsImpl(ellipsoid, altitudeSupplier, setTextureFunction);
-                  }
-               }.start();
-            } else {
-               getChildSegmentsImpl(ellipsoid, altitudeSupplier, setTextureFunction);
+   /**
+    * Returns the child segments, which are empty until they have been loaded; if they have not been loaded the load is
+    * requested from the given scheduler with the given priority.
+    *
+    * @param ellipsoid
+    * @param altitudeSource
+    * @param setTextureFunction
+    * @param midpoints
+    *           shares edge midpoints with the neighbours; may be null
+    * @param scheduler
+    * @param screenSpaceError
+    *           the error in pixels of this segment
+    * @param distance
+    *           the distance of this segment from the camera
+    * @return
+    */
+   public List<EllipticalSegment> getChildSegments(final Ellipsoid ellipsoid, final AltitudeSource altitudeSource, final Consumer<EllipticalSegment> setTextureFunction,
+         final MidpointCache midpoints, final LoadScheduler<EllipticalSegment> scheduler, final double screenSpaceError, final double distance) {
+      if (!this.isSplit()) {
+         scheduler.request(this, screenSpaceError, distance, () -> {
+            this.loadChildSegments(ellipsoid, altitudeSource, setTextureFunction, midpoints);
+         });
+      }
+
+      return this.isSplit() ? this.splitSegments : Collections.emptyList();
+   }
+
+   private void loadChildSegments(final Ellipsoid ellipsoid, final AltitudeSource altitudeSource, final Consumer<EllipticalSegment> setTextureFunction,
+         final MidpointCache midpoints) {
+      if (!this.isSplit()) {
+         final List<EllipticalSegment> children = EllipticalSegment.getChildSegments(ellipsoid, this, altitudeSource, setTextureFunction, midpoints);
+
+         synchronized (this) {
+            if (!this.isDetached) {
+               // published all at once as the render thread reads them without locking
+               this.splitSegments = Collections.unmodifiableList(children);
+               return;
+            }
+         }
+
+         // evicted while loading; nothing would ever release the children's midpoints
+         if (midpoints != null) {
+            for (final EllipticalSegment child : children) {
+               child.releaseMidpoints(midpoints);
             }
          }
       }
+   }
+
+   /**
+    * Returns the size of the custom textures of this segment, which {@link #clearTextures(GL2)} releases; the base
+    * texture is not included as it is usually shared.
+    *
+    * @return
+    */
+   public long getTextureBytes() {
+      long bytes = 0;
 
-      return Collections.unmodifiableList(this.splitSegments);
+      if (this.customTextures != null) {
+         for (final Texture2d texture : this.customTextures) {
+            bytes += texture.getSizeInBytes();
+         }
+      }
+
+      return bytes;
    }
-   
-   private void getChildSegmentsImpl(final Ellipsoid ellipsoid, final BiConsumerSupplier<Double, Double, Double> altitudeSupplier, final Consumer<EllipticalSegment> setTextureFunction) {
-      final List<EllipticalSegment> children = EllipticalSegment.getChildSegments(ellipsoid, EllipticalSegment.this, altitudeSupplier, setTextureFunction);
-      this.splitSegments.addAll(children);
+
+   /**
+    * Drops the child segments; they are loaded again on the next call to
+    * {@link #getChildSegments(Ellipsoid, AltitudeSource, Consumer, MidpointCache, LoadScheduler, double, double)}.
+    * The dropped descendants are detached, so splits of theirs that are still loading are discarded instead of
+    * published.
+    *
+    * @param removed
+    *           receives all dropped descendants
+    */
+   public void unsplit(final Collection<EllipticalSegment> removed) {
+      final List<EllipticalSegment> children;
+
+      synchronized (this) {
+         children = this.splitSegments;
+         this.splitSegments = Collections.emptyList();
+      }
+
+      for (final EllipticalSegment child : children) {
+         synchronized (child) {
+            child.isDetached = true;
+         }
+
+         removed.add(child);
+         child.unsplit(removed);
+      }
+   }
+
+   /**
+    * Releases the edge midpoints this segment took from the given cache when it was created; called once the segment
+    * has been dropped.
+    *
+    * @param midpoints
+    */
+   public void releaseMidpoints(final MidpointCache midpoints) {
+      midpoints.release(this.vertices[EllipticalGeometry.NORTH]);
+      midpoints.release(this.vertices[EllipticalGeometry.EAST]);
+      midpoints.release(this.vertices[EllipticalGeometry.SOUTH]);
+      midpoints.release(this.vertices[EllipticalGeometry.WEST]);
+   }
+
+   /**
+    * Returns the point the vertices put into buffers by {@link #loadBuffer(Tuple3d, ByteBuffer)} are relative to; not a
+    * copy. Segments that share an anchor return the identical instance.
+    *
+    * @return
+    */
+   public Tuple3d getAnchor() {
+      return this.anchor;
+   }
+
+   /**
+    * Returns the center of the bounding sphere; not a copy.
+    *
+    * @return
+    */
+   public Tuple3d getBoundingCenter() {
+      return this.center;
+   }
+
+   public double getBoundingRadius() {
+      return this.radius;
+   }
+
+   public boolean isRefined() {
+      return this.isRefined;
+   }
+
+   public void setRefined(final boolean isRefined) {
+      this.isRefined = isRefined;
    }
 
    public int getDepth() {
@@ -121,26 +279,22 @@ public class EllipticalSegment implements SegmentObject {
    public PickingHit getIntersection(final Renderable parent, final PickingRay ray) {
       final Tuple3d origin = ray.getOrigin();
       final Vector3d direction = ray.getDirection();
-      Tuple3d hit = null;
-      double distance = Double.MAX_VALUE;
+      double distance = Double.POSITIVE_INFINITY;
 
       for (int[] face : EllipticalSegment.faces) {
          final Tuple3d v0 = this.vertices[face[0]].getVertex();
          final Tuple3d v1 = this.vertices[face[1]].getVertex();
          final Tuple3d v2 = this.vertices[face[2]].getVertex();
-         final Tuple3d tempHit = IntersectionUtils.rayTriangleIntersection(v0, v1, v2, origin, direction);
-
-         if ((tempHit != null)) {
-            final double tempDistance = origin.distance(tempHit);
+         distance = Math.min(distance, IntersectionUtils.rayTriangleDistance(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z, v0.x, v0.y, v0.z, v1.x, v1.y, v1.z, v2.x, v2.y, v2.z));
+      }
 
-            if (tempDistance < distance) {
-               hit = tempHit;
-               distance = tempDistance;
-            }
-         }
+      if (distance == Double.POSITIVE_INFINITY) {
+         return PickingRay.NO_HIT;
       }
 
-      return (hit == null) ? PickingRay.NO_HIT : new PickingHit(parent, hit, ray.getOrigin().distance(hit));
+      final Tuple3d hit = new Tuple3d(origin.x + (direction.x * distance), origin.y + (direction.y * distance), origin.z + (direction.z * distance));
+
+      return new PickingHit(parent, hit, distance);
    }
 
    @Override
@@ -150,7 +304,7 @@ public class EllipticalSegment implements SegmentObject {
 
    @Override
    public Texture2d getTexture() {
-      return (this.customTextures == null) ? null : this.customTextures[0];
+      return (this.customTextures == null) ? this.baseTexture : this.customTextures[0];
    }
 
    public int getTextureCount() {
@@ -159,7 +313,7 @@ public class EllipticalSegment implements SegmentObject {
 
    @Override
    public int getVertexCount() {
-      return this.vertices.length;
+      return EllipticalSegment.SURFACE_VERTEX_COUNT + ((this.skirtDepth > 0) ? EllipticalSegment.SKIRT_VERTEX_COUNT : 0);
    }
 
    public GeodesicVertex[] getVertices() {
@@ -170,18 +324,37 @@ public class EllipticalSegment implements SegmentObject {
       return !this.splitSegments.isEmpty();
    }
 
+   /**
+    * Puts the surface triangles and, if the skirt depth is not zero, the skirt triangles into the given buffer as
+    * position, normal, texture coordinates and color floats; the texture coordinates are those of the first texture
+    * returned by {@link #getTexture()}. The positions are relative to {@link #getAnchor()} rather than the given origin,
+    * so the buffer stays valid however far the scene origin moves.
+    */
    @Override
    public void loadBuffer(final Tuple3d origin, final ByteBuffer buffer) {
-      for (int[] face : EllipticalSegment.faces) {
-         final GeodesicVertex v0 = this.vertices[face[0]];
-         final GeodesicVertex v1 = this.vertices[face[1]];
-         final GeodesicVertex v2 = this.vertices[face[2]];
-         v0.vertexIntoBuffer(origin, buffer);
-         v1.vertexIntoBuffer(origin, buffer);
-         v2.vertexIntoBuffer(origin, buffer);
+      final Tuple3d anchor = this.anchor;
+      final Tuple2d[] texCoords = (this.customTexCoords == null) ? null : this.customTexCoords[0];
+
+      for (final int[] face : EllipticalSegment.faces) {
+         for (final int index : face) {
+            this.vertexIntoBuffer(anchor, buffer, index, texCoords, 0);
+         }
+      }
+
+      if (this.skirtDepth > 0) {
+         // each outer edge and the same edge moved down along the normals
+         for (int j = 1; j < this.vertices.length; j++) {
+            final int next = (j == (this.vertices.length - 1)) ? 1 : j + 1;
+            this.vertexIntoBuffer(anchor, buffer, j, texCoords, 0);
+            this.vertexIntoBuffer(anchor, buffer, j, texCoords, this.skirtDepth);
+            this.vertexIntoBuffer(anchor, buffer, next, texCoords, 0);
+            this.vertexIntoBuffer(anchor, buffer, next, texCoords, 0);
+            this.vertexIntoBuffer(anchor, buffer, j, texCoords, this.skirtDepth);
+            this.vertexIntoBuffer(anchor, buffer, next, texCoords, this.skirtDepth);
+         }
       }
    }
-   
+
    public void disableTexture(final GL2 gl) {
       if(this.enabledTexture != null) {
          this.enabledTexture.disable(gl);
@@ -189,56 +362,73 @@ public class EllipticalSegment implements SegmentObject {
    }
 
    /**
-    * Used for testing multi-texture rendering.
-    * TODO: implement this using vbo and shader
+    * Renders this segment in immediate mode; {@link EllipticalGeometry} uses this when its segment buffers are
+    * disabled and for segments with more than one texture.
     *
     * @param gl
     * @param glu
     * @param scene
     */
    public void render(final GL2 gl, final GLU glu, final Scene scene) {
-      final Tuple3d origin = scene.getOrigin();
-
-      for (int i = 0; i < Math.max(1, ((this.customTextures == null) ? 1 : this.customTextures.length)); i++) {
-         final Texture2d texture = ((this.customTextures == null) || (this.customTextures.length < i)) ? this.baseTexture : this.customTextures[i];
-         final Tuple2d[] texCoord = ((this.customTexCoords == null) || (this.customTexCoords.length < i)) ? null : this.customTexCoords[i];
-
-         if (texture == null) {
-            gl.glEnable(GLLightingFunc.GL_COLOR_MATERIAL);
-            gl.glColorMaterial(GL.GL_FRONT, GLLightingFunc.GL_AMBIENT_AND_DIFFUSE);
-         } else {
-            gl.glDisable(GLLightingFunc.GL_COLOR_MATERIAL);
-            texture.enable(gl);
-            this.enabledTexture = texture;
-         }
+      this.render(gl, glu, scene, 0);
+   }
 
-         gl.glBegin(GL.GL_TRIANGLE_FAN);
+   /**
+    * Renders this segment with a skirt of the given depth hanging down from its outer edge, which hides the cracks
+    * between neighbours of different depths; no skirt if zero.
+    *
+    * @param gl
+    * @param glu
+    * @param scene
+    * @param skirtDepth
+    */
+   public void render(final GL2 gl, final GLU glu, final Scene scene, final double skirtDepth) {
+      final ScratchPool pool = ScratchPool.get();
+      pool.push();
 
-         for (int j = 0; j <= this.vertices.length; j++) {
-            final int index = (j == this.vertices.length) ? 1 : j;
-            final GeodesicVertex vertex = this.vertices[index];
-            final Tuple3d xyz = vertex.getVertex();
-            final Vector3d normal = vertex.getNormal();
-            final Color4f color = vertex.getColor();
+      try {
+         final Tuple3d origin = scene.getOrigin(pool.tuple());
 
-            gl.glColor4f(color.r, color.g, color.b, color.a);
+         for (int i = 0; i < Math.max(1, ((this.customTextures == null) ? 1 : this.customTextures.length)); i++) {
+            final Texture2d texture = ((this.customTextures == null) || (this.customTextures.length < i)) ? this.baseTexture : this.customTextures[i];
+            final Tuple2d[] texCoord = ((this.customTexCoords == null) || (this.customTexCoords.length < i)) ? null : this.customTexCoords[i];
 
-            if ((texCoord == null) || (texCoord.length < index)) {
-               final Tuple2d tc = vertex.getTextureCoordinates();
-               gl.glTexCoord2f((float) tc.x, (float) tc.y);
+            if (texture == null) {
+               gl.glEnable(GLLightingFunc.GL_COLOR_MATERIAL);
+               gl.glColorMaterial(GL.GL_FRONT, GLLightingFunc.GL_AMBIENT_AND_DIFFUSE);
             } else {
-               gl.glTexCoord2f((float) texCoord[index].x, (float) texCoord[index].y);
+               gl.glDisable(GLLightingFunc.GL_COLOR_MATERIAL);
+               texture.enable(gl);
+               this.enabledTexture = texture;
             }
 
-            gl.glNormal3f((float) normal.x, (float) normal.y, (float) normal.z);
-            gl.glVertex3f((float) (xyz.x - origin.x), (float) (xyz.y - origin.y), (float) (xyz.z - origin.z));
-         }
+            gl.glBegin(GL.GL_TRIANGLE_FAN);
+
+            for (int j = 0; j <= this.vertices.length; j++) {
+               this.vertex(gl, (j == this.vertices.length) ? 1 : j, texCoord, origin, 0);
+            }
 
-         gl.glEnd();
+            gl.glEnd();
+
+            if (skirtDepth > 0) {
+               // the outer ring (everything but the center) and the same ring moved down along the normals
+               gl.glBegin(GL2.GL_QUAD_STRIP);
+
+               for (int j = 1; j <= this.vertices.length; j++) {
+                  final int index = (j == this.vertices.length) ? 1 : j;
+                  this.vertex(gl, index, texCoord, origin, 0);
+                  this.vertex(gl, index, texCoord, origin, skirtDepth);
+               }
+
+               gl.glEnd();
+            }
 
-//         if (texture != null) {
-//            texture.disable(gl);
-//         }
+//            if (texture != null) {
+//               texture.disable(gl);
+//            }
+         }
+      } finally {
+         pool.pop();
       }
    }
 
@@ -247,6 +437,24 @@ public class EllipticalSegment implements SegmentObject {
       this.poolIndex = poolIndex;
       this.bufferIndex = bufferIndex;
    }
+
+   /**
+    * Sets the version of the vertices in the buffer, which the owner compares to decide whether to upload again.
+    *
+    * @param bufferVersion
+    */
+   public void setBufferVersion(final int bufferVersion) {
+      this.bufferVersion = bufferVersion;
+   }
+
+   /**
+    * Sets the depth of the skirt put into buffers by {@link #loadBuffer(Tuple3d, ByteBuffer)}; no skirt if zero.
+    *
+    * @param skirtDepth
+    */
+   public void setSkirtDepth(final double skirtDepth) {
+      this.skirtDepth = skirtDepth;
+   }
    
    public void setBaseTexture(final Texture2d baseTexture) {
       this.baseTexture = baseTexture;
@@ -255,9 +463,11 @@ public class EllipticalSegment implements SegmentObject {
    public void setTexture(final Texture2d[] textures, final Tuple2d[][] texCoords) {
       this.customTextures = textures;
       this.customTexCoords = texCoords;
+      // the buffered texture coordinates are stale
+      this.bufferVersion = -1;
    }
 
-   //   public static EllipticalSegment createSegment(final Tuple3d v0, final Tuple3d v1, final Tuple3d v2, final int depth, final Ellipsoid ellipsoid, final BiConsumerSupplier<Double, Double, Double> altitudeSupplier,
+   //   public static EllipticalSegment createSegment(final Tuple3d v0, final Tuple3d v1, final Tuple3d v2, final int depth, final Ellipsoid ellipsoid, final AltitudeSource altitudeSource,
    //         final Consumer<EllipticalSegment> setTextureFunction) {
    //      final Tuple3d[] corners = new Tuple3d[] { v0, v1, v2 };
    //      final GeodesicVertex[] vertices = new GeodesicVertex[3];
@@ -329,29 +539,92 @@ public class EllipticalSegment implements SegmentObject {
    //      }
    //   }
 
-   private static GeodesicVertex bisect(final Ellipsoid ellipsoid, final GeodesicVertex v0, final GeodesicVertex v1, final BiConsumerSupplier<Double, Double, Double> altitudeSupplier) {
-      final Tuple3d lonLatAlt0 = v0.getGeodesicVertex();
-      final Tuple3d lonLatAlt1 = v1.getGeodesicVertex();
-      final double midLon = (lonLatAlt0.x + lonLatAlt1.x) / 2.0;
-      final double midLat = (lonLatAlt0.y + lonLatAlt1.y) / 2.0;
-      final double midAlt = altitudeSupplier.getValue(midLon, midLat);
-      final Tuple3d lla = new Tuple3d(midLon, midLat, midAlt);
-      final Tuple3d xyz = ellipsoid.toXYZ(lla);
+   private void vertexIntoBuffer(final Tuple3d origin, final ByteBuffer buffer, final int index, final Tuple2d[] texCoords, final double depth) {
+      final Tuple2d texCoord = ((texCoords == null) || (texCoords.length <= index)) ? null : texCoords[index];
+      this.vertices[index].vertexIntoBuffer(origin, buffer, texCoord, depth);
+   }
+
+   private void vertex(final GL2 gl, final int index, final Tuple2d[] texCoord, final Tuple3d origin, final double depth) {
+      final GeodesicVertex vertex = this.vertices[index];
+      final Tuple3d xyz = vertex.getVertex();
+      final Vector3d normal = vertex.getNormal();
+      final Color4f color = vertex.getColor();
+
+      gl.glColor4f(color.r, color.g, color.b, color.a);
+
+      if ((texCoord == null) || (texCoord.length < index)) {
+         final Tuple2d tc = vertex.getTextureCoordinates();
+         gl.glTexCoord2f((float) tc.x, (float) tc.y);
+      } else {
+         gl.glTexCoord2f((float) texCoord[index].x, (float) texCoord[index].y);
+      }
+
+      gl.glNormal3f((float) normal.x, (float) normal.y, (float) normal.z);
+      gl.glVertex3f((float) ((xyz.x - (normal.x * depth)) - origin.x), (float) ((xyz.y - (normal.y * depth)) - origin.y), (float) ((xyz.z - (normal.z * depth)) - origin.z));
+   }
+
+   private static GeodesicVertex createVertex(final double lon, final double lat, final double alt, final double x, final double y, final double z) {
+      final Tuple3d lla = new Tuple3d(lon, lat, alt);
+      final Tuple3d xyz = new Tuple3d(x, y, z);
       final Vector3d normal = new Vector3d(xyz);
       normal.normalize();
       final Tuple3d base = new Tuple3d(normal);
-      final Tuple2d texCoord = new Tuple2d((midLon + 180) / 360.0, (midLat + 90) / 180.0);
+      final Tuple2d texCoord = new Tuple2d((lon + 180) / 360.0, (lat + 90) / 180.0);
 
       return new GeodesicVertex(base, xyz, normal, texCoord, Color4f.white(), lla);
    }
 
    private static EllipticalSegment createSegment(final Ellipsoid ellipsoid, final GeodesicVertex NW, final GeodesicVertex NE, final GeodesicVertex SE, final GeodesicVertex SW, final int depth,
-         final BiConsumerSupplier<Double, Double, Double> altitudeSupplier) {
-      final GeodesicVertex N = EllipticalSegment.bisect(ellipsoid, NW, NE, altitudeSupplier);
-      final GeodesicVertex E = EllipticalSegment.bisect(ellipsoid, NE, SE, altitudeSupplier);
-      final GeodesicVertex S = EllipticalSegment.bisect(ellipsoid, SE, SW, altitudeSupplier);
-      final GeodesicVertex W = EllipticalSegment.bisect(ellipsoid, SW, NW, altitudeSupplier);
-      final GeodesicVertex C = EllipticalSegment.bisect(ellipsoid, NW, SE, altitudeSupplier);
+         final AltitudeSource altitudeSource, final MidpointCache midpoints) {
+      // the N, E, S, W and C midpoints; the edge midpoints are shared with the neighbours through the cache and the
+      // ones not cached yet are sampled and converted to cartesian in one batch
+      final GeodesicVertex[] ends = new GeodesicVertex[] { NW, NE, NE, SE, SE, SW, SW, NW, NW, SE };
+      final GeodesicVertex[] created = new GeodesicVertex[5];
+      final int[] missing = new int[5];
+      final double[] lon = new double[5];
+      final double[] lat = new double[5];
+      final double[] alt = new double[5];
+      final double[] x = new double[5];
+      final double[] y = new double[5];
+      final double[] z = new double[5];
+      int count = 0;
+
+      for (int i = 0; i < 5; i++) {
+         final Tuple3d lonLatAlt0 = ends[i * 2].getGeodesicVertex();
+         final Tuple3d lonLatAlt1 = ends[(i * 2) + 1].getGeodesicVertex();
+         final double midLon = (lonLatAlt0.x + lonLatAlt1.x) / 2.0;
+         final double midLat = (lonLatAlt0.y + lonLatAlt1.y) / 2.0;
+
+         if ((i < 4) && (midpoints != null)) {
+            created[i] = midpoints.acquire(midLon, midLat);
+         }
+
+         if (created[i] == null) {
+            missing[count] = i;
+            lon[count] = midLon;
+            lat[count] = midLat;
+            count++;
+         }
+      }
+
+      altitudeSource.sample(lon, lat, alt, 0, count);
+      ellipsoid.toXYZ(lon, lat, alt, x, y, z, 0, count);
+
+      for (int j = 0; j < count; j++) {
+         final int i = missing[j];
+         created[i] = EllipticalSegment.createVertex(lon[j], lat[j], alt[j], x[j], y[j], z[j]);
+
+         if ((i < 4) && (midpoints != null)) {
+            // another load may have created the same midpoint meanwhile; use the one that was cached first
+            created[i] = midpoints.put(created[i]);
+         }
+      }
+
+      final GeodesicVertex N = created[0];
+      final GeodesicVertex E = created[1];
+      final GeodesicVertex S = created[2];
+      final GeodesicVertex W = created[3];
+      final GeodesicVertex C = created[4];
 
       final GeodesicVertex[] vertices = new GeodesicVertex[9];
       vertices[EllipticalGeometry.CENTER] = C;
@@ -367,8 +640,8 @@ public class EllipticalSegment implements SegmentObject {
       return new EllipticalSegment(vertices, depth);
    }
 
-   private static List<EllipticalSegment> getChildSegments(final Ellipsoid ellipsoid, final EllipticalSegment segment, final BiConsumerSupplier<Double, Double, Double> altitudeSupplier,
-         final Consumer<EllipticalSegment> setTextureFunction) {
+   private static List<EllipticalSegment> getChildSegments(final Ellipsoid ellipsoid, final EllipticalSegment segment, final AltitudeSource altitudeSource,
+         final Consumer<EllipticalSegment> setTextureFunction, final MidpointCache midpoints) {
       final List<EllipticalSegment> newSegments = new ArrayList<>();
       final GeodesicVertex C = segment.vertices[EllipticalGeometry.CENTER];
       final GeodesicVertex NW = segment.vertices[EllipticalGeometry.NORTHWEST];
@@ -380,17 +653,22 @@ public class EllipticalSegment implements SegmentObject {
       final GeodesicVertex SW = segment.vertices[EllipticalGeometry.SOUTHWEST];
       final GeodesicVertex W = segment.vertices[EllipticalGeometry.WEST];
 
-      final EllipticalSegment segmentNW = EllipticalSegment.createSegment(ellipsoid, NW, N, C, W, segment.depth + 1, altitudeSupplier);
-      final EllipticalSegment segmentNE = EllipticalSegment.createSegment(ellipsoid, N, NE, E, C, segment.depth + 1, altitudeSupplier);
-      final EllipticalSegment segmentSE = EllipticalSegment.createSegment(ellipsoid, C, E, SE, S, segment.depth + 1, altitudeSupplier);
-      final EllipticalSegment segmentSW = EllipticalSegment.createSegment(ellipsoid, W, C, S, SW, segment.depth + 1, altitudeSupplier);
-
-      new Thread(() -> {
-         setTextureFunction.accept(segmentNW);
-         setTextureFunction.accept(segmentNE);
-         setTextureFunction.accept(segmentSE);
-         setTextureFunction.accept(segmentSW);
-      }).start();
+      final EllipticalSegment segmentNW = EllipticalSegment.createSegment(ellipsoid, NW, N, C, W, segment.depth + 1, altitudeSource, midpoints);
+      final EllipticalSegment segmentNE = EllipticalSegment.createSegment(ellipsoid, N, NE, E, C, segment.depth + 1, altitudeSource, midpoints);
+      final EllipticalSegment segmentSE = EllipticalSegment.createSegment(ellipsoid, C, E, SE, S, segment.depth + 1, altitudeSource, midpoints);
+      final EllipticalSegment segmentSW = EllipticalSegment.createSegment(ellipsoid, W, C, S, SW, segment.depth + 1, altitudeSource, midpoints);
+
+      if (((segment.depth + 1) % EllipticalSegment.ANCHOR_DEPTHS) != 0) {
+         segmentNW.anchor = segment.anchor;
+         segmentNE.anchor = segment.anchor;
+         segmentSE.anchor = segment.anchor;
+         segmentSW.anchor = segment.anchor;
+      }
+
+      setTextureFunction.accept(segmentNW);
+      setTextureFunction.accept(segmentNE);
+      setTextureFunction.accept(segmentSE);
+      setTextureFunction.accept(segmentSW);
 
       newSegments.add(segmentNW);
       newSegments.add(segmentNE);
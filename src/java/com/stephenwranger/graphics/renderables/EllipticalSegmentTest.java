@@ -0,0 +1,64 @@
+package com.stephenwranger.graphics.renderables;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.utils.LoadScheduler;
+import com.stephenwranger.graphics.utils.terrain.AltitudeSource;
+
+public class EllipticalSegmentTest {
+   /** position, normal, texture coordinates and color floats */
+   private static final int BYTES_PER_VERTEX = 48;
+
+   @Test
+   public void testAnchorsAreSharedBySubtrees() {
+      final AltitudeSource altitudeSource = (lon, lat) -> 0;
+      final LoadScheduler<EllipticalSegment> immediate = LoadScheduler.immediate();
+      EllipticalSegment segment = MidpointCacheTest.createSegment(0, 10, 0, 10, altitudeSource);
+      final Tuple3d rootAnchor = segment.getAnchor();
+
+      assertSame(segment.getBoundingCenter(), rootAnchor);
+
+      for (int depth = 1; depth < EllipticalSegment.ANCHOR_DEPTHS; depth++) {
+         final List<EllipticalSegment> children = segment.getChildSegments(MidpointCacheTest.ELLIPSOID, altitudeSource, (child) -> {}, null, immediate, 0, 0);
+
+         for (final EllipticalSegment child : children) {
+            assertSame(rootAnchor, child.getAnchor());
+         }
+
+         segment = children.get(0);
+      }
+
+      // the next level starts new anchors at the segments' own centers
+      for (final EllipticalSegment child : segment.getChildSegments(MidpointCacheTest.ELLIPSOID, altitudeSource, (child) -> {}, null, immediate, 0, 0)) {
+         assertSame(child.getBoundingCenter(), child.getAnchor());
+      }
+   }
+
+   @Test
+   public void testBufferIsRelativeToAnchor() {
+      final EllipticalSegment segment = MidpointCacheTest.createSegment(0, 10, 0, 10, (lon, lat) -> 0);
+      final ByteBuffer first = ByteBuffer.allocate(EllipticalSegment.MAX_VERTEX_COUNT * EllipticalSegmentTest.BYTES_PER_VERTEX);
+      final ByteBuffer second = ByteBuffer.allocate(first.capacity());
+
+      segment.loadBuffer(new Tuple3d(), first);
+      segment.loadBuffer(new Tuple3d(6378137, 1000, -1000), second);
+
+      // the origin passed in does not matter
+      assertArrayEquals(first.array(), second.array());
+
+      // the first vertex is the center vertex
+      final Tuple3d center = segment.getVertices()[EllipticalGeometry.CENTER].getVertex();
+      final Tuple3d anchor = segment.getAnchor();
+      assertEquals((float) (center.x - anchor.x), first.getFloat(0), 0f);
+      assertEquals((float) (center.y - anchor.y), first.getFloat(4), 0f);
+      assertEquals((float) (center.z - anchor.z), first.getFloat(8), 0f);
+   }
+}
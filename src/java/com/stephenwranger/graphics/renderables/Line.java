@@ -16,7 +16,9 @@ import com.stephenwranger.graphics.utils.TupleMath;
 public class Line extends RenderablePhysics {
    private final Tuple3d     p0, p1;
    private final BoundingBox bounds;
-   private final Color4f     color = new Color4f(1, 1, 1, 1);
+   private final Color4f     color  = new Color4f(1, 1, 1, 1);
+   /** scene origin of the current frame */
+   private final Tuple3d     origin = new Tuple3d();
    
    private float lineWidth = 4f;
 
@@ -57,7 +59,7 @@ public class Line extends RenderablePhysics {
 
       gl.glBegin(GL.GL_LINES);
 
-      final Tuple3d origin = scene.getOrigin();
+      final Tuple3d origin = scene.getOrigin(this.origin);
 
       gl.glColor4f(this.color.r, this.color.g, this.color.b, this.color.a);
       gl.glVertex3f((float) (this.p0.x - origin.x), (float) (this.p0.y - origin.y), (float) (this.p0.z - origin.z));
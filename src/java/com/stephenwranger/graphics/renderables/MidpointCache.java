@@ -0,0 +1,121 @@
+package com.stephenwranger.graphics.renderables;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.stephenwranger.graphics.math.Tuple3d;
+
+/**
+ * Shares the edge midpoint vertices of {@link EllipticalSegment}s between the neighbours that split the same edge, so
+ * each midpoint is sampled from the altitude source and converted to cartesian once and both neighbours use the
+ * identical vertex. Vertices are keyed by lon/lat quantized to {@link #RESOLUTION} degrees. Each vertex counts the
+ * segments using it as an edge midpoint and is dropped once the last of them releases it, so evicting one side of an
+ * edge keeps the midpoint for the neighbour that is still split. Safe for concurrent loads.
+ *
+ * @author rangers
+ *
+ */
+public class MidpointCache {
+   /** quantization of the keys in degrees; about 1cm on the earth's surface */
+   public static final double               RESOLUTION = 1e-7;
+
+   private final ConcurrentMap<Long, Entry> vertices   = new ConcurrentHashMap<>();
+   private final AtomicLong                 hits       = new AtomicLong();
+   private final AtomicLong                 misses     = new AtomicLong();
+
+   /** a cached vertex and the number of segments using it; only changed inside the map's atomic updates */
+   private static class Entry {
+      private final GeodesicVertex vertex;
+      private int                  references = 1;
+
+      private Entry(final GeodesicVertex vertex) {
+         this.vertex = vertex;
+      }
+   }
+
+   /**
+    * Returns the cached vertex at the given location and counts a reference to it, or null if none is cached.
+    *
+    * @param lon
+    *           in degrees
+    * @param lat
+    *           in degrees
+    * @return
+    */
+   public GeodesicVertex acquire(final double lon, final double lat) {
+      final Entry entry = this.vertices.computeIfPresent(MidpointCache.getKey(lon, lat), (key, existing) -> {
+         existing.references++;
+         return existing;
+      });
+      ((entry == null) ? this.misses : this.hits).incrementAndGet();
+
+      return (entry == null) ? null : entry.vertex;
+   }
+
+   /**
+    * Adds the given vertex unless another load added one at the same location first; either way a reference to the
+    * cached vertex is counted.
+    *
+    * @param vertex
+    * @return the cached vertex, which is either the given one or the one added first
+    */
+   public GeodesicVertex put(final GeodesicVertex vertex) {
+      final Tuple3d lonLatAlt = vertex.getGeodesicVertex();
+      final Entry entry = this.vertices.compute(MidpointCache.getKey(lonLatAlt.x, lonLatAlt.y), (key, existing) -> {
+         if (existing == null) {
+            return new Entry(vertex);
+         }
+
+         existing.references++;
+         return existing;
+      });
+
+      return entry.vertex;
+   }
+
+   /**
+    * Releases a reference to the given vertex and removes it once unreferenced; does nothing if it is not the cached
+    * one at its location.
+    *
+    * @param vertex
+    */
+   public void release(final GeodesicVertex vertex) {
+      final Tuple3d lonLatAlt = vertex.getGeodesicVertex();
+      this.vertices.computeIfPresent(MidpointCache.getKey(lonLatAlt.x, lonLatAlt.y), (key, existing) -> {
+         if (existing.vertex != vertex) {
+            return existing;
+         }
+
+         existing.references--;
+         return (existing.references == 0) ? null : existing;
+      });
+   }
+
+   public int size() {
+      return this.vertices.size();
+   }
+
+   public long getHits() {
+      return this.hits.get();
+   }
+
+   public long getMisses() {
+      return this.misses.get();
+   }
+
+   /**
+    * Packs lon and lat quantized to {@link #RESOLUTION} into one key; both fit 32 bits for lon in [-180, 180] and lat
+    * in [-90, 90].
+    *
+    * @param lon
+    * @param lat
+    * @return
+    */
+   public static long getKey(final double lon, final double lat) {
+      final long lonKey = Math.round(lon / MidpointCache.RESOLUTION);
+      final long latKey = Math.round(lat / MidpointCache.RESOLUTION);
+
+      return (lonKey << 32) | (latKey & 0xFFFFFFFFL);
+   }
+}
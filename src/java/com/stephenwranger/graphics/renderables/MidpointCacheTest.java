@@ -0,0 +1,178 @@
+package com.stephenwranger.graphics.renderables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.color.Color4f;
+import com.stephenwranger.graphics.math.Tuple2d;
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Vector3d;
+import com.stephenwranger.graphics.math.intersection.Ellipsoid;
+import com.stephenwranger.graphics.utils.LoadScheduler;
+import com.stephenwranger.graphics.utils.LoadStats;
+import com.stephenwranger.graphics.utils.terrain.AltitudeSource;
+
+public class MidpointCacheTest {
+   static final Ellipsoid ELLIPSOID = new Ellipsoid(new Tuple3d(), 6378137.0, 1.0 / 298.257223563, 0.00669437999014, 0.00673949674228);
+
+   @Test
+   public void testKeys() {
+      assertEquals(MidpointCache.getKey(12.5, -45.25), MidpointCache.getKey(12.5 + 1e-10, -45.25 - 1e-10));
+      assertNotEquals(MidpointCache.getKey(12.5, -45.25), MidpointCache.getKey(-45.25, 12.5));
+      assertNotEquals(MidpointCache.getKey(180, 90), MidpointCache.getKey(-180, 90));
+      assertNotEquals(MidpointCache.getKey(0, -90), MidpointCache.getKey(-1e-7, -90));
+   }
+
+   @Test
+   public void testNeighboursShareEdgeMidpoints() {
+      final AtomicInteger samples = new AtomicInteger();
+      final AltitudeSource altitudeSource = (lon, lat) -> {
+         samples.incrementAndGet();
+         return 100 * Math.sin(lon) * Math.cos(lat);
+      };
+      final MidpointCache midpoints = new MidpointCache();
+      final LoadScheduler<EllipticalSegment> immediate = LoadScheduler.immediate();
+
+      final EllipticalSegment west = MidpointCacheTest.createSegment(0, 10, 0, 10, altitudeSource);
+      final EllipticalSegment east = MidpointCacheTest.createSegment(10, 20, 0, 10, altitudeSource);
+      samples.set(0);
+
+      final List<EllipticalSegment> westChildren = west.getChildSegments(ELLIPSOID, altitudeSource, (segment) -> {}, midpoints, immediate, 0, 0);
+      // a 5x5 grid of which the parent has 9
+      assertEquals(16, samples.get());
+
+      final List<EllipticalSegment> eastChildren = east.getChildSegments(ELLIPSOID, altitudeSource, (segment) -> {}, midpoints, immediate, 0, 0);
+      // the two midpoints on the shared edge come from the cache
+      assertEquals(30, samples.get());
+
+      // NE child of the west segment and NW child of the east segment share their edge midpoint
+      final GeodesicVertex westEdge = westChildren.get(1).getVertices()[EllipticalGeometry.EAST];
+      final GeodesicVertex eastEdge = eastChildren.get(0).getVertices()[EllipticalGeometry.WEST];
+      assertSame(westEdge, eastEdge);
+      assertEquals(new Tuple3d(10, 7.5, westEdge.getGeodesicVertex().z), westEdge.getGeodesicVertex());
+   }
+
+   @Test
+   public void testEvictionKeepsNeighbourMidpoints() {
+      final AltitudeSource altitudeSource = (lon, lat) -> 0;
+      final MidpointCache midpoints = new MidpointCache();
+      final LoadScheduler<EllipticalSegment> immediate = LoadScheduler.immediate();
+
+      final EllipticalSegment west = MidpointCacheTest.createSegment(0, 10, 0, 10, altitudeSource);
+      final EllipticalSegment east = MidpointCacheTest.createSegment(10, 20, 0, 10, altitudeSource);
+
+      west.getChildSegments(ELLIPSOID, altitudeSource, (segment) -> {}, midpoints, immediate, 0, 0);
+      final List<EllipticalSegment> eastChildren = east.getChildSegments(ELLIPSOID, altitudeSource, (segment) -> {}, midpoints, immediate, 0, 0);
+      // 12 edge midpoints per side of which 2 are shared
+      assertEquals(22, midpoints.size());
+
+      MidpointCacheTest.unsplit(west, midpoints);
+      // the shared edge stays cached for the east side, which is still split
+      assertEquals(12, midpoints.size());
+
+      final List<EllipticalSegment> westChildren = west.getChildSegments(ELLIPSOID, altitudeSource, (segment) -> {}, midpoints, immediate, 0, 0);
+      assertSame(eastChildren.get(0).getVertices()[EllipticalGeometry.WEST], westChildren.get(1).getVertices()[EllipticalGeometry.EAST]);
+      assertSame(eastChildren.get(3).getVertices()[EllipticalGeometry.WEST], westChildren.get(2).getVertices()[EllipticalGeometry.EAST]);
+      assertEquals(22, midpoints.size());
+
+      MidpointCacheTest.unsplit(east, midpoints);
+      assertEquals(12, midpoints.size());
+      MidpointCacheTest.unsplit(west, midpoints);
+      assertEquals(0, midpoints.size());
+   }
+
+   @Test
+   public void testSplitFinishingAfterEvictionIsDiscarded() {
+      final AltitudeSource altitudeSource = (lon, lat) -> 0;
+      final MidpointCache midpoints = new MidpointCache();
+      final DeferredScheduler deferred = new DeferredScheduler();
+
+      final EllipticalSegment west = MidpointCacheTest.createSegment(0, 10, 0, 10, altitudeSource);
+      west.getChildSegments(ELLIPSOID, altitudeSource, (segment) -> {}, midpoints, LoadScheduler.immediate(), 0, 0);
+      final EllipticalSegment child = west.getChildSegments(ELLIPSOID, altitudeSource, (segment) -> {}, midpoints, deferred, 0, 0).get(0);
+
+      // the child's split is requested, then its parent is evicted before the load runs
+      child.getChildSegments(ELLIPSOID, altitudeSource, (segment) -> {}, midpoints, deferred, 0, 0);
+      MidpointCacheTest.unsplit(west, midpoints);
+      assertEquals(0, midpoints.size());
+
+      deferred.runAll();
+      assertFalse(child.isSplit());
+      assertEquals(0, midpoints.size());
+   }
+
+   private static void unsplit(final EllipticalSegment segment, final MidpointCache midpoints) {
+      final List<EllipticalSegment> removed = new ArrayList<>();
+      segment.unsplit(removed);
+
+      for (final EllipticalSegment descendant : removed) {
+         descendant.releaseMidpoints(midpoints);
+      }
+   }
+
+   /** queues the loads until {@link #runAll()} */
+   private static class DeferredScheduler implements LoadScheduler<EllipticalSegment> {
+      private final List<Runnable> loads = new ArrayList<>();
+
+      @Override
+      public boolean request(final EllipticalSegment key, final double screenSpaceError, final double distance, final Runnable load) {
+         this.loads.add(load);
+         return true;
+      }
+
+      private void runAll() {
+         for (final Runnable load : this.loads) {
+            load.run();
+         }
+
+         this.loads.clear();
+      }
+
+      @Override
+      public void endFrame() {
+         // loads are only run by runAll
+      }
+
+      @Override
+      public LoadStats getStats() {
+         return null;
+      }
+
+      @Override
+      public void setFailureHandler(final BiConsumer<? super EllipticalSegment, ? super Throwable> failureHandler) {
+         // loads do not fail in these tests
+      }
+
+      @Override
+      public void shutdown() {
+         this.loads.clear();
+      }
+   }
+
+   static EllipticalSegment createSegment(final double lon0, final double lon1, final double lat0, final double lat1, final AltitudeSource altitudeSource) {
+      final double midLon = (lon0 + lon1) / 2.0;
+      final double midLat = (lat0 + lat1) / 2.0;
+      // center, then NW clockwise; north is the larger latitude
+      final double[] lons = new double[] { midLon, lon0, midLon, lon1, lon1, lon1, midLon, lon0, lon0 };
+      final double[] lats = new double[] { midLat, lat1, lat1, lat1, midLat, lat0, lat0, lat0, midLat };
+      final GeodesicVertex[] vertices = new GeodesicVertex[9];
+
+      for (int i = 0; i < vertices.length; i++) {
+         final Tuple3d lonLatAlt = new Tuple3d(lons[i], lats[i], altitudeSource.sample(lons[i], lats[i]));
+         final Tuple3d xyz = ELLIPSOID.toXYZ(lonLatAlt);
+         final Vector3d normal = new Vector3d(xyz).normalize();
+         vertices[i] = new GeodesicVertex(new Tuple3d(normal), xyz, normal, new Tuple2d(0, 0), Color4f.white(), lonLatAlt);
+      }
+
+      return new EllipticalSegment(vertices, 0);
+   }
+}
@@ -1,9 +1,7 @@
 package com.stephenwranger.graphics.renderables;
 
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
@@ -14,8 +12,10 @@ import com.stephenwranger.graphics.Scene;
 import com.stephenwranger.graphics.bounds.BoundingVolume;
 import com.stephenwranger.graphics.bounds.BoundsUtils;
 import com.stephenwranger.graphics.color.Color4f;
+import com.stephenwranger.graphics.math.LocalAnchor;
 import com.stephenwranger.graphics.math.Quat4d;
 import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Tuple3dArray;
 import com.stephenwranger.graphics.utils.buffers.BufferRegion;
 import com.stephenwranger.graphics.utils.buffers.ColorRegion;
 import com.stephenwranger.graphics.utils.buffers.DataType;
@@ -23,13 +23,17 @@ import com.stephenwranger.graphics.utils.buffers.VertexBufferObject;
 import com.stephenwranger.graphics.utils.buffers.VertexRegion;
 
 public class PointRenderable extends Renderable {
-   private final List<Tuple3d> points        = new ArrayList<>();
+   private final Tuple3dArray  points        = new Tuple3dArray();
    private BoundingVolume      bounds        = null;
    private boolean             needsRefresh  = false;
    private VertexBufferObject  vbo           = null;
    private float               pointSize     = 1f;
    private Color4f             pointColor    = Color4f.white();
    private final Tuple3d       currentOrigin = new Tuple3d();
+   /** scene origin of the current frame */
+   private final Tuple3d       origin        = new Tuple3d();
+   private LocalAnchor         anchor        = LocalAnchor.fromBounds(null);
+   private boolean             isAnchored    = true;
 
    public PointRenderable() {
       // will handle only global positioned points
@@ -45,15 +49,21 @@ public class PointRenderable extends Renderable {
       return new Color4f(this.pointColor);
    }
 
+   public LocalAnchor getAnchor() {
+      return this.anchor;
+   }
+
    public float getPointSize() {
       return this.pointSize;
    }
 
    @Override
    public synchronized void render(final GL2 gl, final GLU glu, final GLAutoDrawable glDrawable, final Scene scene) {
-      if (this.currentOrigin.distance(scene.getOrigin()) > 0) {
+      final Tuple3d origin = scene.getOrigin(this.origin);
+
+      // anchored points are stored relative to their bounds center and only need rewriting when the points change
+      if (!this.isAnchored && (this.currentOrigin.distance(origin) > 0)) {
          this.needsRefresh = true;
-         this.currentOrigin.set(scene.getOrigin());
       }
 
       if (this.needsRefresh) {
@@ -65,11 +75,11 @@ public class PointRenderable extends Renderable {
             final BufferRegion[] regions = new BufferRegion[] { new VertexRegion(3, DataType.FLOAT), new ColorRegion(4, DataType.FLOAT) };
             this.vbo = new VertexBufferObject(this.points.size(), true, GL.GL_POINTS, GL.GL_STATIC_DRAW, regions);
             final FloatBuffer buffer = this.vbo.mapBuffer(gl).asFloatBuffer();
+            this.currentOrigin.set((this.isAnchored) ? this.anchor.getAnchor() : origin);
+            final LocalAnchor base = (this.isAnchored) ? this.anchor : new LocalAnchor(origin);
 
-            for (final Tuple3d point : this.points) {
-               buffer.put((float) (point.x - this.currentOrigin.x));
-               buffer.put((float) (point.y - this.currentOrigin.y));
-               buffer.put((float) (point.z - this.currentOrigin.z));
+            for (int i = 0; i < this.points.size(); i++) {
+               base.putLocal(buffer, this.points.getX(i), this.points.getY(i), this.points.getZ(i));
                this.pointColor.putInto(buffer);
             }
 
@@ -79,6 +89,7 @@ public class PointRenderable extends Renderable {
 
       if (this.vbo != null) {
          gl.glPushMatrix();
+         gl.glTranslated(this.currentOrigin.x - origin.x, this.currentOrigin.y - origin.y, this.currentOrigin.z - origin.z);
          gl.glPushAttrib(GL2.GL_LIGHTING_BIT | GL2.GL_POINT_BIT);
          gl.glDisable(GLLightingFunc.GL_LIGHTING);
          gl.glPointSize(this.pointSize);
@@ -90,22 +101,63 @@ public class PointRenderable extends Renderable {
       }
    }
 
+   /**
+    * Enables storing points relative to the center of their bounds (the default) so that scene origin changes only
+    * change the modelview translation; false rewrites the points relative to each new scene origin.
+    *
+    * @param isAnchored
+    */
+   public synchronized void setAnchored(final boolean isAnchored) {
+      this.isAnchored = isAnchored;
+      this.needsRefresh = true;
+   }
+
    public void setPointColor(final Color4f color) {
       this.pointColor = new Color4f(color);
    }
 
-   public synchronized void setPoints(final Collection<Tuple3d> points) {
-      this.points.clear();
+   public void setPoints(final Collection<Tuple3d> points) {
+      synchronized (this) {
+         this.points.clear();
+
+         if (points != null) {
+            this.points.appendAll(points);
+         }
 
-      if (points != null) {
-         this.points.addAll(points);
+         this.updateBounds();
       }
 
-      this.bounds = BoundsUtils.getBoundingBox(this.points);
-      this.needsRefresh = true;
+      // outside of the lock as the scene may be rendering this renderable while holding its own
+      this.boundsChanged();
+   }
+
+   /**
+    * Sets the points from the given array, which is copied.
+    *
+    * @param points
+    */
+   public void setPoints(final Tuple3dArray points) {
+      synchronized (this) {
+         this.points.clear();
+
+         if (points != null) {
+            this.points.appendAll(points);
+         }
+
+         this.updateBounds();
+      }
+
+      // outside of the lock as the scene may be rendering this renderable while holding its own
+      this.boundsChanged();
    }
 
    public void setPointSize(final float pointSize) {
       this.pointSize = pointSize;
    }
+
+   private void updateBounds() {
+      this.bounds = BoundsUtils.getBoundingBox(this.points);
+      this.anchor = LocalAnchor.fromBounds(this.bounds);
+      this.needsRefresh = true;
+   }
 }
@@ -140,6 +140,7 @@ public class RectangularSolid extends RenderablePhysics {
    @Override
    public void setCollidable(final boolean value) {
       isCollidable = value;
+      this.boundsChanged();
    }
 
    @Override
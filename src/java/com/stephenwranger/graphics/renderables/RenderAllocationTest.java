@@ -0,0 +1,165 @@
+package com.stephenwranger.graphics.renderables;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.stephenwranger.graphics.Scene;
+import com.stephenwranger.graphics.color.Color4f;
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.utils.buffers.ColorRegion;
+import com.stephenwranger.graphics.utils.buffers.DataType;
+import com.stephenwranger.graphics.utils.buffers.RecordingGL2;
+import com.stephenwranger.graphics.utils.buffers.SegmentObject;
+import com.stephenwranger.graphics.utils.buffers.SegmentedVertexBufferPool;
+import com.stephenwranger.graphics.utils.buffers.VertexRegion;
+import com.stephenwranger.graphics.utils.models.IndexedMesh;
+import com.stephenwranger.graphics.utils.textures.Texture2d;
+
+public class RenderAllocationTest {
+   /** position and color floats */
+   private static final int BYTES_PER_VERTEX = 28;
+
+   /**
+    * Draws buffered renderables and pooled segments against a real {@link Scene} whose origin moves every frame and
+    * checks that once uploaded, drawing creates no garbage.
+    */
+   @Test
+   public void testRenderIsAllocationFree() throws ReflectiveOperationException {
+      final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+
+      final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+      Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+      final RecordingGL2 recorder = new RecordingGL2();
+      final GL2 gl = recorder.getGL();
+      final Tuple3d origin = new Tuple3d(6378137, 0, 0);
+      final Scene scene = RenderAllocationTest.createScene(origin);
+      final Random random = new Random(3);
+
+      final List<Tuple3d> points = new ArrayList<>();
+
+      for (int i = 0; i < 100; i++) {
+         points.add(new Tuple3d(6378137 + random.nextDouble(), random.nextDouble(), random.nextDouble()));
+      }
+
+      final PointRenderable pointRenderable = new PointRenderable();
+      pointRenderable.setPoints(points);
+
+      final IndexedMesh mesh = new IndexedMesh(new Tuple3d(6378137, 0, 0), new float[] { 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 1 }, new float[] { 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1 },
+            new int[] { 0, 1, 2, 0, 2, 3 });
+      final TriangleMesh triangleMesh = new TriangleMesh(mesh, Color4f.white());
+
+      final SegmentedVertexBufferPool pool = new SegmentedVertexBufferPool(200, 4, GL.GL_TRIANGLES, GL.GL_STATIC_DRAW, new VertexRegion(3, DataType.FLOAT), new ColorRegion(4, DataType.FLOAT));
+      final List<SegmentObject> segments = new ArrayList<>();
+
+      for (int i = 0; i < 20; i++) {
+         segments.add(new TestSegment(25 + (i * 5)));
+      }
+
+      pool.setSegmentObjects(gl, origin, segments);
+
+      // first frame uploads
+      pointRenderable.render(gl, null, null, scene);
+      triangleMesh.render(gl, null, null, scene);
+      pool.render(gl, segments);
+      recorder.setRecording(false);
+
+      for (int i = 0; i < 20000; i++) {
+         RenderAllocationTest.renderFrame(gl, scene, origin, i, pointRenderable, triangleMesh, pool, segments);
+      }
+
+      final long thread = Thread.currentThread().getId();
+      final long before = allocations.getThreadAllocatedBytes(thread);
+
+      for (int i = 0; i < 10000; i++) {
+         RenderAllocationTest.renderFrame(gl, scene, origin, i, pointRenderable, triangleMesh, pool, segments);
+      }
+
+      final long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+      // allow for the measurement itself; a single object per frame would be 100s of KB
+      assertTrue("allocated " + allocated + " bytes in 10000 frames", allocated < 1024);
+   }
+
+   private static void renderFrame(final GL2 gl, final Scene scene, final Tuple3d origin, final int frame, final Renderable pointRenderable, final Renderable triangleMesh,
+         final SegmentedVertexBufferPool pool, final List<SegmentObject> segments) {
+      // the anchored renderables only change their modelview translation
+      origin.x = 6378137 + (frame % 7);
+
+      pointRenderable.render(gl, null, null, scene);
+      triangleMesh.render(gl, null, null, scene);
+      pool.render(gl, segments);
+   }
+
+   /**
+    * A {@link Scene} is a GLCanvas that needs a native windowing toolkit, so the test scene is allocated without its
+    * constructor and only given the origin, which is all the renderables under test read from it.
+    */
+   private static Scene createScene(final Tuple3d origin) throws ReflectiveOperationException {
+      final Field unsafeField = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+      unsafeField.setAccessible(true);
+      final Object unsafe = unsafeField.get(null);
+      final Scene scene = (Scene) unsafe.getClass().getMethod("allocateInstance", Class.class).invoke(unsafe, Scene.class);
+
+      final Field originField = Scene.class.getDeclaredField("origin");
+      originField.setAccessible(true);
+      originField.set(scene, origin);
+
+      return scene;
+   }
+
+   private static class TestSegment implements SegmentObject {
+      private final int vertexCount;
+      private int       poolIndex   = -1;
+      private int       bufferIndex = -1;
+
+      private TestSegment(final int vertexCount) {
+         this.vertexCount = vertexCount;
+      }
+
+      @Override
+      public int getBufferIndex() {
+         return this.bufferIndex;
+      }
+
+      @Override
+      public int getSegmentPoolIndex() {
+         return this.poolIndex;
+      }
+
+      @Override
+      public Texture2d getTexture() {
+         return null;
+      }
+
+      @Override
+      public int getVertexCount() {
+         return this.vertexCount;
+      }
+
+      @Override
+      public void loadBuffer(final Tuple3d origin, final ByteBuffer buffer) {
+         for (int i = 0; i < ((this.vertexCount * BYTES_PER_VERTEX) / 4); i++) {
+            buffer.putFloat(1);
+         }
+      }
+
+      @Override
+      public void setSegmentLocation(final int poolIndex, final int bufferIndex) {
+         this.poolIndex = poolIndex;
+         this.bufferIndex = bufferIndex;
+      }
+   }
+}
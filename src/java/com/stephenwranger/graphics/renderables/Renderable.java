@@ -8,22 +8,35 @@ import com.stephenwranger.graphics.bounds.BoundingVolume;
 import com.stephenwranger.graphics.math.PickingHit;
 import com.stephenwranger.graphics.math.PickingRay;
 import com.stephenwranger.graphics.math.Quat4d;
+import com.stephenwranger.graphics.math.ScratchPool;
 import com.stephenwranger.graphics.math.Tuple3d;
 import com.stephenwranger.graphics.math.Vector3d;
-import com.stephenwranger.graphics.utils.TupleMath;
 
 public abstract class Renderable {
    protected final Tuple3d position;
    protected Quat4d        rotation;
    protected Scene         scene = null;
 
+   /** Whether a class still overrides the allocating {@link #getNearFar(Scene)}; looked up once per class. */
+   private static final ClassValue<Boolean> OVERRIDES_NEAR_FAR = new ClassValue<Boolean>() {
+      @Override
+      protected Boolean computeValue(final Class<?> type) {
+         try {
+            return type.getMethod("getNearFar", Scene.class).getDeclaringClass() != Renderable.class;
+         } catch (final NoSuchMethodException e) {
+            return false;
+         }
+      }
+   };
+
    public Renderable(final Tuple3d position, final Quat4d rotation) {
       this.position = new Tuple3d(position);
       this.rotation = new Quat4d(rotation);
    }
 
    public void addPosition(final Tuple3d translation) {
-      this.position.set(TupleMath.add(this.position, translation));
+      this.position.add(translation);
+      this.boundsChanged();
    }
 
    public abstract BoundingVolume getBoundingVolume();
@@ -32,30 +45,41 @@ public abstract class Renderable {
       return PickingRay.NO_HIT;
    }
 
+   /**
+    * Returns the near and far distances of this renderable along the view vector in a new array; NaN if it has no
+    * bounds. Overrides are still honored by {@link Scene}, at the cost of their allocation each frame.
+    *
+    * @param scene
+    * @return near and far
+    * @deprecated override {@link #getNearFar(Scene, double[])} instead, which does not allocate
+    */
+   @Deprecated
    public double[] getNearFar(final Scene scene) {
-      final BoundingVolume bounds = this.getBoundingVolume();
-      final double[] nearFar = new double[2];
+      return this.getBoundsNearFar(scene, new double[2]);
+   }
 
-      if (bounds == null) {
-         nearFar[0] = Double.NaN;
-         nearFar[1] = Double.NaN;
-      } else {
-         final Tuple3d cameraPosition = scene.getCameraPosition();
-
-         if (bounds.contains(cameraPosition)) {
-            nearFar[0] = 1;
-            nearFar[1] = 3000.0;//cameraPosition.distance(bounds.getCenter()) + bounds.getSpannedDistance(scene.getViewVector()) / 2.0;
-         } else {
-            final Tuple3d origin = bounds.getCenter();
-            final Vector3d viewVector = scene.getViewVector();
-            final double distance = origin.distance(cameraPosition);
-            final double range = this.getBoundingVolume().getSpannedDistance(viewVector);
-            nearFar[0] = distance - range;
-            nearFar[1] = distance + range;
-         }
+   /**
+    * Stores the near and far distances of this renderable along the view vector in the given array; NaN if it has no
+    * bounds. Called by {@link Scene} every frame, so overrides should not allocate. Subclasses that still override
+    * {@link #getNearFar(Scene)} are delegated to.
+    *
+    * @param scene
+    * @param nearFar
+    *           receives near and far
+    * @return nearFar
+    */
+   public double[] getNearFar(final Scene scene, final double[] nearFar) {
+      if (Renderable.OVERRIDES_NEAR_FAR.get(this.getClass())) {
+         @SuppressWarnings("deprecation")
+         final double[] result = this.getNearFar(scene);
+
+         nearFar[0] = (result == null) ? Double.NaN : result[0];
+         nearFar[1] = (result == null) ? Double.NaN : result[1];
+
+         return nearFar;
       }
 
-      return nearFar;
+      return this.getBoundsNearFar(scene, nearFar);
    }
 
    public Tuple3d getPosition() {
@@ -84,6 +108,7 @@ public abstract class Renderable {
 
    public void setPosition(final Tuple3d position) {
       this.position.set(position);
+      this.boundsChanged();
    }
 
    public void setRotation(final Quat4d quaternion) {
@@ -99,6 +124,65 @@ public abstract class Renderable {
    }
 
    public void subPosition(final Tuple3d translation) {
-      this.position.set(TupleMath.sub(this.position, translation));
+      this.position.subtract(translation);
+      this.boundsChanged();
+   }
+
+   private double[] getBoundsNearFar(final Scene scene, final double[] nearFar) {
+      final ScratchPool pool = ScratchPool.get();
+      pool.push();
+
+      try {
+         return Renderable.getNearFar(this.getBoundingVolume(), scene.getCameraPosition(pool.tuple()), scene.getViewVector(pool.vector()), nearFar);
+      } finally {
+         pool.pop();
+      }
+   }
+
+   /**
+    * Stores the near and far distances of the given bounds as seen from the given camera in the given array.
+    *
+    * @param bounds
+    *           the bounds or null
+    * @param cameraPosition
+    * @param viewVector
+    *           normalized view direction
+    * @param nearFar
+    *           receives near and far; NaN if bounds is null
+    * @return nearFar
+    */
+   public static double[] getNearFar(final BoundingVolume bounds, final Tuple3d cameraPosition, final Vector3d viewVector, final double[] nearFar) {
+      if (bounds == null) {
+         nearFar[0] = Double.NaN;
+         nearFar[1] = Double.NaN;
+      } else if (bounds.contains(cameraPosition)) {
+         nearFar[0] = 1;
+         nearFar[1] = 3000.0;//cameraPosition.distance(bounds.getCenter()) + bounds.getSpannedDistance(viewVector) / 2.0;
+      } else {
+         final ScratchPool pool = ScratchPool.get();
+         pool.push();
+
+         try {
+            final double distance = bounds.getCenter(pool.tuple()).distance(cameraPosition);
+            final double range = bounds.getSpannedDistance(viewVector);
+            nearFar[0] = distance - range;
+            nearFar[1] = distance + range;
+         } finally {
+            pool.pop();
+         }
+      }
+
+      return nearFar;
+   }
+
+   /**
+    * Notifies the {@link Scene} this renderable is in that the result of {@link #getBoundingVolume()} has changed so
+    * that its spatial index can be updated. Subclasses that change their bounds other than through the position
+    * setters should call this afterwards.
+    */
+   protected void boundsChanged() {
+      if (this.scene != null) {
+         this.scene.updateRenderable(this);
+      }
    }
 }
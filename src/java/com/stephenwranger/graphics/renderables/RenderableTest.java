@@ -0,0 +1,63 @@
+package com.stephenwranger.graphics.renderables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.glu.GLU;
+import com.stephenwranger.graphics.Scene;
+import com.stephenwranger.graphics.bounds.BoundingVolume;
+import com.stephenwranger.graphics.math.Quat4d;
+import com.stephenwranger.graphics.math.Tuple3d;
+
+public class RenderableTest {
+   @Test
+   public void testLegacyNearFarOverrideIsHonored() {
+      final Renderable renderable = new Unbounded() {
+         @Override
+         @Deprecated
+         public double[] getNearFar(final Scene scene) {
+            return new double[] { 5.0, 50.0 };
+         }
+      };
+      final double[] nearFar = new double[2];
+
+      assertSame(nearFar, renderable.getNearFar(null, nearFar));
+      assertEquals(5.0, nearFar[0], 0.0);
+      assertEquals(50.0, nearFar[1], 0.0);
+   }
+
+   @Test
+   public void testLegacyNullNearFar() {
+      final Renderable renderable = new Unbounded() {
+         @Override
+         @Deprecated
+         public double[] getNearFar(final Scene scene) {
+            return null;
+         }
+      };
+      final double[] nearFar = renderable.getNearFar(null, new double[2]);
+
+      assertEquals(Double.NaN, nearFar[0], 0.0);
+      assertEquals(Double.NaN, nearFar[1], 0.0);
+   }
+
+   private static class Unbounded extends Renderable {
+      public Unbounded() {
+         super(new Tuple3d(), new Quat4d());
+      }
+
+      @Override
+      public BoundingVolume getBoundingVolume() {
+         return null;
+      }
+
+      @Override
+      public void render(final GL2 gl, final GLU glu, final GLAutoDrawable glDrawable, final Scene scene) {
+         // nothing to draw
+      }
+   }
+}
@@ -130,6 +130,7 @@ public class Sphere extends RenderablePhysics {
    @Override
    public void setCollidable(final boolean value) {
       this.isCollidable = value;
+      this.boundsChanged();
    }
 
    public void setColor(final Color4f color) {
@@ -1,6 +1,8 @@
 package com.stephenwranger.graphics.renderables;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.util.concurrent.CompletableFuture;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
@@ -9,55 +11,77 @@ import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.fixedfunc.GLLightingFunc;
 import com.jogamp.opengl.glu.GLU;
 import com.stephenwranger.graphics.Scene;
-import com.stephenwranger.graphics.bounds.BoundingBox;
 import com.stephenwranger.graphics.bounds.BoundingVolume;
+import com.stephenwranger.graphics.bounds.BoundingVolumeHierarchy;
 import com.stephenwranger.graphics.color.Color4f;
+import com.stephenwranger.graphics.math.LocalAnchor;
+import com.stephenwranger.graphics.math.PickingHit;
+import com.stephenwranger.graphics.math.PickingRay;
 import com.stephenwranger.graphics.math.Quat4d;
 import com.stephenwranger.graphics.math.Tuple3d;
 import com.stephenwranger.graphics.math.Vector3d;
 import com.stephenwranger.graphics.math.intersection.Triangle3d;
-import com.stephenwranger.graphics.utils.TupleMath;
+import com.stephenwranger.graphics.utils.buffers.BufferUtils;
 import com.stephenwranger.graphics.utils.buffers.ColorRegion;
 import com.stephenwranger.graphics.utils.buffers.DataType;
 import com.stephenwranger.graphics.utils.buffers.NormalRegion;
+import com.stephenwranger.graphics.utils.buffers.ParallelVertexPacker;
 import com.stephenwranger.graphics.utils.buffers.VertexBufferObject;
 import com.stephenwranger.graphics.utils.buffers.VertexRegion;
+import com.stephenwranger.graphics.utils.models.IndexedMesh;
 
 public class TriangleMesh extends Renderable {
-   private VertexBufferObject   vbo           = null;
-   private final Triangle3d[]   triangles;
-   private final BoundingVolume bounds;
-   private final Color4f        color;
-   private final Tuple3d        currentOrigin = new Tuple3d();
-
-   private boolean              isWireframe   = false;
-   private boolean              isDrawNormals = false;
-   private int                  polygonFace   = GL2.GL_FRONT;
-   private boolean              isCullFace    = true;
-   private boolean              needsRefresh  = false;
+   private static final ParallelVertexPacker PACKER = new ParallelVertexPacker();
+
+   private VertexBufferObject            vbo           = null;
+   private final IndexedMesh             mesh;
+   private final BoundingVolume          bounds;
+   private final Color4f                 color;
+   private final LocalAnchor             anchor;
+   private final Tuple3d                 packedOrigin  = new Tuple3d();
+   private final Tuple3d                 pendingOrigin = new Tuple3d();
+   /** scene origin and vertex base of the current frame */
+   private final Tuple3d                 origin        = new Tuple3d();
+   private final Tuple3d                 base          = new Tuple3d();
+   private ByteBuffer                    staging       = null;
+   private CompletableFuture<ByteBuffer> pendingPack   = null;
+
+   private boolean                       isWireframe   = false;
+   private boolean                       isDrawNormals = false;
+   private int                           polygonFace   = GL2.GL_FRONT;
+   private boolean                       isCullFace    = true;
+   private boolean                       isAnchored    = true;
 
+   /**
+    * Creates a flat shaded mesh of the given triangles; every face keeps its own vertices and normal.
+    *
+    * @param triangles
+    * @param color
+    */
    public TriangleMesh(final Triangle3d[] triangles, final Color4f color) {
+      this(IndexedMesh.fromTriangles(triangles, false), color);
+   }
+
+   public TriangleMesh(final IndexedMesh mesh, final Color4f color) {
       super(new Tuple3d(), new Quat4d());
 
-      // TODO: make a VBO
-      this.triangles = triangles;
+      this.mesh = mesh;
       this.color = color;
-      final Tuple3d min = new Tuple3d(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
-      final Tuple3d max = new Tuple3d(-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE);
-
-      for (final Triangle3d triangle : this.triangles) {
-         for (final Tuple3d corner : triangle.getCorners()) {
-            min.x = Math.min(min.x, corner.x);
-            min.y = Math.min(min.y, corner.y);
-            min.z = Math.min(min.z, corner.z);
-
-            max.x = Math.max(max.x, corner.x);
-            max.y = Math.max(max.y, corner.y);
-            max.z = Math.max(max.z, corner.z);
-         }
-      }
+      this.bounds = mesh.getBoundingBox();
+      this.anchor = new LocalAnchor(mesh.getAnchor());
+   }
 
-      this.bounds = new BoundingBox(min, max);
+   /**
+    * Returns the nearest face hit by the ray using the mesh's {@link BoundingVolumeHierarchy}, which is built on the
+    * first pick.
+    */
+   @Override
+   public PickingHit getIntersection(final PickingRay ray) {
+      return this.mesh.getIntersection(this, ray);
+   }
+
+   public IndexedMesh getMesh() {
+      return this.mesh;
    }
 
    @Override
@@ -65,6 +89,20 @@ public class TriangleMesh extends Renderable {
       return this.bounds;
    }
 
+   public LocalAnchor getAnchor() {
+      return this.anchor;
+   }
+
+   /**
+    * Returns true if vertices are stored relative to the mesh's {@link LocalAnchor} so that scene origin changes only
+    * change the modelview translation; false if vertices are repacked relative to each new scene origin.
+    *
+    * @return
+    */
+   public boolean isAnchored() {
+      return this.isAnchored;
+   }
+
    public boolean isCullFace() {
       return this.isCullFace;
    }
@@ -79,36 +117,38 @@ public class TriangleMesh extends Renderable {
 
    @Override
    public void render(final GL2 gl, final GLU glu, final GLAutoDrawable glDrawable, final Scene scene) {
-      if (this.currentOrigin.distance(scene.getOrigin()) > 0) {
-         this.needsRefresh = true;
-         this.currentOrigin.set(scene.getOrigin());
+      final Tuple3d origin = scene.getOrigin(this.origin);
+      // anchored vertices are packed once relative to the mesh anchor; otherwise they follow the scene origin
+      final Tuple3d base = (this.isAnchored) ? this.anchor.getAnchor(this.base) : origin;
+
+      if (this.vbo == null) {
+         this.vbo = new VertexBufferObject(this.mesh.getVertexCount(), true, GL.GL_TRIANGLES, GL.GL_STATIC_DRAW, new VertexRegion(3, DataType.FLOAT), new NormalRegion(DataType.FLOAT), new ColorRegion(4, DataType.FLOAT));
+         this.vbo.setIndices(gl, this.mesh.getIndices());
+         this.staging = BufferUtils.newByteBuffer(this.mesh.getVertexCount() * this.vbo.getBytesPerVertex());
+
+         // nothing to draw yet so the first pack blocks, but still runs across all cores
+         this.pendingOrigin.set(base);
+         PACKER.pack(this.staging, this.vbo.getBytesPerVertex(), this.mesh.getVertexCount(), this::packVertices);
+         this.vbo.upload(gl, this.staging);
+         this.packedOrigin.set(this.pendingOrigin);
+      } else if ((this.pendingPack != null) && this.pendingPack.isDone()) {
+         this.pendingPack.join();
+         this.pendingPack = null;
+         this.vbo.upload(gl, this.staging);
+         this.packedOrigin.set(this.pendingOrigin);
       }
 
-      if ((this.vbo == null) || this.needsRefresh) {
-         this.needsRefresh = false;
-
-         if (this.vbo == null) {
-            this.vbo = new VertexBufferObject(this.triangles.length * 3, true, GL.GL_TRIANGLES, GL.GL_STATIC_DRAW, new VertexRegion(3, DataType.FLOAT), new NormalRegion(DataType.FLOAT), new ColorRegion(4, DataType.FLOAT));
-         }
-
-         final FloatBuffer buffer = this.vbo.mapBuffer(gl).asFloatBuffer();
-
-         for (final Triangle3d triangle : this.triangles) {
-            final Vector3d normal = triangle.getNormal();
-
-            for (final Tuple3d corner : triangle.getCorners()) {
-               buffer.put((float) (corner.x - this.currentOrigin.x));
-               buffer.put((float) (corner.y - this.currentOrigin.y));
-               buffer.put((float) (corner.z - this.currentOrigin.z));
-               buffer.put((float) normal.x).put((float) normal.y).put((float) normal.z);
-               buffer.put(this.color.r).put(this.color.g).put(this.color.b).put(this.color.a);
-            }
-         }
-
-         this.vbo.unmapBuffer(gl);
+      // vertices are shared through the element buffer so only they need repacking when the base moves; the staging
+      // buffer is only touched by one pack at a time and the current one keeps drawing until the next is uploaded
+      if ((this.pendingPack == null) && (this.packedOrigin.distance(base) > 0)) {
+         this.pendingOrigin.set(base);
+         this.pendingPack = PACKER.packAsync(this.staging, this.vbo.getBytesPerVertex(), this.mesh.getVertexCount(), this::packVertices);
       }
 
       gl.glPushMatrix();
+
+      // shifts the uploaded vertices from the base they were packed against to the current origin
+      gl.glTranslated(this.packedOrigin.x - origin.x, this.packedOrigin.y - origin.y, this.packedOrigin.z - origin.z);
       gl.glPushAttrib(GL2.GL_POLYGON_BIT | GL2.GL_LIGHTING_BIT);
       gl.glPolygonMode(this.polygonFace, (this.isWireframe) ? GL2GL3.GL_LINE : GL2GL3.GL_FILL);
 //      gl.glDisable(GLLightingFunc.GL_LIGHTING);
@@ -132,11 +172,15 @@ public class TriangleMesh extends Renderable {
          brighter.b = Math.min(1.0f, brighter.b + 0.3f);
          gl.glColor4f(brighter.r, brighter.g, brighter.b, brighter.a);
 
-         for (final Triangle3d triangle : this.triangles) {
-            final Tuple3d[] corners = triangle.getCorners();
-            final Vector3d normal = triangle.getNormal();
+         final Vector3d normal = new Vector3d();
+         final Tuple3d center = new Tuple3d();
+
+         for (int i = 0; i < this.mesh.getFaceCount(); i++) {
+            this.mesh.getFaceNormal(i, normal);
             normal.scale(this.bounds.getSpannedDistance(normal) / 8.0);
-            final Tuple3d center = TupleMath.average(corners);
+            this.mesh.getFaceCenter(i, center);
+
+            center.subtract(this.packedOrigin);
 
             gl.glVertex3f((float) center.x, (float) center.y, (float) center.z);
             gl.glVertex3f((float) (center.x + normal.x), (float) (center.y + normal.y), (float) (center.z + normal.z));
@@ -149,6 +193,37 @@ public class TriangleMesh extends Renderable {
       gl.glPopMatrix();
    }
 
+   /**
+    * Writes the interleaved position (relative to the pending base), normal and color of the given vertices. The mesh
+    * positions are float offsets from its double anchor and the anchor's offset from the base is added in double, so
+    * anchored packing copies the offsets exactly and origin relative packing loses no more than the final cast.
+    *
+    * @param slice
+    * @param first
+    * @param count
+    */
+   private void packVertices(final ByteBuffer slice, final int first, final int count) {
+      final FloatBuffer buffer = slice.asFloatBuffer();
+      final float[] positions = this.mesh.getPositions();
+      final float[] normals = this.mesh.getNormals();
+      final Tuple3d meshAnchor = this.anchor.getAnchor();
+      final double offsetX = meshAnchor.x - this.pendingOrigin.x;
+      final double offsetY = meshAnchor.y - this.pendingOrigin.y;
+      final double offsetZ = meshAnchor.z - this.pendingOrigin.z;
+
+      for (int i = first * 3, end = (first + count) * 3; i < end; i += 3) {
+         buffer.put((float) (positions[i] + offsetX));
+         buffer.put((float) (positions[i + 1] + offsetY));
+         buffer.put((float) (positions[i + 2] + offsetZ));
+         buffer.put(normals[i]).put(normals[i + 1]).put(normals[i + 2]);
+         buffer.put(this.color.r).put(this.color.g).put(this.color.b).put(this.color.a);
+      }
+   }
+
+   public void setAnchored(final boolean isAnchored) {
+      this.isAnchored = isAnchored;
+   }
+
    public void setCullFace(final boolean isCullFace) {
       this.isCullFace = isCullFace;
    }
@@ -0,0 +1,280 @@
+package com.stephenwranger.graphics.utils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link LoadScheduler} that runs loads on a fixed number of daemon worker threads, so at most that many loads are in
+ * flight, from a priority queue holding at most a fixed number of loads. When the queue is full a new request
+ * displaces the least important queued load if it is more important and is rejected otherwise. Loads that throw are
+ * handed to the failure handler and the worker goes on with the next load; {@link #shutdown()} ends the workers once
+ * their current loads are done.
+ *
+ * @author rangers
+ *
+ * @param <K>
+ *           the key identifying a load
+ */
+public class BoundedLoadScheduler<K> implements LoadScheduler<K> {
+   private final PriorityQueue<Load>   queue          = new PriorityQueue<>();
+   private final Map<K, Load>          queued         = new HashMap<>();
+   private final Set<K>                running        = new HashSet<>();
+   private final int                   maxQueued;
+
+   private long                        frame          = 0;
+   private long                        sequence       = 0;
+   private boolean                     isShutdown     = false;
+
+   private long                        completed      = 0;
+   private long                        failed         = 0;
+   private long                        cancelled      = 0;
+   private long                        rejected       = 0;
+   private long                        totalLatency   = 0;
+   private long                        maxLatency     = 0;
+
+   /** given the failures of loads; printed if null */
+   private BiConsumer<? super K, ? super Throwable> failureHandler = null;
+
+   private class Load implements Comparable<Load> {
+      private final K        key;
+      private final Runnable load;
+      private final long     requestTime;
+      private final long     order;
+      private double         screenSpaceError;
+      private double         distance;
+      private long           frame;
+
+      private Load(final K key, final double screenSpaceError, final double distance, final Runnable load) {
+         this.key = key;
+         this.load = load;
+         this.requestTime = System.nanoTime();
+         this.order = BoundedLoadScheduler.this.sequence++;
+         this.screenSpaceError = screenSpaceError;
+         this.distance = distance;
+         this.frame = BoundedLoadScheduler.this.frame;
+      }
+
+      @Override
+      public int compareTo(final Load other) {
+         int result = Double.compare(other.screenSpaceError, this.screenSpaceError);
+
+         if (result == 0) {
+            result = Double.compare(this.distance, other.distance);
+         }
+
+         return (result == 0) ? Long.compare(this.order, other.order) : result;
+      }
+   }
+
+   /**
+    * Creates a scheduler with one worker per available processor but one (at least one) and a queue of 256 loads.
+    */
+   public BoundedLoadScheduler() {
+      this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 256);
+   }
+
+   /**
+    * @param threadCount
+    *           the number of worker threads and so the maximum number of loads in flight
+    * @param maxQueued
+    *           the maximum number of loads waiting to run
+    */
+   public BoundedLoadScheduler(final int threadCount, final int maxQueued) {
+      if ((threadCount < 1) || (maxQueued < 1)) {
+         throw new IllegalArgumentException("Thread count and queue size must be positive: " + threadCount + ", " + maxQueued);
+      }
+
+      this.maxQueued = maxQueued;
+
+      for (int i = 0; i < threadCount; i++) {
+         final Thread worker = new Thread(this::work, "BoundedLoadScheduler-" + i);
+         worker.setDaemon(true);
+         worker.start();
+      }
+   }
+
+   @Override
+   public synchronized boolean request(final K key, final double screenSpaceError, final double distance, final Runnable load) {
+      if (this.isShutdown) {
+         this.rejected++;
+         return false;
+      }
+
+      if (this.running.contains(key)) {
+         return true;
+      }
+
+      final Load existing = this.queued.get(key);
+
+      if (existing != null) {
+         existing.frame = this.frame;
+
+         if ((existing.screenSpaceError != screenSpaceError) || (existing.distance != distance)) {
+            this.queue.remove(existing);
+            existing.screenSpaceError = screenSpaceError;
+            existing.distance = distance;
+            this.queue.add(existing);
+         }
+
+         return true;
+      }
+
+      final Load request = new Load(key, screenSpaceError, distance, load);
+
+      if (this.queue.size() >= this.maxQueued) {
+         final Load worst = this.getWorst();
+
+         if (request.compareTo(worst) >= 0) {
+            this.rejected++;
+            return false;
+         }
+
+         this.queue.remove(worst);
+         this.queued.remove(worst.key);
+         this.cancelled++;
+      }
+
+      this.queue.add(request);
+      this.queued.put(key, request);
+      this.notifyAll();
+
+      return true;
+   }
+
+   @Override
+   public synchronized void endFrame() {
+      final Iterator<Load> iterator = this.queue.iterator();
+
+      while (iterator.hasNext()) {
+         final Load load = iterator.next();
+
+         if (load.frame != this.frame) {
+            iterator.remove();
+            this.queued.remove(load.key);
+            this.cancelled++;
+         }
+      }
+
+      this.frame++;
+   }
+
+   @Override
+   public synchronized LoadStats getStats() {
+      final double meanLatency = (this.completed == 0) ? 0 : (this.totalLatency / (double) this.completed) / 1e6;
+
+      return new LoadStats(this.queue.size(), this.running.size(), this.completed, this.failed, this.cancelled, this.rejected, meanLatency, this.maxLatency / 1e6);
+   }
+
+   @Override
+   public synchronized void setFailureHandler(final BiConsumer<? super K, ? super Throwable> failureHandler) {
+      this.failureHandler = failureHandler;
+   }
+
+   @Override
+   public synchronized void shutdown() {
+      this.isShutdown = true;
+      this.cancelled += this.queue.size();
+      this.queue.clear();
+      this.queued.clear();
+      this.notifyAll();
+   }
+
+   /**
+    * Waits until no load is queued or running.
+    *
+    * @throws InterruptedException
+    */
+   public synchronized void awaitIdle() throws InterruptedException {
+      while (!this.queue.isEmpty() || !this.running.isEmpty()) {
+         this.wait();
+      }
+   }
+
+   /**
+    * Hands a failure to the failure handler; an exception thrown by the handler itself must not end the worker.
+    */
+   private void fail(final K key, final Throwable failure) {
+      final BiConsumer<? super K, ? super Throwable> handler;
+
+      synchronized (this) {
+         this.failed++;
+         handler = this.failureHandler;
+      }
+
+      if (handler == null) {
+         System.err.println("load of " + key + " failed");
+         failure.printStackTrace();
+         return;
+      }
+
+      try {
+         handler.accept(key, failure);
+      } catch (final RuntimeException e) {
+         e.printStackTrace();
+      }
+   }
+
+   private Load getWorst() {
+      Load worst = null;
+
+      for (final Load load : this.queue) {
+         if ((worst == null) || (load.compareTo(worst) > 0)) {
+            worst = load;
+         }
+      }
+
+      return worst;
+   }
+
+   private void work() {
+      while (true) {
+         final Load load;
+
+         synchronized (this) {
+            while (this.queue.isEmpty() && !this.isShutdown) {
+               try {
+                  this.wait();
+               } catch (final InterruptedException e) {
+                  return;
+               }
+            }
+
+            if (this.isShutdown) {
+               return;
+            }
+
+            load = this.queue.poll();
+            this.queued.remove(load.key);
+            this.running.add(load.key);
+         }
+
+         boolean isCompleted = false;
+
+         try {
+            load.load.run();
+            isCompleted = true;
+         } catch (final RuntimeException | Error e) {
+            this.fail(load.key, e);
+         } finally {
+            synchronized (this) {
+               this.running.remove(load.key);
+
+               // the latencies are those of completed loads only
+               if (isCompleted) {
+                  final long latency = System.nanoTime() - load.requestTime;
+                  this.completed++;
+                  this.totalLatency += latency;
+                  this.maxLatency = Math.max(this.maxLatency, latency);
+               }
+
+               this.notifyAll();
+            }
+         }
+      }
+   }
+}
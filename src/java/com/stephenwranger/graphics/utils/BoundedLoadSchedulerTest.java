@@ -0,0 +1,152 @@
+package com.stephenwranger.graphics.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class BoundedLoadSchedulerTest {
+
+   @Test
+   public void testPriorityOrderAndCancellation() throws InterruptedException {
+      final BoundedLoadScheduler<String> scheduler = new BoundedLoadScheduler<>(1, 16);
+      final List<String> order = Collections.synchronizedList(new ArrayList<>());
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+
+      // occupy the only worker so everything else queues
+      scheduler.request("blocker", 0, 0, () -> {
+         started.countDown();
+
+         try {
+            release.await();
+         } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      });
+      started.await();
+
+      scheduler.request("far", 10, 1000, BoundedLoadSchedulerTest.record(order, "far"));
+      scheduler.request("near", 10, 10, BoundedLoadSchedulerTest.record(order, "near"));
+      scheduler.request("coarse", 50, 5000, BoundedLoadSchedulerTest.record(order, "coarse"));
+      scheduler.request("gone", 100, 0, BoundedLoadSchedulerTest.record(order, "gone"));
+      // a request while running is ignored
+      assertTrue(scheduler.request("blocker", 0, 0, BoundedLoadSchedulerTest.record(order, "blocker")));
+      assertEquals(4, scheduler.getStats().queueDepth);
+      assertEquals(1, scheduler.getStats().inFlight);
+      scheduler.endFrame();
+
+      // next frame everything but "gone" is still wanted and "far" became the most important
+      scheduler.request("far", 80, 1000, null);
+      scheduler.request("near", 10, 10, null);
+      scheduler.request("coarse", 50, 5000, null);
+      scheduler.endFrame();
+
+      release.countDown();
+      scheduler.awaitIdle();
+
+      assertEquals(Arrays.asList("far", "coarse", "near"), order);
+
+      final LoadStats stats = scheduler.getStats();
+      assertEquals(4, stats.completed);
+      assertEquals(1, stats.cancelled);
+      assertEquals(0, stats.queueDepth);
+      assertTrue(stats.maxLatency >= stats.meanLatency);
+      scheduler.shutdown();
+   }
+
+   @Test
+   public void testFullQueueKeepsMostImportant() throws InterruptedException {
+      final BoundedLoadScheduler<Integer> scheduler = new BoundedLoadScheduler<>(1, 2);
+      final List<String> order = Collections.synchronizedList(new ArrayList<>());
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch started = new CountDownLatch(1);
+
+      scheduler.request(0, 0, 0, () -> {
+         started.countDown();
+
+         try {
+            release.await();
+         } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      });
+      started.await();
+
+      assertTrue(scheduler.request(1, 5, 0, BoundedLoadSchedulerTest.record(order, "1")));
+      assertTrue(scheduler.request(2, 10, 0, BoundedLoadSchedulerTest.record(order, "2")));
+      // less important than everything queued
+      assertFalse(scheduler.request(3, 1, 0, BoundedLoadSchedulerTest.record(order, "3")));
+      // displaces 1
+      assertTrue(scheduler.request(4, 20, 0, BoundedLoadSchedulerTest.record(order, "4")));
+
+      release.countDown();
+      scheduler.awaitIdle();
+
+      assertEquals(Arrays.asList("4", "2"), order);
+      assertEquals(1, scheduler.getStats().rejected);
+      assertEquals(1, scheduler.getStats().cancelled);
+
+      scheduler.shutdown();
+      assertFalse(scheduler.request(5, 100, 0, BoundedLoadSchedulerTest.record(order, "5")));
+   }
+
+   @Test
+   public void testFailuresAreReported() throws InterruptedException {
+      final BoundedLoadScheduler<String> scheduler = new BoundedLoadScheduler<>(1, 16);
+      final List<String> order = Collections.synchronizedList(new ArrayList<>());
+      final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+      scheduler.setFailureHandler((key, failure) -> failures.add(key + ": " + failure.getMessage()));
+
+      scheduler.request("broken", 10, 0, () -> {
+         throw new IllegalStateException("no data");
+      });
+      scheduler.awaitIdle();
+      // the worker survives the failure
+      scheduler.request("next", 10, 0, BoundedLoadSchedulerTest.record(order, "next"));
+      scheduler.awaitIdle();
+
+      assertEquals(Arrays.asList("broken: no data"), failures);
+      assertEquals(Arrays.asList("next"), order);
+      // failures are not counted as completed
+      assertEquals(1, scheduler.getStats().completed);
+      assertEquals(1, scheduler.getStats().failed);
+      scheduler.shutdown();
+   }
+
+   @Test
+   public void testImmediateFailures() {
+      final LoadScheduler<String> scheduler = LoadScheduler.immediate();
+
+      try {
+         scheduler.request("broken", 0, 0, () -> {
+            throw new IllegalStateException("no data");
+         });
+         fail("immediate failures are thrown without a handler");
+      } catch (final IllegalStateException e) {
+         assertEquals("no data", e.getMessage());
+      }
+
+      final List<String> failures = new ArrayList<>();
+      scheduler.setFailureHandler((key, failure) -> failures.add(key));
+      assertTrue(scheduler.request("broken", 0, 0, () -> {
+         throw new IllegalStateException("no data");
+      }));
+
+      assertEquals(Arrays.asList("broken"), failures);
+      assertEquals(2, scheduler.getStats().failed);
+      assertEquals(0, scheduler.getStats().completed);
+   }
+
+   private static Runnable record(final List<String> order, final String name) {
+      return () -> order.add(name);
+   }
+}
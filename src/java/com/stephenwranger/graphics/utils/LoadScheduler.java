@@ -0,0 +1,106 @@
+package com.stephenwranger.graphics.utils;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Schedules background loads (e.g. splitting terrain segments) requested from the render loop. The render loop calls
+ * {@link #request(Object, double, double, Runnable)} every frame for every key it still wants loaded and
+ * {@link #endFrame()} once per frame; queued loads that were not requested again during a frame are cancelled, so
+ * loads for geometry that left the view never run.
+ *
+ * @author rangers
+ *
+ * @param <K>
+ *           the key identifying a load
+ */
+public interface LoadScheduler<K> {
+   /**
+    * Requests the given load or updates the priority of an already queued load with the same key; loads with a larger
+    * screen space error run first and equal errors run nearest first. Requests for a key that is currently loading
+    * are ignored.
+    *
+    * @param key
+    *           identifies the load
+    * @param screenSpaceError
+    *           the error in pixels the load would remove
+    * @param distance
+    *           the distance from the camera
+    * @param load
+    *           the load to run
+    * @return false if the request was rejected because the queue is full of more important loads
+    */
+   public boolean request(final K key, final double screenSpaceError, final double distance, final Runnable load);
+
+   /**
+    * Cancels all queued loads that were not requested since the previous call.
+    */
+   public void endFrame();
+
+   public LoadStats getStats();
+
+   /**
+    * Sets the handler given the key and the exception of every load that throws; the handler runs on the thread that
+    * ran the load. Without a handler, background failures are printed to System.err and immediate ones are thrown to
+    * the requester. A failed load is not retried unless it is requested again.
+    *
+    * @param failureHandler
+    *           the handler or null
+    */
+   public void setFailureHandler(final BiConsumer<? super K, ? super Throwable> failureHandler);
+
+   /**
+    * Cancels all queued loads and stops accepting new ones; running loads complete.
+    */
+   public void shutdown();
+
+   /**
+    * Returns a scheduler that runs every load immediately on the calling thread.
+    *
+    * @return
+    */
+   public static <K> LoadScheduler<K> immediate() {
+      return new LoadScheduler<K>() {
+         private long                                     completed      = 0;
+         private long                                     failed         = 0;
+         private BiConsumer<? super K, ? super Throwable> failureHandler = null;
+
+         @Override
+         public synchronized boolean request(final K key, final double screenSpaceError, final double distance, final Runnable load) {
+            try {
+               load.run();
+               this.completed++;
+            } catch (final RuntimeException e) {
+               this.failed++;
+
+               if (this.failureHandler == null) {
+                  throw e;
+               }
+
+               this.failureHandler.accept(key, e);
+            }
+
+            return true;
+         }
+
+         @Override
+         public void endFrame() {
+            // nothing is queued
+         }
+
+         @Override
+         public synchronized LoadStats getStats() {
+            return new LoadStats(0, 0, this.completed, this.failed, 0, 0, 0, 0);
+         }
+
+         @Override
+         public synchronized void setFailureHandler(final BiConsumer<? super K, ? super Throwable> failureHandler) {
+            this.failureHandler = failureHandler;
+         }
+
+         @Override
+         public void shutdown() {
+            // nothing is queued
+         }
+      };
+   }
+}
@@ -0,0 +1,44 @@
+package com.stephenwranger.graphics.utils;
+
+/**
+ * Counters of a {@link LoadScheduler}.
+ *
+ * @author rangers
+ *
+ */
+public class LoadStats {
+   /** number of loads waiting to run */
+   public final int    queueDepth;
+   /** number of loads running */
+   public final int    inFlight;
+   /** number of loads that ran to completion without throwing */
+   public final long   completed;
+   /** number of loads that threw; not included in completed */
+   public final long   failed;
+   /** number of queued loads dropped because they were no longer requested or were displaced by better ones */
+   public final long   cancelled;
+   /** number of requests refused because the queue was full of more important loads */
+   public final long   rejected;
+   /** mean time from first request to completion in milliseconds */
+   public final double meanLatency;
+   /** maximum time from first request to completion in milliseconds */
+   public final double maxLatency;
+
+   public LoadStats(final int queueDepth, final int inFlight, final long completed, final long failed, final long cancelled, final long rejected, final double meanLatency,
+         final double maxLatency) {
+      this.queueDepth = queueDepth;
+      this.inFlight = inFlight;
+      this.completed = completed;
+      this.failed = failed;
+      this.cancelled = cancelled;
+      this.rejected = rejected;
+      this.meanLatency = meanLatency;
+      this.maxLatency = maxLatency;
+   }
+
+   @Override
+   public String toString() {
+      return "queued: " + this.queueDepth + ", in flight: " + this.inFlight + ", completed: " + this.completed + ", failed: " + this.failed + ", cancelled: " + this.cancelled + ", rejected: " + this.rejected
+            + ", mean latency: " + this.meanLatency + "ms, max latency: " + this.maxLatency + "ms";
+   }
+}
@@ -0,0 +1,165 @@
+package com.stephenwranger.graphics.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Tracks the memory held by resident objects (e.g. split terrain geometry or uploaded textures) against a byte budget
+ * and evicts the least recently used ones once per frame. Objects used during the current frame are never evicted, so
+ * the budget can be exceeded while everything in view is needed.<br/>
+ * <br/>
+ * The cache does not own the objects; the evictor given to the constructor releases them. Not thread safe; use it from
+ * the render thread.
+ *
+ * @author rangers
+ *
+ * @param <K>
+ *           the resident objects
+ */
+public class ResidencyCache<K> {
+   private final Map<K, Entry> entries   = new LinkedHashMap<>(16, 0.75f, true);
+   private final Consumer<K>   evictor;
+
+   private long                budget;
+   private long                usedBytes = 0;
+   private long                frame     = 0;
+   private long                hits      = 0;
+   private long                misses    = 0;
+   private long                evictions = 0;
+
+   private static class Entry {
+      private final long bytes;
+      private long       frame;
+
+      private Entry(final long bytes, final long frame) {
+         this.bytes = bytes;
+         this.frame = frame;
+      }
+   }
+
+   /**
+    * @param budget
+    *           the maximum number of bytes to keep resident
+    * @param evictor
+    *           called with every evicted object
+    */
+   public ResidencyCache(final long budget, final Consumer<K> evictor) {
+      this.budget = budget;
+      this.evictor = evictor;
+   }
+
+   /**
+    * Marks the given object as used in this frame.
+    *
+    * @param key
+    * @return true if it is resident (a hit), false otherwise (a miss)
+    */
+   public boolean touch(final K key) {
+      final Entry entry = this.entries.get(key);
+
+      if (entry == null) {
+         this.misses++;
+         return false;
+      }
+
+      entry.frame = this.frame;
+      this.hits++;
+
+      return true;
+   }
+
+   /**
+    * Adds the given object as resident and used in this frame; replaces the size of an already resident object.
+    *
+    * @param key
+    * @param bytes
+    *           the memory held by the object
+    */
+   public void put(final K key, final long bytes) {
+      final Entry previous = this.entries.put(key, new Entry(bytes, this.frame));
+
+      if (previous != null) {
+         this.usedBytes -= previous.bytes;
+      }
+
+      this.usedBytes += bytes;
+   }
+
+   /**
+    * Removes the given object without calling the evictor, e.g. because it was released together with its parent.
+    *
+    * @param key
+    * @return true if it was resident
+    */
+   public boolean remove(final K key) {
+      final Entry entry = this.entries.remove(key);
+
+      if (entry != null) {
+         this.usedBytes -= entry.bytes;
+      }
+
+      return entry != null;
+   }
+
+   public boolean isResident(final K key) {
+      return this.entries.containsKey(key);
+   }
+
+   /**
+    * Evicts least recently used objects not used in the current frame until the used bytes fit the budget and starts
+    * the next frame.
+    *
+    * @return the number of evicted objects
+    */
+   public int endFrame() {
+      int count = 0;
+
+      while (this.usedBytes > this.budget) {
+         // the evictor may remove other entries, so look for the eldest again each time
+         final Iterator<Map.Entry<K, Entry>> iterator = this.entries.entrySet().iterator();
+
+         if (!iterator.hasNext()) {
+            break;
+         }
+
+         final Map.Entry<K, Entry> eldest = iterator.next();
+
+         if (eldest.getValue().frame == this.frame) {
+            // everything left was used this frame
+            break;
+         }
+
+         iterator.remove();
+         this.usedBytes -= eldest.getValue().bytes;
+         this.evictions++;
+         count++;
+         this.evictor.accept(eldest.getKey());
+      }
+
+      this.frame++;
+
+      return count;
+   }
+
+   public long getBudget() {
+      return this.budget;
+   }
+
+   public void setBudget(final long budget) {
+      this.budget = budget;
+   }
+
+   public long getUsedBytes() {
+      return this.usedBytes;
+   }
+
+   public int size() {
+      return this.entries.size();
+   }
+
+   public ResidencyStats getStats() {
+      return new ResidencyStats(this.entries.size(), this.usedBytes, this.budget, this.hits, this.misses, this.evictions);
+   }
+}
@@ -0,0 +1,91 @@
+package com.stephenwranger.graphics.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ResidencyCacheTest {
+
+   @Test
+   public void testEvictsLeastRecentlyUsed() {
+      final List<String> evicted = new ArrayList<>();
+      final ResidencyCache<String> cache = new ResidencyCache<>(300, evicted::add);
+
+      cache.put("a", 100);
+      cache.put("b", 100);
+      cache.put("c", 100);
+      assertEquals(0, cache.endFrame());
+
+      // a and c are used, d is new, so b is the least recently used
+      assertTrue(cache.touch("a"));
+      assertTrue(cache.touch("c"));
+      assertFalse(cache.touch("d"));
+      cache.put("d", 100);
+      assertEquals(1, cache.endFrame());
+      assertEquals(Arrays.asList("b"), evicted);
+      assertEquals(300, cache.getUsedBytes());
+
+      // a is used again, so a smaller budget evicts c and d but keeps a
+      cache.touch("a");
+      cache.setBudget(100);
+      assertEquals(2, cache.endFrame());
+      assertEquals(Arrays.asList("b", "c", "d"), evicted);
+      assertTrue(cache.isResident("a"));
+
+      final ResidencyStats stats = cache.getStats();
+      assertEquals(3, stats.hits);
+      assertEquals(1, stats.misses);
+      assertEquals(0.75, stats.getHitRate(), 0);
+   }
+
+   @Test
+   public void testKeepsObjectsUsedThisFrame() {
+      final List<Integer> evicted = new ArrayList<>();
+      final ResidencyCache<Integer> cache = new ResidencyCache<>(100, evicted::add);
+
+      for (int i = 0; i < 5; i++) {
+         cache.put(i, 50);
+      }
+
+      // everything is in view, so nothing can go
+      assertEquals(0, cache.endFrame());
+      assertEquals(250, cache.getUsedBytes());
+
+      cache.touch(3);
+      cache.touch(4);
+      assertEquals(3, cache.endFrame());
+      assertEquals(Arrays.asList(0, 1, 2), evicted);
+      assertEquals(2, cache.size());
+   }
+
+   @Test
+   public void testEvictorMayRemoveDescendants() {
+      final List<String> evicted = new ArrayList<>();
+      final List<ResidencyCache<String>> holder = new ArrayList<>();
+      final ResidencyCache<String> cache = new ResidencyCache<>(150, (key) -> {
+         evicted.add(key);
+
+         // dropping a parent drops its children without evicting them separately
+         holder.get(0).remove(key + "/0");
+      });
+      holder.add(cache);
+
+      cache.put("parent", 100);
+      cache.put("parent/0", 100);
+      cache.put("other", 100);
+      cache.endFrame();
+
+      cache.touch("other");
+      assertEquals(1, cache.endFrame());
+      assertEquals(Arrays.asList("parent"), evicted);
+      assertFalse(cache.isResident("parent/0"));
+      assertEquals(100, cache.getUsedBytes());
+      assertEquals(1, cache.getStats().evictions);
+   }
+}
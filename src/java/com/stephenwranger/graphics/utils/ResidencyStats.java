@@ -0,0 +1,47 @@
+package com.stephenwranger.graphics.utils;
+
+/**
+ * Counters of a {@link ResidencyCache}.
+ *
+ * @author rangers
+ *
+ */
+public class ResidencyStats {
+   /** number of resident objects */
+   public final int  resident;
+   /** bytes held by the resident objects */
+   public final long usedBytes;
+   /** the byte budget */
+   public final long budget;
+   /** number of uses of resident objects */
+   public final long hits;
+   /** number of uses of objects that were not resident */
+   public final long misses;
+   /** number of evicted objects */
+   public final long evictions;
+
+   public ResidencyStats(final int resident, final long usedBytes, final long budget, final long hits, final long misses, final long evictions) {
+      this.resident = resident;
+      this.usedBytes = usedBytes;
+      this.budget = budget;
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+   }
+
+   /**
+    * Returns the fraction of uses that were hits or 0 if there were none.
+    *
+    * @return
+    */
+   public double getHitRate() {
+      final long total = this.hits + this.misses;
+
+      return (total == 0) ? 0 : this.hits / (double) total;
+   }
+
+   @Override
+   public String toString() {
+      return "resident: " + this.resident + ", used: " + this.usedBytes + " / " + this.budget + " bytes, hits: " + this.hits + ", misses: " + this.misses + ", evictions: " + this.evictions;
+   }
+}
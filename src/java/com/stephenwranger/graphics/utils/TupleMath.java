@@ -21,6 +21,20 @@ public class TupleMath {
       return new Tuple3d(t1.x + t2.x, t1.y + t2.y, t1.z + t2.z);
    }
 
+   /**
+    * Stores t1 + t2 in the given output tuple, which may be one of the inputs.
+    *
+    * @param t1
+    * @param t2
+    * @param out
+    * @return out
+    */
+   public static Tuple3d add(final Tuple3d t1, final Tuple3d t2, final Tuple3d out) {
+      out.set(t1.x + t2.x, t1.y + t2.y, t1.z + t2.z);
+
+      return out;
+   }
+
    /**
     * Returns the angle between the two given vectors in radians in the range [0,PI] or NaN if invalid.
     *
@@ -29,12 +43,15 @@ public class TupleMath {
     * @return
     */
    public static double angle(final Tuple3d Vn, final Tuple3d Va, final Tuple3d Vb) {
-      final double sina = TupleMath.length(TupleMath.cross(Va, Vb)) / (TupleMath.length(Va) * TupleMath.length(Vb));
+      final double cx = (Va.y * Vb.z) - (Va.z * Vb.y);
+      final double cy = (Va.z * Vb.x) - (Va.x * Vb.z);
+      final double cz = (Va.x * Vb.y) - (Va.y * Vb.x);
+      final double sina = Math.sqrt((cx * cx) + (cy * cy) + (cz * cz)) / (TupleMath.length(Va) * TupleMath.length(Vb));
       final double cosa = TupleMath.dot(Va, Vb) / (TupleMath.length(Va) * TupleMath.length(Vb));
 
       double angle = Math.atan2(sina, cosa);
 
-      final double sign = TupleMath.dot(Vn, TupleMath.cross(Va, Vb));
+      final double sign = (Vn.x * cx) + (Vn.y * cy) + (Vn.z * cz);
 
       if (sign < 0) {
          angle = -angle;
@@ -74,6 +91,24 @@ public class TupleMath {
       return cross;
    }
 
+   /**
+    * Stores v0 x v1 in the given output tuple, which may be one of the inputs.
+    *
+    * @param v0
+    * @param v1
+    * @param out
+    * @return out
+    */
+   public static Tuple3d cross(final Tuple3d v0, final Tuple3d v1, final Tuple3d out) {
+      final double x = (v0.y * v1.z) - (v0.z * v1.y);
+      final double y = (v0.z * v1.x) - (v0.x * v1.z);
+      final double z = (v0.x * v1.y) - (v0.y * v1.x);
+
+      out.set(x, y, z);
+
+      return out;
+   }
+
    public static double distance(final Tuple3d v0, final Tuple3d v1) {
       return Math.sqrt(TupleMath.distanceSquared(v0, v1));
    }
@@ -107,6 +142,25 @@ public class TupleMath {
       return max;
    }
 
+   /**
+    * Stores the component-wise maximum of the first count tuples in the given output tuple.
+    *
+    * @param tuples
+    * @param count
+    * @param out
+    * @return out
+    */
+   public static Tuple2d getMax(final Tuple2d[] tuples, final int count, final Tuple2d out) {
+      out.set(-Double.MAX_VALUE, -Double.MAX_VALUE);
+
+      for (int i = 0; i < count; i++) {
+         out.x = Math.max(out.x, tuples[i].x);
+         out.y = Math.max(out.y, tuples[i].y);
+      }
+
+      return out;
+   }
+
    public static Tuple3d getMax(final Tuple3d... tuples) {
       Tuple3d max = null;
 
@@ -138,6 +192,25 @@ public class TupleMath {
       return min;
    }
 
+   /**
+    * Stores the component-wise minimum of the first count tuples in the given output tuple.
+    *
+    * @param tuples
+    * @param count
+    * @param out
+    * @return out
+    */
+   public static Tuple2d getMin(final Tuple2d[] tuples, final int count, final Tuple2d out) {
+      out.set(Double.MAX_VALUE, Double.MAX_VALUE);
+
+      for (int i = 0; i < count; i++) {
+         out.x = Math.min(out.x, tuples[i].x);
+         out.y = Math.min(out.y, tuples[i].y);
+      }
+
+      return out;
+   }
+
    public static Tuple3d getMin(final Tuple3d... tuples) {
       Tuple3d min = null;
 
@@ -270,7 +343,25 @@ public class TupleMath {
       t.z *= scale;
    }
 
+   public static void scale(final Tuple3d t, final double scale, final Tuple3d out) {
+      out.set(t.x * scale, t.y * scale, t.z * scale);
+   }
+
    public static Tuple3d sub(final Tuple3d t1, final Tuple3d t2) {
       return new Tuple3d(t1.x - t2.x, t1.y - t2.y, t1.z - t2.z);
    }
+
+   /**
+    * Stores t1 - t2 in the given output tuple, which may be one of the inputs.
+    *
+    * @param t1
+    * @param t2
+    * @param out
+    * @return out
+    */
+   public static Tuple3d sub(final Tuple3d t1, final Tuple3d t2, final Tuple3d out) {
+      out.set(t1.x - t2.x, t1.y - t2.y, t1.z - t2.z);
+
+      return out;
+   }
 }
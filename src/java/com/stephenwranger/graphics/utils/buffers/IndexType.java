@@ -0,0 +1,45 @@
+package com.stephenwranger.graphics.utils.buffers;
+
+import java.nio.ByteBuffer;
+
+import com.jogamp.opengl.GL;
+
+/**
+ * The element (index) buffer types supported by {@link VertexBufferObject}.
+ *
+ * @author rangers
+ *
+ */
+public enum IndexType {
+   UNSIGNED_SHORT(2, GL.GL_UNSIGNED_SHORT, 0xffff),
+   UNSIGNED_INT(4, GL.GL_UNSIGNED_INT, Integer.MAX_VALUE);
+
+   public final int  bytesPerIndex;
+   public final int  glType;
+   /** The largest vertex index this type can address. */
+   public final long maxIndex;
+
+   IndexType(final int bytesPerIndex, final int glType, final long maxIndex) {
+      this.bytesPerIndex = bytesPerIndex;
+      this.glType = glType;
+      this.maxIndex = maxIndex;
+   }
+
+   public void put(final ByteBuffer buffer, final int index) {
+      if (this == UNSIGNED_SHORT) {
+         buffer.putShort((short) index);
+      } else {
+         buffer.putInt(index);
+      }
+   }
+
+   /**
+    * Returns the narrowest index type able to address every vertex of a buffer with the given vertex count.
+    *
+    * @param vertexCount
+    * @return
+    */
+   public static IndexType forVertexCount(final int vertexCount) {
+      return ((vertexCount - 1) <= UNSIGNED_SHORT.maxIndex) ? UNSIGNED_SHORT : UNSIGNED_INT;
+   }
+}
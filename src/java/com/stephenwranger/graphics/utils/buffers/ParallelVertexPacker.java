@@ -0,0 +1,144 @@
+package com.stephenwranger.graphics.utils.buffers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Fills an interleaved vertex buffer in parallel. The vertex range is split into disjoint slices and each slice is
+ * handed to a {@link SlicePacker} as its own native order view of the target buffer, so packers only ever write
+ * vertices they own and need no synchronization. Intended for filling staging buffers off the render thread; the
+ * render thread then only uploads the result.
+ *
+ * @author rangers
+ *
+ */
+public class ParallelVertexPacker {
+   public static final int DEFAULT_SLICE_SIZE = 1 << 15;
+
+   public interface SlicePacker {
+      /**
+       * Writes the given vertices into the slice; the slice starts at the first vertex and has room for exactly count
+       * vertices.
+       *
+       * @param slice
+       *           native order view of the target buffer positioned at zero
+       * @param first
+       *           index of the first vertex in the slice
+       * @param count
+       *           number of vertices in the slice
+       */
+      public void pack(final ByteBuffer slice, final int first, final int count);
+   }
+
+   private final ForkJoinPool pool;
+   private final int          sliceSize;
+
+   public ParallelVertexPacker() {
+      this(ForkJoinPool.commonPool(), DEFAULT_SLICE_SIZE);
+   }
+
+   /**
+    * Creates a new packer using the given pool and number of vertices per slice.
+    *
+    * @param pool
+    * @param sliceSize
+    */
+   public ParallelVertexPacker(final ForkJoinPool pool, final int sliceSize) {
+      if (sliceSize <= 0) {
+         throw new IllegalArgumentException("Slice size must be greater than zero.");
+      }
+
+      this.pool = pool;
+      this.sliceSize = sliceSize;
+   }
+
+   /**
+    * Packs all vertices into the given buffer, starting at its position zero, and blocks until every slice is written.
+    *
+    * @param buffer
+    *           the target buffer; must hold at least vertexCount * bytesPerVertex bytes
+    * @param bytesPerVertex
+    *           the interleaved stride
+    * @param vertexCount
+    *           the number of vertices to pack
+    * @param packer
+    *           writes the vertices of a single slice
+    */
+   public void pack(final ByteBuffer buffer, final int bytesPerVertex, final int vertexCount, final SlicePacker packer) {
+      if (((long) bytesPerVertex * vertexCount) > buffer.capacity()) {
+         throw new IllegalArgumentException("Buffer of " + buffer.capacity() + " bytes cannot hold " + vertexCount + " vertices of " + bytesPerVertex + " bytes.");
+      }
+
+      final List<Callable<Void>> tasks = new ArrayList<>();
+
+      for (int first = 0; first < vertexCount; first += this.sliceSize) {
+         final int start = first;
+         final int count = Math.min(this.sliceSize, vertexCount - first);
+
+         tasks.add(() -> {
+            final ByteBuffer slice = buffer.duplicate();
+            slice.limit((start + count) * bytesPerVertex);
+            slice.position(start * bytesPerVertex);
+            packer.pack(slice.slice().order(ByteOrder.nativeOrder()), start, count);
+
+            return null;
+         });
+      }
+
+      if (tasks.size() == 1) {
+         // not worth a hand-off
+         try {
+            tasks.get(0).call();
+         } catch (final Exception e) {
+            throw ParallelVertexPacker.unchecked(e);
+         }
+
+         return;
+      }
+
+      try {
+         for (final Future<Void> future : this.pool.invokeAll(tasks)) {
+            future.get();
+         }
+      } catch (final ExecutionException e) {
+         throw ParallelVertexPacker.unchecked(e.getCause());
+      } catch (final InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while packing vertices.", e);
+      }
+   }
+
+   /**
+    * Packs the vertices on the pool without blocking the caller; the future completes with the given buffer once every
+    * slice is written.
+    *
+    * @param buffer
+    * @param bytesPerVertex
+    * @param vertexCount
+    * @param packer
+    * @return
+    */
+   public CompletableFuture<ByteBuffer> packAsync(final ByteBuffer buffer, final int bytesPerVertex, final int vertexCount, final SlicePacker packer) {
+      return CompletableFuture.supplyAsync(() -> {
+         this.pack(buffer, bytesPerVertex, vertexCount, packer);
+         return buffer;
+      }, this.pool);
+   }
+
+   private static RuntimeException unchecked(final Throwable t) {
+      if (t instanceof RuntimeException) {
+         return (RuntimeException) t;
+      } else if (t instanceof Error) {
+         throw (Error) t;
+      }
+
+      return new IllegalStateException(t.getMessage(), t);
+   }
+}
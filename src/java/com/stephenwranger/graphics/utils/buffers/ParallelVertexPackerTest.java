@@ -0,0 +1,36 @@
+package com.stephenwranger.graphics.utils.buffers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ParallelVertexPackerTest {
+   @Test
+   public void testSlicesCoverBuffer() {
+      final int vertexCount = 1000;
+      final int bytesPerVertex = 12;
+      final ByteBuffer buffer = BufferUtils.newByteBuffer(vertexCount * bytesPerVertex);
+      final ParallelVertexPacker packer = new ParallelVertexPacker(new ForkJoinPool(4), 37);
+
+      packer.packAsync(buffer, bytesPerVertex, vertexCount, (slice, first, count) -> {
+         assertEquals(count * bytesPerVertex, slice.capacity());
+         final FloatBuffer floats = slice.asFloatBuffer();
+
+         for (int i = first; i < (first + count); i++) {
+            floats.put(i).put(-i).put(i * 2);
+         }
+      }).join();
+
+      final FloatBuffer result = buffer.asFloatBuffer();
+
+      for (int i = 0; i < vertexCount; i++) {
+         assertEquals(i, result.get(i * 3), 0f);
+         assertEquals(-i, result.get((i * 3) + 1), 0f);
+         assertEquals(i * 2, result.get((i * 3) + 2), 0f);
+      }
+   }
+}
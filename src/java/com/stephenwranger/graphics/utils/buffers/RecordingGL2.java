@@ -0,0 +1,582 @@
+package com.stephenwranger.graphics.utils.buffers;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.jogamp.opengl.DebugGL2;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+
+/**
+ * A {@link GL2} stand-in for unit tests that records calls instead of talking to a GPU. Buffer names are handed out
+ * sequentially and glBufferData/glMapBuffer/glMapBufferRange/glCopyBufferSubData are backed by heap buffers so that
+ * code writing into mapped buffers can be verified. Only the buffer, client state, pointer and draw calls used by the
+ * buffer classes, the matrix and attribute calls of the buffered renderables and the texture calls used by
+ * {@link com.stephenwranger.graphics.utils.textures.Texture2d} are supported; any other call fails with a
+ * {@link NullPointerException} as there is no downstream context. All functions are reported available unless marked
+ * with {@link #setUnavailable(String...)}.
+ *
+ * @author rangers
+ *
+ */
+public class RecordingGL2 {
+   public static class Call {
+      public final String   name;
+      public final Object[] args;
+
+      private Call(final String name, final Object[] args) {
+         this.name = name;
+         this.args = args;
+      }
+
+      public int getInt(final int index) {
+         return ((Number) this.args[index]).intValue();
+      }
+
+      public long getLong(final int index) {
+         return ((Number) this.args[index]).longValue();
+      }
+
+      @Override
+      public String toString() {
+         return this.name + Arrays.toString(this.args);
+      }
+   }
+
+   private final List<Call>               calls         = new ArrayList<>();
+   private final Map<Integer, ByteBuffer> bufferData    = new HashMap<>();
+   private final Map<Integer, Integer>    boundBuffers  = new HashMap<>();
+   private final Set<String>              unavailable   = new HashSet<>();
+   private final RecordingGL              gl;
+   private int                            nextBufferId  = 1;
+   private int                            nextTextureId = 1;
+   private boolean                        isRecording   = true;
+
+   public RecordingGL2() {
+      // GL2 has too many methods for a java.lang.reflect.Proxy and DebugGL2 requires a live downstream context, so the
+      // delegating pipeline is allocated without running its constructor
+      try {
+         final Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+         field.setAccessible(true);
+         final Object unsafe = field.get(null);
+         this.gl = (RecordingGL) unsafe.getClass().getMethod("allocateInstance", Class.class).invoke(unsafe, RecordingGL.class);
+      } catch (final ReflectiveOperationException e) {
+         throw new IllegalStateException("Could not create recording GL2", e);
+      }
+
+      this.gl.recorder = this;
+   }
+
+   public GL2 getGL() {
+      return this.gl;
+   }
+
+   public List<Call> getCalls() {
+      return this.calls;
+   }
+
+   /**
+    * Returns the recorded calls with the given method name in call order.
+    *
+    * @param name
+    * @return
+    */
+   public List<Call> getCalls(final String name) {
+      final List<Call> matches = new ArrayList<>();
+
+      for (final Call call : this.calls) {
+         if (call.name.equals(name)) {
+            matches.add(call);
+         }
+      }
+
+      return matches;
+   }
+
+   public int getCallCount(final String name) {
+      return this.getCalls(name).size();
+   }
+
+   /**
+    * Returns the contents of the given buffer name as last written through glBufferData or a mapped buffer.
+    *
+    * @param bufferId
+    * @return
+    */
+   public ByteBuffer getBufferData(final int bufferId) {
+      return this.bufferData.get(bufferId);
+   }
+
+   public void clear() {
+      this.calls.clear();
+   }
+
+   /**
+    * Turns every call into a no-op that records nothing and leaves the buffers untouched while false, so allocation
+    * measurements see only the code under test; calls returning a buffer return null.
+    *
+    * @param isRecording
+    */
+   public void setRecording(final boolean isRecording) {
+      this.isRecording = isRecording;
+   }
+
+   /**
+    * Makes isFunctionAvailable report the given functions as missing, as on a context of an older GL version; the calls
+    * themselves are still recorded if made.
+    *
+    * @param names
+    */
+   public void setUnavailable(final String... names) {
+      this.unavailable.addAll(Arrays.asList(names));
+   }
+
+   /**
+    * Returns the buffer currently bound to GL_ARRAY_BUFFER.
+    *
+    * @return
+    */
+   public int getBoundArrayBuffer() {
+      return this.getBound(GL.GL_ARRAY_BUFFER);
+   }
+
+   private int getBound(final int target) {
+      final Integer id = this.boundBuffers.get(target);
+      return (id == null) ? 0 : id;
+   }
+
+   private void record(final String name, final Object... args) {
+      this.calls.add(new Call(name, args));
+   }
+
+   private void genBuffers(final int count, final int[] ids, final int offset) {
+      for (int i = 0; i < count; i++) {
+         ids[offset + i] = this.nextBufferId++;
+      }
+   }
+
+   private void genTextures(final int count, final int[] ids, final int offset) {
+      for (int i = 0; i < count; i++) {
+         ids[offset + i] = this.nextTextureId++;
+      }
+   }
+
+   private void bufferData(final int target, final long size, final Buffer source) {
+      final ByteBuffer data = ByteBuffer.allocate((int) size).order(ByteOrder.nativeOrder());
+
+      if (source instanceof ByteBuffer) {
+         data.put(((ByteBuffer) source).duplicate());
+         data.rewind();
+      }
+
+      this.bufferData.put(this.getBound(target), data);
+   }
+
+   private void bufferSubData(final int target, final long offset, final long size, final Buffer source) {
+      final ByteBuffer data = this.bufferData.get(this.getBound(target));
+      final ByteBuffer copy = ((ByteBuffer) source).duplicate();
+      copy.limit(copy.position() + (int) size);
+      data.position((int) offset);
+      data.put(copy);
+      data.rewind();
+   }
+
+   private ByteBuffer mapBufferRange(final int target, final long offset, final long length) {
+      final ByteBuffer data = this.bufferData.get(this.getBound(target));
+
+      if (data == null) {
+         return null;
+      }
+
+      final ByteBuffer range = data.duplicate();
+      range.limit((int) (offset + length));
+      range.position((int) offset);
+
+      return range.slice().order(ByteOrder.nativeOrder());
+   }
+
+   private static class RecordingGL extends DebugGL2 {
+      private RecordingGL2 recorder;
+
+      private RecordingGL(final GL2 downstream) {
+         super(downstream);
+      }
+
+      @Override
+      public boolean isFunctionAvailable(final String name) {
+         return !this.recorder.unavailable.contains(name);
+      }
+
+      @Override
+      public void glGenBuffers(final int n, final int[] buffers, final int offset) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glGenBuffers", n, buffers, offset);
+         this.recorder.genBuffers(n, buffers, offset);
+      }
+
+      @Override
+      public void glDeleteBuffers(final int n, final int[] buffers, final int offset) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glDeleteBuffers", n, buffers, offset);
+
+         for (int i = 0; i < n; i++) {
+            this.recorder.bufferData.remove(buffers[offset + i]);
+         }
+      }
+
+      @Override
+      public void glBindBuffer(final int target, final int buffer) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glBindBuffer", target, buffer);
+         this.recorder.boundBuffers.put(target, buffer);
+      }
+
+      @Override
+      public void glBufferData(final int target, final long size, final Buffer data, final int usage) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glBufferData", target, size, data, usage);
+         this.recorder.bufferData(target, size, data);
+      }
+
+      @Override
+      public void glBufferSubData(final int target, final long offset, final long size, final Buffer data) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glBufferSubData", target, offset, size, data);
+         this.recorder.bufferSubData(target, offset, size, data);
+      }
+
+      @Override
+      public void glCopyBufferSubData(final int readTarget, final int writeTarget, final long readOffset, final long writeOffset, final long size) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glCopyBufferSubData", readTarget, writeTarget, readOffset, writeOffset, size);
+         final ByteBuffer source = this.recorder.mapBufferRange(readTarget, readOffset, size);
+         this.recorder.bufferSubData(writeTarget, writeOffset, size, source);
+      }
+
+      @Override
+      public ByteBuffer glMapBuffer(final int target, final int access) {
+         if (!this.recorder.isRecording) {
+            return null;
+         }
+
+         this.recorder.record("glMapBuffer", target, access);
+         final ByteBuffer data = this.recorder.bufferData.get(this.recorder.getBound(target));
+         return (data == null) ? null : this.recorder.mapBufferRange(target, 0, data.capacity());
+      }
+
+      @Override
+      public ByteBuffer glMapBufferRange(final int target, final long offset, final long length, final int access) {
+         if (!this.recorder.isRecording) {
+            return null;
+         }
+
+         this.recorder.record("glMapBufferRange", target, offset, length, access);
+         return this.recorder.mapBufferRange(target, offset, length);
+      }
+
+      @Override
+      public void glFlushMappedBufferRange(final int target, final long offset, final long length) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glFlushMappedBufferRange", target, offset, length);
+      }
+
+      @Override
+      public boolean glUnmapBuffer(final int target) {
+         if (!this.recorder.isRecording) {
+            return true;
+         }
+
+         this.recorder.record("glUnmapBuffer", target);
+         return true;
+      }
+
+      @Override
+      public void glEnableClientState(final int cap) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glEnableClientState", cap);
+      }
+
+      @Override
+      public void glDisableClientState(final int cap) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glDisableClientState", cap);
+      }
+
+      @Override
+      public void glVertexPointer(final int size, final int type, final int stride, final long offset) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glVertexPointer", size, type, stride, offset);
+      }
+
+      @Override
+      public void glNormalPointer(final int type, final int stride, final long offset) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glNormalPointer", type, stride, offset);
+      }
+
+      @Override
+      public void glColorPointer(final int size, final int type, final int stride, final long offset) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glColorPointer", size, type, stride, offset);
+      }
+
+      @Override
+      public void glTexCoordPointer(final int size, final int type, final int stride, final long offset) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glTexCoordPointer", size, type, stride, offset);
+      }
+
+      @Override
+      public void glEnableVertexAttribArray(final int index) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glEnableVertexAttribArray", index);
+      }
+
+      @Override
+      public void glDisableVertexAttribArray(final int index) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glDisableVertexAttribArray", index);
+      }
+
+      @Override
+      public void glVertexAttribPointer(final int index, final int size, final int type, final boolean normalized, final int stride, final long offset) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glVertexAttribPointer", index, size, type, normalized, stride, offset);
+      }
+
+      @Override
+      public void glDrawArrays(final int mode, final int first, final int count) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glDrawArrays", mode, first, count);
+      }
+
+      @Override
+      public void glDrawElements(final int mode, final int count, final int type, final long offset) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glDrawElements", mode, count, type, offset);
+      }
+
+      @Override
+      public void glMultiDrawArrays(final int mode, final int[] first, final int firstOffset, final int[] count, final int countOffset, final int drawCount) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glMultiDrawArrays", mode, first, firstOffset, count, countOffset, drawCount);
+      }
+
+      @Override
+      public void glEnable(final int cap) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glEnable", cap);
+      }
+
+      @Override
+      public void glDisable(final int cap) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glDisable", cap);
+      }
+
+      @Override
+      public void glActiveTexture(final int texture) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glActiveTexture", texture);
+      }
+
+      @Override
+      public void glGenTextures(final int n, final int[] textures, final int offset) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glGenTextures", n, textures, offset);
+         this.recorder.genTextures(n, textures, offset);
+      }
+
+      @Override
+      public void glDeleteTextures(final int n, final int[] textures, final int offset) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glDeleteTextures", n, textures, offset);
+      }
+
+      @Override
+      public void glBindTexture(final int target, final int texture) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glBindTexture", target, texture);
+      }
+
+      @Override
+      public void glTexParameteri(final int target, final int name, final int param) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glTexParameteri", target, name, param);
+      }
+
+      @Override
+      public void glTexImage2D(final int target, final int level, final int internalFormat, final int width, final int height, final int border, final int format, final int type,
+            final Buffer pixels) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glTexImage2D", target, level, internalFormat, width, height, border, format, type, pixels);
+      }
+
+      @Override
+      public void glPushMatrix() {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glPushMatrix");
+      }
+
+      @Override
+      public void glPopMatrix() {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glPopMatrix");
+      }
+
+      @Override
+      public void glTranslated(final double x, final double y, final double z) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glTranslated", x, y, z);
+      }
+
+      @Override
+      public void glPushAttrib(final int mask) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glPushAttrib", mask);
+      }
+
+      @Override
+      public void glPopAttrib() {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glPopAttrib");
+      }
+
+      @Override
+      public void glPointSize(final float size) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glPointSize", size);
+      }
+
+      @Override
+      public void glPolygonMode(final int face, final int mode) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glPolygonMode", face, mode);
+      }
+
+      @Override
+      public void glColorMaterial(final int face, final int mode) {
+         if (!this.recorder.isRecording) {
+            return;
+         }
+
+         this.recorder.record("glColorMaterial", face, mode);
+      }
+
+      @Override
+      public String toString() {
+         return "RecordingGL2";
+      }
+   }
+}
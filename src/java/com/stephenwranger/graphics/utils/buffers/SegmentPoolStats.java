@@ -0,0 +1,55 @@
+package com.stephenwranger.graphics.utils.buffers;
+
+/**
+ * Fragmentation counters of one size class of a {@link SegmentedVertexBufferPool}.
+ *
+ * @author rangers
+ *
+ */
+public class SegmentPoolStats {
+   /** the max vertex count of the segments */
+   public final int  segmentSize;
+   /** number of allocated buffers */
+   public final int  buffers;
+   /** number of reserved or uploaded segments */
+   public final int  occupiedSegments;
+   /** number of segments the buffers can hold */
+   public final int  segmentCapacity;
+   /** bytes of the uploaded vertices */
+   public final long usedBytes;
+   /** bytes of the allocated buffers */
+   public final long allocatedBytes;
+
+   public SegmentPoolStats(final int segmentSize, final int buffers, final int occupiedSegments, final int segmentCapacity, final long usedBytes, final long allocatedBytes) {
+      this.segmentSize = segmentSize;
+      this.buffers = buffers;
+      this.occupiedSegments = occupiedSegments;
+      this.segmentCapacity = segmentCapacity;
+      this.usedBytes = usedBytes;
+      this.allocatedBytes = allocatedBytes;
+   }
+
+   /**
+    * Returns the bytes of the buffers that hold no vertices, in free segments and past the vertices of used ones.
+    *
+    * @return
+    */
+   public long getWastedBytes() {
+      return this.allocatedBytes - this.usedBytes;
+   }
+
+   /**
+    * Returns the fraction of segments that are occupied or 0 if there are none.
+    *
+    * @return
+    */
+   public double getOccupancy() {
+      return (this.segmentCapacity == 0) ? 0 : this.occupiedSegments / (double) this.segmentCapacity;
+   }
+
+   @Override
+   public String toString() {
+      return "segment size: " + this.segmentSize + ", buffers: " + this.buffers + ", segments: " + this.occupiedSegments + " / " + this.segmentCapacity + ", used: " + this.usedBytes
+            + " / " + this.allocatedBytes + " bytes";
+   }
+}
@@ -1,83 +1,183 @@
 package com.stephenwranger.graphics.utils.buffers;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES3;
 import com.stephenwranger.graphics.math.Tuple3d;
-import com.stephenwranger.graphics.utils.MathUtils;
 import com.stephenwranger.graphics.utils.Timings;
 import com.stephenwranger.graphics.utils.textures.Texture2d;
 
 /**
- * This buffer splits itself into a number of segments and keeps track of which segments are currently in use.
+ * This buffer splits itself into a number of segments and keeps track of which segments are currently in use with a
+ * {@link SlotAllocator}, so segment indices can be reserved from any thread; uploads and rendering happen on the GL
+ * thread. Segments are laid out at multiples of the max segment size times the stride of the {@link BufferRegion}s and
+ * are best uploaded in batches with {@link #setSegmentObjects(GL2, Tuple3d, Collection)}.
  *
  * @author rangers
  *
  */
 public class SegmentedVertexBufferObject extends VertexBufferObject {
-   private final Set<Integer>          usedIndices;
-   private final Map<Integer, Integer> vertexCounts;
-   private final int                   maxSegmentSize;
-   private final int                   segmentsPerBuffer;
-   private final Timings               timings = new Timings(100);
+   private final SlotAllocator             slots;
+   /** the vertex count of each segment index; zero until loaded */
+   private final int[]                     vertexCounts;
+   /** the uploaded segment of each segment index */
+   private final SegmentObject[]           segmentObjects;
+   /** the segments of the current upload by segment index */
+   private final SegmentObject[]           dirtySegments;
+   /**
+    * whether commands still queued on the GPU may use each segment index; set once an index is drawn, copied or written
+    * with glBufferSubData and never cleared, as a freed index may be reused while the GPU is frames behind
+    */
+   private final boolean[]                 isGpuUsed;
+   private final int                       maxSegmentSize;
+   private final int                       segmentsPerBuffer;
+   private final Timings                   timings     = new Timings(100);
+   // the draws of the segments sharing a texture, reused between frames; texture keys compare by identity and an
+   // identity map allocates no entries on put
+   private final Map<Texture2d, DrawBatch> batches     = new IdentityHashMap<>();
+   /** the batches of the current frame in the order their textures were first seen */
+   private final List<DrawBatch>           usedBatches = new ArrayList<>();
+   private final List<DrawBatch>           freeBatches = new ArrayList<>();
+   /** holds a single segment uploaded with glBufferSubData */
+   private ByteBuffer                      staging     = null;
 
    public SegmentedVertexBufferObject(final int maxSegmentSize, final int segmentsPerBuffer, final int glPrimitiveType, final int usage, final BufferRegion... bufferRegions) {
       super(maxSegmentSize * segmentsPerBuffer, true, glPrimitiveType, usage, bufferRegions);
 
       this.maxSegmentSize = maxSegmentSize;
       this.segmentsPerBuffer = segmentsPerBuffer;
-      this.usedIndices = new ConcurrentSkipListSet<>();
-      this.vertexCounts = new HashMap<>();
+      this.slots = new SlotAllocator(segmentsPerBuffer);
+      this.vertexCounts = new int[segmentsPerBuffer];
+      this.dirtySegments = new SegmentObject[segmentsPerBuffer];
+      this.isGpuUsed = new boolean[segmentsPerBuffer];
+      this.segmentObjects = new SegmentObject[segmentsPerBuffer];
    }
 
    public void clearIndex(final int bufferIndex) {
       final int index = bufferIndex % this.segmentsPerBuffer;
-      this.usedIndices.remove(index);
-      this.vertexCounts.remove(index);
+      this.vertexCounts[index] = 0;
+      this.segmentObjects[index] = null;
+      this.slots.release(index);
+   }
+
+   /**
+    * Copies the segment at the given index into the given reserved index of the target buffer on the GPU and frees
+    * it here; the caller has to update the location of the segment. Needs glCopyBufferSubData (GL 3.1 or
+    * ARB_copy_buffer).
+    *
+    * @param gl
+    * @param bufferIndex
+    *           the segment index in this buffer
+    * @param target
+    * @param targetIndex
+    *           the reserved segment index in the target buffer
+    */
+   public void moveSegment(final GL2 gl, final int bufferIndex, final SegmentedVertexBufferObject target, final int targetIndex) {
+      final int index = bufferIndex % this.segmentsPerBuffer;
+      final int toIndex = targetIndex % target.segmentsPerBuffer;
+      final int bytesPerVertex = this.getBytesPerVertex();
+
+      if (target.vboId < 0) {
+         target.initializeVbo(gl);
+      }
+
+      gl.glBindBuffer(GL2ES3.GL_COPY_READ_BUFFER, this.vboId);
+      gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, target.vboId);
+      gl.glCopyBufferSubData(GL2ES3.GL_COPY_READ_BUFFER, GL2ES3.GL_COPY_WRITE_BUFFER, (long) index * this.maxSegmentSize * bytesPerVertex,
+            (long) toIndex * target.maxSegmentSize * bytesPerVertex, this.vertexCounts[index] * bytesPerVertex);
+      gl.glBindBuffer(GL2ES3.GL_COPY_READ_BUFFER, 0);
+      gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, 0);
+
+      this.isGpuUsed[index] = true;
+      target.isGpuUsed[toIndex] = true;
+      target.vertexCounts[toIndex] = this.vertexCounts[index];
+      target.segmentObjects[toIndex] = this.segmentObjects[index];
+      this.clearIndex(index);
+   }
+
+   /**
+    * Returns the segment uploaded at the given index or null if the index is free or only reserved.
+    *
+    * @param bufferIndex
+    * @return
+    */
+   public SegmentObject getSegmentObject(final int bufferIndex) {
+      return this.segmentObjects[bufferIndex % this.segmentsPerBuffer];
    }
 
    /**
     * Returns the next available segment index or -1 if this buffer is full. If not full, the returned index will be
-    * marked as used.
+    * marked as used. Safe to call from any thread.
     *
     * @return the next avialable index or -1 if full
     */
    public int getNextAvailableIndex() {
-      for (int i = 0; i < this.segmentsPerBuffer; i++) {
-         if (!this.usedIndices.contains(i)) {
-            this.usedIndices.add(i);
-            return i;
-         }
-      }
-
-      return -1;
+      return this.slots.allocate();
    }
 
    public int getPointCount() {
-      return (int) MathUtils.sum(this.vertexCounts.values());
+      int count = 0;
+
+      for (final int vertexCount : this.vertexCounts) {
+         count += vertexCount;
+      }
+
+      return count;
    }
 
+   /**
+    * Returns the fraction of the vertices of the used segments that are filled.
+    *
+    * @return
+    */
    public double getPointUsagePercentage() {
-      return MathUtils.sum(this.vertexCounts.values()) / this.vertexCounts.size();
+      final int segmentCount = this.getSegmentCount();
+
+      return (segmentCount == 0) ? 0 : this.getPointCount() / ((double) segmentCount * this.maxSegmentSize);
+   }
+
+   /**
+    * Returns the number of segment indices, the capacity of this buffer.
+    *
+    * @return
+    */
+   public int getSegmentCapacity() {
+      return this.segmentsPerBuffer;
    }
 
    public int getSegmentCount() {
-      return this.usedIndices.size();
+      return this.slots.getUsedCount();
    }
 
    public double getSegmentUsagePercentage() {
-      return this.usedIndices.size() / (double) this.segmentsPerBuffer;
+      return this.getSegmentCount() / (double) this.segmentsPerBuffer;
    }
 
    public boolean isEmpty() {
-      return this.usedIndices.isEmpty();
+      return this.slots.isEmpty();
+   }
+
+   public boolean isFull() {
+      return this.slots.isFull();
+   }
+
+   /**
+    * Atomically stops all further segment reservations if no segment index is in use.
+    *
+    * @return true if this buffer was empty and can be dropped
+    */
+   public boolean retireIfEmpty() {
+      return this.slots.retireIfEmpty();
    }
 
    @Override
@@ -88,10 +188,11 @@ public class SegmentedVertexBufferObject extends VertexBufferObject {
          region.enable(gl);
       }
 
-      for (final Entry<Integer, Integer> entry : this.vertexCounts.entrySet()) {
-         final int index = entry.getKey() * this.maxSegmentSize;
-         final int vertexCount = entry.getValue();
-         gl.glDrawArrays(this.glPrimitiveType, index, vertexCount);
+      for (int i = 0; i < this.segmentsPerBuffer; i++) {
+         if (this.vertexCounts[i] > 0) {
+            this.isGpuUsed[i] = true;
+            gl.glDrawArrays(this.glPrimitiveType, i * this.maxSegmentSize, this.vertexCounts[i]);
+         }
       }
 
       // disable arrays once we're done
@@ -102,29 +203,85 @@ public class SegmentedVertexBufferObject extends VertexBufferObject {
       }
    }
 
-   public void render(final GL2 gl, final Collection<SegmentObject> segments) {
+   /**
+    * Renders the given segments of this buffer; the segments sharing a texture are drawn with a single
+    * glMultiDrawArrays call, so the buffer is bound and each texture enabled once.
+    *
+    * @param gl
+    * @param segments
+    */
+   public void render(final GL2 gl, final Collection<? extends SegmentObject> segments) {
+      for (final SegmentObject segment : segments) {
+         this.addToBatch(segment);
+      }
+
+      this.renderBatches(gl);
+   }
+
+   /**
+    * Renders the given segments as {@link #render(GL2, Collection)} does but walks the list by index, so that a caller
+    * drawing every frame creates no garbage.
+    *
+    * @param gl
+    * @param segments
+    */
+   public void render(final GL2 gl, final List<? extends SegmentObject> segments) {
+      for (int i = 0; i < segments.size(); i++) {
+         this.addToBatch(segments.get(i));
+      }
+
+      this.renderBatches(gl);
+   }
+
+   private void addToBatch(final SegmentObject segment) {
+      final Texture2d texture = segment.getTexture();
+      DrawBatch batch = this.batches.get(texture);
+
+      if (batch == null) {
+         batch = this.freeBatches.isEmpty() ? new DrawBatch() : this.freeBatches.remove(this.freeBatches.size() - 1);
+         batch.texture = texture;
+         this.batches.put(texture, batch);
+         this.usedBatches.add(batch);
+      }
+
+      final int slot = segment.getBufferIndex() % this.segmentsPerBuffer;
+      this.isGpuUsed[slot] = true;
+      batch.add(slot * this.maxSegmentSize, segment.getVertexCount());
+   }
+
+   private void renderBatches(final GL2 gl) {
       gl.glBindBuffer(GL.GL_ARRAY_BUFFER, this.vboId);
 
       for (final BufferRegion region : this.regions) {
          region.enable(gl);
       }
 
-      for (final SegmentObject segment : segments) {
-         final int index = (segment.getBufferIndex() % this.segmentsPerBuffer) * this.maxSegmentSize;
-         final int vertexCount = segment.getVertexCount();
-         final Texture2d texture = segment.getTexture();
+      for (int i = 0; i < this.usedBatches.size(); i++) {
+         final DrawBatch batch = this.usedBatches.get(i);
+         final Texture2d texture = batch.texture;
 
          if (texture != null) {
             texture.enable(gl);
          }
 
-         gl.glDrawArrays(this.glPrimitiveType, index, vertexCount);
+         if (batch.size == 1) {
+            gl.glDrawArrays(this.glPrimitiveType, batch.first[0], batch.count[0]);
+         } else {
+            gl.glMultiDrawArrays(this.glPrimitiveType, batch.first, 0, batch.count, 0, batch.size);
+         }
 
          if (texture != null) {
             texture.disable(gl);
          }
+
+         batch.size = 0;
+         batch.texture = null;
+         this.freeBatches.add(batch);
       }
 
+      this.batches.clear();
+      this.usedBatches.clear();
+
       // disable arrays once we're done
       gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
 
@@ -134,30 +291,151 @@ public class SegmentedVertexBufferObject extends VertexBufferObject {
    }
 
    public void setSegmentObject(final GL2 gl, final Tuple3d origin, final SegmentObject segment) {
-      final int bufferIndex = segment.getBufferIndex() % this.segmentsPerBuffer;
+      this.setSegmentObjects(gl, origin, Collections.singletonList(segment));
+   }
+
+   /**
+    * Uploads the given segments, which have to be located in this buffer, in a single transfer. One segment is written
+    * with glBufferSubData from a staging buffer; more are written into one glMapBufferRange over the span from the first
+    * to the last dirty segment, flushing only the runs of adjacent dirty segments. The mapped span is invalidated if
+    * the dirty segments are contiguous and unsynchronized if the GPU has never used any of their indices. Without
+    * glMapBufferRange (before GL 3.0 or ARB_map_buffer_range) each segment is written with glBufferSubData.
+    *
+    * @param gl
+    * @param origin
+    * @param segments
+    */
+   public void setSegmentObjects(final GL2 gl, final Tuple3d origin, final Collection<? extends SegmentObject> segments) {
+      int firstSlot = Integer.MAX_VALUE;
+      int lastSlot = -1;
+      int dirtyCount = 0;
+      boolean isGpuUnused = true;
+
+      // indexed by slot so the segments are written in order and a segment passed twice only once
+      for (final SegmentObject segment : segments) {
+         final int slot = segment.getBufferIndex() % this.segmentsPerBuffer;
+
+         if ((segment.getBufferIndex() > -1) && (segment.getVertexCount() > 0)) {
+            if (this.dirtySegments[slot] == null) {
+               dirtyCount++;
+            }
+
+            this.dirtySegments[slot] = segment;
+            firstSlot = Math.min(firstSlot, slot);
+            lastSlot = Math.max(lastSlot, slot);
+            isGpuUnused &= !this.isGpuUsed[slot];
+         }
+      }
+
+      if (dirtyCount == 0) {
+         return;
+      }
+
+      if (this.vboId < 0) {
+         this.initializeVbo(gl);
+      }
+
+      final int bytesPerVertex = this.getBytesPerVertex();
+      final int bytesPerSegment = this.maxSegmentSize * bytesPerVertex;
+
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, this.vboId);
+
+      if ((dirtyCount == 1) || !gl.isFunctionAvailable("glMapBufferRange")) {
+         if (this.staging == null) {
+            this.staging = BufferUtils.newByteBuffer(bytesPerSegment);
+         }
+
+         for (int slot = firstSlot; slot <= lastSlot; slot++) {
+            final SegmentObject segment = this.dirtySegments[slot];
+
+            if (segment != null) {
+               this.timings.start("load");
+               this.staging.clear();
+               segment.loadBuffer(origin, this.staging);
+               this.staging.rewind();
+               this.timings.end("load");
+
+               this.timings.start("upload");
+               gl.glBufferSubData(GL.GL_ARRAY_BUFFER, (long) slot * bytesPerSegment, segment.getVertexCount() * bytesPerVertex, this.staging);
+               this.timings.end("upload");
+               // the copy from client memory may be queued behind the draws
+               this.isGpuUsed[slot] = true;
+            }
+         }
+      } else {
+         final long spanOffset = (long) firstSlot * bytesPerSegment;
+         final long spanLength = ((long) (lastSlot - firstSlot) * bytesPerSegment) + (this.dirtySegments[lastSlot].getVertexCount() * bytesPerVertex);
+         int access = GL.GL_MAP_WRITE_BIT | GL.GL_MAP_FLUSH_EXPLICIT_BIT;
+
+         if (dirtyCount == ((lastSlot - firstSlot) + 1)) {
+            access |= GL.GL_MAP_INVALIDATE_RANGE_BIT;
+         }
+
+         if (isGpuUnused) {
+            access |= GL.GL_MAP_UNSYNCHRONIZED_BIT;
+         }
 
-      if (bufferIndex > -1) {
          this.timings.start("map");
-         final ByteBuffer buffer = this.mapBuffer(gl);
+         final ByteBuffer buffer = gl.glMapBufferRange(GL.GL_ARRAY_BUFFER, spanOffset, spanLength, access).order(ByteOrder.nativeOrder());
          this.timings.end("map");
 
-         this.timings.start("position");
-         buffer.position(this.maxSegmentSize * bufferIndex * 32);
-         this.timings.end("position");
-
          this.timings.start("load");
-         segment.loadBuffer(origin, buffer);
-         this.timings.end("load");
+         int runStart = -1;
+
+         for (int slot = firstSlot; slot <= (lastSlot + 1); slot++) {
+            final SegmentObject segment = (slot <= lastSlot) ? this.dirtySegments[slot] : null;
+
+            if (segment != null) {
+               buffer.position((slot - firstSlot) * bytesPerSegment);
+               segment.loadBuffer(origin, buffer);
+
+               if (runStart == -1) {
+                  runStart = slot;
+               }
+            } else if (runStart != -1) {
+               // the flush offset is relative to the mapped span and ends after the vertices of the run's last segment
+               final long offset = (long) (runStart - firstSlot) * bytesPerSegment;
+               final long length = ((long) (slot - 1 - runStart) * bytesPerSegment) + (this.dirtySegments[slot - 1].getVertexCount() * bytesPerVertex);
+               gl.glFlushMappedBufferRange(GL.GL_ARRAY_BUFFER, offset, length);
+               runStart = -1;
+            }
+         }
 
-         this.timings.start("counts");
-         this.vertexCounts.put(bufferIndex, segment.getVertexCount());
-         this.timings.end("counts");
+         this.timings.end("load");
 
          this.timings.start("unmap");
-         this.unmapBuffer(gl);
+         gl.glUnmapBuffer(GL.GL_ARRAY_BUFFER);
          this.timings.end("unmap");
       }
 
+      gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+      for (int slot = firstSlot; slot <= lastSlot; slot++) {
+         if (this.dirtySegments[slot] != null) {
+            this.vertexCounts[slot] = this.dirtySegments[slot].getVertexCount();
+            this.segmentObjects[slot] = this.dirtySegments[slot];
+            this.dirtySegments[slot] = null;
+         }
+      }
+
       //      System.out.println("\n" + timings);
    }
+
+   private static class DrawBatch {
+      private Texture2d texture = null;
+      private int[]     first   = new int[16];
+      private int[]     count   = new int[16];
+      private int       size    = 0;
+
+      private void add(final int first, final int count) {
+         if (this.size == this.first.length) {
+            this.first = Arrays.copyOf(this.first, this.size * 2);
+            this.count = Arrays.copyOf(this.count, this.size * 2);
+         }
+
+         this.first[this.size] = first;
+         this.count[this.size] = count;
+         this.size++;
+      }
+   }
 }
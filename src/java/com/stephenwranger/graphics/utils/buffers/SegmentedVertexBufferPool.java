@@ -1,11 +1,17 @@
 package com.stephenwranger.graphics.utils.buffers;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.jogamp.opengl.GL2;
 import com.stephenwranger.graphics.math.Tuple3d;
@@ -33,18 +39,38 @@ import com.stephenwranger.graphics.math.Tuple3d;
  * Once all segments are filled, a new buffer will be appended to that specific pool. As segments are cleared, they will
  * be reused. If the last buffer in a pool is empty, it will be deleted; however, one will always be available. When
  * adding a new SegmentObject to the pool, its location in the pool will automatically be set. If it already exists in
- * the pool, the call will be ignored.
+ * the pool, the call will be ignored.<br/>
+ * <br/>
+ * Locations can be reserved from loader threads with {@link #reserveSegmentLocation(SegmentObject)}; reservations
+ * within a size class are serialized and start at the lowest buffer that may have free segments, and the segment
+ * index within a buffer comes from its lock-free {@link SlotAllocator}. Uploading and rendering happen on the GL
+ * thread.<br/>
+ * <br/>
+ * As clearing segments leaves holes that only the last buffers can be dropped for, {@link #compact(GL2, long)} should
+ * be called every frame to move segments down into the holes within a time budget; {@link #getStats()} shows how
+ * fragmented each size class is. Moving segments needs glCopyBufferSubData (GL 3.1 or ARB_copy_buffer); without it
+ * buffers are only dropped once their segments have been cleared.
  *
  * @author rangers
  *
  */
 public class SegmentedVertexBufferPool {
-   private final Map<Integer, List<SegmentedVertexBufferObject>> buffers = new HashMap<>();
-   private final int                                             maxSegmentSize;
-   private final int                                             segmentsPerBuffer;
-   private final int                                             glPrimitiveType;
-   private final int                                             usage;
-   private final BufferRegion[]                                  bufferRegions;
+   private final Map<Integer, List<SegmentedVertexBufferObject>>       buffers          = new HashMap<>();
+   /** per size class, the lowest buffer that may have free segments */
+   private final Map<Integer, AtomicInteger>                           hints            = new HashMap<>();
+   private final int                                                   maxSegmentSize;
+   private final int                                                   segmentsPerBuffer;
+   private final int                                                   glPrimitiveType;
+   private final int                                                   usage;
+   private final BufferRegion[]                                        bufferRegions;
+   /** the size class keys in creation order and their buffers; size classes are only created by the constructor */
+   private int[]                                                       sizeClasses      = new int[0];
+   private final List<List<SegmentedVertexBufferObject>>               sizeClassBuffers = new ArrayList<>();
+   // the segments of each buffer drawn this frame, kept between frames so that rendering allocates nothing
+   private final Map<SegmentedVertexBufferObject, List<SegmentObject>> frameSegments    = new IdentityHashMap<>();
+   private final List<SegmentedVertexBufferObject>                     frameBuffers     = new ArrayList<>();
+   /** whether the context has glCopyBufferSubData, which compaction moves segments with; null until first compacted */
+   private Boolean                                                     isCopyAvailable  = null;
 
    public SegmentedVertexBufferPool(final int maxSegmentSize, final int segmentsPerBuffer, final int glPrimitiveType, final int usage, final BufferRegion... bufferRegions) {
       this.maxSegmentSize = maxSegmentSize;
@@ -75,6 +101,15 @@ public class SegmentedVertexBufferPool {
             final int segmentBufferIndex = bufferIndex % this.segmentsPerBuffer;
             buffer.clearIndex(segmentBufferIndex);
 
+            // the next reservation in this size class starts at this buffer if it is the lowest with free segments
+            final AtomicInteger hint = this.hints.get(poolIndex);
+            final int index = bufferIndex / this.segmentsPerBuffer;
+            int current;
+
+            while (((current = hint.get()) > index) && !hint.compareAndSet(current, index)) {
+               // retry
+            }
+
             this.clearEmptyBuffers(gl);
          }
 
@@ -84,7 +119,8 @@ public class SegmentedVertexBufferPool {
 
    /**
     * Will render the given set of {@link SegmentObject} after sorting them into a set of objects per pool-buffer in
-    * order to render all segments in each buffer at a time to limit the number of bind/unbind calls.
+    * order to render all segments in each buffer at a time to limit the number of bind/unbind calls; within a buffer
+    * the segments sharing a texture are drawn with one call. Segments that have not been set are skipped.
     *
     * @param gl
     *           the current OpenGL context
@@ -92,28 +128,28 @@ public class SegmentedVertexBufferPool {
     *           the segments to render
     */
    public void render(final GL2 gl, final Collection<? extends SegmentObject> segments) {
-      final Map<Integer, Map<Integer, List<SegmentObject>>> segmentsPerPool = new HashMap<>();
-
       for (final SegmentObject segment : segments) {
-         Map<Integer, List<SegmentObject>> map = segmentsPerPool.get(segment.getSegmentPoolIndex());
-
-         if (map == null) {
-            map = new HashMap<>();
-            segmentsPerPool.put(segment.getSegmentPoolIndex(), map);
-         }
-
-         final int subPoolIndex = (int) Math.floor(segment.getBufferIndex() / this.segmentsPerBuffer);
-         List<SegmentObject> list = map.get(subPoolIndex);
+         this.addFrameSegment(segment);
+      }
 
-         if (list == null) {
-            list = new ArrayList<>();
-            map.put(subPoolIndex, list);
-         }
+      this.renderFrameSegments(gl);
+   }
 
-         list.add(segment);
+   /**
+    * Renders the given segments as {@link #render(GL2, Collection)} does but walks the list by index, so that a caller
+    * drawing every frame creates no garbage.
+    *
+    * @param gl
+    *           the current OpenGL context
+    * @param segments
+    *           the segments to render
+    */
+   public void render(final GL2 gl, final List<? extends SegmentObject> segments) {
+      for (int i = 0; i < segments.size(); i++) {
+         this.addFrameSegment(segments.get(i));
       }
 
-      this.render(gl, segmentsPerPool);
+      this.renderFrameSegments(gl);
    }
 
    /**
@@ -134,10 +170,10 @@ public class SegmentedVertexBufferPool {
          final int poolKey = entry.getKey();
          final Map<Integer, List<SegmentObject>> map = entry.getValue();
          final List<SegmentedVertexBufferObject> pools = this.buffers.get(poolKey);
-         
-         if(pools == null) {
+
+         if (pools == null) {
             System.err.println("pool key not found: " + poolKey);
-            return;
+            continue;
          }
 
          for (final Entry<Integer, List<SegmentObject>> mapEntry : map.entrySet()) {
@@ -149,34 +185,151 @@ public class SegmentedVertexBufferPool {
       }
    }
 
+   /**
+    * Reserves a location for the given segment unless it has one; safe to call from any thread.
+    *
+    * @param segment
+    * @return false if the segment is larger than the max segment size
+    */
+   public boolean reserveSegmentLocation(final SegmentObject segment) {
+      if ((segment.getSegmentPoolIndex() != -1) && (segment.getBufferIndex() != -1)) {
+         return true;
+      }
+
+      final int vertexCount = segment.getVertexCount();
+      int poolIndex = Integer.MAX_VALUE;
+
+      for (final int key : this.buffers.keySet()) {
+         if ((vertexCount <= key) && (key < poolIndex)) {
+            poolIndex = key;
+         }
+      }
+
+      if (poolIndex == Integer.MAX_VALUE) {
+         System.err.println("segment of " + vertexCount + " vertices does not fit the max segment size of " + this.maxSegmentSize);
+         return false;
+      }
+
+      segment.setSegmentLocation(poolIndex, this.getNextAvailableBufferIndex(poolIndex));
+
+      return true;
+   }
+
    public void setSegmentObject(final GL2 gl, final Tuple3d origin, final SegmentObject segment) {
-      if (segment != null) {
-         int poolIndex = segment.getSegmentPoolIndex();
-         int bufferIndex = segment.getBufferIndex();
+      if ((segment != null) && this.reserveSegmentLocation(segment)) {
+         final SegmentedVertexBufferObject buffer = this.getBuffer(segment.getSegmentPoolIndex(), segment.getBufferIndex());
+         buffer.setSegmentObject(gl, origin, segment);
+      }
+   }
+
+   /**
+    * Reserves locations for and uploads the given segments, e.g. all segments that became dirty during a frame, with a
+    * single transfer per buffer; see {@link SegmentedVertexBufferObject#setSegmentObjects(GL2, Tuple3d, Collection)}.
+    *
+    * @param gl
+    * @param origin
+    * @param segments
+    */
+   public void setSegmentObjects(final GL2 gl, final Tuple3d origin, final Collection<? extends SegmentObject> segments) {
+      final Map<SegmentedVertexBufferObject, List<SegmentObject>> segmentsPerBuffer = new LinkedHashMap<>();
 
-         if ((poolIndex == -1) && (bufferIndex == -1)) {
-            final int vertexCount = segment.getVertexCount();
-            int maxPoolIndex = Integer.MAX_VALUE;
+      for (final SegmentObject segment : segments) {
+         if ((segment != null) && this.reserveSegmentLocation(segment)) {
+            final SegmentedVertexBufferObject buffer = this.getBuffer(segment.getSegmentPoolIndex(), segment.getBufferIndex());
+            List<SegmentObject> list = segmentsPerBuffer.get(buffer);
 
-            for (final int key : this.buffers.keySet()) {
-               if ((vertexCount <= key) && (key < maxPoolIndex)) {
-                  maxPoolIndex = key;
-               }
+            if (list == null) {
+               list = new ArrayList<>();
+               segmentsPerBuffer.put(buffer, list);
             }
 
-            if (maxPoolIndex != Integer.MAX_VALUE) {
-               poolIndex = maxPoolIndex;
-               bufferIndex = this.getNextAvailableBufferIndex(maxPoolIndex);
-               segment.setSegmentLocation(poolIndex, bufferIndex);
-            }
+            list.add(segment);
          }
+      }
 
-//         System.out.println("pool index: " + poolIndex + ", buffer index: " + bufferIndex + ", point count: " + segment.getVertexCount());
-         final SegmentedVertexBufferObject buffer = this.getBuffer(poolIndex, bufferIndex);
-         buffer.setSegmentObject(gl, origin, segment);
+      for (final Entry<SegmentedVertexBufferObject, List<SegmentObject>> entry : segmentsPerBuffer.entrySet()) {
+         entry.getKey().setSegmentObjects(gl, origin, entry.getValue());
       }
    }
 
+   /**
+    * Moves uploaded segments out of the last buffers of each size class into free segments of lower buffers, updating
+    * their locations, and deletes the buffers this empties. Stops once the given time has passed so it can run every
+    * frame; segments that are reserved but not uploaded yet stay where they are. If the context has no
+    * glCopyBufferSubData nothing is moved and only buffers that are already empty are deleted.
+    *
+    * @param gl
+    * @param budgetNanos
+    *           the time to spend moving segments
+    * @return the number of moved segments
+    */
+   public int compact(final GL2 gl, final long budgetNanos) {
+      final long deadline = System.nanoTime() + budgetNanos;
+      int moved = 0;
+
+      if (this.isCopyAvailable == null) {
+         // looked up once as the lookup is not free and this runs every frame
+         this.isCopyAvailable = gl.isFunctionAvailable("glCopyBufferSubData");
+      }
+
+      if (!this.isCopyAvailable) {
+         this.clearEmptyBuffers(gl);
+         return 0;
+      }
+
+      for (final Entry<Integer, List<SegmentedVertexBufferObject>> entry : this.buffers.entrySet()) {
+         if (System.nanoTime() >= deadline) {
+            break;
+         }
+
+         moved += this.compact(gl, entry.getKey(), entry.getValue(), deadline);
+      }
+
+      this.clearEmptyBuffers(gl);
+
+      return moved;
+   }
+
+   /**
+    * Returns the fragmentation counters of each size class by its max segment size.
+    *
+    * @return
+    */
+   public Map<Integer, SegmentPoolStats> getStats() {
+      final Map<Integer, SegmentPoolStats> stats = new TreeMap<>();
+
+      for (final Entry<Integer, List<SegmentedVertexBufferObject>> entry : this.buffers.entrySet()) {
+         final int poolIndex = entry.getKey();
+         final List<SegmentedVertexBufferObject> pool = entry.getValue();
+         int occupied = 0;
+         long usedBytes = 0;
+         long allocatedBytes = 0;
+
+         for (final SegmentedVertexBufferObject buffer : pool) {
+            occupied += buffer.getSegmentCount();
+            usedBytes += (long) buffer.getPointCount() * buffer.getBytesPerVertex();
+            allocatedBytes += (long) buffer.vertexCount * buffer.getBytesPerVertex();
+         }
+
+         stats.put(poolIndex, new SegmentPoolStats(poolIndex, pool.size(), occupied, pool.size() * this.segmentsPerBuffer, usedBytes, allocatedBytes));
+      }
+
+      return stats;
+   }
+
+   /**
+    * Returns the buffers of the given size class without boxing its key as a lookup in {@link #buffers} would.
+    */
+   private List<SegmentedVertexBufferObject> getSizeClass(final int poolIndex) {
+      for (int i = 0; i < this.sizeClasses.length; i++) {
+         if (this.sizeClasses[i] == poolIndex) {
+            return this.sizeClassBuffers.get(i);
+         }
+      }
+
+      return null;
+   }
+
    /**
     * Adds a new {@link SegmentedVertexBufferObject} to the pool at the given pool index and returns the resulting
     * buffer.
@@ -188,8 +341,13 @@ public class SegmentedVertexBufferPool {
       List<SegmentedVertexBufferObject> buffers = this.buffers.get(poolIndex);
 
       if (buffers == null) {
-         buffers = new ArrayList<>();
+         // copy on write so the GL thread can render while loader threads add buffers
+         buffers = new CopyOnWriteArrayList<>();
          this.buffers.put(poolIndex, buffers);
+         this.hints.put(poolIndex, new AtomicInteger());
+         this.sizeClasses = Arrays.copyOf(this.sizeClasses, this.sizeClasses.length + 1);
+         this.sizeClasses[this.sizeClasses.length - 1] = poolIndex;
+         this.sizeClassBuffers.add(buffers);
       }
 
       final SegmentedVertexBufferObject buffer = new SegmentedVertexBufferObject(poolIndex, this.segmentsPerBuffer, this.glPrimitiveType, this.usage, this.bufferRegions);
@@ -203,32 +361,100 @@ public class SegmentedVertexBufferPool {
       return buffer;
    }
 
-   private synchronized void clearEmptyBuffers(final GL2 gl) {
-      for (final int poolIndex : this.buffers.keySet()) {
-         final List<SegmentedVertexBufferObject> pool = this.buffers.get(poolIndex);
+   private void clearEmptyBuffers(final GL2 gl) {
+      for (final List<SegmentedVertexBufferObject> pool : this.buffers.values()) {
+         synchronized (pool) {
+            // make sure we don't delete the last buffer so stop at size == 1; stop at the first non-empty buffer as we
+            // can only remove off the far end, and retire empty ones so no reservation can race the removal
+            while ((pool.size() > 1) && pool.get(pool.size() - 1).retireIfEmpty()) {
+               final SegmentedVertexBufferObject buffer = pool.remove(pool.size() - 1);
+               buffer.delete(gl);
+               this.frameSegments.remove(buffer);
+            }
+         }
+      }
+   }
+
+   private int compact(final GL2 gl, final int poolIndex, final List<SegmentedVertexBufferObject> pool, final long deadline) {
+      final AtomicInteger hint = this.hints.get(poolIndex);
+      int moved = 0;
 
-         if (pool != null) {
-            final List<SegmentedVertexBufferObject> toRemove = new ArrayList<>();
+      synchronized (pool) {
+         final int start = hint.get();
+         // the buffers below the target are full
+         int target = start;
 
-            // make sure we don't delete the last buffer so stop at i == 1
-            for (int i = pool.size() - 1; i >= 1; i--) {
-               final SegmentedVertexBufferObject buffer = pool.get(i);
+         for (int i = pool.size() - 1; i > target; i--) {
+            final SegmentedVertexBufferObject source = pool.get(i);
 
-               if (buffer.isEmpty()) {
-                  toRemove.add(buffer);
-               } else {
-                  // stop when we reach the first non-empty buffer as we can only remove off the far end
-                  break;
+            for (int index = source.getSegmentCapacity() - 1; index >= 0; index--) {
+               final SegmentObject segment = source.getSegmentObject(index);
+
+               if (segment == null) {
+                  continue;
                }
-            }
 
-            pool.removeAll(toRemove);
+               int targetIndex = -1;
+
+               while ((target < i) && ((targetIndex = pool.get(target).getNextAvailableIndex()) == -1)) {
+                  target++;
+               }
+
+               if ((target >= i) || (System.nanoTime() >= deadline)) {
+                  if (targetIndex != -1) {
+                     pool.get(target).clearIndex(targetIndex);
+                  }
+
+                  hint.compareAndSet(start, target);
+                  return moved;
+               }
+
+               source.moveSegment(gl, index, pool.get(target), targetIndex);
+               segment.setSegmentLocation(poolIndex, targetIndex + (target * this.segmentsPerBuffer));
+               moved++;
+            }
          }
+
+         hint.compareAndSet(start, target);
+      }
+
+      return moved;
+   }
+
+   private void addFrameSegment(final SegmentObject segment) {
+      if ((segment.getSegmentPoolIndex() == -1) || (segment.getBufferIndex() == -1)) {
+         // not uploaded
+         return;
+      }
+
+      final SegmentedVertexBufferObject buffer = this.getBuffer(segment.getSegmentPoolIndex(), segment.getBufferIndex());
+      List<SegmentObject> list = this.frameSegments.get(buffer);
+
+      if (list == null) {
+         list = new ArrayList<>();
+         this.frameSegments.put(buffer, list);
+      }
+
+      if (list.isEmpty()) {
+         this.frameBuffers.add(buffer);
+      }
+
+      list.add(segment);
+   }
+
+   private void renderFrameSegments(final GL2 gl) {
+      for (int i = 0; i < this.frameBuffers.size(); i++) {
+         final SegmentedVertexBufferObject buffer = this.frameBuffers.get(i);
+         final List<SegmentObject> list = this.frameSegments.get(buffer);
+         buffer.render(gl, list);
+         list.clear();
       }
+
+      this.frameBuffers.clear();
    }
 
    private SegmentedVertexBufferObject getBuffer(final int poolIndex, final int bufferIndex) {
-      final List<SegmentedVertexBufferObject> buffers = this.buffers.get(poolIndex);
+      final List<SegmentedVertexBufferObject> buffers = this.getSizeClass(poolIndex);
       // the index of the vertex buffer in the pool
       final int segmentBufferIndex = (int) Math.floor(bufferIndex / this.segmentsPerBuffer);
 
@@ -239,34 +465,32 @@ public class SegmentedVertexBufferPool {
       return buffers.get(segmentBufferIndex);
    }
 
+   /**
+    * Reserves a segment in the given size class, trying the buffers from the lowest that may have free segments; full
+    * buffers are skipped in O(1) each and the hint only moves up past them, so reservations are amortized O(1).
+    */
    private int getNextAvailableBufferIndex(final int poolIndex) {
-      List<SegmentedVertexBufferObject> buffers = this.buffers.get(poolIndex);
-
-      if (buffers == null) {
-         System.err.println(poolIndex + " not initialized");
-         this.addBuffer(poolIndex);
-         buffers = this.buffers.get(poolIndex);
-      }
+      final List<SegmentedVertexBufferObject> buffers = this.buffers.get(poolIndex);
+      final AtomicInteger hint = this.hints.get(poolIndex);
 
-      int segmentBufferIndex = -1;
-      int bufferIndex = -1;
+      synchronized (buffers) {
+         final int start = hint.get();
 
-      for (final SegmentedVertexBufferObject vbo : buffers) {
-         final int tempIndex = vbo.getNextAvailableIndex();
+         for (int i = start; i < buffers.size(); i++) {
+            final int index = buffers.get(i).getNextAvailableIndex();
 
-         if (tempIndex > -1) {
-            segmentBufferIndex = buffers.indexOf(vbo);
-            bufferIndex = tempIndex;
-            break;
+            if (index > -1) {
+               // a release may have lowered the hint meanwhile
+               hint.compareAndSet(start, i);
+               return index + (i * this.segmentsPerBuffer);
+            }
          }
-      }
 
-      if (bufferIndex == -1) {
          final SegmentedVertexBufferObject buffer = this.addBuffer(poolIndex);
-         segmentBufferIndex = buffers.indexOf(buffer);
-         bufferIndex = buffer.getNextAvailableIndex();
-      }
+         final int segmentBufferIndex = buffers.size() - 1;
+         hint.compareAndSet(start, segmentBufferIndex);
 
-      return bufferIndex + (segmentBufferIndex * this.segmentsPerBuffer);
+         return buffer.getNextAvailableIndex() + (segmentBufferIndex * this.segmentsPerBuffer);
+      }
    }
 }
@@ -0,0 +1,385 @@
+package com.stephenwranger.graphics.utils.buffers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.utils.textures.Texture2d;
+
+public class SegmentedVertexBufferPoolTest {
+   /** position and color floats */
+   private static final int BYTES_PER_VERTEX = 28;
+
+   @Test
+   public void testSlotAssignment() {
+      final RecordingGL2 recorder = new RecordingGL2();
+      final GL2 gl = recorder.getGL();
+      // size classes of 200 and 100 vertices with two segments per buffer
+      final SegmentedVertexBufferPool pool = SegmentedVertexBufferPoolTest.createPool(200, 2);
+
+      final TestSegment a = new TestSegment(50, 1, null);
+      final TestSegment b = new TestSegment(50, 2, null);
+      final TestSegment c = new TestSegment(50, 3, null);
+      pool.setSegmentObject(gl, new Tuple3d(), a);
+      pool.setSegmentObject(gl, new Tuple3d(), b);
+      pool.setSegmentObject(gl, new Tuple3d(), c);
+
+      // the smallest class that fits, filling the first buffer before adding another
+      assertEquals(100, a.poolIndex);
+      assertEquals(0, a.bufferIndex);
+      assertEquals(1, b.bufferIndex);
+      assertEquals(2, c.bufferIndex);
+
+      // each slot starts at its index times the slot size in vertices times the stride of the regions
+      assertEquals(1, recorder.getBufferData(1).getFloat(0), 0);
+      assertEquals(2, recorder.getBufferData(1).getFloat(100 * BYTES_PER_VERTEX), 0);
+      assertEquals(3, recorder.getBufferData(2).getFloat(0), 0);
+
+      // uploading again writes into the same slot
+      pool.setSegmentObject(gl, new Tuple3d(), b);
+      assertEquals(1, b.bufferIndex);
+
+      // cleared slots are reused
+      pool.clearSegmentObject(gl, b);
+      assertEquals(-1, b.poolIndex);
+      assertEquals(-1, b.bufferIndex);
+
+      final TestSegment d = new TestSegment(100, 4, null);
+      pool.setSegmentObject(gl, new Tuple3d(), d);
+      assertEquals(100, d.poolIndex);
+      assertEquals(1, d.bufferIndex);
+
+      final TestSegment large = new TestSegment(150, 5, null);
+      pool.setSegmentObject(gl, new Tuple3d(), large);
+      assertEquals(200, large.poolIndex);
+      assertEquals(0, large.bufferIndex);
+
+      // too large for every class
+      final TestSegment tooLarge = new TestSegment(201, 6, null);
+      pool.setSegmentObject(gl, new Tuple3d(), tooLarge);
+      assertEquals(-1, tooLarge.poolIndex);
+   }
+
+   @Test
+   public void testBatchesByBufferAndTexture() throws IOException {
+      final RecordingGL2 recorder = new RecordingGL2();
+      final GL2 gl = recorder.getGL();
+      // a single size class of 100 vertices with four segments per buffer
+      final SegmentedVertexBufferPool pool = SegmentedVertexBufferPoolTest.createPool(100, 4);
+      final Texture2d texture = SegmentedVertexBufferPoolTest.createTexture();
+
+      // slots 0 to 3 in the first buffer and 4 and 5 in the second
+      final List<TestSegment> segments = Arrays.asList(new TestSegment(10, 0, texture), new TestSegment(20, 0, null), new TestSegment(30, 0, texture), new TestSegment(40, 0, null),
+            new TestSegment(50, 0, texture), new TestSegment(60, 0, null));
+
+      for (final TestSegment segment : segments) {
+         pool.setSegmentObject(gl, new Tuple3d(), segment);
+      }
+
+      final TestSegment notUploaded = new TestSegment(10, 0, texture);
+      recorder.clear();
+      pool.render(gl, Arrays.asList(segments.get(0), segments.get(1), segments.get(2), segments.get(3), segments.get(4), segments.get(5), notUploaded));
+
+      // each buffer is bound once and each of its textures enabled once
+      assertEquals(2, recorder.getCalls("glBindBuffer").stream().filter((call) -> call.getInt(1) != 0).count());
+      assertEquals(2, recorder.getCalls("glEnable").stream().filter((call) -> call.getInt(0) == GL.GL_TEXTURE_2D).count());
+      assertEquals(2, recorder.getCalls("glVertexPointer").size());
+
+      // the first buffer draws two segments per texture in one call each
+      final List<RecordingGL2.Call> multiDraws = recorder.getCalls("glMultiDrawArrays");
+      assertEquals(2, multiDraws.size());
+
+      for (final RecordingGL2.Call call : multiDraws) {
+         assertEquals(GL.GL_TRIANGLES, call.getInt(0));
+         assertEquals(2, call.getInt(5));
+         final int[] first = Arrays.copyOf((int[]) call.args[1], 2);
+         final int[] count = Arrays.copyOf((int[]) call.args[3], 2);
+
+         if (first[0] == 0) {
+            assertArrayEquals(new int[] { 0, 200 }, first);
+            assertArrayEquals(new int[] { 10, 30 }, count);
+         } else {
+            assertArrayEquals(new int[] { 100, 300 }, first);
+            assertArrayEquals(new int[] { 20, 40 }, count);
+         }
+      }
+
+      // the second buffer has one segment per texture
+      final List<RecordingGL2.Call> draws = recorder.getCalls("glDrawArrays");
+      final Set<String> ranges = new HashSet<>();
+
+      for (final RecordingGL2.Call call : draws) {
+         ranges.add(call.getInt(1) + "+" + call.getInt(2));
+      }
+
+      assertEquals(new HashSet<>(Arrays.asList("0+50", "100+60")), ranges);
+   }
+
+   @Test
+   public void testBatchedUpload() {
+      final RecordingGL2 recorder = new RecordingGL2();
+      final GL2 gl = recorder.getGL();
+      // a single size class of 100 vertices with eight segments per buffer
+      final SegmentedVertexBufferPool pool = SegmentedVertexBufferPoolTest.createPool(100, 8);
+      final int bytesPerSegment = 100 * BYTES_PER_VERTEX;
+
+      final List<TestSegment> segments = Arrays.asList(new TestSegment(10, 1, null), new TestSegment(20, 2, null), new TestSegment(30, 3, null), new TestSegment(40, 4, null),
+            new TestSegment(50, 5, null));
+      pool.setSegmentObjects(gl, new Tuple3d(), segments);
+
+      // contiguous and never drawn, one invalidated and unsynchronized map of slots 0 to 4 with one flush
+      List<RecordingGL2.Call> maps = recorder.getCalls("glMapBufferRange");
+      assertEquals(1, maps.size());
+      assertEquals(0, maps.get(0).getLong(1));
+      assertEquals((4 * bytesPerSegment) + (50 * BYTES_PER_VERTEX), maps.get(0).getLong(2));
+      assertEquals(GL.GL_MAP_WRITE_BIT | GL.GL_MAP_FLUSH_EXPLICIT_BIT | GL.GL_MAP_INVALIDATE_RANGE_BIT | GL.GL_MAP_UNSYNCHRONIZED_BIT, maps.get(0).getInt(3));
+      assertEquals(1, recorder.getCallCount("glFlushMappedBufferRange"));
+      assertEquals(0, recorder.getCallCount("glMapBuffer"));
+
+      for (int i = 0; i < 5; i++) {
+         assertEquals(i + 1, recorder.getBufferData(1).getFloat(i * bytesPerSegment), 0);
+      }
+
+      // slots 1, 2 and 4 are uploaded again after being drawn, so the span is synchronized and only the two runs of
+      // dirty slots are flushed
+      pool.render(gl, segments);
+      recorder.clear();
+      pool.setSegmentObjects(gl, new Tuple3d(), Arrays.asList(segments.get(4), segments.get(1), segments.get(2)));
+
+      maps = recorder.getCalls("glMapBufferRange");
+      assertEquals(1, maps.size());
+      assertEquals(bytesPerSegment, maps.get(0).getLong(1));
+      assertEquals((3 * bytesPerSegment) + (50 * BYTES_PER_VERTEX), maps.get(0).getLong(2));
+      assertEquals(GL.GL_MAP_WRITE_BIT | GL.GL_MAP_FLUSH_EXPLICIT_BIT, maps.get(0).getInt(3));
+
+      final List<RecordingGL2.Call> flushes = recorder.getCalls("glFlushMappedBufferRange");
+      assertEquals(2, flushes.size());
+      assertEquals(0, flushes.get(0).getLong(1));
+      assertEquals(bytesPerSegment + (30 * BYTES_PER_VERTEX), flushes.get(0).getLong(2));
+      assertEquals(3 * bytesPerSegment, flushes.get(1).getLong(1));
+      assertEquals(50 * BYTES_PER_VERTEX, flushes.get(1).getLong(2));
+
+      // a single segment is written with glBufferSubData
+      recorder.clear();
+      pool.setSegmentObject(gl, new Tuple3d(), segments.get(3));
+
+      assertEquals(0, recorder.getCallCount("glMapBufferRange"));
+      final List<RecordingGL2.Call> subData = recorder.getCalls("glBufferSubData");
+      assertEquals(1, subData.size());
+      assertEquals(3 * bytesPerSegment, subData.get(0).getLong(1));
+      assertEquals(40 * BYTES_PER_VERTEX, subData.get(0).getLong(2));
+      assertEquals(4, recorder.getBufferData(1).getFloat(3 * bytesPerSegment), 0);
+   }
+
+   @Test
+   public void testReusedSlotsAreSynchronized() {
+      final RecordingGL2 recorder = new RecordingGL2();
+      final GL2 gl = recorder.getGL();
+      final SegmentedVertexBufferPool pool = SegmentedVertexBufferPoolTest.createPool(100, 8);
+
+      final List<TestSegment> segments = Arrays.asList(new TestSegment(10, 1, null), new TestSegment(20, 2, null), new TestSegment(30, 3, null));
+      pool.setSegmentObjects(gl, new Tuple3d(), segments);
+      pool.render(gl, segments);
+
+      // slot 0 is freed and reused right away while the GPU may still be drawing from it
+      pool.clearSegmentObject(gl, segments.get(0));
+      final List<TestSegment> replacements = Arrays.asList(new TestSegment(40, 4, null), new TestSegment(50, 5, null));
+      recorder.clear();
+      pool.setSegmentObjects(gl, new Tuple3d(), replacements);
+
+      assertEquals(0, replacements.get(0).bufferIndex);
+      assertEquals(3, replacements.get(1).bufferIndex);
+
+      final List<RecordingGL2.Call> maps = recorder.getCalls("glMapBufferRange");
+      assertEquals(1, maps.size());
+      assertEquals(GL.GL_MAP_WRITE_BIT | GL.GL_MAP_FLUSH_EXPLICIT_BIT, maps.get(0).getInt(3));
+      assertEquals(4, recorder.getBufferData(1).getFloat(0), 0);
+   }
+
+   @Test
+   public void testUploadWithoutMapBufferRange() {
+      final RecordingGL2 recorder = new RecordingGL2();
+      recorder.setUnavailable("glMapBufferRange");
+      final GL2 gl = recorder.getGL();
+      final SegmentedVertexBufferPool pool = SegmentedVertexBufferPoolTest.createPool(100, 8);
+      final int bytesPerSegment = 100 * BYTES_PER_VERTEX;
+
+      final List<TestSegment> segments = Arrays.asList(new TestSegment(10, 1, null), new TestSegment(20, 2, null), new TestSegment(30, 3, null));
+      pool.setSegmentObjects(gl, new Tuple3d(), segments);
+
+      // one glBufferSubData per segment instead of a mapped span
+      assertEquals(0, recorder.getCallCount("glMapBufferRange"));
+      final List<RecordingGL2.Call> subData = recorder.getCalls("glBufferSubData");
+      assertEquals(3, subData.size());
+
+      for (int i = 0; i < 3; i++) {
+         assertEquals(i * bytesPerSegment, subData.get(i).getLong(1));
+         assertEquals((i + 1) * 10 * BYTES_PER_VERTEX, subData.get(i).getLong(2));
+         assertEquals(i + 1, recorder.getBufferData(1).getFloat(i * bytesPerSegment), 0);
+      }
+   }
+
+   @Test
+   public void testCompaction() {
+      final RecordingGL2 recorder = new RecordingGL2();
+      final GL2 gl = recorder.getGL();
+      // a single size class of 100 vertices with two segments per buffer
+      final SegmentedVertexBufferPool pool = SegmentedVertexBufferPoolTest.createPool(100, 2);
+      final int bytesPerSegment = 100 * BYTES_PER_VERTEX;
+
+      final List<TestSegment> segments = Arrays.asList(new TestSegment(10, 1, null), new TestSegment(20, 2, null), new TestSegment(30, 3, null), new TestSegment(40, 4, null),
+            new TestSegment(50, 5, null), new TestSegment(60, 6, null));
+      pool.setSegmentObjects(gl, new Tuple3d(), segments);
+
+      // holes in the first two buffers keep the third
+      pool.clearSegmentObject(gl, segments.get(0));
+      pool.clearSegmentObject(gl, segments.get(2));
+      pool.clearSegmentObject(gl, segments.get(3));
+
+      SegmentPoolStats stats = pool.getStats().get(100);
+      assertEquals(3, stats.buffers);
+      assertEquals(3, stats.occupiedSegments);
+      assertEquals(6, stats.segmentCapacity);
+      assertEquals((6 * bytesPerSegment) - (130 * BYTES_PER_VERTEX), stats.getWastedBytes());
+
+      // no time, no moves
+      assertEquals(0, pool.compact(gl, 0));
+      assertEquals(4, segments.get(4).bufferIndex);
+
+      recorder.clear();
+      assertEquals(2, pool.compact(gl, 1000000000L));
+
+      // the last segments move into the lowest holes on the GPU and the emptied buffer is deleted
+      assertEquals(0, segments.get(5).bufferIndex);
+      assertEquals(2, segments.get(4).bufferIndex);
+      assertEquals(1, segments.get(1).bufferIndex);
+      assertEquals(6, recorder.getBufferData(1).getFloat(0), 0);
+      assertEquals(5, recorder.getBufferData(2).getFloat(0), 0);
+
+      final List<RecordingGL2.Call> copies = recorder.getCalls("glCopyBufferSubData");
+      assertEquals(2, copies.size());
+      assertEquals(bytesPerSegment, copies.get(0).getLong(2));
+      assertEquals(0, copies.get(0).getLong(3));
+      assertEquals(60 * BYTES_PER_VERTEX, copies.get(0).getLong(4));
+
+      final List<RecordingGL2.Call> deletes = recorder.getCalls("glDeleteBuffers");
+      assertEquals(1, deletes.size());
+      assertEquals(3, ((int[]) deletes.get(0).args[1])[0]);
+
+      stats = pool.getStats().get(100);
+      assertEquals(2, stats.buffers);
+      assertEquals(3, stats.occupiedSegments);
+      assertEquals((4 * bytesPerSegment) - (130 * BYTES_PER_VERTEX), stats.getWastedBytes());
+
+      // moved segments render from their new locations
+      recorder.clear();
+      pool.render(gl, Arrays.asList(segments.get(1), segments.get(4), segments.get(5)));
+      assertEquals(2, recorder.getCallCount("glVertexPointer"));
+   }
+
+   @Test
+   public void testCompactionWithoutCopyBufferSubData() {
+      final RecordingGL2 recorder = new RecordingGL2();
+      recorder.setUnavailable("glCopyBufferSubData");
+      final GL2 gl = recorder.getGL();
+      final SegmentedVertexBufferPool pool = SegmentedVertexBufferPoolTest.createPool(100, 2);
+
+      final List<TestSegment> segments = Arrays.asList(new TestSegment(10, 1, null), new TestSegment(20, 2, null), new TestSegment(30, 3, null), new TestSegment(40, 4, null),
+            new TestSegment(50, 5, null), new TestSegment(60, 6, null));
+      pool.setSegmentObjects(gl, new Tuple3d(), segments);
+
+      pool.clearSegmentObject(gl, segments.get(0));
+      pool.clearSegmentObject(gl, segments.get(2));
+      pool.clearSegmentObject(gl, segments.get(3));
+      recorder.clear();
+
+      // the segments stay where they are
+      assertEquals(0, pool.compact(gl, 1000000000L));
+      assertEquals(0, recorder.getCallCount("glCopyBufferSubData"));
+      assertEquals(0, recorder.getCallCount("glDeleteBuffers"));
+      assertEquals(4, segments.get(4).bufferIndex);
+      assertEquals(5, segments.get(5).bufferIndex);
+      assertEquals(3, pool.getStats().get(100).buffers);
+
+      // buffers emptied by clearing are still deleted
+      pool.clearSegmentObject(gl, segments.get(4));
+      pool.clearSegmentObject(gl, segments.get(5));
+      pool.compact(gl, 1000000000L);
+      assertEquals(1, pool.getStats().get(100).buffers);
+      assertEquals(1, segments.get(1).bufferIndex);
+   }
+
+   private static SegmentedVertexBufferPool createPool(final int maxSegmentSize, final int segmentsPerBuffer) {
+      return new SegmentedVertexBufferPool(maxSegmentSize, segmentsPerBuffer, GL.GL_TRIANGLES, GL.GL_STATIC_DRAW, new VertexRegion(3, DataType.FLOAT), new ColorRegion(4, DataType.FLOAT));
+   }
+
+   private static Texture2d createTexture() throws IOException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ImageIO.write(new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB), "png", bytes);
+
+      return new Texture2d(new ByteArrayInputStream(bytes.toByteArray()), GL.GL_RGBA);
+   }
+
+   private static class TestSegment implements SegmentObject {
+      private final int       vertexCount;
+      private final float     value;
+      private final Texture2d texture;
+      private int             poolIndex   = -1;
+      private int             bufferIndex = -1;
+
+      private TestSegment(final int vertexCount, final float value, final Texture2d texture) {
+         this.vertexCount = vertexCount;
+         this.value = value;
+         this.texture = texture;
+      }
+
+      @Override
+      public int getBufferIndex() {
+         return this.bufferIndex;
+      }
+
+      @Override
+      public int getSegmentPoolIndex() {
+         return this.poolIndex;
+      }
+
+      @Override
+      public Texture2d getTexture() {
+         return this.texture;
+      }
+
+      @Override
+      public int getVertexCount() {
+         return this.vertexCount;
+      }
+
+      @Override
+      public void loadBuffer(final Tuple3d origin, final ByteBuffer buffer) {
+         for (int i = 0; i < ((this.vertexCount * BYTES_PER_VERTEX) / 4); i++) {
+            buffer.putFloat(this.value);
+         }
+      }
+
+      @Override
+      public void setSegmentLocation(final int poolIndex, final int bufferIndex) {
+         this.poolIndex = poolIndex;
+         this.bufferIndex = bufferIndex;
+      }
+   }
+}
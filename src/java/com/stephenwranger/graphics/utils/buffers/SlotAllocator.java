@@ -0,0 +1,226 @@
+package com.stephenwranger.graphics.utils.buffers;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * A lock-free allocator of the slots [0, capacity) backed by a bitmap of 64 slots per word. A slot is reserved by
+ * reserving one of the available slots from a counter and then setting the lowest clear bit of a word with a CAS,
+ * starting at a hint that released slots move back down; both are amortized O(1) and nothing is boxed, so loader
+ * threads can reserve and release slots concurrently with the render thread.
+ *
+ * @author rangers
+ *
+ */
+public class SlotAllocator {
+   private final int             capacity;
+   private final AtomicLongArray words;
+   /** slots that can still be reserved or -1 once retired */
+   private final AtomicInteger   available;
+   /** a word that probably has clear bits */
+   private final AtomicInteger   hint = new AtomicInteger();
+
+   public SlotAllocator(final int capacity) {
+      if (capacity <= 0) {
+         throw new IllegalArgumentException("Capacity must be greater than zero: " + capacity);
+      }
+
+      this.capacity = capacity;
+      this.words = new AtomicLongArray((capacity + 63) >>> 6);
+      this.available = new AtomicInteger(capacity);
+
+      // the bits past the capacity are never free
+      final int tail = capacity & 63;
+
+      if (tail != 0) {
+         this.words.set(this.words.length() - 1, -1L << tail);
+      }
+   }
+
+   /**
+    * Reserves the lowest free slot at or after the hint.
+    *
+    * @return the slot or -1 if all slots are in use
+    */
+   public int allocate() {
+      int count;
+
+      do {
+         count = this.available.get();
+
+         if (count <= 0) {
+            return -1;
+         }
+      } while (!this.available.compareAndSet(count, count - 1));
+
+      // a bit is guaranteed to be clear somewhere, so this terminates; other threads may take the bits this one sees
+      final int length = this.words.length();
+      int index = this.hint.get();
+
+      while (true) {
+         final long word = this.words.get(index);
+
+         if (word != -1L) {
+            final long bit = Long.lowestOneBit(~word);
+
+            if (this.words.compareAndSet(index, word, word | bit)) {
+               this.hint.set(index);
+               return (index << 6) + Long.numberOfTrailingZeros(bit);
+            }
+         } else {
+            index = (index + 1 == length) ? 0 : index + 1;
+         }
+      }
+   }
+
+   /**
+    * Frees the given slot.
+    *
+    * @param slot
+    * @throws IllegalArgumentException
+    *            if the slot is out of range or not in use
+    */
+   public void release(final int slot) {
+      if ((slot < 0) || (slot >= this.capacity)) {
+         throw new IllegalArgumentException("Slot " + slot + " is out of range [0, " + this.capacity + ").");
+      }
+
+      final int index = slot >>> 6;
+      final long bit = 1L << (slot & 63);
+      long word;
+
+      do {
+         word = this.words.get(index);
+
+         if ((word & bit) == 0) {
+            throw new IllegalArgumentException("Slot " + slot + " is not in use.");
+         }
+      } while (!this.words.compareAndSet(index, word, word & ~bit));
+
+      this.available.incrementAndGet();
+
+      // keep allocations low so the high slots and buffers empty out
+      int current;
+
+      while (((current = this.hint.get()) > index) && !this.hint.compareAndSet(current, index)) {
+         // retry
+      }
+   }
+
+   public boolean isUsed(final int slot) {
+      return (slot >= 0) && (slot < this.capacity) && ((this.words.get(slot >>> 6) & (1L << (slot & 63))) != 0);
+   }
+
+   public int getCapacity() {
+      return this.capacity;
+   }
+
+   /**
+    * Returns the number of slots in use.
+    *
+    * @return
+    */
+   public int getUsedCount() {
+      final int count = this.available.get();
+
+      return (count < 0) ? 0 : this.capacity - count;
+   }
+
+   public boolean isEmpty() {
+      return this.getUsedCount() == 0;
+   }
+
+   public boolean isFull() {
+      return this.available.get() <= 0;
+   }
+
+   /**
+    * Atomically stops all further allocations if no slot is in use.
+    *
+    * @return true if this allocator was empty and is now retired
+    */
+   public boolean retireIfEmpty() {
+      return this.available.compareAndSet(this.capacity, -1);
+   }
+
+   /**
+    * Churn benchmark: threads repeatedly free a random slot they hold and reserve a new one in a nearly full
+    * allocator, compared to the linear probe of a {@link ConcurrentSkipListSet} this replaces.
+    *
+    * @param args
+    * @throws Exception
+    */
+   public static void main(final String[] args) throws Exception {
+      final int capacity = 4096;
+      final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+      final int operations = 200000;
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+      try {
+         for (int round = 0; round < 5; round++) {
+            final SlotAllocator allocator = new SlotAllocator(capacity);
+            final ConcurrentSkipListSet<Integer> used = new ConcurrentSkipListSet<>();
+
+            final long allocatorNanos = SlotAllocator.churn(executor, threads, operations, capacity, () -> allocator.allocate(), (slot) -> allocator.release(slot));
+            final long probeNanos = SlotAllocator.churn(executor, threads, operations / 10, capacity, () -> {
+               // the former getNextAvailableIndex
+               for (int i = 0; i < capacity; i++) {
+                  if (!used.contains(i) && used.add(i)) {
+                     return i;
+                  }
+               }
+
+               return -1;
+            }, (slot) -> used.remove(slot));
+
+            System.out.printf("round %d: bitmap %.1f ns/op, skip list probe %.1f ns/op%n", round, allocatorNanos / (double) (threads * operations),
+                  probeNanos / (double) ((threads * operations) / 10));
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   private static long churn(final ExecutorService executor, final int threads, final int operations, final int capacity, final IntSupplier allocate, final IntConsumer release) throws Exception {
+      // each thread holds its share of 90% of the slots
+      final int held = (capacity * 9) / (10 * threads);
+      final Future<?>[] futures = new Future<?>[threads];
+      final long start = System.nanoTime();
+
+      for (int t = 0; t < threads; t++) {
+         final int seed = t;
+
+         futures[t] = executor.submit(() -> {
+            final Random random = new Random(seed);
+            final int[] slots = new int[held];
+
+            for (int i = 0; i < held; i++) {
+               slots[i] = allocate.getAsInt();
+            }
+
+            for (int i = 0; i < operations; i++) {
+               final int index = random.nextInt(held);
+               release.accept(slots[index]);
+               slots[index] = allocate.getAsInt();
+            }
+
+            for (final int slot : slots) {
+               release.accept(slot);
+            }
+         });
+      }
+
+      for (final Future<?> future : futures) {
+         future.get();
+      }
+
+      return System.nanoTime() - start;
+   }
+}
@@ -0,0 +1,118 @@
+package com.stephenwranger.graphics.utils.buffers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class SlotAllocatorTest {
+   @Test
+   public void testAllocatesLowestFreeSlot() {
+      // not a multiple of the 64 slots per word
+      final SlotAllocator allocator = new SlotAllocator(70);
+
+      for (int i = 0; i < 70; i++) {
+         assertEquals(i, allocator.allocate());
+      }
+
+      assertTrue(allocator.isFull());
+      assertEquals(-1, allocator.allocate());
+      assertEquals(70, allocator.getUsedCount());
+
+      // released slots move the next allocation back down
+      allocator.release(65);
+      allocator.release(3);
+      assertFalse(allocator.isUsed(3));
+      assertEquals(3, allocator.allocate());
+      assertEquals(65, allocator.allocate());
+      assertEquals(-1, allocator.allocate());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testReleaseUnusedSlot() {
+      final SlotAllocator allocator = new SlotAllocator(8);
+      allocator.allocate();
+      allocator.release(1);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testReleaseOutOfRange() {
+      new SlotAllocator(8).release(8);
+   }
+
+   @Test
+   public void testRetireIfEmpty() {
+      final SlotAllocator allocator = new SlotAllocator(4);
+      final int slot = allocator.allocate();
+
+      assertFalse(allocator.retireIfEmpty());
+      allocator.release(slot);
+      assertTrue(allocator.isEmpty());
+      assertTrue(allocator.retireIfEmpty());
+
+      // retired allocators hand out nothing
+      assertEquals(-1, allocator.allocate());
+      assertEquals(0, allocator.getUsedCount());
+   }
+
+   @Test
+   public void testConcurrentChurn() throws Exception {
+      final int capacity = 1000;
+      final int threads = 4;
+      final int held = (capacity - 10) / threads;
+      final SlotAllocator allocator = new SlotAllocator(capacity);
+      // counts the owners of each slot, which must never exceed one
+      final AtomicIntegerArray owners = new AtomicIntegerArray(capacity);
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+      final List<Future<Boolean>> results = new ArrayList<>();
+
+      try {
+         for (int t = 0; t < threads; t++) {
+            final int seed = t;
+
+            results.add(executor.submit(() -> {
+               final Random random = new Random(seed);
+               final int[] slots = new int[held];
+               boolean unique = true;
+
+               for (int i = 0; i < held; i++) {
+                  slots[i] = allocator.allocate();
+                  unique &= (slots[i] != -1) && (owners.incrementAndGet(slots[i]) == 1);
+               }
+
+               for (int i = 0; i < 20000; i++) {
+                  final int index = random.nextInt(held);
+                  owners.decrementAndGet(slots[index]);
+                  allocator.release(slots[index]);
+                  slots[index] = allocator.allocate();
+                  unique &= (slots[index] != -1) && (owners.incrementAndGet(slots[index]) == 1);
+               }
+
+               for (final int slot : slots) {
+                  owners.decrementAndGet(slot);
+                  allocator.release(slot);
+               }
+
+               return unique;
+            }));
+         }
+
+         for (final Future<Boolean> result : results) {
+            assertTrue(result.get());
+         }
+      } finally {
+         executor.shutdown();
+      }
+
+      assertTrue(allocator.isEmpty());
+   }
+}
@@ -98,6 +98,12 @@ public class Vertex {
       return new Tuple3d(this.vertex);
    }
 
+   public Tuple3d getVertex(final Tuple3d out) {
+      out.set(this.vertex);
+
+      return out;
+   }
+
    @Override
    public int hashCode() {
       final int prime = 31;
@@ -110,16 +116,36 @@ public class Vertex {
    }
 
    public void vertexIntoBuffer(final Tuple3d origin, final ByteBuffer buffer) {
+      this.vertexIntoBuffer(origin, buffer, null, 0);
+   }
+
+   /**
+    * Puts this vertex into the given buffer moved the given depth against its normal and with the given texture
+    * coordinates in place of its own.
+    *
+    * @param origin
+    * @param buffer
+    * @param texCoord
+    *           the texture coordinates to put or null for this vertex's
+    * @param depth
+    *           zero unless this vertex has a normal
+    */
+   public void vertexIntoBuffer(final Tuple3d origin, final ByteBuffer buffer, final Tuple2d texCoord, final double depth) {
       if (this.vertex != null) {
-         buffer.putFloat((float) (this.vertex.x - origin.x)).putFloat((float) (this.vertex.y - origin.y)).putFloat((float) (this.vertex.z - origin.z));
+         final double x = (depth == 0) ? this.vertex.x : this.vertex.x - (this.normal.x * depth);
+         final double y = (depth == 0) ? this.vertex.y : this.vertex.y - (this.normal.y * depth);
+         final double z = (depth == 0) ? this.vertex.z : this.vertex.z - (this.normal.z * depth);
+         buffer.putFloat((float) (x - origin.x)).putFloat((float) (y - origin.y)).putFloat((float) (z - origin.z));
       }
 
       if (this.normal != null) {
          buffer.putFloat((float) this.normal.x).putFloat((float) this.normal.y).putFloat((float) this.normal.z);
       }
 
-      if (this.texCoord != null) {
-         buffer.putFloat((float) this.texCoord.x).putFloat((float) this.texCoord.y);
+      final Tuple2d tc = (texCoord == null) ? this.texCoord : texCoord;
+
+      if (tc != null) {
+         buffer.putFloat((float) tc.x).putFloat((float) tc.y);
       }
 
       if (this.color != null) {
@@ -15,6 +15,9 @@ public class VertexBufferObject {
    protected final int usage;
    protected final BufferRegion[] regions;
    protected int vboId = -1;
+   protected int iboId = -1;
+   private int indexCount = 0;
+   private IndexType indexType = null;
    
    private ByteBuffer buffer;
 
@@ -59,7 +62,13 @@ public class VertexBufferObject {
          region.enable(gl);
       }
       
-      gl.glDrawArrays( glPrimitiveType, 0, vertexCount );
+      if(indexCount > 0) {
+         gl.glBindBuffer( GL2.GL_ELEMENT_ARRAY_BUFFER, iboId );
+         gl.glDrawElements( glPrimitiveType, indexCount, indexType.glType, 0 );
+         gl.glBindBuffer( GL2.GL_ELEMENT_ARRAY_BUFFER, 0 );
+      } else {
+         gl.glDrawArrays( glPrimitiveType, 0, vertexCount );
+      }
        
       // disable arrays once we're done
       gl.glBindBuffer( GL2.GL_ARRAY_BUFFER, 0 );
@@ -69,6 +78,110 @@ public class VertexBufferObject {
       }
    }
    
+   public int getBytesPerVertex() {
+      return bytesPerVertex;
+   }
+
+   /**
+    * Returns the number of indices in the element buffer or zero if this buffer is drawn with glDrawArrays.
+    * 
+    * @return the index count
+    */
+   public int getIndexCount() {
+      return indexCount;
+   }
+
+   /**
+    * Returns the type of the element buffer or null if no indices have been set.
+    * 
+    * @return the index type
+    */
+   public IndexType getIndexType() {
+      return indexType;
+   }
+
+   /**
+    * Uploads the given vertex indices into an element buffer using the narrowest {@link IndexType} able to address
+    * every vertex in this buffer; once set, {@link #render(GL2)} draws with glDrawElements.
+    * 
+    * @param gl
+    *           the current OpenGL context
+    * @param indices
+    *           the vertex indices; each must be less than the vertex count
+    */
+   public void setIndices(final GL2 gl, final int[] indices) {
+      final IndexType type = IndexType.forVertexCount(vertexCount);
+      final ByteBuffer data = packIndices(indices, type, vertexCount);
+      
+      if(iboId < 0) {
+         final int[] ids = new int[1];
+         gl.glGenBuffers(1, ids, 0);
+         iboId = ids[0];
+      }
+      
+      gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, iboId);
+      gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, data.capacity(), data, this.usage);
+      gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+      
+      indexCount = indices.length;
+      indexType = type;
+   }
+
+   /**
+    * Packs the given indices into a native order direct buffer of the given type.
+    * 
+    * @param indices
+    *           the vertex indices
+    * @param type
+    *           the index type to pack as
+    * @param vertexCount
+    *           the number of vertices the indices refer to
+    * @return the packed, rewound buffer
+    * @throws InvalidParameterException
+    *            if any index is outside [0, vertexCount) or cannot be represented by the given type
+    */
+   public static ByteBuffer packIndices(final int[] indices, final IndexType type, final int vertexCount) {
+      final ByteBuffer data = BufferUtils.newByteBuffer(indices.length * type.bytesPerIndex);
+      
+      for(final int index : indices) {
+         if(index < 0 || index >= vertexCount || index > type.maxIndex) {
+            throw new InvalidParameterException("Index " + index + " is out of range for " + vertexCount + " vertices as " + type);
+         }
+         
+         type.put(data, index);
+      }
+      
+      data.rewind();
+      
+      return data;
+   }
+   
+   /**
+    * Replaces the vertex data with the contents of the given buffer (from position zero to its capacity) using
+    * glBufferSubData; intended for staging buffers that were filled off the render thread.
+    * 
+    * @param gl
+    *           the current OpenGL context
+    * @param data
+    *           the packed vertex data; must not be larger than this buffer
+    */
+   public void upload(final GL2 gl, final ByteBuffer data) {
+      if(data.capacity() > (long) vertexCount * bytesPerVertex) {
+         throw new InvalidParameterException("Data of " + data.capacity() + " bytes does not fit " + vertexCount + " vertices of " + bytesPerVertex + " bytes.");
+      }
+      
+      if(vboId < 0) {
+         initializeVbo(gl);
+      }
+      
+      final ByteBuffer source = data.duplicate();
+      source.clear();
+      
+      gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, vboId);
+      gl.glBufferSubData(GL2.GL_ARRAY_BUFFER, 0, source.capacity(), source);
+      gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+   }
+   
    public ByteBuffer mapBuffer(final GL2 gl) {
       if(vboId < 0) {
          initializeVbo(gl);
@@ -87,7 +200,27 @@ public class VertexBufferObject {
       }
    }
 
-   private void initializeVbo(final GL2 gl) {
+   /**
+    * Deletes the vertex and element buffers; they are created again on the next upload.
+    * 
+    * @param gl
+    *           the current OpenGL context
+    */
+   public void delete(final GL2 gl) {
+      if(vboId >= 0) {
+         gl.glDeleteBuffers(1, new int[] { vboId }, 0);
+         vboId = -1;
+      }
+      
+      if(iboId >= 0) {
+         gl.glDeleteBuffers(1, new int[] { iboId }, 0);
+         iboId = -1;
+         indexCount = 0;
+         indexType = null;
+      }
+   }
+
+   protected void initializeVbo(final GL2 gl) {
       final int[] ids = new int[1];
       
       // Generate And Bind The Vertex Buffer
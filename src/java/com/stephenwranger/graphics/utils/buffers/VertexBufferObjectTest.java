@@ -0,0 +1,71 @@
+package com.stephenwranger.graphics.utils.buffers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL;
+
+public class VertexBufferObjectTest {
+
+   @Test
+   public void testIndexTypeSelection() {
+      assertEquals(IndexType.UNSIGNED_SHORT, IndexType.forVertexCount(1));
+      assertEquals(IndexType.UNSIGNED_SHORT, IndexType.forVertexCount(65536));
+      assertEquals(IndexType.UNSIGNED_INT, IndexType.forVertexCount(65537));
+   }
+
+   @Test
+   public void testPackShortIndices() {
+      final ByteBuffer data = VertexBufferObject.packIndices(new int[] { 0, 1, 65535 }, IndexType.UNSIGNED_SHORT, 65536);
+
+      assertEquals(6, data.capacity());
+      assertEquals(0, data.getShort(0));
+      assertEquals(1, data.getShort(2));
+      assertEquals(65535, data.getShort(4) & 0xffff);
+   }
+
+   @Test(expected = InvalidParameterException.class)
+   public void testPackOutOfRange() {
+      VertexBufferObject.packIndices(new int[] { 0, 3 }, IndexType.UNSIGNED_INT, 3);
+   }
+
+   @Test
+   public void testLayoutAndDrawElements() {
+      final RecordingGL2 recorder = new RecordingGL2();
+      final VertexBufferObject vbo = new VertexBufferObject(4, true, GL.GL_TRIANGLES, GL.GL_STATIC_DRAW, new VertexRegion(3, DataType.FLOAT), new NormalRegion(DataType.FLOAT), new ColorRegion(4, DataType.FLOAT));
+
+      assertEquals(40, vbo.getBytesPerVertex());
+
+      vbo.mapBuffer(recorder.getGL());
+      vbo.unmapBuffer(recorder.getGL());
+      vbo.setIndices(recorder.getGL(), new int[] { 0, 1, 2, 0, 2, 3 });
+      assertEquals(IndexType.UNSIGNED_SHORT, vbo.getIndexType());
+
+      final List<RecordingGL2.Call> bufferData = recorder.getCalls("glBufferData");
+      assertEquals(2, bufferData.size());
+      assertEquals(GL.GL_ARRAY_BUFFER, bufferData.get(0).getInt(0));
+      assertEquals(4 * 40, bufferData.get(0).getLong(1));
+      assertEquals(GL.GL_ELEMENT_ARRAY_BUFFER, bufferData.get(1).getInt(0));
+      assertEquals(6 * 2, bufferData.get(1).getLong(1));
+
+      recorder.clear();
+      vbo.render(recorder.getGL());
+
+      assertEquals(0, recorder.getCallCount("glDrawArrays"));
+      final List<RecordingGL2.Call> draws = recorder.getCalls("glDrawElements");
+      assertEquals(1, draws.size());
+      assertEquals(GL.GL_TRIANGLES, draws.get(0).getInt(0));
+      assertEquals(6, draws.get(0).getInt(1));
+      assertEquals(GL.GL_UNSIGNED_SHORT, draws.get(0).getInt(2));
+
+      // stride and offsets of the interleaved regions
+      final RecordingGL2.Call colors = recorder.getCalls("glColorPointer").get(0);
+      assertEquals(40, colors.getInt(2));
+      assertEquals(24, colors.getLong(3));
+   }
+}
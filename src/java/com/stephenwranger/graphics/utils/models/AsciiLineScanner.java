@@ -0,0 +1,277 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free tokenizer over a buffer of ASCII lines. Tokens are separated by spaces, tabs or carriage returns;
+ * lines that only contain whitespace are skipped. Numbers are parsed directly from the bytes; decimal values with up to
+ * 15 significant digits and a power of ten within +/-22 are computed exactly (one correctly rounded multiply or
+ * divide), anything else falls back to {@link Double#parseDouble(String)} so the results always match the
+ * {@link String} based parsers.
+ *
+ * @author rangers
+ *
+ */
+public final class AsciiLineScanner {
+   private static final double[] POWERS_OF_TEN      = new double[23];
+   private static final long[]   LONG_POWERS_OF_TEN = new long[19];
+   private static final int      MAX_DIGITS         = 15;
+
+   static {
+      double power = 1;
+      long longPower = 1;
+
+      for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+         POWERS_OF_TEN[i] = power;
+         power *= 10;
+      }
+
+      for (int i = 0; i < LONG_POWERS_OF_TEN.length; i++) {
+         LONG_POWERS_OF_TEN[i] = longPower;
+         longPower *= 10;
+      }
+   }
+
+   private final ByteBuffer buffer;
+   private final int        end;
+   private int              position;
+
+   public AsciiLineScanner(final ByteBuffer buffer) {
+      this.buffer = buffer;
+      this.position = buffer.position();
+      this.end = buffer.limit();
+   }
+
+   /**
+    * Moves to the first token of the next non-blank line.
+    *
+    * @return false if there are no more non-blank lines
+    */
+   public boolean nextLine() {
+      while (this.position < this.end) {
+         final byte b = this.buffer.get(this.position);
+
+         if ((b == ' ') || (b == '\t') || (b == '\r') || (b == '\n')) {
+            this.position++;
+         } else {
+            return true;
+         }
+      }
+
+      return false;
+   }
+
+   /**
+    * Skips the remainder of the current line, including its line feed.
+    */
+   public void endLine() {
+      while (this.position < this.end) {
+         if (this.buffer.get(this.position++) == '\n') {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Skips the next token on the current line.
+    *
+    * @throws IOException
+    *            if the line has no more tokens
+    */
+   public void skipToken() throws IOException {
+      this.startToken();
+
+      while ((this.position < this.end) && !AsciiLineScanner.isSeparator(this.buffer.get(this.position))) {
+         this.position++;
+      }
+   }
+
+   public int nextInt() throws IOException {
+      final int start = this.startToken();
+      boolean isNegative = false;
+      long value = 0;
+      int digits = 0;
+
+      byte b = this.buffer.get(this.position);
+
+      if ((b == '-') || (b == '+')) {
+         isNegative = b == '-';
+         this.position++;
+      }
+
+      while ((this.position < this.end) && !AsciiLineScanner.isSeparator(b = this.buffer.get(this.position))) {
+         if ((b < '0') || (b > '9') || (digits > 10)) {
+            return Integer.parseInt(this.fallback(start));
+         }
+
+         value = (value * 10) + (b - '0');
+         digits++;
+         this.position++;
+      }
+
+      value = isNegative ? -value : value;
+
+      if ((digits == 0) || (value > Integer.MAX_VALUE) || (value < Integer.MIN_VALUE)) {
+         return Integer.parseInt(this.fallback(start));
+      }
+
+      return (int) value;
+   }
+
+   public double nextDouble() throws IOException {
+      final int start = this.startToken();
+      boolean isNegative = false;
+      long significand = 0;
+      int digits = 0;
+      int pendingZeros = 0;
+      int scale = 0;
+      boolean isFraction = false;
+      boolean hasDigits = false;
+
+      byte b = this.buffer.get(this.position);
+
+      if ((b == '-') || (b == '+')) {
+         isNegative = b == '-';
+         this.position++;
+      }
+
+      while ((this.position < this.end) && !AsciiLineScanner.isSeparator(b = this.buffer.get(this.position))) {
+         if ((b >= '0') && (b <= '9')) {
+            hasDigits = true;
+
+            if (isFraction) {
+               scale--;
+            }
+
+            if (b == '0') {
+               // defer zeros so trailing zeros don't count as significant digits
+               pendingZeros++;
+            } else if (significand == 0) {
+               significand = b - '0';
+               digits = 1;
+               pendingZeros = 0;
+            } else {
+               digits += pendingZeros + 1;
+
+               if (digits > MAX_DIGITS) {
+                  return Double.parseDouble(this.fallback(start));
+               }
+
+               significand = (significand * LONG_POWERS_OF_TEN[pendingZeros + 1]) + (b - '0');
+               pendingZeros = 0;
+            }
+         } else if ((b == '.') && !isFraction) {
+            isFraction = true;
+         } else if (((b == 'e') || (b == 'E')) && hasDigits) {
+            this.position++;
+            final int exponent = this.scanExponent();
+
+            if (exponent == Integer.MIN_VALUE) {
+               return Double.parseDouble(this.fallback(start));
+            }
+
+            scale += exponent;
+            break;
+         } else {
+            return Double.parseDouble(this.fallback(start));
+         }
+
+         this.position++;
+      }
+
+      if (!hasDigits) {
+         return Double.parseDouble(this.fallback(start));
+      }
+
+      if (significand == 0) {
+         return isNegative ? -0.0 : 0.0;
+      }
+
+      scale += pendingZeros;
+
+      final double value;
+
+      if ((scale >= 0) && (scale < POWERS_OF_TEN.length)) {
+         value = significand * POWERS_OF_TEN[scale];
+      } else if ((scale < 0) && (-scale < POWERS_OF_TEN.length)) {
+         value = significand / POWERS_OF_TEN[-scale];
+      } else {
+         return Double.parseDouble(this.fallback(start));
+      }
+
+      return isNegative ? -value : value;
+   }
+
+   /**
+    * Reads the exponent digits; returns Integer.MIN_VALUE if the exponent is not a plain signed integer so the caller
+    * can fall back.
+    */
+   private int scanExponent() {
+      boolean isNegative = false;
+      int exponent = 0;
+      int digits = 0;
+      byte b;
+
+      if ((this.position < this.end) && (((b = this.buffer.get(this.position)) == '-') || (b == '+'))) {
+         isNegative = b == '-';
+         this.position++;
+      }
+
+      while ((this.position < this.end) && !AsciiLineScanner.isSeparator(b = this.buffer.get(this.position))) {
+         if ((b < '0') || (b > '9') || (digits > 6)) {
+            return Integer.MIN_VALUE;
+         }
+
+         exponent = (exponent * 10) + (b - '0');
+         digits++;
+         this.position++;
+      }
+
+      if (digits == 0) {
+         return Integer.MIN_VALUE;
+      }
+
+      return isNegative ? -exponent : exponent;
+   }
+
+   /**
+    * Skips separators up to the next token on this line and returns its start.
+    */
+   private int startToken() throws IOException {
+      while (this.position < this.end) {
+         final byte b = this.buffer.get(this.position);
+
+         if (b == '\n') {
+            break;
+         } else if ((b == ' ') || (b == '\t') || (b == '\r')) {
+            this.position++;
+         } else {
+            return this.position;
+         }
+      }
+
+      throw new IOException("Unexpected end of line; missing value.");
+   }
+
+   /**
+    * Returns the full token starting at the given position as a String and moves past it.
+    */
+   private String fallback(final int start) {
+      while ((this.position < this.end) && !AsciiLineScanner.isSeparator(this.buffer.get(this.position))) {
+         this.position++;
+      }
+
+      final StringBuilder sb = new StringBuilder(this.position - start);
+
+      for (int i = start; i < this.position; i++) {
+         sb.append((char) this.buffer.get(i));
+      }
+
+      return sb.toString();
+   }
+
+   private static boolean isSeparator(final byte b) {
+      return (b == ' ') || (b == '\t') || (b == '\r') || (b == '\n');
+   }
+}
@@ -0,0 +1,301 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads ASCII PLY files with a {@link ParallelAsciiParser}; the body is split into newline-aligned chunks that are
+ * parsed concurrently into preallocated primitive arrays. Vertex values are parsed to the same doubles
+ * {@link Double#parseDouble(String)} produces, so the output matches {@link PlyModelLoader} exactly. Polygons with more
+ * than three vertices are split into triangle fans; elements other than vertex and face are skipped.
+ *
+ * @author rangers
+ *
+ */
+public class AsciiPlyReader {
+   private final File                file;
+   private final PlyHeader           header;
+   private final ParallelAsciiParser parser;
+
+   private int                       vertexCount    = 0;
+   private boolean                   hasFileNormals = false;
+   private double[]                  positions      = null;
+   private double[]                  normals        = null;
+   private int[]                     indices        = null;
+
+   public AsciiPlyReader(final File file) throws IOException {
+      this(file, new ParallelAsciiParser());
+   }
+
+   public AsciiPlyReader(final File file, final ParallelAsciiParser parser) throws IOException {
+      this.file = file;
+      this.header = PlyHeader.read(file);
+      this.parser = parser;
+
+      if (!this.header.isASCII()) {
+         throw new IOException("AsciiPlyReader only supports ASCII PLY files: " + file);
+      }
+   }
+
+   public PlyHeader getHeader() {
+      return this.header;
+   }
+
+   public int getVertexCount() {
+      return this.vertexCount;
+   }
+
+   public int getFaceCount() {
+      return (this.indices == null) ? 0 : this.indices.length / 3;
+   }
+
+   /**
+    * Returns true if the file contained nx/ny/nz vertex properties; if false, the normals were computed from the faces.
+    *
+    * @return
+    */
+   public boolean hasFileNormals() {
+      return this.hasFileNormals;
+   }
+
+   /**
+    * Returns the xyz vertex positions (3 doubles per vertex).
+    *
+    * @return
+    */
+   public double[] getPositions() {
+      return this.positions;
+   }
+
+   /**
+    * Returns the xyz unit vertex normals (3 doubles per vertex).
+    *
+    * @return
+    */
+   public double[] getNormals() {
+      return this.normals;
+   }
+
+   /**
+    * Returns the triangle vertex indices (3 per face).
+    *
+    * @return
+    */
+   public int[] getIndices() {
+      return this.indices;
+   }
+
+   /**
+    * Reads the file into the position, normal and index arrays.
+    *
+    * @throws IOException
+    *            if the file cannot be read or a line cannot be parsed
+    */
+   public void read() throws IOException {
+      final List<PlyHeader.Element> elements = this.header.getElements();
+      final long[] elementStarts = new long[elements.size()];
+      long line = 0;
+      int vertexElement = -1;
+      int faceElement = -1;
+
+      for (int i = 0; i < elements.size(); i++) {
+         final PlyHeader.Element element = elements.get(i);
+         elementStarts[i] = line;
+         line += element.count;
+
+         if (element.name.equals("vertex")) {
+            vertexElement = i;
+         } else if (element.name.equals("face")) {
+            faceElement = i;
+         }
+      }
+
+      if (vertexElement == -1) {
+         throw new IOException("PLY file does not contain a vertex element: " + this.file);
+      }
+
+      final PlyHeader.Element vertices = elements.get(vertexElement);
+
+      if (!vertices.isFixedSize()) {
+         throw new IOException("List properties on PLY vertices are not supported.");
+      }
+
+      if (vertices.count > (Integer.MAX_VALUE / 3)) {
+         throw new IOException("Too many vertices: " + vertices.count);
+      }
+
+      final int[] vertexSlots = new int[vertices.getProperties().size()];
+      Arrays.fill(vertexSlots, -1);
+      final String[] names = new String[] { "x", "y", "z", "nx", "ny", "nz" };
+
+      for (int i = 0; i < names.length; i++) {
+         final int index = vertices.getPropertyIndex(names[i]);
+
+         if (index != -1) {
+            vertexSlots[index] = i;
+         } else if (i < 3) {
+            throw new IOException("PLY vertex element must define x, y and z properties.");
+         }
+      }
+
+      this.vertexCount = (int) vertices.count;
+      this.hasFileNormals = (vertices.getPropertyIndex("nx") != -1) && (vertices.getPropertyIndex("ny") != -1) && (vertices.getPropertyIndex("nz") != -1);
+      this.positions = new double[this.vertexCount * 3];
+      this.normals = new double[this.vertexCount * 3];
+
+      final int faceListIndex = (faceElement == -1) ? -1 : AsciiPlyReader.getFaceListIndex(elements.get(faceElement));
+      final double[] positions = this.positions;
+      final double[] normals = this.normals;
+      final int vertexIndex = vertexElement;
+      final int faceIndex = faceElement;
+
+      final List<ParallelAsciiParser.Chunk> chunks = this.parser.split(this.file, this.header.getHeaderLength());
+      final List<int[]> faces = this.parser.parse(this.file, chunks, (scanner, chunk) -> {
+         int[] chunkIndices = new int[0];
+         int chunkIndexCount = 0;
+         int element = 0;
+
+         for (long i = chunk.firstLine; i < (chunk.firstLine + chunk.lineCount); i++) {
+            while ((element < elements.size()) && (i >= (elementStarts[element] + elements.get(element).count))) {
+               element++;
+            }
+
+            if (!scanner.nextLine()) {
+               break;
+            }
+
+            if (element == vertexIndex) {
+               final int row = (int) (i - elementStarts[element]) * 3;
+
+               for (final int slot : vertexSlots) {
+                  if (slot == -1) {
+                     scanner.skipToken();
+                  } else if (slot < 3) {
+                     positions[row + slot] = scanner.nextDouble();
+                  } else {
+                     normals[(row + slot) - 3] = scanner.nextDouble();
+                  }
+               }
+            } else if (element == faceIndex) {
+               final List<PlyHeader.Property> properties = elements.get(element).getProperties();
+
+               for (int j = 0; j < properties.size(); j++) {
+                  if (!properties.get(j).isList()) {
+                     scanner.skipToken();
+                     continue;
+                  }
+
+                  final int count = scanner.nextInt();
+
+                  if ((j != faceListIndex) || (count < 3)) {
+                     for (int k = 0; k < count; k++) {
+                        scanner.skipToken();
+                     }
+
+                     continue;
+                  }
+
+                  if ((chunkIndexCount + ((count - 2) * 3)) > chunkIndices.length) {
+                     chunkIndices = Arrays.copyOf(chunkIndices, Math.max(chunkIndices.length * 2, chunkIndexCount + ((count - 2) * 3) + 1024));
+                  }
+
+                  final int first = scanner.nextInt();
+                  int previous = scanner.nextInt();
+
+                  for (int k = 2; k < count; k++) {
+                     final int next = scanner.nextInt();
+                     chunkIndices[chunkIndexCount++] = first;
+                     chunkIndices[chunkIndexCount++] = previous;
+                     chunkIndices[chunkIndexCount++] = next;
+                     previous = next;
+                  }
+               }
+            }
+
+            scanner.endLine();
+         }
+
+         return Arrays.copyOf(chunkIndices, chunkIndexCount);
+      });
+
+      int indexCount = 0;
+
+      for (final int[] chunkIndices : faces) {
+         indexCount += chunkIndices.length;
+      }
+
+      this.indices = new int[indexCount];
+      int offset = 0;
+
+      for (final int[] chunkIndices : faces) {
+         System.arraycopy(chunkIndices, 0, this.indices, offset, chunkIndices.length);
+         offset += chunkIndices.length;
+      }
+
+      if (!this.hasFileNormals) {
+         AsciiPlyReader.computeNormals(this.positions, this.normals, this.vertexCount, this.indices);
+      }
+   }
+
+   private static int getFaceListIndex(final PlyHeader.Element faces) throws IOException {
+      int index = faces.getPropertyIndex("vertex_indices");
+
+      if (index == -1) {
+         index = faces.getPropertyIndex("vertex_index");
+      }
+
+      if ((index == -1) || !faces.getProperties().get(index).isList()) {
+         throw new IOException("PLY face element must define a vertex_indices list property.");
+      }
+
+      return index;
+   }
+
+   /**
+    * Computes averaged unit vertex normals from the triangle faces.
+    */
+   private static void computeNormals(final double[] positions, final double[] normals, final int vertexCount, final int[] indices) {
+      for (int i = 0; i < indices.length; i += 3) {
+         final int p0 = indices[i] * 3;
+         final int p1 = indices[i + 1] * 3;
+         final int p2 = indices[i + 2] * 3;
+
+         final double e1x = positions[p1] - positions[p0];
+         final double e1y = positions[p1 + 1] - positions[p0 + 1];
+         final double e1z = positions[p1 + 2] - positions[p0 + 2];
+         final double e2x = positions[p2] - positions[p0];
+         final double e2y = positions[p2 + 1] - positions[p0 + 1];
+         final double e2z = positions[p2 + 2] - positions[p0 + 2];
+
+         double nx = (e1y * e2z) - (e1z * e2y);
+         double ny = (e1z * e2x) - (e1x * e2z);
+         double nz = (e1x * e2y) - (e1y * e2x);
+         final double length = Math.sqrt((nx * nx) + (ny * ny) + (nz * nz));
+
+         if (length > 0) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+         }
+
+         for (int j = 0; j < 3; j++) {
+            final int n = indices[i + j] * 3;
+            normals[n] += nx;
+            normals[n + 1] += ny;
+            normals[n + 2] += nz;
+         }
+      }
+
+      for (int i = 0; i < (vertexCount * 3); i += 3) {
+         final double length = Math.sqrt((normals[i] * normals[i]) + (normals[i + 1] * normals[i + 1]) + (normals[i + 2] * normals[i + 2]));
+
+         if (length > 0) {
+            normals[i] /= length;
+            normals[i + 1] /= length;
+            normals[i + 2] /= length;
+         }
+      }
+   }
+}
@@ -0,0 +1,396 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.stephenwranger.graphics.bounds.BoundingBox;
+import com.stephenwranger.graphics.bounds.BoundingVolumeHierarchy;
+import com.stephenwranger.graphics.math.PickingHit;
+import com.stephenwranger.graphics.math.PickingRay;
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Vector3d;
+import com.stephenwranger.graphics.math.intersection.Triangle3d;
+import com.stephenwranger.graphics.renderables.Renderable;
+
+/**
+ * Compact triangle mesh made of a shared vertex array (xyz positions and xyz unit normals as floats) and a triangle
+ * index buffer (3 indices per face). Vertices shared by several faces are stored once; per-face data is computed on
+ * demand through the accessors instead of being held in {@link Triangle3d} objects.<br/>
+ * <br/>
+ * The float positions are offsets from a double precision anchor so that meshes far from the coordinate origin (ECEF
+ * and similar) keep the precision of their own extent; the accessors returning {@link Tuple3d}s and bounds add the
+ * anchor back, while {@link #getPositions()} and the {@link BoundingVolumeHierarchy} work in anchor space.
+ *
+ * @author rangers
+ *
+ */
+public class IndexedMesh {
+   private final Tuple3d           anchor;
+   private final float[]           positions;
+   private final float[]           normals;
+   private final int[]             indices;
+   private BoundingBox             bounds    = null;
+   private BoundingVolumeHierarchy hierarchy = null;
+
+   /**
+    * Creates a new mesh from the given arrays; the arrays are not copied.
+    *
+    * @param positions
+    *           xyz vertex positions (3 per vertex)
+    * @param normals
+    *           xyz unit vertex normals (3 per vertex) or null to compute averaged normals from the faces
+    * @param indices
+    *           triangle vertex indices (3 per face)
+    */
+   public IndexedMesh(final float[] positions, final float[] normals, final int[] indices) {
+      this(new Tuple3d(), positions, normals, indices);
+   }
+
+   /**
+    * Creates a new mesh from the given arrays of positions relative to the given anchor; the arrays are not copied.
+    *
+    * @param anchor
+    *           the position the float positions are offsets from
+    * @param positions
+    *           xyz vertex offsets from the anchor (3 per vertex)
+    * @param normals
+    *           xyz unit vertex normals (3 per vertex) or null to compute averaged normals from the faces
+    * @param indices
+    *           triangle vertex indices (3 per face)
+    */
+   public IndexedMesh(final Tuple3d anchor, final float[] positions, final float[] normals, final int[] indices) {
+      if (((positions.length % 3) != 0) || ((indices.length % 3) != 0)) {
+         throw new IllegalArgumentException("Positions and indices must contain three values per vertex/face.");
+      }
+
+      if ((normals != null) && (normals.length != positions.length)) {
+         throw new IllegalArgumentException("Normals must contain three values per vertex.");
+      }
+
+      this.anchor = new Tuple3d(anchor);
+      this.positions = positions;
+      this.indices = indices;
+
+      if (normals == null) {
+         this.normals = new float[positions.length];
+         MappedPlyReader.computeNormals(FloatBuffer.wrap(this.positions), 0, 3, FloatBuffer.wrap(this.normals), 0, 3, this.getVertexCount(), this.indices, this.indices.length);
+      } else {
+         this.normals = normals;
+      }
+   }
+
+   public int getVertexCount() {
+      return this.positions.length / 3;
+   }
+
+   public int getFaceCount() {
+      return this.indices.length / 3;
+   }
+
+   /**
+    * Returns the position the float positions are offsets from.
+    *
+    * @return
+    */
+   public Tuple3d getAnchor() {
+      return new Tuple3d(this.anchor);
+   }
+
+   /**
+    * Returns the backing xyz position array (3 floats per vertex) relative to the anchor.
+    *
+    * @return
+    */
+   public float[] getPositions() {
+      return this.positions;
+   }
+
+   /**
+    * Returns the backing xyz normal array (3 floats per vertex).
+    *
+    * @return
+    */
+   public float[] getNormals() {
+      return this.normals;
+   }
+
+   /**
+    * Returns the backing triangle index array (3 ints per face).
+    *
+    * @return
+    */
+   public int[] getIndices() {
+      return this.indices;
+   }
+
+   /**
+    * Returns the vertex index of the given corner (0, 1 or 2) of the given face.
+    *
+    * @param face
+    * @param corner
+    * @return
+    */
+   public int getFaceVertex(final int face, final int corner) {
+      return this.indices[(face * 3) + corner];
+   }
+
+   public Tuple3d getVertex(final int vertex, final Tuple3d output) {
+      output.set(this.anchor.x + this.positions[vertex * 3], this.anchor.y + this.positions[(vertex * 3) + 1], this.anchor.z + this.positions[(vertex * 3) + 2]);
+      return output;
+   }
+
+   public Tuple3d getNormal(final int vertex, final Tuple3d output) {
+      output.set(this.normals[vertex * 3], this.normals[(vertex * 3) + 1], this.normals[(vertex * 3) + 2]);
+      return output;
+   }
+
+   /**
+    * Computes the unit normal of the given face (counter-clockwise winding) into the output vector.
+    *
+    * @param face
+    * @param output
+    * @return the output vector
+    */
+   public Vector3d getFaceNormal(final int face, final Vector3d output) {
+      final int p0 = this.indices[face * 3] * 3;
+      final int p1 = this.indices[(face * 3) + 1] * 3;
+      final int p2 = this.indices[(face * 3) + 2] * 3;
+
+      final double e1x = this.positions[p1] - this.positions[p0];
+      final double e1y = this.positions[p1 + 1] - this.positions[p0 + 1];
+      final double e1z = this.positions[p1 + 2] - this.positions[p0 + 2];
+      final double e2x = this.positions[p2] - this.positions[p0];
+      final double e2y = this.positions[p2 + 1] - this.positions[p0 + 1];
+      final double e2z = this.positions[p2 + 2] - this.positions[p0 + 2];
+
+      output.set((e1y * e2z) - (e1z * e2y), (e1z * e2x) - (e1x * e2z), (e1x * e2y) - (e1y * e2x));
+      final double length = output.length();
+
+      if (length > 0) {
+         output.scale(1.0 / length);
+      }
+
+      return output;
+   }
+
+   /**
+    * Computes the average of the three corners of the given face into the output tuple.
+    *
+    * @param face
+    * @param output
+    * @return the output tuple
+    */
+   public Tuple3d getFaceCenter(final int face, final Tuple3d output) {
+      output.set(this.anchor);
+
+      for (int i = 0; i < 3; i++) {
+         final int p = this.indices[(face * 3) + i] * 3;
+         output.x += this.positions[p] / 3.0;
+         output.y += this.positions[p + 1] / 3.0;
+         output.z += this.positions[p + 2] / 3.0;
+      }
+
+      return output;
+   }
+
+   /**
+    * Creates a new {@link Triangle3d} for the given face; intended for occasional per-face queries, not bulk access.
+    *
+    * @param face
+    * @return
+    */
+   public Triangle3d getTriangle(final int face) {
+      return new Triangle3d(this.getVertex(this.getFaceVertex(face, 0), new Tuple3d()), this.getVertex(this.getFaceVertex(face, 1), new Tuple3d()), this.getVertex(this.getFaceVertex(face, 2), new Tuple3d()));
+   }
+
+   /**
+    * Returns the axis-aligned bounds of all vertices; computed on first call.
+    *
+    * @return
+    */
+   public BoundingBox getBoundingBox() {
+      if (this.bounds == null) {
+         double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+         double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+
+         for (int i = 0; i < this.positions.length; i += 3) {
+            minX = Math.min(minX, this.positions[i]);
+            minY = Math.min(minY, this.positions[i + 1]);
+            minZ = Math.min(minZ, this.positions[i + 2]);
+            maxX = Math.max(maxX, this.positions[i]);
+            maxY = Math.max(maxY, this.positions[i + 1]);
+            maxZ = Math.max(maxZ, this.positions[i + 2]);
+         }
+
+         this.bounds = new BoundingBox(this.anchor.x + minX, this.anchor.y + minY, this.anchor.z + minZ, this.anchor.x + maxX, this.anchor.y + maxY, this.anchor.z + maxZ);
+      }
+
+      return this.bounds;
+   }
+
+   /**
+    * Returns the nearest face hit by the given picking ray attributed to the given renderable or
+    * {@link PickingRay#NO_HIT}; the ray is moved into anchor space for the {@link #getHierarchy()} query.
+    *
+    * @param parent
+    * @param ray
+    * @return
+    */
+   public PickingHit getIntersection(final Renderable parent, final PickingRay ray) {
+      final Tuple3d origin = ray.getOrigin();
+      final Vector3d direction = ray.getDirection();
+      final double distance = this.getHierarchy().intersect(origin.x - this.anchor.x, origin.y - this.anchor.y, origin.z - this.anchor.z, direction.x, direction.y, direction.z,
+            Double.POSITIVE_INFINITY, null);
+
+      if (distance == Double.POSITIVE_INFINITY) {
+         return PickingRay.NO_HIT;
+      }
+
+      final Tuple3d hit = new Tuple3d(origin.x + (direction.x * distance), origin.y + (direction.y * distance), origin.z + (direction.z * distance));
+
+      return new PickingHit(parent, hit, distance);
+   }
+
+   /**
+    * Returns the ray query hierarchy over this mesh's faces in anchor space; built on first call.
+    *
+    * @return
+    */
+   public synchronized BoundingVolumeHierarchy getHierarchy() {
+      if (this.hierarchy == null) {
+         this.hierarchy = new BoundingVolumeHierarchy(this.positions, this.indices);
+      }
+
+      return this.hierarchy;
+   }
+
+   /**
+    * Attaches a hierarchy that was built for (or read back from a cache of) this mesh's positions and indices.
+    *
+    * @param hierarchy
+    */
+   synchronized void setHierarchy(final BoundingVolumeHierarchy hierarchy) {
+      this.hierarchy = hierarchy;
+   }
+
+   /**
+    * Builds an {@link IndexedMesh} from individual triangles; corners that are exactly equal are shared and the vertex
+    * normals are averaged from the faces.
+    *
+    * @param triangles
+    * @return
+    */
+   public static IndexedMesh fromTriangles(final Triangle3d[] triangles) {
+      return IndexedMesh.fromTriangles(triangles, true);
+   }
+
+   /**
+    * Builds an {@link IndexedMesh} from individual triangles anchored at the center of their bounds, which is computed
+    * from the double corners so the float offsets only carry the mesh's own extent.
+    *
+    * @param triangles
+    * @param isSmooth
+    *           true to share corners that are exactly equal and average their normals from the faces; false to give
+    *           every face its own three vertices with the face normal, as flat shaded {@link Triangle3d}s are drawn
+    * @return
+    */
+   public static IndexedMesh fromTriangles(final Triangle3d[] triangles, final boolean isSmooth) {
+      final Tuple3d[][] corners = new Tuple3d[triangles.length][];
+      double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+      double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+
+      for (int i = 0; i < triangles.length; i++) {
+         corners[i] = triangles[i].getCorners();
+
+         for (final Tuple3d corner : corners[i]) {
+            minX = Math.min(minX, corner.x);
+            minY = Math.min(minY, corner.y);
+            minZ = Math.min(minZ, corner.z);
+            maxX = Math.max(maxX, corner.x);
+            maxY = Math.max(maxY, corner.y);
+            maxZ = Math.max(maxZ, corner.z);
+         }
+      }
+
+      final Tuple3d anchor = (triangles.length == 0) ? new Tuple3d() : new Tuple3d((minX + maxX) / 2.0, (minY + maxY) / 2.0, (minZ + maxZ) / 2.0);
+      final Map<Tuple3d, Integer> vertices = new HashMap<>();
+      final float[] positions = new float[triangles.length * 9];
+      final float[] normals = (isSmooth) ? null : new float[triangles.length * 9];
+      final int[] indices = new int[triangles.length * 3];
+      int vertexCount = 0;
+
+      for (int i = 0; i < triangles.length; i++) {
+         final Vector3d normal = (isSmooth) ? null : triangles[i].getNormal();
+
+         for (int j = 0; j < 3; j++) {
+            final Tuple3d corner = corners[i][j];
+            Integer index = (isSmooth) ? vertices.get(corner) : null;
+
+            if (index == null) {
+               index = vertexCount++;
+               positions[index * 3] = (float) (corner.x - anchor.x);
+               positions[(index * 3) + 1] = (float) (corner.y - anchor.y);
+               positions[(index * 3) + 2] = (float) (corner.z - anchor.z);
+
+               if (isSmooth) {
+                  vertices.put(corner, index);
+               } else {
+                  normals[index * 3] = (float) normal.x;
+                  normals[(index * 3) + 1] = (float) normal.y;
+                  normals[(index * 3) + 2] = (float) normal.z;
+               }
+            }
+
+            indices[(i * 3) + j] = index;
+         }
+      }
+
+      final float[] trimmed = new float[vertexCount * 3];
+      System.arraycopy(positions, 0, trimmed, 0, trimmed.length);
+
+      return new IndexedMesh(anchor, trimmed, normals, indices);
+   }
+
+   /**
+    * Builds an {@link IndexedMesh} from double positions anchored at the center of their bounds; the arrays are not
+    * kept.
+    *
+    * @param positions
+    *           xyz vertex positions (3 per vertex)
+    * @param normals
+    *           xyz unit vertex normals (3 per vertex) or null to compute averaged normals from the faces
+    * @param indices
+    *           triangle vertex indices (3 per face)
+    * @return
+    */
+   public static IndexedMesh fromPositions(final double[] positions, final double[] normals, final int[] indices) {
+      double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+      double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+
+      for (int i = 0; i < positions.length; i += 3) {
+         minX = Math.min(minX, positions[i]);
+         minY = Math.min(minY, positions[i + 1]);
+         minZ = Math.min(minZ, positions[i + 2]);
+         maxX = Math.max(maxX, positions[i]);
+         maxY = Math.max(maxY, positions[i + 1]);
+         maxZ = Math.max(maxZ, positions[i + 2]);
+      }
+
+      final Tuple3d anchor = (positions.length == 0) ? new Tuple3d() : new Tuple3d((minX + maxX) / 2.0, (minY + maxY) / 2.0, (minZ + maxZ) / 2.0);
+      final float[] floatPositions = new float[positions.length];
+      final float[] floatNormals = (normals == null) ? null : new float[normals.length];
+
+      for (int i = 0; i < positions.length; i += 3) {
+         floatPositions[i] = (float) (positions[i] - anchor.x);
+         floatPositions[i + 1] = (float) (positions[i + 1] - anchor.y);
+         floatPositions[i + 2] = (float) (positions[i + 2] - anchor.z);
+      }
+
+      for (int i = 0; (floatNormals != null) && (i < normals.length); i++) {
+         floatNormals[i] = (float) normals[i];
+      }
+
+      return new IndexedMesh(anchor, floatPositions, floatNormals, indices);
+   }
+}
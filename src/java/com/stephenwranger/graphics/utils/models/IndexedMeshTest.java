@@ -0,0 +1,77 @@
+package com.stephenwranger.graphics.utils.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.bounds.BoundingBox;
+import com.stephenwranger.graphics.math.PickingHit;
+import com.stephenwranger.graphics.math.PickingRay;
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Vector3d;
+import com.stephenwranger.graphics.math.intersection.Triangle3d;
+
+public class IndexedMeshTest {
+   /** a corner on the earth's surface in ECEF, where a float only resolves half a meter */
+   private static final Tuple3d BASE = new Tuple3d(6378137.123456, 1234.567891, -987.654321);
+
+   @Test
+   public void testAnchoredPrecision() {
+      final Triangle3d[] triangles = IndexedMeshTest.createQuad();
+      final IndexedMesh mesh = IndexedMesh.fromTriangles(triangles);
+
+      // two shared corners, anchored at the center of the bounds
+      assertEquals(4, mesh.getVertexCount());
+      assertTrue(mesh.getAnchor().distance(new Tuple3d(BASE.x + 5, BASE.y + 5, BASE.z)) < 1e-9);
+
+      for (int face = 0; face < mesh.getFaceCount(); face++) {
+         final Tuple3d[] corners = triangles[face].getCorners();
+
+         for (int corner = 0; corner < 3; corner++) {
+            assertTrue(mesh.getVertex(mesh.getFaceVertex(face, corner), new Tuple3d()).distance(corners[corner]) < 1e-5);
+         }
+      }
+
+      final BoundingBox bounds = mesh.getBoundingBox();
+      assertTrue(bounds.getMin().distance(BASE) < 1e-5);
+      assertTrue(Math.abs(((float) BASE.x) - BASE.x) > 0.1);
+   }
+
+   @Test
+   public void testFlatTriangles() {
+      final IndexedMesh mesh = IndexedMesh.fromTriangles(IndexedMeshTest.createQuad(), false);
+      final Vector3d normal = new Vector3d();
+
+      // every face keeps its own corners and the face normal
+      assertEquals(6, mesh.getVertexCount());
+      assertTrue(mesh.getFaceVertex(0, 0) != mesh.getFaceVertex(1, 0));
+
+      for (int i = 0; i < mesh.getVertexCount(); i++) {
+         assertTrue(mesh.getNormal(i, new Tuple3d()).distance(mesh.getFaceNormal(i / 3, normal)) < 1e-6);
+      }
+   }
+
+   @Test
+   public void testIntersectionInAnchorSpace() {
+      final IndexedMesh mesh = IndexedMesh.fromTriangles(IndexedMeshTest.createQuad());
+      final Tuple3d origin = new Tuple3d(BASE.x + 2.5, BASE.y + 7.5, BASE.z + 10);
+      final PickingHit hit = mesh.getIntersection(null, new PickingRay(origin, new Vector3d(0, 0, -1)));
+
+      assertEquals(10, hit.getDistance(), 1e-5);
+      assertTrue(hit.getHitLocation().distance(new Tuple3d(origin.x, origin.y, BASE.z)) < 1e-5);
+      assertEquals(PickingRay.NO_HIT, mesh.getIntersection(null, new PickingRay(origin, new Vector3d(0, 0, 1))));
+   }
+
+   /**
+    * Two triangles spanning 10 meters from the base.
+    */
+   private static Triangle3d[] createQuad() {
+      final Tuple3d c0 = new Tuple3d(BASE);
+      final Tuple3d c1 = new Tuple3d(BASE.x + 10, BASE.y, BASE.z);
+      final Tuple3d c2 = new Tuple3d(BASE.x + 10, BASE.y + 10, BASE.z);
+      final Tuple3d c3 = new Tuple3d(BASE.x, BASE.y + 10, BASE.z);
+
+      return new Triangle3d[] { new Triangle3d(c0, c1, c2), new Triangle3d(c0, c2, c3) };
+   }
+}
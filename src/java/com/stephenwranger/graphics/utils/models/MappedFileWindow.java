@@ -0,0 +1,79 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A read-only sliding window over a memory-mapped file. A single {@link MappedByteBuffer} cannot address more than 2GB
+ * so files are mapped in windows that are remapped on demand; callers ask for the relative index of an absolute file
+ * position and read from {@link #getBuffer()} with the absolute get methods.
+ *
+ * @author rangers
+ *
+ */
+class MappedFileWindow {
+   public static final long  DEFAULT_WINDOW_SIZE = 1L << 28;
+
+   private final FileChannel channel;
+   private final long        fileSize;
+   private final long        windowSize;
+   private final ByteOrder   order;
+
+   private MappedByteBuffer  buffer              = null;
+   private long              start               = 0;
+   private long              end                 = 0;
+
+   MappedFileWindow(final FileChannel channel, final ByteOrder order) throws IOException {
+      this(channel, order, DEFAULT_WINDOW_SIZE);
+   }
+
+   MappedFileWindow(final FileChannel channel, final ByteOrder order, final long windowSize) throws IOException {
+      this.channel = channel;
+      this.fileSize = channel.size();
+      this.windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+      this.order = order;
+   }
+
+   MappedByteBuffer getBuffer() {
+      return this.buffer;
+   }
+
+   long getFileSize() {
+      return this.fileSize;
+   }
+
+   /**
+    * Makes sure the bytes [position, position + length) are mapped and returns the index of position within
+    * {@link #getBuffer()}.
+    *
+    * @param position
+    *           the absolute file position
+    * @param length
+    *           the number of bytes that will be read
+    * @return the index into the current buffer
+    * @throws IOException
+    *            if the range lies beyond the end of the file or cannot be mapped
+    */
+   int index(final long position, final int length) throws IOException {
+      if ((position < this.start) || ((position + length) > this.end)) {
+         this.map(position, length);
+      }
+
+      return (int) (position - this.start);
+   }
+
+   private void map(final long position, final int length) throws IOException {
+      if ((position + length) > this.fileSize) {
+         throw new IOException("Unexpected end of file at byte " + position + " (file size " + this.fileSize + ").");
+      }
+
+      final long size = Math.min(Math.max(this.windowSize, length), this.fileSize - position);
+      this.buffer = this.channel.map(MapMode.READ_ONLY, position, size);
+      this.buffer.order(this.order);
+      this.start = position;
+      this.end = position + size;
+   }
+}
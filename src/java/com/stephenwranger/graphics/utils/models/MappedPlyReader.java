@@ -0,0 +1,508 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import com.stephenwranger.graphics.utils.buffers.BufferUtils;
+import com.stephenwranger.graphics.utils.buffers.DataType;
+import com.stephenwranger.graphics.utils.buffers.NormalRegion;
+import com.stephenwranger.graphics.utils.buffers.VertexBufferObject;
+import com.stephenwranger.graphics.utils.buffers.VertexRegion;
+
+/**
+ * Reads binary (little or big endian) PLY files through a memory-mapped {@link FileChannel}. Any scalar property type
+ * is decoded straight into flat primitive arrays (or a direct buffer) without creating per-vertex objects. Polygons
+ * with more than three vertices are split into triangle fans; elements other than vertex and face are skipped.<br/>
+ * <br/>
+ * {@link #read()} fills {@link #getPositions()}, {@link #getNormals()} and {@link #getIndices()};
+ * {@link #readDoubles()} fills {@link #getDoublePositions()} and {@link #getDoubleNormals()} instead, keeping the full
+ * precision of double coordinates for anchoring; {@link #readVertexBuffer()} returns a direct buffer laid out for an
+ * interleaved {@link VertexBufferObject} created with {@link #createVertexBufferObject(int, int)}.
+ *
+ * @author rangers
+ *
+ */
+public class MappedPlyReader {
+   /** Number of floats per vertex in the buffer returned by {@link #readVertexBuffer()}: xyz position, xyz normal. */
+   public static final int FLOATS_PER_VERTEX = 6;
+
+   private final File      file;
+   private final PlyHeader header;
+
+   private int             vertexCount     = 0;
+   private int             indexCount      = 0;
+   private boolean         hasFileNormals  = false;
+   private float[]         positions       = null;
+   private float[]         normals         = null;
+   private double[]        doublePositions = null;
+   private double[]        doubleNormals   = null;
+   private int[]           indices         = null;
+
+   public MappedPlyReader(final File file) throws IOException {
+      this.file = file;
+      this.header = PlyHeader.read(file);
+
+      if (this.header.isASCII()) {
+         throw new IOException("MappedPlyReader only supports binary PLY files: " + file);
+      }
+   }
+
+   public PlyHeader getHeader() {
+      return this.header;
+   }
+
+   public int getVertexCount() {
+      return this.vertexCount;
+   }
+
+   /**
+    * Returns the number of triangles read (after any polygons have been split into fans).
+    *
+    * @return the triangle count
+    */
+   public int getFaceCount() {
+      return this.indexCount / 3;
+   }
+
+   /**
+    * Returns true if the file contained nx/ny/nz vertex properties; if false, the normals were computed from the faces.
+    *
+    * @return
+    */
+   public boolean hasFileNormals() {
+      return this.hasFileNormals;
+   }
+
+   /**
+    * Returns the xyz vertex positions (3 floats per vertex) filled by {@link #read()}.
+    *
+    * @return
+    */
+   public float[] getPositions() {
+      return this.positions;
+   }
+
+   /**
+    * Returns the xyz unit vertex normals (3 floats per vertex) filled by {@link #read()}.
+    *
+    * @return
+    */
+   public float[] getNormals() {
+      return this.normals;
+   }
+
+   /**
+    * Returns the xyz vertex positions (3 doubles per vertex) filled by {@link #readDoubles()}.
+    *
+    * @return
+    */
+   public double[] getDoublePositions() {
+      return this.doublePositions;
+   }
+
+   /**
+    * Returns the xyz vertex normals (3 doubles per vertex) filled by {@link #readDoubles()} or null if the file has no
+    * normals; they are not computed from the faces in this mode.
+    *
+    * @return
+    */
+   public double[] getDoubleNormals() {
+      return this.doubleNormals;
+   }
+
+   /**
+    * Returns the triangle vertex indices (3 per face) filled by either {@link #read()} or {@link #readVertexBuffer()}.
+    *
+    * @return
+    */
+   public int[] getIndices() {
+      return this.indices;
+   }
+
+   /**
+    * Reads the file into the flat position, normal and index arrays.
+    *
+    * @throws IOException
+    *            if the file cannot be read or does not contain x/y/z vertex properties
+    */
+   public void read() throws IOException {
+      final int count = this.getVertexElementCount();
+      this.positions = new float[count * 3];
+      this.normals = new float[count * 3];
+      this.doublePositions = null;
+      this.doubleNormals = null;
+
+      this.read(FloatBuffer.wrap(this.positions), null, 0, 3, FloatBuffer.wrap(this.normals), null, 0, 3);
+   }
+
+   /**
+    * Reads the file into flat double position and normal arrays without narrowing, so large coordinates such as
+    * georeferenced scans can be anchored before they are converted to floats.
+    *
+    * @throws IOException
+    *            if the file cannot be read or does not contain x/y/z vertex properties
+    */
+   public void readDoubles() throws IOException {
+      final int count = this.getVertexElementCount();
+      this.positions = null;
+      this.normals = null;
+      this.doublePositions = new double[count * 3];
+      this.doubleNormals = new double[count * 3];
+
+      this.read(null, DoubleBuffer.wrap(this.doublePositions), 0, 3, null, DoubleBuffer.wrap(this.doubleNormals), 0, 3);
+
+      if (!this.hasFileNormals) {
+         this.doubleNormals = null;
+      }
+   }
+
+   /**
+    * Reads the file into a native-order direct buffer containing interleaved xyz position and xyz normal floats for
+    * each vertex; the indices are available from {@link #getIndices()} afterwards. The positions and normals arrays are
+    * not filled in this mode.
+    *
+    * @return the interleaved vertex buffer
+    * @throws IOException
+    *            if the file cannot be read or the vertex data does not fit in a single buffer
+    */
+   public ByteBuffer readVertexBuffer() throws IOException {
+      final long size = (long) this.getVertexElementCount() * FLOATS_PER_VERTEX * DataType.FLOAT.bytesPerComponent;
+
+      if (size > Integer.MAX_VALUE) {
+         throw new IOException("Vertex data too large for a single buffer: " + size + " bytes.");
+      }
+
+      final ByteBuffer buffer = BufferUtils.newByteBuffer((int) size);
+      final FloatBuffer floats = buffer.asFloatBuffer();
+
+      this.positions = null;
+      this.normals = null;
+      this.doublePositions = null;
+      this.doubleNormals = null;
+      this.read(floats, null, 0, FLOATS_PER_VERTEX, floats, null, 3, FLOATS_PER_VERTEX);
+
+      return buffer;
+   }
+
+   /**
+    * Creates an (uninitialized) interleaved {@link VertexBufferObject} whose layout matches the buffer returned by
+    * {@link #readVertexBuffer()}; the buffer can be copied in with <code>vbo.mapBuffer(gl).put(buffer)</code>.
+    *
+    * @param glPrimitiveType
+    * @param usage
+    * @return
+    */
+   public VertexBufferObject createVertexBufferObject(final int glPrimitiveType, final int usage) {
+      return new VertexBufferObject(this.vertexCount, true, glPrimitiveType, usage, new VertexRegion(3, DataType.FLOAT), new NormalRegion(DataType.FLOAT));
+   }
+
+   private int getVertexElementCount() throws IOException {
+      final PlyHeader.Element vertexElement = this.header.getElement("vertex");
+
+      if (vertexElement == null) {
+         throw new IOException("PLY file does not contain a vertex element: " + this.file);
+      }
+
+      if (vertexElement.count > (Integer.MAX_VALUE / 3)) {
+         throw new IOException("Too many vertices: " + vertexElement.count);
+      }
+
+      return (int) vertexElement.count;
+   }
+
+   /**
+    * Reads the file into either the float or, if given, the double buffers.
+    */
+   private void read(final FloatBuffer positions, final DoubleBuffer positionDoubles, final int positionOffset, final int positionStride, final FloatBuffer normals, final DoubleBuffer normalDoubles,
+         final int normalOffset, final int normalStride) throws IOException {
+      this.vertexCount = 0;
+      this.indexCount = 0;
+      this.indices = new int[0];
+      this.hasFileNormals = false;
+
+      try (final FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+         final MappedFileWindow window = new MappedFileWindow(channel, this.header.getByteOrder());
+         long position = this.header.getHeaderLength();
+
+         for (final PlyHeader.Element element : this.header.getElements()) {
+            if (element.name.equals("vertex")) {
+               position = this.readVertices(window, position, element, positions, positionDoubles, positionOffset, positionStride, normals, normalDoubles, normalOffset, normalStride);
+            } else if (element.name.equals("face")) {
+               position = this.readFaces(window, position, element);
+            } else {
+               position = MappedPlyReader.skipElement(window, position, element);
+            }
+         }
+      }
+
+      if (this.indices.length != this.indexCount) {
+         this.indices = Arrays.copyOf(this.indices, this.indexCount);
+      }
+
+      if (!this.hasFileNormals && (positionDoubles == null)) {
+         MappedPlyReader.computeNormals(positions, positionOffset, positionStride, normals, normalOffset, normalStride, this.vertexCount, this.indices, this.indexCount);
+      }
+   }
+
+   private long readVertices(final MappedFileWindow window, final long start, final PlyHeader.Element element, final FloatBuffer positions, final DoubleBuffer positionDoubles,
+         final int positionOffset, final int positionStride, final FloatBuffer normals, final DoubleBuffer normalDoubles, final int normalOffset, final int normalStride) throws IOException {
+      final int[] xyz = new int[] { element.getPropertyIndex("x"), element.getPropertyIndex("y"), element.getPropertyIndex("z") };
+      final int[] nxyz = new int[] { element.getPropertyIndex("nx"), element.getPropertyIndex("ny"), element.getPropertyIndex("nz") };
+
+      if ((xyz[0] == -1) || (xyz[1] == -1) || (xyz[2] == -1)) {
+         throw new IOException("PLY vertex element must define x, y and z properties.");
+      }
+
+      this.hasFileNormals = (nxyz[0] != -1) && (nxyz[1] != -1) && (nxyz[2] != -1);
+      this.vertexCount = (int) element.count;
+
+      final List<PlyHeader.Property> properties = element.getProperties();
+      final PlyDataType[] positionTypes = new PlyDataType[3];
+      final PlyDataType[] normalTypes = new PlyDataType[3];
+
+      for (int i = 0; i < 3; i++) {
+         positionTypes[i] = properties.get(xyz[i]).type;
+         normalTypes[i] = this.hasFileNormals ? properties.get(nxyz[i]).type : null;
+      }
+
+      long position = start;
+
+      if (element.isFixedSize()) {
+         final int rowSize = element.getRowSize();
+         final int[] offsets = element.getPropertyOffsets();
+
+         for (int i = 0; i < this.vertexCount; i++) {
+            final int index = window.index(position, rowSize);
+            final ByteBuffer buffer = window.getBuffer();
+            final int p = positionOffset + (i * positionStride);
+
+            for (int j = 0; j < 3; j++) {
+               MappedPlyReader.put(positions, positionDoubles, p + j, positionTypes[j].readDouble(buffer, index + offsets[xyz[j]]));
+            }
+
+            if (this.hasFileNormals) {
+               final int n = normalOffset + (i * normalStride);
+
+               for (int j = 0; j < 3; j++) {
+                  MappedPlyReader.put(normals, normalDoubles, n + j, normalTypes[j].readDouble(buffer, index + offsets[nxyz[j]]));
+               }
+            }
+
+            position += rowSize;
+         }
+      } else {
+         // list properties on vertices are unusual; walk each row to find the scalar offsets
+         final long[] offsets = new long[properties.size()];
+
+         for (int i = 0; i < this.vertexCount; i++) {
+            position = MappedPlyReader.walkRow(window, position, properties, offsets);
+            final int p = positionOffset + (i * positionStride);
+
+            for (int j = 0; j < 3; j++) {
+               MappedPlyReader.put(positions, positionDoubles, p + j, MappedPlyReader.readDouble(window, offsets[xyz[j]], positionTypes[j]));
+            }
+
+            if (this.hasFileNormals) {
+               final int n = normalOffset + (i * normalStride);
+
+               for (int j = 0; j < 3; j++) {
+                  MappedPlyReader.put(normals, normalDoubles, n + j, MappedPlyReader.readDouble(window, offsets[nxyz[j]], normalTypes[j]));
+               }
+            }
+         }
+      }
+
+      return position;
+   }
+
+   private long readFaces(final MappedFileWindow window, final long start, final PlyHeader.Element element) throws IOException {
+      final List<PlyHeader.Property> properties = element.getProperties();
+      int listIndex = element.getPropertyIndex("vertex_indices");
+
+      if (listIndex == -1) {
+         listIndex = element.getPropertyIndex("vertex_index");
+      }
+
+      if ((listIndex == -1) || !properties.get(listIndex).isList()) {
+         throw new IOException("PLY face element must define a vertex_indices list property.");
+      }
+
+      if ((element.count * 3) > (Integer.MAX_VALUE - 8)) {
+         throw new IOException("Too many faces: " + element.count);
+      }
+
+      this.indices = new int[(int) element.count * 3];
+      long position = start;
+
+      for (long i = 0; i < element.count; i++) {
+         for (int j = 0; j < properties.size(); j++) {
+            final PlyHeader.Property property = properties.get(j);
+
+            if (property.isList()) {
+               final int count = MappedPlyReader.readInt(window, position, property.countType);
+               position += property.countType.byteSize;
+
+               final int size = count * property.type.byteSize;
+
+               if (j == listIndex) {
+                  final int index = window.index(position, size);
+                  this.addPolygon(window.getBuffer(), index, count, property.type);
+               }
+
+               position += size;
+            } else {
+               position += property.type.byteSize;
+            }
+         }
+      }
+
+      return position;
+   }
+
+   /**
+    * Puts the value into the double buffer if given, otherwise narrowed into the float buffer.
+    */
+   private static void put(final FloatBuffer floats, final DoubleBuffer doubles, final int index, final double value) {
+      if (doubles == null) {
+         floats.put(index, (float) value);
+      } else {
+         doubles.put(index, value);
+      }
+   }
+
+   /**
+    * Appends the given polygon as a triangle fan.
+    */
+   private void addPolygon(final ByteBuffer buffer, final int index, final int count, final PlyDataType type) {
+      if (count < 3) {
+         return;
+      }
+
+      final int triangles = count - 2;
+
+      if ((this.indexCount + (triangles * 3)) > this.indices.length) {
+         final long grown = Math.max(this.indices.length + (this.indices.length >> 1), this.indexCount + (triangles * 3));
+         this.indices = Arrays.copyOf(this.indices, (int) Math.min(grown, Integer.MAX_VALUE - 8));
+      }
+
+      final int first = type.readInt(buffer, index);
+      int previous = type.readInt(buffer, index + type.byteSize);
+
+      for (int i = 2; i < count; i++) {
+         final int next = type.readInt(buffer, index + (i * type.byteSize));
+         this.indices[this.indexCount++] = first;
+         this.indices[this.indexCount++] = previous;
+         this.indices[this.indexCount++] = next;
+         previous = next;
+      }
+   }
+
+   /**
+    * Computes averaged unit vertex normals from the triangle faces in the same manner as {@link PlyModelLoader}.
+    */
+   static void computeNormals(final FloatBuffer positions, final int positionOffset, final int positionStride, final FloatBuffer normals, final int normalOffset, final int normalStride, final int vertexCount, final int[] indices, final int indexCount) {
+      for (int i = 0; i < vertexCount; i++) {
+         final int n = normalOffset + (i * normalStride);
+         normals.put(n, 0f).put(n + 1, 0f).put(n + 2, 0f);
+      }
+
+      for (int i = 0; i < indexCount; i += 3) {
+         final int p0 = positionOffset + (indices[i] * positionStride);
+         final int p1 = positionOffset + (indices[i + 1] * positionStride);
+         final int p2 = positionOffset + (indices[i + 2] * positionStride);
+
+         final double e1x = positions.get(p1) - positions.get(p0);
+         final double e1y = positions.get(p1 + 1) - positions.get(p0 + 1);
+         final double e1z = positions.get(p1 + 2) - positions.get(p0 + 2);
+         final double e2x = positions.get(p2) - positions.get(p0);
+         final double e2y = positions.get(p2 + 1) - positions.get(p0 + 1);
+         final double e2z = positions.get(p2 + 2) - positions.get(p0 + 2);
+
+         double nx = (e1y * e2z) - (e1z * e2y);
+         double ny = (e1z * e2x) - (e1x * e2z);
+         double nz = (e1x * e2y) - (e1y * e2x);
+         final double length = Math.sqrt((nx * nx) + (ny * ny) + (nz * nz));
+
+         if (length > 0) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+         }
+
+         for (int j = 0; j < 3; j++) {
+            final int n = normalOffset + (indices[i + j] * normalStride);
+            normals.put(n, (float) (normals.get(n) + nx));
+            normals.put(n + 1, (float) (normals.get(n + 1) + ny));
+            normals.put(n + 2, (float) (normals.get(n + 2) + nz));
+         }
+      }
+
+      for (int i = 0; i < vertexCount; i++) {
+         final int n = normalOffset + (i * normalStride);
+         final double x = normals.get(n);
+         final double y = normals.get(n + 1);
+         final double z = normals.get(n + 2);
+         final double length = Math.sqrt((x * x) + (y * y) + (z * z));
+
+         if (length > 0) {
+            normals.put(n, (float) (x / length)).put(n + 1, (float) (y / length)).put(n + 2, (float) (z / length));
+         }
+      }
+   }
+
+   /**
+    * Computes the absolute file position of each property in the row starting at the given position and returns the
+    * position of the next row.
+    */
+   static long walkRow(final MappedFileWindow window, final long start, final List<PlyHeader.Property> properties, final long[] offsets) throws IOException {
+      long position = start;
+
+      for (int i = 0; i < offsets.length; i++) {
+         final PlyHeader.Property property = properties.get(i);
+         offsets[i] = position;
+
+         if (property.isList()) {
+            final int count = MappedPlyReader.readInt(window, position, property.countType);
+            position += property.countType.byteSize + ((long) count * property.type.byteSize);
+         } else {
+            position += property.type.byteSize;
+         }
+      }
+
+      return position;
+   }
+
+   static double readDouble(final MappedFileWindow window, final long position, final PlyDataType type) throws IOException {
+      // index first; it may remap the window buffer
+      final int index = window.index(position, type.byteSize);
+      return type.readDouble(window.getBuffer(), index);
+   }
+
+   static int readInt(final MappedFileWindow window, final long position, final PlyDataType type) throws IOException {
+      final int index = window.index(position, type.byteSize);
+      return type.readInt(window.getBuffer(), index);
+   }
+
+   static long skipElement(final MappedFileWindow window, final long start, final PlyHeader.Element element) throws IOException {
+      if (element.isFixedSize()) {
+         return start + (element.count * element.getRowSize());
+      }
+
+      final List<PlyHeader.Property> properties = element.getProperties();
+      final long[] offsets = new long[properties.size()];
+      long position = start;
+
+      for (long i = 0; i < element.count; i++) {
+         position = MappedPlyReader.walkRow(window, position, properties, offsets);
+      }
+
+      return position;
+   }
+}
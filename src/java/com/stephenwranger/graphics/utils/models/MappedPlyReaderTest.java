@@ -0,0 +1,155 @@
+package com.stephenwranger.graphics.utils.models;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.math.Tuple3d;
+
+public class MappedPlyReaderTest {
+
+   @Test
+   public void testLittleEndianMixedTypes() throws IOException {
+      final File file = MappedPlyReaderTest.writeMixedTypes(ByteOrder.LITTLE_ENDIAN, "binary_little_endian");
+      final MappedPlyReader reader = new MappedPlyReader(file);
+      reader.read();
+
+      MappedPlyReaderTest.assertMixedTypes(reader);
+   }
+
+   @Test
+   public void testBigEndianMixedTypes() throws IOException {
+      final File file = MappedPlyReaderTest.writeMixedTypes(ByteOrder.BIG_ENDIAN, "binary_big_endian");
+      final MappedPlyReader reader = new MappedPlyReader(file);
+      reader.read();
+
+      MappedPlyReaderTest.assertMixedTypes(reader);
+   }
+
+   @Test
+   public void testVertexBuffer() throws IOException {
+      final File file = MappedPlyReaderTest.writeMixedTypes(ByteOrder.LITTLE_ENDIAN, "binary_little_endian");
+      final MappedPlyReader reader = new MappedPlyReader(file);
+      final ByteBuffer buffer = reader.readVertexBuffer();
+      final FloatBuffer floats = buffer.asFloatBuffer();
+
+      assertEquals(4 * MappedPlyReader.FLOATS_PER_VERTEX * 4, buffer.capacity());
+      assertEquals(4, reader.getVertexCount());
+      assertArrayEquals(new int[] { 0, 1, 2, 0, 2, 3 }, reader.getIndices());
+
+      // vertex 2 = (1, 1, 0) with computed normal (0, 0, 1)
+      assertEquals(1f, floats.get(12), 0f);
+      assertEquals(1f, floats.get(13), 0f);
+      assertEquals(0f, floats.get(14), 0f);
+      assertEquals(0f, floats.get(15), 1e-6f);
+      assertEquals(0f, floats.get(16), 1e-6f);
+      assertEquals(1f, floats.get(17), 1e-6f);
+   }
+
+   @Test
+   public void testDoublePrecision() throws IOException {
+      // a georeferenced quad whose centimetre offsets are below float precision at these magnitudes
+      final double x = 4500000.25;
+      final double y = 6700000.5;
+      final double z = 120.75;
+      final double[] positions = new double[] { x, y, z, x + 0.01, y, z, x + 0.01, y + 0.01, z, x, y + 0.01, z };
+      final File file = MappedPlyReaderTest.writeDoubleQuad(positions);
+
+      final MappedPlyReader reader = new MappedPlyReader(file);
+      reader.readDoubles();
+      assertArrayEquals(positions, reader.getDoublePositions(), 0.0);
+      assertNull(reader.getDoubleNormals());
+
+      // the binary loader anchors the doubles before narrowing them as the ascii one does
+      final IndexedMesh mesh = PlyModelLoader.loadIndexedMesh(file);
+      final Tuple3d anchor = mesh.getAnchor();
+      final float[] anchored = mesh.getPositions();
+
+      for (int i = 0; i < positions.length; i += 3) {
+         assertEquals(positions[i], anchor.x + anchored[i], 1e-6);
+         assertEquals(positions[i + 1], anchor.y + anchored[i + 1], 1e-6);
+         assertEquals(positions[i + 2], anchor.z + anchored[i + 2], 1e-6);
+      }
+   }
+
+   private static void assertMixedTypes(final MappedPlyReader reader) {
+      assertEquals(4, reader.getVertexCount());
+      assertEquals(2, reader.getFaceCount());
+      assertFalse(reader.hasFileNormals());
+      assertArrayEquals(new float[] { 0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 1, 0 }, reader.getPositions(), 0f);
+      assertArrayEquals(new int[] { 0, 1, 2, 0, 2, 3 }, reader.getIndices());
+
+      final float[] normals = reader.getNormals();
+
+      for (int i = 0; i < 4; i++) {
+         assertEquals(0f, normals[i * 3], 1e-6f);
+         assertEquals(0f, normals[(i * 3) + 1], 1e-6f);
+         assertEquals(1f, normals[(i * 3) + 2], 1e-6f);
+      }
+
+      assertTrue(reader.getHeader().getElement("edge") != null);
+   }
+
+   /**
+    * Writes a quad of the given double positions as one little endian quad face.
+    */
+   private static File writeDoubleQuad(final double[] positions) throws IOException {
+      final File file = File.createTempFile("mapped", ".ply");
+      file.deleteOnExit();
+
+      final String header = "ply\nformat binary_little_endian 1.0\nelement vertex 4\nproperty double x\nproperty double y\nproperty double z\n" + "element face 1\nproperty list uchar int vertex_indices\nend_header\n";
+      final ByteBuffer body = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+      for (final double value : positions) {
+         body.putDouble(value);
+      }
+
+      body.put((byte) 4).putInt(0).putInt(1).putInt(2).putInt(3);
+
+      try (final FileOutputStream fos = new FileOutputStream(file)) {
+         fos.write(header.getBytes(StandardCharsets.US_ASCII));
+         fos.write(body.array(), 0, body.position());
+      }
+
+      return file;
+   }
+
+   /**
+    * Writes a unit quad with x as a double, y as a short, z as a float, an extra uchar property, one quad face with an
+    * extra int property and an unused edge element.
+    */
+   private static File writeMixedTypes(final ByteOrder order, final String format) throws IOException {
+      final File file = File.createTempFile("mapped", ".ply");
+      file.deleteOnExit();
+
+      final String header = "ply\nformat " + format + " 1.0\ncomment mixed types\n" + "element vertex 4\nproperty double x\nproperty short y\nproperty uchar flags\nproperty float z\n" + "element face 1\nproperty uint material\nproperty list uchar uint vertex_indices\n" + "element edge 1\nproperty int vertex1\nproperty int vertex2\nend_header\n";
+      final ByteBuffer body = ByteBuffer.allocate(1024).order(order);
+      final double[][] quad = new double[][] { { 0, 0 }, { 1, 0 }, { 1, 1 }, { 0, 1 } };
+
+      for (final double[] vertex : quad) {
+         body.putDouble(vertex[0]).putShort((short) vertex[1]).put((byte) 0xff).putFloat(0f);
+      }
+
+      body.putInt(7).put((byte) 4).putInt(0).putInt(1).putInt(2).putInt(3);
+      body.putInt(0).putInt(1);
+
+      try (final FileOutputStream fos = new FileOutputStream(file)) {
+         fos.write(header.getBytes(StandardCharsets.US_ASCII));
+         fos.write(body.array(), 0, body.position());
+      }
+
+      return file;
+   }
+}
@@ -0,0 +1,224 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses large line-based ASCII files in parallel. The file is split into byte ranges (chunks) that always end on a
+ * line feed; a first parallel pass counts the non-blank lines in each chunk so every chunk knows the global index of
+ * its first line, then a second parallel pass hands each chunk to a {@link ChunkParser}. Results are returned in file
+ * order so the output is deterministic regardless of scheduling.
+ *
+ * @author rangers
+ *
+ */
+public class ParallelAsciiParser {
+   public static final int DEFAULT_CHUNK_SIZE = 1 << 24;
+
+   /**
+    * A newline-aligned byte range of the file along with the global index of its first non-blank line.
+    */
+   public static class Chunk {
+      public final long start;
+      public final long end;
+      public final long firstLine;
+      public final long lineCount;
+
+      private Chunk(final long start, final long end, final long firstLine, final long lineCount) {
+         this.start = start;
+         this.end = end;
+         this.firstLine = firstLine;
+         this.lineCount = lineCount;
+      }
+   }
+
+   public interface ChunkParser<T> {
+      /**
+       * Parses the lines of a single chunk; the scanner is positioned at the start of the chunk and
+       * {@link AsciiLineScanner#nextLine()} must be called before reading each line.
+       *
+       * @param scanner
+       *           the scanner over this chunk's bytes
+       * @param chunk
+       *           the chunk being parsed
+       * @return the per-chunk result (may be null)
+       */
+      public T parse(final AsciiLineScanner scanner, final Chunk chunk) throws IOException;
+   }
+
+   private final ForkJoinPool pool;
+   private final int          chunkSize;
+
+   public ParallelAsciiParser() {
+      this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+   }
+
+   public ParallelAsciiParser(final ForkJoinPool pool, final int chunkSize) {
+      if (chunkSize <= 0) {
+         throw new IllegalArgumentException("Chunk size must be greater than zero.");
+      }
+
+      this.pool = pool;
+      this.chunkSize = chunkSize;
+   }
+
+   /**
+    * Splits the file from the given byte offset to the end into newline-aligned chunks and counts the non-blank lines
+    * in each.
+    *
+    * @param file
+    *           the file to split
+    * @param start
+    *           the byte offset of the first line (e.g. the end of a header)
+    * @return the chunks in file order
+    * @throws IOException
+    */
+   public List<Chunk> split(final File file, final long start) throws IOException {
+      final List<long[]> ranges = new ArrayList<>();
+
+      try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         final MappedFileWindow window = new MappedFileWindow(channel, ByteOrder.nativeOrder());
+         final long size = channel.size();
+         long chunkStart = start;
+
+         while (chunkStart < size) {
+            long chunkEnd = Math.min(size, chunkStart + this.chunkSize);
+
+            // extend to just past the next line feed
+            while (chunkEnd < size) {
+               final int index = window.index(chunkEnd - 1, 1);
+
+               if (window.getBuffer().get(index) == '\n') {
+                  break;
+               }
+
+               chunkEnd++;
+            }
+
+            ranges.add(new long[] { chunkStart, chunkEnd });
+            chunkStart = chunkEnd;
+         }
+      }
+
+      final List<Callable<Long>> counters = new ArrayList<>();
+
+      for (final long[] range : ranges) {
+         counters.add(() -> ParallelAsciiParser.countLines(file, range[0], range[1]));
+      }
+
+      final List<Long> counts = this.invokeAll(counters);
+      final List<Chunk> chunks = new ArrayList<>();
+      long firstLine = 0;
+
+      for (int i = 0; i < ranges.size(); i++) {
+         final long lineCount = counts.get(i);
+         chunks.add(new Chunk(ranges.get(i)[0], ranges.get(i)[1], firstLine, lineCount));
+         firstLine += lineCount;
+      }
+
+      return chunks;
+   }
+
+   /**
+    * Returns the total number of non-blank lines in the given chunks.
+    *
+    * @param chunks
+    * @return
+    */
+   public static long getLineCount(final List<Chunk> chunks) {
+      if (chunks.isEmpty()) {
+         return 0;
+      }
+
+      final Chunk last = chunks.get(chunks.size() - 1);
+      return last.firstLine + last.lineCount;
+   }
+
+   /**
+    * Runs the given parser over every chunk in parallel and returns the per-chunk results in file order.
+    *
+    * @param file
+    *           the file the chunks were split from
+    * @param chunks
+    *           the chunks from {@link #split(File, long)}
+    * @param parser
+    *           the per-chunk parser
+    * @return the results in chunk order
+    * @throws IOException
+    *            if any chunk fails to parse
+    */
+   public <T> List<T> parse(final File file, final List<Chunk> chunks, final ChunkParser<T> parser) throws IOException {
+      final List<Callable<T>> tasks = new ArrayList<>();
+
+      for (final Chunk chunk : chunks) {
+         tasks.add(() -> {
+            try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+               final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+               return parser.parse(new AsciiLineScanner(buffer), chunk);
+            }
+         });
+      }
+
+      return this.invokeAll(tasks);
+   }
+
+   private <T> List<T> invokeAll(final List<Callable<T>> tasks) throws IOException {
+      final List<T> results = new ArrayList<>(tasks.size());
+
+      try {
+         for (final Future<T> future : this.pool.invokeAll(tasks)) {
+            results.add(future.get());
+         }
+      } catch (final ExecutionException e) {
+         final Throwable cause = e.getCause();
+
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+
+         throw new IOException(cause.getMessage(), cause);
+      } catch (final InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while parsing.", e);
+      }
+
+      return results;
+   }
+
+   private static long countLines(final File file, final long start, final long end) throws IOException {
+      try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         final ByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, end - start);
+         final int limit = buffer.limit();
+         long count = 0;
+         boolean isBlank = true;
+
+         for (int i = 0; i < limit; i++) {
+            final byte b = buffer.get(i);
+
+            if (b == '\n') {
+               if (!isBlank) {
+                  count++;
+               }
+
+               isBlank = true;
+            } else if ((b != ' ') && (b != '\t') && (b != '\r')) {
+               isBlank = false;
+            }
+         }
+
+         return isBlank ? count : count + 1;
+      }
+   }
+}
@@ -0,0 +1,151 @@
+package com.stephenwranger.graphics.utils.models;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Tuple3dArray;
+import com.stephenwranger.graphics.math.intersection.Triangle3d;
+
+public class ParallelAsciiParserTest {
+   private static final ParallelAsciiParser SMALL_CHUNKS = new ParallelAsciiParser(ForkJoinPool.commonPool(), 97);
+
+   @Test
+   public void testVertexListMatchesSequential() throws IOException {
+      final File file = File.createTempFile("vertices", ".txt");
+      file.deleteOnExit();
+
+      final Random random = new Random(1234);
+
+      try (final BufferedWriter fout = new BufferedWriter(new FileWriter(file))) {
+         for (int i = 0; i < 5000; i++) {
+            fout.write(ParallelAsciiParserTest.format(random, i) + " " + ParallelAsciiParserTest.format(random, i + 1) + " " + ParallelAsciiParserTest.format(random, i + 2) + "\n");
+         }
+      }
+
+      final List<Tuple3d> expected = ParallelAsciiParserTest.parseSequential(file, 0, Integer.MAX_VALUE);
+      final List<Tuple3d> loaded = new ArrayList<>();
+      VertexListLoader.loadVertexList3d(file, loaded);
+      assertEquals(expected, loaded);
+      final double[] actual = VertexListLoader.loadVertexArray(file, 3, SMALL_CHUNKS);
+      final Tuple3dArray tuples = VertexListLoader.loadTuple3dArray(file, SMALL_CHUNKS);
+
+      assertEquals(expected.size() * 3, actual.length);
+      assertArrayEquals(actual, tuples.toInterleaved(), 0.0);
+
+      for (int i = 0; i < expected.size(); i++) {
+         final Tuple3d vertex = expected.get(i);
+         assertEquals(Double.doubleToRawLongBits(vertex.x), Double.doubleToRawLongBits(actual[i * 3]));
+         assertEquals(Double.doubleToRawLongBits(vertex.y), Double.doubleToRawLongBits(actual[(i * 3) + 1]));
+         assertEquals(Double.doubleToRawLongBits(vertex.z), Double.doubleToRawLongBits(actual[(i * 3) + 2]));
+      }
+   }
+
+   @Test
+   public void testAsciiPlyMatchesSequential() throws IOException {
+      final File file = File.createTempFile("ascii", ".ply");
+      file.deleteOnExit();
+
+      final Random random = new Random(42);
+      final int vertexCount = 500;
+      final int faceCount = 800;
+
+      try (final BufferedWriter fout = new BufferedWriter(new FileWriter(file))) {
+         fout.write("ply\nformat ascii 1.0\nelement vertex " + vertexCount + "\nproperty float x\nproperty float y\nproperty float z\n");
+         fout.write("element face " + faceCount + "\nproperty list uchar int vertex_indices\nend_header\n");
+
+         for (int i = 0; i < vertexCount; i++) {
+            fout.write(ParallelAsciiParserTest.format(random, i) + " " + ParallelAsciiParserTest.format(random, i + 1) + " " + ParallelAsciiParserTest.format(random, i + 2) + "\n");
+         }
+
+         for (int i = 0; i < faceCount; i++) {
+            fout.write("3 " + random.nextInt(vertexCount) + " " + random.nextInt(vertexCount) + " " + random.nextInt(vertexCount) + "\n");
+         }
+      }
+
+      // the vertex lines follow the 9 header lines
+      final List<Tuple3d> expectedVertices = ParallelAsciiParserTest.parseSequential(file, 9, vertexCount);
+      final List<Tuple3d> loadedVertices = new ArrayList<>();
+      final List<Triangle3d> expectedTriangles = new ArrayList<>();
+      new PlyModelLoader().loadModel(file, expectedTriangles, loadedVertices);
+      assertEquals(expectedVertices, loadedVertices);
+
+      final AsciiPlyReader reader = new AsciiPlyReader(file, SMALL_CHUNKS);
+      reader.read();
+
+      final double[] positions = reader.getPositions();
+      final int[] indices = reader.getIndices();
+      assertEquals(vertexCount, reader.getVertexCount());
+      assertEquals(faceCount, reader.getFaceCount());
+
+      for (int i = 0; i < vertexCount; i++) {
+         assertArrayEquals(new double[] { expectedVertices.get(i).x, expectedVertices.get(i).y, expectedVertices.get(i).z }, new double[] { positions[i * 3], positions[(i * 3) + 1], positions[(i * 3) + 2] }, 0.0);
+      }
+
+      for (int i = 0; i < faceCount; i++) {
+         final Tuple3d[] corners = expectedTriangles.get(i).getCorners();
+
+         for (int j = 0; j < 3; j++) {
+            final int index = indices[(i * 3) + j] * 3;
+            assertArrayEquals(new double[] { corners[j].x, corners[j].y, corners[j].z }, new double[] { positions[index], positions[index + 1], positions[index + 2] }, 0.0);
+         }
+      }
+   }
+
+   /**
+    * Reads count "x y z" lines after skipping the given number of lines with {@link Double#parseDouble(String)}.
+    */
+   private static List<Tuple3d> parseSequential(final File file, final int skip, final int count) throws IOException {
+      final List<Tuple3d> vertices = new ArrayList<>();
+
+      try (final BufferedReader fin = new BufferedReader(new FileReader(file))) {
+         String line;
+
+         for (int i = 0; (i < skip) && (fin.readLine() != null); i++) {
+            // header
+         }
+
+         while ((vertices.size() < count) && ((line = fin.readLine()) != null)) {
+            final String[] split = line.split(" ");
+            vertices.add(new Tuple3d(Double.parseDouble(split[0]), Double.parseDouble(split[1]), Double.parseDouble(split[2])));
+         }
+      }
+
+      return vertices;
+   }
+
+   /**
+    * Produces a mix of short decimals, full precision doubles and exponent notation so both the fast path and the
+    * fallback path of the scanner are exercised.
+    */
+   private static String format(final Random random, final int i) {
+      final double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+
+      switch (i % 5) {
+         case 0:
+            return Double.toString(value);
+         case 1:
+            return String.format(Locale.US, "%.6f", value);
+         case 2:
+            return String.format(Locale.US, "%.4e", value);
+         case 3:
+            return Integer.toString((int) value);
+         default:
+            return Float.toString((float) value);
+      }
+   }
+}
@@ -0,0 +1,128 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-capacity batch of either vertices or faces emitted by {@link PlyStreamReader}. Vertex batches hold
+ * <code>count</code> xyz positions (and normals if the file defines them); face batches hold <code>count</code> source
+ * faces split into <code>indexCount</code> triangle indices.
+ *
+ * @author rangers
+ *
+ */
+public class PlyBatch {
+   public enum Type {
+      VERTICES,
+      FACES;
+   }
+
+   private Type     type       = Type.VERTICES;
+   private long     first      = 0;
+   private int      count      = 0;
+   private int      indexCount = 0;
+   private double[] positions  = new double[0];
+   private double[] normals    = null;
+   private int[]    indices    = new int[0];
+
+   public Type getType() {
+      return this.type;
+   }
+
+   /**
+    * Returns the index (within its element) of the first vertex or face in this batch.
+    *
+    * @return
+    */
+   public long getFirst() {
+      return this.first;
+   }
+
+   /**
+    * Returns the number of vertices or source faces in this batch.
+    *
+    * @return
+    */
+   public int getCount() {
+      return this.count;
+   }
+
+   /**
+    * Returns the xyz positions (3 per vertex); only the first count * 3 values are valid.
+    *
+    * @return
+    */
+   public double[] getPositions() {
+      return this.positions;
+   }
+
+   /**
+    * Returns the xyz normals (3 per vertex) or null if the file does not define normals; only the first count * 3
+    * values are valid.
+    *
+    * @return
+    */
+   public double[] getNormals() {
+      return this.normals;
+   }
+
+   /**
+    * Returns the triangle indices (3 per triangle); only the first {@link #getIndexCount()} values are valid.
+    *
+    * @return
+    */
+   public int[] getIndices() {
+      return this.indices;
+   }
+
+   public int getIndexCount() {
+      return this.indexCount;
+   }
+
+   void startVertices(final long first, final int capacity, final boolean hasNormals) {
+      this.type = Type.VERTICES;
+      this.first = first;
+      this.count = 0;
+      this.indexCount = 0;
+
+      if (this.positions.length < (capacity * 3)) {
+         this.positions = new double[capacity * 3];
+      }
+
+      if (hasNormals && ((this.normals == null) || (this.normals.length < (capacity * 3)))) {
+         this.normals = new double[capacity * 3];
+      } else if (!hasNormals) {
+         this.normals = null;
+      }
+   }
+
+   void startFaces(final long first, final int capacity) {
+      this.type = Type.FACES;
+      this.first = first;
+      this.count = 0;
+      this.indexCount = 0;
+
+      if (this.indices.length < (capacity * 3)) {
+         this.indices = new int[capacity * 3];
+      }
+   }
+
+   void setCount(final int count) {
+      this.count = count;
+   }
+
+   /**
+    * Makes room for the given number of additional indices; only grows past the initial capacity for polygons with
+    * more than three vertices.
+    */
+   void ensureIndexCapacity(final int additional) {
+      if ((this.indexCount + additional) > this.indices.length) {
+         this.indices = Arrays.copyOf(this.indices, Math.max(this.indices.length * 2, this.indexCount + additional));
+      }
+   }
+
+   void addTriangle(final int i0, final int i1, final int i2) {
+      this.indices[this.indexCount++] = i0;
+      this.indices[this.indexCount++] = i1;
+      this.indices[this.indexCount++] = i2;
+   }
+}
@@ -0,0 +1,15 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.io.IOException;
+
+/**
+ * Receives the batches pushed by {@link PlyStreamReader#stream(PlyBatchConsumer)}. The reader does not read ahead of
+ * the consumer; the next batch is only read once this call returns and the same {@link PlyBatch} instance (and its
+ * arrays) is reused, so any data that needs to be kept must be copied.
+ *
+ * @author rangers
+ *
+ */
+public interface PlyBatchConsumer {
+   public void accept(final PlyBatch batch) throws IOException;
+}
@@ -0,0 +1,115 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The scalar property types allowed in a PLY header along with their byte sizes. Both the original type names (char,
+ * uchar, ...) and the sized aliases (int8, uint8, ...) are recognized.
+ *
+ * @author rangers
+ *
+ */
+public enum PlyDataType {
+   CHAR(1, "char", "int8"),
+   UCHAR(1, "uchar", "uint8"),
+   SHORT(2, "short", "int16"),
+   USHORT(2, "ushort", "uint16"),
+   INT(4, "int", "int32"),
+   UINT(4, "uint", "uint32"),
+   FLOAT(4, "float", "float32"),
+   DOUBLE(8, "double", "float64");
+
+   public final int       byteSize;
+   private final String[] names;
+
+   PlyDataType(final int byteSize, final String... names) {
+      this.byteSize = byteSize;
+      this.names = names;
+   }
+
+   /**
+    * Reads a single value of this type from the given buffer at the given absolute index; the buffer's byte order must
+    * already be set to match the file.
+    *
+    * @param buffer
+    *           the buffer to read from
+    * @param index
+    *           the absolute byte index of the value
+    * @return the value widened to a double
+    */
+   public double readDouble(final ByteBuffer buffer, final int index) {
+      switch (this) {
+         case CHAR:
+            return buffer.get(index);
+         case UCHAR:
+            return buffer.get(index) & 0xff;
+         case SHORT:
+            return buffer.getShort(index);
+         case USHORT:
+            return buffer.getShort(index) & 0xffff;
+         case INT:
+            return buffer.getInt(index);
+         case UINT:
+            return buffer.getInt(index) & 0xffffffffL;
+         case FLOAT:
+            return buffer.getFloat(index);
+         case DOUBLE:
+            return buffer.getDouble(index);
+         default:
+            throw new IllegalStateException("Unknown PLY data type: " + this);
+      }
+   }
+
+   /**
+    * Reads a single value of this type from the given buffer at the given absolute index and truncates it to an int.
+    * Used for list counts and vertex indices.
+    *
+    * @param buffer
+    *           the buffer to read from
+    * @param index
+    *           the absolute byte index of the value
+    * @return the value as an int
+    */
+   public int readInt(final ByteBuffer buffer, final int index) {
+      switch (this) {
+         case CHAR:
+            return buffer.get(index);
+         case UCHAR:
+            return buffer.get(index) & 0xff;
+         case SHORT:
+            return buffer.getShort(index);
+         case USHORT:
+            return buffer.getShort(index) & 0xffff;
+         case INT:
+         case UINT:
+            return buffer.getInt(index);
+         case FLOAT:
+            return (int) buffer.getFloat(index);
+         case DOUBLE:
+            return (int) buffer.getDouble(index);
+         default:
+            throw new IllegalStateException("Unknown PLY data type: " + this);
+      }
+   }
+
+   /**
+    * Returns the {@link PlyDataType} for the given header type name.
+    *
+    * @param name
+    *           the type name as found in the PLY header
+    * @return the matching type
+    * @throws IllegalArgumentException
+    *            if the name is not a valid PLY type
+    */
+   public static PlyDataType fromName(final String name) throws IllegalArgumentException {
+      for (final PlyDataType type : PlyDataType.values()) {
+         for (final String typeName : type.names) {
+            if (typeName.equals(name)) {
+               return type;
+            }
+         }
+      }
+
+      throw new IllegalArgumentException("Unknown PLY data type: " + name);
+   }
+}
@@ -0,0 +1,273 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parsed PLY header; contains the file format, the list of elements (with their properties) in the order they appear
+ * in the body, and the number of bytes the header occupies so the body can be addressed directly.
+ *
+ * @author rangers
+ *
+ */
+public class PlyHeader {
+   public enum Format {
+      ASCII,
+      BINARY_LITTLE_ENDIAN,
+      BINARY_BIG_ENDIAN;
+   }
+
+   public static class Property {
+      public final String      name;
+      public final PlyDataType type;
+      /** The list count type or null if this is a scalar property. */
+      public final PlyDataType countType;
+
+      public Property(final String name, final PlyDataType type, final PlyDataType countType) {
+         this.name = name;
+         this.type = type;
+         this.countType = countType;
+      }
+
+      public boolean isList() {
+         return this.countType != null;
+      }
+   }
+
+   public static class Element {
+      public final String          name;
+      public final long            count;
+      private final List<Property> properties = new ArrayList<>();
+
+      public Element(final String name, final long count) {
+         this.name = name;
+         this.count = count;
+      }
+
+      public List<Property> getProperties() {
+         return Collections.unmodifiableList(this.properties);
+      }
+
+      /**
+       * Returns the index of the property with the given name or -1 if it does not exist.
+       *
+       * @param propertyName
+       * @return
+       */
+      public int getPropertyIndex(final String propertyName) {
+         for (int i = 0; i < this.properties.size(); i++) {
+            if (this.properties.get(i).name.equals(propertyName)) {
+               return i;
+            }
+         }
+
+         return -1;
+      }
+
+      /**
+       * Returns true if every property is a scalar; in that case each row has the same size.
+       *
+       * @return
+       */
+      public boolean isFixedSize() {
+         for (final Property property : this.properties) {
+            if (property.isList()) {
+               return false;
+            }
+         }
+
+         return true;
+      }
+
+      /**
+       * Returns the byte size of a single row; only valid for binary files where {@link #isFixedSize()} is true.
+       *
+       * @return the row size in bytes
+       */
+      public int getRowSize() {
+         int size = 0;
+
+         for (final Property property : this.properties) {
+            size += property.type.byteSize;
+         }
+
+         return size;
+      }
+
+      /**
+       * Returns the byte offset of each property within a row; only valid for binary files where {@link #isFixedSize()}
+       * is true.
+       *
+       * @return the per-property offsets
+       */
+      public int[] getPropertyOffsets() {
+         final int[] offsets = new int[this.properties.size()];
+         int offset = 0;
+
+         for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = offset;
+            offset += this.properties.get(i).type.byteSize;
+         }
+
+         return offsets;
+      }
+   }
+
+   private final Format        format;
+   private final List<Element> elements;
+   private final long          headerLength;
+
+   private PlyHeader(final Format format, final List<Element> elements, final long headerLength) {
+      this.format = format;
+      this.elements = Collections.unmodifiableList(elements);
+      this.headerLength = headerLength;
+   }
+
+   public Format getFormat() {
+      return this.format;
+   }
+
+   public boolean isASCII() {
+      return this.format == Format.ASCII;
+   }
+
+   /**
+    * Returns the byte order of a binary body; ASCII files report big endian which is never used.
+    *
+    * @return
+    */
+   public ByteOrder getByteOrder() {
+      return (this.format == Format.BINARY_LITTLE_ENDIAN) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+   }
+
+   public List<Element> getElements() {
+      return this.elements;
+   }
+
+   /**
+    * Returns the element with the given name or null if it does not exist.
+    *
+    * @param name
+    * @return
+    */
+   public Element getElement(final String name) {
+      for (final Element element : this.elements) {
+         if (element.name.equals(name)) {
+            return element;
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Returns the number of bytes from the start of the file to the first byte of the body (including the end_header
+    * line terminator).
+    *
+    * @return the header length in bytes
+    */
+   public long getHeaderLength() {
+      return this.headerLength;
+   }
+
+   public static PlyHeader read(final File file) throws IOException {
+      try (final InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+         return PlyHeader.read(is);
+      }
+   }
+
+   /**
+    * Reads the header from the given stream; the stream will be positioned at the first byte of the body afterwards.
+    *
+    * @param is
+    *           the stream to read from
+    * @return the parsed header
+    * @throws IOException
+    *            if the stream cannot be read or is not a valid PLY header
+    */
+   public static PlyHeader read(final InputStream is) throws IOException {
+      final List<Element> elements = new ArrayList<>();
+      final StringBuilder builder = new StringBuilder();
+      Format format = null;
+      Element current = null;
+      long length = 0;
+      boolean isFirst = true;
+
+      while (true) {
+         builder.setLength(0);
+         int c;
+
+         while ((c = is.read()) != '\n') {
+            if (c == -1) {
+               throw new IOException("Unexpected end of file in PLY header.");
+            }
+
+            length++;
+
+            if (c != '\r') {
+               builder.append((char) c);
+            }
+         }
+
+         length++;
+
+         final String line = builder.toString().trim();
+
+         if (isFirst) {
+            if (!line.equals("ply")) {
+               throw new IOException("Not a PLY file; missing magic number.");
+            }
+
+            isFirst = false;
+            continue;
+         }
+
+         final String[] split = line.split("\\s+");
+
+         if (split[0].equals("end_header")) {
+            break;
+         } else if (split[0].equals("format")) {
+            if (split[1].equals("ascii")) {
+               format = Format.ASCII;
+            } else if (split[1].equals("binary_little_endian")) {
+               format = Format.BINARY_LITTLE_ENDIAN;
+            } else if (split[1].equals("binary_big_endian")) {
+               format = Format.BINARY_BIG_ENDIAN;
+            } else {
+               throw new IOException("Unknown PLY format: " + split[1]);
+            }
+         } else if (split[0].equals("element")) {
+            current = new Element(split[1], Long.parseLong(split[2]));
+            elements.add(current);
+         } else if (split[0].equals("property")) {
+            if (current == null) {
+               throw new IOException("PLY property defined before any element: " + line);
+            }
+
+            try {
+               if (split[1].equals("list")) {
+                  current.properties.add(new Property(split[4], PlyDataType.fromName(split[3]), PlyDataType.fromName(split[2])));
+               } else {
+                  current.properties.add(new Property(split[2], PlyDataType.fromName(split[1]), null));
+               }
+            } catch (final IllegalArgumentException e) {
+               throw new IOException(e.getMessage(), e);
+            }
+         }
+         // comment and obj_info lines are ignored
+      }
+
+      if (format == null) {
+         throw new IOException("PLY header does not define a format.");
+      }
+
+      return new PlyHeader(format, elements, length);
+   }
+}
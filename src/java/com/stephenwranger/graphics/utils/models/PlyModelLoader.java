@@ -1,21 +1,23 @@
 package com.stephenwranger.graphics.utils.models;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.CRC32;
 
+import com.stephenwranger.graphics.bounds.BoundingVolumeHierarchy;
 import com.stephenwranger.graphics.math.Tuple2d;
 import com.stephenwranger.graphics.math.Tuple3d;
 import com.stephenwranger.graphics.math.intersection.Triangle2d;
@@ -32,17 +34,26 @@ public class PlyModelLoader {
 
    }
 
-   public void loadModel(final File file, final List<Triangle3d> outputTriangles, final List<Tuple3d> outputVertices) {
-      try {
-         final BufferedReader reader = new BufferedReader(new FileReader(file));
+   /**
+    * Loads the given PLY model into memory; see {@link PlyStreamReader} to process large models in bounded memory.
+    *
+    * @param file
+    *           the model to load
+    * @param outputTriangles
+    *           the list to add the triangles to or null
+    * @param outputVertices
+    *           the list to add the vertices to or null
+    * @throws IOException
+    *            if the file cannot be read or is not a valid PLY model
+    */
+   public void loadModel(final File file, final List<Triangle3d> outputTriangles, final List<Tuple3d> outputVertices) throws IOException {
+      try (final BufferedReader reader = new BufferedReader(new FileReader(file))) {
          String temp = null;
          boolean body = false;
          this.numVertices = 0;
          this.numFaces = 0;
-         boolean hasNormals = false;
          boolean isASCII = true;
-         int propertyCount = 0;
-         int xpos = -1, ypos = -1, zpos = -1, nxpos = -1, nypos = -1, nzpos = -1;
+         boolean hasNx = false, hasNy = false, hasNz = false;
 
          while (!body && ((temp = reader.readLine()) != null)) {
             if (temp.startsWith("element vertex")) {
@@ -54,21 +65,11 @@ public class PlyModelLoader {
                this.indices = new int[this.numFaces][3];
             } else if (temp.startsWith("property")) {
                if (temp.endsWith(" nx")) {
-                  nxpos = propertyCount;
+                  hasNx = true;
                } else if (temp.endsWith(" ny")) {
-                  nypos = propertyCount;
+                  hasNy = true;
                } else if (temp.endsWith(" nz")) {
-                  nzpos = propertyCount;
-               } else if (temp.endsWith(" x")) {
-                  xpos = propertyCount;
-               } else if (temp.endsWith(" y")) {
-                  ypos = propertyCount;
-               } else if (temp.endsWith(" z")) {
-                  zpos = propertyCount;
-               }
-
-               if (!temp.startsWith("property list")) {
-                  propertyCount++;
+                  hasNz = true;
                }
             } else if (temp.startsWith("format binary")) {
                isASCII = false;
@@ -77,18 +78,18 @@ public class PlyModelLoader {
             }
          }
 
-         hasNormals = (nxpos != -1) && (nypos != -1) && (nzpos != -1);
+         final boolean hasNormals = hasNx && hasNy && hasNz;
 
          if (isASCII) {
-            this.readASCII(reader, new int[] { xpos, ypos, zpos }, new int[] { nxpos, nypos, nzpos }, hasNormals);
+            // computes the missing normals itself
+            this.readASCII(file);
          } else {
-            this.readBinary(file, propertyCount, new int[] { xpos, ypos, zpos }, new int[] { nxpos, nypos, nzpos }, hasNormals);
+            this.readBinary(file, hasNormals);
+            this.computeNormals(hasNormals);
          }
-
-         this.computeNormals(hasNormals);
-      } catch (final Exception e) {
-         e.printStackTrace();
-         System.exit(1);
+      } catch (final RuntimeException e) {
+         // malformed headers and rows surface as NumberFormatException or ArrayIndexOutOfBoundsException
+         throw new IOException("Could not parse PLY model: " + file, e);
       }
 
       if (outputVertices != null) {
@@ -109,6 +110,119 @@ public class PlyModelLoader {
       }
    }
 
+   /**
+    * Loads the given ASCII or binary PLY model directly into an {@link IndexedMesh} without creating per-vertex or
+    * per-face objects.
+    *
+    * @param file
+    *           the model to load
+    * @return the indexed mesh
+    * @throws IOException
+    *            if the file cannot be read or is not a valid PLY model
+    */
+   public static IndexedMesh loadIndexedMesh(final File file) throws IOException {
+      final PlyHeader header = PlyHeader.read(file);
+
+      if (header.isASCII()) {
+         final AsciiPlyReader reader = new AsciiPlyReader(file);
+         reader.read();
+
+         // the parsed doubles are anchored before they are narrowed to floats, as are the binary ones below
+         return IndexedMesh.fromPositions(reader.getPositions(), reader.getNormals(), reader.getIndices());
+      }
+
+      final MappedPlyReader reader = new MappedPlyReader(file);
+      reader.readDoubles();
+
+      return IndexedMesh.fromPositions(reader.getDoublePositions(), reader.getDoubleNormals(), reader.getIndices());
+   }
+
+   /**
+    * Loads the given PLY model into an {@link IndexedMesh}, optionally reordering its triangles and vertices for vertex
+    * cache and fetch locality with a {@link VertexCacheOptimizer}.
+    *
+    * @param file
+    *           the model to load
+    * @param optimize
+    *           true to reorder the mesh for the post-transform vertex cache
+    * @return the indexed mesh
+    * @throws IOException
+    *            if the file cannot be read or is not a valid PLY model
+    */
+   public static IndexedMesh loadIndexedMesh(final File file, final boolean optimize) throws IOException {
+      return (optimize) ? PlyModelLoader.loadIndexedMesh(file, new VertexCacheOptimizer()) : PlyModelLoader.loadIndexedMesh(file);
+   }
+
+   /**
+    * Loads the given PLY model into an {@link IndexedMesh} reordered by the given optimizer; its
+    * {@link VertexCacheOptimizer#getACMRBefore()} and {@link VertexCacheOptimizer#getACMRAfter()} report the effect
+    * afterwards.
+    *
+    * @param file
+    *           the model to load
+    * @param optimizer
+    *           the optimizer to reorder the mesh with
+    * @return the indexed mesh
+    * @throws IOException
+    *            if the file cannot be read or is not a valid PLY model
+    */
+   public static IndexedMesh loadIndexedMesh(final File file, final VertexCacheOptimizer optimizer) throws IOException {
+      return optimizer.optimize(PlyModelLoader.loadIndexedMesh(file));
+   }
+
+   /**
+    * Returns the ray query hierarchy for a mesh loaded from the given PLY file and attaches it to the mesh. A cache
+    * file next to the model (model.ply.bvh) is memory-mapped back in if its recorded source size and hash match the
+    * model and it was built for the same face order; otherwise the hierarchy is built in parallel and the cache is
+    * (re)written.
+    *
+    * @param file
+    *           the PLY model the mesh was loaded from
+    * @param mesh
+    *           the mesh loaded from the file
+    * @return the hierarchy
+    * @throws IOException
+    *            if the model cannot be read
+    */
+   public static BoundingVolumeHierarchy loadHierarchy(final File file, final IndexedMesh mesh) throws IOException {
+      final File cache = new File(file.getPath() + ".bvh");
+      final long size = file.length();
+      final long hash = PlyModelLoader.hashFile(file);
+      BoundingVolumeHierarchy hierarchy = BoundingVolumeHierarchy.read(cache, mesh.getPositions(), mesh.getIndices(), size, hash);
+
+      if (hierarchy == null) {
+         hierarchy = new BoundingVolumeHierarchy(mesh.getPositions(), mesh.getIndices());
+
+         try {
+            hierarchy.write(cache, size, hash);
+         } catch (final IOException e) {
+            // read-only model directories just don't get a cache
+            System.err.println("Could not write hierarchy cache " + cache + ": " + e.getMessage());
+         }
+      }
+
+      mesh.setHierarchy(hierarchy);
+
+      return hierarchy;
+   }
+
+   /**
+    * CRC-32 of the whole file read through memory-mapped windows.
+    */
+   private static long hashFile(final File file) throws IOException {
+      final CRC32 crc = new CRC32();
+
+      try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         final long size = channel.size();
+
+         for (long position = 0; position < size; position += MappedFileWindow.DEFAULT_WINDOW_SIZE) {
+            crc.update(channel.map(MapMode.READ_ONLY, position, Math.min(MappedFileWindow.DEFAULT_WINDOW_SIZE, size - position)));
+         }
+      }
+
+      return crc.getValue();
+   }
+
    private void computeNormals(final boolean hasNormals) {
       if (!hasNormals) {
          double[] normal = new double[3];
@@ -137,70 +251,61 @@ public class PlyModelLoader {
       }
    }
 
-   private void readASCII(final BufferedReader reader, final int[] pos, final int[] normal, final boolean hasNormals) throws IOException {
-      String[] split;
-      String temp;
+   private void readASCII(final File modelLocation) throws IOException {
+      // parsed in parallel chunks; the values match the former line by line Double.parseDouble exactly
+      final AsciiPlyReader reader = new AsciiPlyReader(modelLocation);
+      reader.read();
 
-      for (int i = 0; i < this.numVertices; i++) {
-         split = reader.readLine().split(" ");
+      final double[] positions = reader.getPositions();
+      final double[] normals = reader.getNormals();
+      final int[] faces = reader.getIndices();
 
-         this.vertices[i][0] = (pos[0] < 0) ? Double.NaN : Double.parseDouble(split[pos[0]]);
-         this.vertices[i][1] = (pos[1] < 0) ? Double.NaN : Double.parseDouble(split[pos[1]]);
-         this.vertices[i][2] = (pos[2] < 0) ? Double.NaN : Double.parseDouble(split[pos[2]]);
+      for (int i = 0; i < this.numVertices; i++) {
+         this.vertices[i][0] = positions[i * 3];
+         this.vertices[i][1] = positions[(i * 3) + 1];
+         this.vertices[i][2] = positions[(i * 3) + 2];
 
-         this.normals[i][0] = hasNormals ? Double.parseDouble(split[normal[0]]) : 0;
-         this.normals[i][1] = hasNormals ? Double.parseDouble(split[normal[1]]) : 0;
-         this.normals[i][2] = hasNormals ? Double.parseDouble(split[normal[2]]) : 0;
+         this.normals[i][0] = normals[i * 3];
+         this.normals[i][1] = normals[(i * 3) + 1];
+         this.normals[i][2] = normals[(i * 3) + 2];
       }
 
-      int ctr = 0;
+      this.numFaces = reader.getFaceCount();
+      this.indices = new int[this.numFaces][3];
 
-      while ((temp = reader.readLine()) != null) {
-         split = temp.split(" ");
-         this.indices[ctr][0] = Integer.parseInt(split[1]);
-         this.indices[ctr][1] = Integer.parseInt(split[2]);
-         this.indices[ctr][2] = Integer.parseInt(split[3]);
-         ctr++;
+      for (int i = 0; i < this.numFaces; i++) {
+         this.indices[i][0] = faces[i * 3];
+         this.indices[i][1] = faces[(i * 3) + 1];
+         this.indices[i][2] = faces[(i * 3) + 2];
       }
    }
 
-   private void readBinary(final File modelLocation, final int propertyCount, final int[] pos, final int[] normal, final boolean hasNormals) throws IOException {
-      try (final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(modelLocation)))) {
-         StringBuilder builder = new StringBuilder();
-         String temp = "";
-         byte c = 0;
+   private void readBinary(final File modelLocation, final boolean hasNormals) throws IOException {
+      // the mapped reader handles either byte order and any property type
+      final MappedPlyReader reader = new MappedPlyReader(modelLocation);
+      reader.read();
 
-         while (!temp.startsWith("end_header")) {
-            while ((c = (byte) dis.read()) != '\n') {
-               builder.append((char) c);
-            }
-
-            temp = builder.toString();
-            builder = new StringBuilder();
-         }
+      final float[] positions = reader.getPositions();
+      final float[] normals = reader.getNormals();
+      final int[] faces = reader.getIndices();
 
-         final double[] properties = new double[propertyCount];
-
-         for (int i = 0; i < this.numVertices; i++) {
-            for (int j = 0; j < propertyCount; j++) {
-               properties[j] = dis.readFloat();
-            }
+      for (int i = 0; i < this.numVertices; i++) {
+         this.vertices[i][0] = positions[i * 3];
+         this.vertices[i][1] = positions[(i * 3) + 1];
+         this.vertices[i][2] = positions[(i * 3) + 2];
 
-            this.vertices[i][0] = properties[pos[0]];
-            this.vertices[i][1] = properties[pos[1]];
-            this.vertices[i][2] = properties[pos[2]];
+         this.normals[i][0] = hasNormals ? normals[i * 3] : 0;
+         this.normals[i][1] = hasNormals ? normals[(i * 3) + 1] : 0;
+         this.normals[i][2] = hasNormals ? normals[(i * 3) + 2] : 0;
+      }
 
-            this.normals[i][0] = hasNormals ? properties[normal[0]] : 0;
-            this.normals[i][1] = hasNormals ? properties[normal[1]] : 0;
-            this.normals[i][2] = hasNormals ? properties[normal[2]] : 0;
-         }
+      this.numFaces = reader.getFaceCount();
+      this.indices = new int[this.numFaces][3];
 
-         for (int i = 0; i < this.numFaces; i++) {
-            dis.read(); // only supporting triangles
-            this.indices[i][0] = dis.readInt();
-            this.indices[i][1] = dis.readInt();
-            this.indices[i][2] = dis.readInt();
-         }
+      for (int i = 0; i < this.numFaces; i++) {
+         this.indices[i][0] = faces[i * 3];
+         this.indices[i][1] = faces[(i * 3) + 1];
+         this.indices[i][2] = faces[(i * 3) + 2];
       }
    }
 
@@ -0,0 +1,372 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams the vertices and faces of an ASCII or binary PLY file in fixed size batches so that peak memory is bounded by
+ * the batch size rather than the model size. Batches are either pushed to a {@link PlyBatchConsumer} or pulled through
+ * {@link #next(PlyBatch)} / {@link #spliterator()}; in every case nothing is read until the caller asks for the next
+ * batch. Vertex batches are emitted in file order, followed by face batches (assuming the usual vertex-then-face element
+ * order). Normals are only available if the file defines nx/ny/nz; polygons are split into triangle fans.
+ *
+ * @author rangers
+ *
+ */
+public class PlyStreamReader implements Closeable {
+   public static final int        DEFAULT_BATCH_SIZE = 1 << 16;
+   private static final int       ASCII_WINDOW_SIZE  = 1 << 24;
+   private static final String[]  VERTEX_PROPERTIES  = new String[] { "x", "y", "z", "nx", "ny", "nz" };
+
+   private final PlyHeader        header;
+   private final int              batchSize;
+   private final FileChannel      channel;
+   private final long             fileSize;
+
+   // binary state
+   private final MappedFileWindow window;
+   private long                   position;
+
+   // ascii state
+   private AsciiLineScanner       scanner            = null;
+   private long                   asciiEnd;
+
+   private int                    elementIndex       = 0;
+   private long                   row                = 0;
+
+   public PlyStreamReader(final File file) throws IOException {
+      this(file, DEFAULT_BATCH_SIZE);
+   }
+
+   public PlyStreamReader(final File file, final int batchSize) throws IOException {
+      if (batchSize <= 0) {
+         throw new IllegalArgumentException("Batch size must be greater than zero.");
+      }
+
+      this.header = PlyHeader.read(file);
+      this.batchSize = batchSize;
+      this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      this.fileSize = this.channel.size();
+      this.window = this.header.isASCII() ? null : new MappedFileWindow(this.channel, this.header.getByteOrder());
+      this.position = this.header.getHeaderLength();
+      this.asciiEnd = this.header.getHeaderLength();
+   }
+
+   public PlyHeader getHeader() {
+      return this.header;
+   }
+
+   public int getBatchSize() {
+      return this.batchSize;
+   }
+
+   /**
+    * Pushes every remaining batch to the given consumer, reusing a single {@link PlyBatch}.
+    *
+    * @param consumer
+    *           the batch consumer
+    * @throws IOException
+    *            if the file cannot be read or parsed, or the consumer throws
+    */
+   public void stream(final PlyBatchConsumer consumer) throws IOException {
+      final PlyBatch batch = new PlyBatch();
+
+      while (this.next(batch)) {
+         consumer.accept(batch);
+      }
+   }
+
+   /**
+    * Fills the given batch with the next vertices or faces.
+    *
+    * @param batch
+    *           the batch to fill; its arrays are reused if large enough
+    * @return false if there is nothing left to read
+    * @throws IOException
+    *            if the file cannot be read or parsed
+    */
+   public boolean next(final PlyBatch batch) throws IOException {
+      final List<PlyHeader.Element> elements = this.header.getElements();
+
+      while (this.elementIndex < elements.size()) {
+         final PlyHeader.Element element = elements.get(this.elementIndex);
+
+         if (this.row >= element.count) {
+            this.elementIndex++;
+            this.row = 0;
+         } else if (element.name.equals("vertex")) {
+            this.readVertices(element, batch);
+            return true;
+         } else if (element.name.equals("face")) {
+            this.readFaces(element, batch);
+            return true;
+         } else {
+            this.skip(element);
+         }
+      }
+
+      return false;
+   }
+
+   /**
+    * Returns a sequential {@link Spliterator} over the remaining batches; each batch is a new {@link PlyBatch} so they
+    * may be retained, and read errors are rethrown as {@link UncheckedIOException}.
+    *
+    * @return
+    */
+   public Spliterator<PlyBatch> spliterator() {
+      return new Spliterator<PlyBatch>() {
+         @Override
+         public boolean tryAdvance(final Consumer<? super PlyBatch> action) {
+            final PlyBatch batch = new PlyBatch();
+
+            try {
+               if (!PlyStreamReader.this.next(batch)) {
+                  return false;
+               }
+            } catch (final IOException e) {
+               throw new UncheckedIOException(e);
+            }
+
+            action.accept(batch);
+            return true;
+         }
+
+         @Override
+         public Spliterator<PlyBatch> trySplit() {
+            return null;
+         }
+
+         @Override
+         public long estimateSize() {
+            return Long.MAX_VALUE;
+         }
+
+         @Override
+         public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.NONNULL;
+         }
+      };
+   }
+
+   public Stream<PlyBatch> batches() {
+      return StreamSupport.stream(this.spliterator(), false);
+   }
+
+   @Override
+   public void close() throws IOException {
+      this.channel.close();
+   }
+
+   private void readVertices(final PlyHeader.Element element, final PlyBatch batch) throws IOException {
+      final List<PlyHeader.Property> properties = element.getProperties();
+      final int[] slots = new int[properties.size()];
+      Arrays.fill(slots, -1);
+
+      for (int i = 0; i < VERTEX_PROPERTIES.length; i++) {
+         final int index = element.getPropertyIndex(VERTEX_PROPERTIES[i]);
+
+         if (index != -1) {
+            slots[index] = i;
+         } else if (i < 3) {
+            throw new IOException("PLY vertex element must define x, y and z properties.");
+         }
+      }
+
+      final boolean hasNormals = (element.getPropertyIndex("nx") != -1) && (element.getPropertyIndex("ny") != -1) && (element.getPropertyIndex("nz") != -1);
+      final int count = (int) Math.min(this.batchSize, element.count - this.row);
+      batch.startVertices(this.row, count, hasNormals);
+
+      final double[] positions = batch.getPositions();
+      final double[] normals = batch.getNormals();
+      final long[] offsets = new long[properties.size()];
+
+      for (int i = 0; i < count; i++) {
+         if (this.header.isASCII()) {
+            final AsciiLineScanner scanner = this.nextAsciiLine();
+
+            for (int j = 0; j < slots.length; j++) {
+               if (properties.get(j).isList()) {
+                  throw new IOException("List properties on PLY vertices are not supported.");
+               }
+
+               final int slot = slots[j];
+
+               if (slot == -1) {
+                  scanner.skipToken();
+               } else if (slot < 3) {
+                  positions[(i * 3) + slot] = scanner.nextDouble();
+               } else if (hasNormals) {
+                  normals[((i * 3) + slot) - 3] = scanner.nextDouble();
+               } else {
+                  scanner.skipToken();
+               }
+            }
+
+            scanner.endLine();
+         } else {
+            this.position = MappedPlyReader.walkRow(this.window, this.position, properties, offsets);
+
+            for (int j = 0; j < slots.length; j++) {
+               final int slot = slots[j];
+
+               if (slot == -1) {
+                  continue;
+               } else if (slot < 3) {
+                  positions[(i * 3) + slot] = MappedPlyReader.readDouble(this.window, offsets[j], properties.get(j).type);
+               } else if (hasNormals) {
+                  normals[((i * 3) + slot) - 3] = MappedPlyReader.readDouble(this.window, offsets[j], properties.get(j).type);
+               }
+            }
+         }
+      }
+
+      batch.setCount(count);
+      this.row += count;
+   }
+
+   private void readFaces(final PlyHeader.Element element, final PlyBatch batch) throws IOException {
+      final List<PlyHeader.Property> properties = element.getProperties();
+      int listIndex = element.getPropertyIndex("vertex_indices");
+
+      if (listIndex == -1) {
+         listIndex = element.getPropertyIndex("vertex_index");
+      }
+
+      if ((listIndex == -1) || !properties.get(listIndex).isList()) {
+         throw new IOException("PLY face element must define a vertex_indices list property.");
+      }
+
+      final int count = (int) Math.min(this.batchSize, element.count - this.row);
+      final long[] offsets = new long[properties.size()];
+      batch.startFaces(this.row, count);
+
+      for (int i = 0; i < count; i++) {
+         if (this.header.isASCII()) {
+            final AsciiLineScanner scanner = this.nextAsciiLine();
+
+            for (int j = 0; j < properties.size(); j++) {
+               if (!properties.get(j).isList()) {
+                  scanner.skipToken();
+                  continue;
+               }
+
+               final int vertices = scanner.nextInt();
+
+               if ((j != listIndex) || (vertices < 3)) {
+                  for (int k = 0; k < vertices; k++) {
+                     scanner.skipToken();
+                  }
+
+                  continue;
+               }
+
+               batch.ensureIndexCapacity((vertices - 2) * 3);
+               final int first = scanner.nextInt();
+               int previous = scanner.nextInt();
+
+               for (int k = 2; k < vertices; k++) {
+                  final int next = scanner.nextInt();
+                  batch.addTriangle(first, previous, next);
+                  previous = next;
+               }
+            }
+
+            scanner.endLine();
+         } else {
+            this.position = MappedPlyReader.walkRow(this.window, this.position, properties, offsets);
+
+            final PlyHeader.Property list = properties.get(listIndex);
+            final int vertices = MappedPlyReader.readInt(this.window, offsets[listIndex], list.countType);
+            final long start = offsets[listIndex] + list.countType.byteSize;
+
+            if (vertices >= 3) {
+               batch.ensureIndexCapacity((vertices - 2) * 3);
+               final int first = MappedPlyReader.readInt(this.window, start, list.type);
+               int previous = MappedPlyReader.readInt(this.window, start + list.type.byteSize, list.type);
+
+               for (int k = 2; k < vertices; k++) {
+                  final int next = MappedPlyReader.readInt(this.window, start + (k * list.type.byteSize), list.type);
+                  batch.addTriangle(first, previous, next);
+                  previous = next;
+               }
+            }
+         }
+      }
+
+      batch.setCount(count);
+      this.row += count;
+   }
+
+   private void skip(final PlyHeader.Element element) throws IOException {
+      if (this.header.isASCII()) {
+         for (long i = this.row; i < element.count; i++) {
+            this.nextAsciiLine().endLine();
+         }
+      } else {
+         this.position = MappedPlyReader.skipElement(this.window, this.position, element);
+      }
+
+      this.row = element.count;
+   }
+
+   /**
+    * Returns the scanner positioned at the next non-blank line, mapping the next newline-aligned window of the file if
+    * the current one has been consumed.
+    */
+   private AsciiLineScanner nextAsciiLine() throws IOException {
+      while ((this.scanner == null) || !this.scanner.nextLine()) {
+         if (this.asciiEnd >= this.fileSize) {
+            throw new IOException("Unexpected end of file; expected more PLY rows.");
+         }
+
+         long size = Math.min(ASCII_WINDOW_SIZE, this.fileSize - this.asciiEnd);
+         MappedByteBuffer buffer = this.channel.map(MapMode.READ_ONLY, this.asciiEnd, size);
+         int limit = PlyStreamReader.lastLineEnd(buffer);
+
+         // a single line longer than the window; keep growing until it fits
+         while ((limit == 0) && ((this.asciiEnd + size) < this.fileSize)) {
+            size = Math.min(Math.min(size * 2, Integer.MAX_VALUE), this.fileSize - this.asciiEnd);
+            buffer = this.channel.map(MapMode.READ_ONLY, this.asciiEnd, size);
+            limit = PlyStreamReader.lastLineEnd(buffer);
+         }
+
+         if ((this.asciiEnd + size) >= this.fileSize) {
+            limit = (int) size;
+         }
+
+         buffer.order(ByteOrder.nativeOrder());
+         buffer.limit(limit);
+         this.scanner = new AsciiLineScanner(buffer);
+         this.asciiEnd += limit;
+      }
+
+      return this.scanner;
+   }
+
+   /**
+    * Returns the index just past the last line feed in the buffer or zero if there is none.
+    */
+   private static int lastLineEnd(final MappedByteBuffer buffer) {
+      for (int i = buffer.limit() - 1; i >= 0; i--) {
+         if (buffer.get(i) == '\n') {
+            return i + 1;
+         }
+      }
+
+      return 0;
+   }
+}
@@ -0,0 +1,114 @@
+package com.stephenwranger.graphics.utils.models;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PlyStreamReaderTest {
+   private static final int VERTEX_COUNT = 10;
+
+   @Test
+   public void testAsciiBatches() throws IOException {
+      final File file = File.createTempFile("stream", ".ply");
+      file.deleteOnExit();
+
+      try (final BufferedWriter fout = new BufferedWriter(new FileWriter(file))) {
+         fout.write("ply\nformat ascii 1.0\nelement vertex " + VERTEX_COUNT + "\nproperty float x\nproperty float y\nproperty float z\n");
+         fout.write("element face " + (VERTEX_COUNT - 2) + "\nproperty list uchar int vertex_indices\nend_header\n");
+
+         for (int i = 0; i < VERTEX_COUNT; i++) {
+            fout.write(i + " " + (i * 2) + " " + (i * 3) + "\n");
+         }
+
+         for (int i = 0; i < (VERTEX_COUNT - 2); i++) {
+            fout.write("3 " + i + " " + (i + 1) + " " + (i + 2) + "\n");
+         }
+      }
+
+      PlyStreamReaderTest.assertBatches(file);
+   }
+
+   @Test
+   public void testBinaryBatches() throws IOException {
+      final File file = File.createTempFile("stream", ".ply");
+      file.deleteOnExit();
+
+      final String header = "ply\nformat binary_little_endian 1.0\nelement vertex " + VERTEX_COUNT + "\nproperty double x\nproperty float y\nproperty int z\n" + "element face " + (VERTEX_COUNT - 2) + "\nproperty list uchar int vertex_indices\nend_header\n";
+      final ByteBuffer body = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+      for (int i = 0; i < VERTEX_COUNT; i++) {
+         body.putDouble(i).putFloat(i * 2).putInt(i * 3);
+      }
+
+      for (int i = 0; i < (VERTEX_COUNT - 2); i++) {
+         body.put((byte) 3).putInt(i).putInt(i + 1).putInt(i + 2);
+      }
+
+      try (final FileOutputStream fos = new FileOutputStream(file)) {
+         fos.write(header.getBytes(StandardCharsets.US_ASCII));
+         fos.write(body.array(), 0, body.position());
+      }
+
+      PlyStreamReaderTest.assertBatches(file);
+   }
+
+   @Test(expected = IOException.class)
+   public void testTruncatedFileThrows() throws IOException {
+      final File file = File.createTempFile("stream", ".ply");
+      file.deleteOnExit();
+
+      try (final BufferedWriter fout = new BufferedWriter(new FileWriter(file))) {
+         fout.write("ply\nformat ascii 1.0\nelement vertex 4\nproperty float x\nproperty float y\nproperty float z\nend_header\n0 0 0\n1 1 1\n");
+      }
+
+      try (final PlyStreamReader reader = new PlyStreamReader(file, 3)) {
+         reader.stream(batch -> {
+            // drain
+         });
+      }
+   }
+
+   private static void assertBatches(final File file) throws IOException {
+      final double[] positions = new double[VERTEX_COUNT * 3];
+      final int[] indices = new int[(VERTEX_COUNT - 2) * 3];
+      final int[] counts = new int[] { 0, 0 };
+
+      try (final PlyStreamReader reader = new PlyStreamReader(file, 3)) {
+         reader.stream(batch -> {
+            assertTrue(batch.getCount() <= 3);
+
+            if (batch.getType() == PlyBatch.Type.VERTICES) {
+               assertEquals(counts[0], batch.getFirst());
+               System.arraycopy(batch.getPositions(), 0, positions, counts[0] * 3, batch.getCount() * 3);
+               counts[0] += batch.getCount();
+            } else {
+               System.arraycopy(batch.getIndices(), 0, indices, counts[1], batch.getIndexCount());
+               counts[1] += batch.getIndexCount();
+            }
+         });
+      }
+
+      assertEquals(VERTEX_COUNT, counts[0]);
+      assertEquals((VERTEX_COUNT - 2) * 3, counts[1]);
+
+      for (int i = 0; i < VERTEX_COUNT; i++) {
+         assertArrayEquals(new double[] { i, i * 2, i * 3 }, Arrays.copyOfRange(positions, i * 3, (i * 3) + 3), 0.0);
+      }
+
+      for (int i = 0; i < (VERTEX_COUNT - 2); i++) {
+         assertArrayEquals(new int[] { i, i + 1, i + 2 }, Arrays.copyOfRange(indices, i * 3, (i * 3) + 3));
+      }
+   }
+}
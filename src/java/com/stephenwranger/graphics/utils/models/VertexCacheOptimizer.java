@@ -0,0 +1,539 @@
+package com.stephenwranger.graphics.utils.models;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Reorders the triangles of an {@link IndexedMesh} for post-transform vertex cache locality using Tom Forsyth's linear
+ * speed vertex cache optimisation, then reorders clusters of those triangles to reduce overdraw as in Sander, Nehab
+ * and Barczak's "Fast Triangle Reordering for Vertex Locality and Reduced Overdraw" and finally reorders the vertices
+ * into first-use order for fetch locality. The average cache miss ratio (ACMR, transformed vertices per triangle) of
+ * the last optimised mesh is available before and after the passes as measured by a FIFO cache simulation.
+ *
+ * @author rangers
+ *
+ */
+public class VertexCacheOptimizer {
+   /** Size of the FIFO cache used to measure ACMR; a common post-transform cache size. */
+   public static final int      DEFAULT_CACHE_SIZE         = 16;
+   /** The ACMR a cluster of the overdraw pass may have as a factor of its vertex cache order's; 5% more misses. */
+   public static final double   DEFAULT_OVERDRAW_THRESHOLD = 1.05;
+
+   // scoring constants from Forsyth's "Linear-Speed Vertex Cache Optimisation"
+   private static final int     SCORE_CACHE_SIZE           = 32;
+   private static final double  CACHE_DECAY_POWER          = 1.5;
+   private static final double  LAST_TRIANGLE_SCORE        = 0.75;
+   private static final double  VALENCE_BOOST_SCALE        = 2.0;
+   private static final double  VALENCE_BOOST_POWER        = 0.5;
+   private static final int     MAX_SCORED_VALENCE         = 64;
+
+   private static final float[] CACHE_SCORES               = new float[SCORE_CACHE_SIZE];
+   private static final float[] VALENCE_SCORES             = new float[MAX_SCORED_VALENCE];
+
+   static {
+      for (int i = 0; i < SCORE_CACHE_SIZE; i++) {
+         if (i < 3) {
+            // the most recent triangle's vertices get a fixed score so that strips don't always win over fans
+            CACHE_SCORES[i] = (float) LAST_TRIANGLE_SCORE;
+         } else {
+            final double scaler = 1.0 / (SCORE_CACHE_SIZE - 3);
+            CACHE_SCORES[i] = (float) Math.pow(1.0 - ((i - 3) * scaler), CACHE_DECAY_POWER);
+         }
+      }
+
+      for (int i = 0; i < MAX_SCORED_VALENCE; i++) {
+         VALENCE_SCORES[i] = (i == 0) ? 0f : (float) (VALENCE_BOOST_SCALE * Math.pow(i, -VALENCE_BOOST_POWER));
+      }
+   }
+
+   private final int cacheSize;
+   private double    overdrawThreshold = DEFAULT_OVERDRAW_THRESHOLD;
+   private double    acmrBefore        = Double.NaN;
+   private double    acmrAfter         = Double.NaN;
+
+   public VertexCacheOptimizer() {
+      this(DEFAULT_CACHE_SIZE);
+   }
+
+   /**
+    * Creates a new optimizer that reports ACMR for a FIFO cache of the given size.
+    *
+    * @param cacheSize
+    */
+   public VertexCacheOptimizer(final int cacheSize) {
+      if (cacheSize < 3) {
+         throw new IllegalArgumentException("Cache size must hold at least one triangle: " + cacheSize);
+      }
+
+      this.cacheSize = cacheSize;
+   }
+
+   /**
+    * Sets how much vertex cache efficiency the overdraw pass may give up for smaller, more freely ordered clusters; the
+    * default is {@link #DEFAULT_OVERDRAW_THRESHOLD} and anything below 1 disables the pass.
+    *
+    * @param overdrawThreshold
+    */
+   public void setOverdrawThreshold(final double overdrawThreshold) {
+      this.overdrawThreshold = overdrawThreshold;
+   }
+
+   public double getOverdrawThreshold() {
+      return this.overdrawThreshold;
+   }
+
+   /**
+    * Returns the ACMR of the mesh given to the last call to {@link #optimize(IndexedMesh)}.
+    *
+    * @return
+    */
+   public double getACMRBefore() {
+      return this.acmrBefore;
+   }
+
+   /**
+    * Returns the ACMR of the mesh returned from the last call to {@link #optimize(IndexedMesh)}.
+    *
+    * @return
+    */
+   public double getACMRAfter() {
+      return this.acmrAfter;
+   }
+
+   /**
+    * Returns a new mesh with the same triangles as the given one with the faces reordered for vertex cache locality and
+    * reduced overdraw and the vertices reordered by first use; the input mesh is left untouched.
+    *
+    * @param mesh
+    * @return
+    */
+   public IndexedMesh optimize(final IndexedMesh mesh) {
+      final int vertexCount = mesh.getVertexCount();
+      int[] indices = VertexCacheOptimizer.optimizeTriangleOrder(mesh.getIndices(), vertexCount);
+
+      if (this.overdrawThreshold >= 1) {
+         indices = VertexCacheOptimizer.optimizeOverdraw(indices, mesh.getPositions(), this.cacheSize, this.overdrawThreshold);
+      }
+
+      final int[] remap = VertexCacheOptimizer.optimizeVertexOrder(indices, vertexCount);
+
+      final float[] positions = mesh.getPositions();
+      final float[] normals = mesh.getNormals();
+      final float[] newPositions = new float[positions.length];
+      final float[] newNormals = new float[normals.length];
+
+      for (int i = 0; i < vertexCount; i++) {
+         System.arraycopy(positions, i * 3, newPositions, remap[i] * 3, 3);
+         System.arraycopy(normals, i * 3, newNormals, remap[i] * 3, 3);
+      }
+
+      this.acmrBefore = VertexCacheOptimizer.computeACMR(mesh.getIndices(), vertexCount, this.cacheSize);
+      this.acmrAfter = VertexCacheOptimizer.computeACMR(indices, vertexCount, this.cacheSize);
+
+      return new IndexedMesh(mesh.getAnchor(), newPositions, newNormals, indices);
+   }
+
+   /**
+    * Simulates a FIFO post-transform cache of the given size over the triangle list and returns the number of cache
+    * misses per triangle; 3.0 means no reuse at all and 0.5 is the practical lower bound for regular grids.
+    *
+    * @param indices
+    * @param vertexCount
+    * @param cacheSize
+    * @return
+    */
+   public static double computeACMR(final int[] indices, final int vertexCount, final int cacheSize) {
+      if (indices.length == 0) {
+         return 0;
+      }
+
+      // the vertex's insertion stamp; it is in the cache while it is within cacheSize of the latest stamp
+      final int[] stamps = new int[vertexCount];
+      Arrays.fill(stamps, Integer.MIN_VALUE);
+      int time = 0;
+      int misses = 0;
+
+      for (final int index : indices) {
+         if ((stamps[index] == Integer.MIN_VALUE) || ((time - stamps[index]) >= cacheSize)) {
+            stamps[index] = time++;
+            misses++;
+         }
+      }
+
+      return misses / (indices.length / 3.0);
+   }
+
+   /**
+    * Returns a new triangle index buffer with the same faces in an order optimised for a post-transform vertex cache.
+    * Each face keeps its winding.
+    *
+    * @param indices
+    *           triangle indices (3 per face)
+    * @param vertexCount
+    *           the number of vertices the indices refer to
+    * @return
+    */
+   public static int[] optimizeTriangleOrder(final int[] indices, final int vertexCount) {
+      final int triangleCount = indices.length / 3;
+      final int[] output = new int[indices.length];
+
+      if (triangleCount == 0) {
+         return output;
+      }
+
+      // vertex -> triangle adjacency as compressed rows; the live triangles of vertex v are
+      // adjacency[offsets[v], offsets[v] + remaining[v])
+      final int[] remaining = new int[vertexCount];
+      final int[] offsets = new int[vertexCount + 1];
+
+      for (final int index : indices) {
+         remaining[index]++;
+      }
+
+      for (int i = 0; i < vertexCount; i++) {
+         offsets[i + 1] = offsets[i] + remaining[i];
+      }
+
+      final int[] adjacency = new int[indices.length];
+      final int[] fill = Arrays.copyOf(offsets, vertexCount);
+
+      for (int i = 0; i < indices.length; i++) {
+         adjacency[fill[indices[i]]++] = i / 3;
+      }
+
+      final int[] cachePosition = new int[vertexCount];
+      final float[] vertexScores = new float[vertexCount];
+      final float[] triangleScores = new float[triangleCount];
+      final boolean[] emitted = new boolean[triangleCount];
+
+      Arrays.fill(cachePosition, -1);
+
+      for (int i = 0; i < vertexCount; i++) {
+         vertexScores[i] = VertexCacheOptimizer.score(cachePosition[i], remaining[i]);
+      }
+
+      for (int i = 0; i < triangleCount; i++) {
+         triangleScores[i] = vertexScores[indices[i * 3]] + vertexScores[indices[(i * 3) + 1]] + vertexScores[indices[(i * 3) + 2]];
+      }
+
+      int[] cache = new int[SCORE_CACHE_SIZE + 3];
+      int[] nextCache = new int[SCORE_CACHE_SIZE + 3];
+      int cacheCount = 0;
+      int cursor = 0;
+      int best = -1;
+
+      for (int written = 0; written < triangleCount; written++) {
+         if (best < 0) {
+            // nothing in the cache is connected to an unemitted face; resume at the next face in input order
+            while (emitted[cursor]) {
+               cursor++;
+            }
+
+            best = cursor;
+         }
+
+         emitted[best] = true;
+
+         for (int i = 0; i < 3; i++) {
+            final int vertex = indices[(best * 3) + i];
+            output[(written * 3) + i] = vertex;
+
+            // drop the face from the vertex's live adjacency
+            final int start = offsets[vertex];
+            final int end = start + remaining[vertex] - 1;
+
+            for (int j = start; j <= end; j++) {
+               if (adjacency[j] == best) {
+                  adjacency[j] = adjacency[end];
+                  adjacency[end] = best;
+                  break;
+               }
+            }
+
+            remaining[vertex]--;
+         }
+
+         // the new cache is the emitted face followed by the previous contents in LRU order
+         int nextCount = 0;
+
+         for (int i = 0; i < 3; i++) {
+            nextCache[nextCount++] = indices[(best * 3) + i];
+         }
+
+         for (int i = 0; i < cacheCount; i++) {
+            final int vertex = cache[i];
+
+            if ((vertex != indices[best * 3]) && (vertex != indices[(best * 3) + 1]) && (vertex != indices[(best * 3) + 2])) {
+               nextCache[nextCount++] = vertex;
+            }
+         }
+
+         final int[] swap = cache;
+         cache = nextCache;
+         nextCache = swap;
+         cacheCount = nextCount;
+
+         // rescore everything that was touched, including vertices that just fell out of the cache
+         for (int i = 0; i < cacheCount; i++) {
+            final int vertex = cache[i];
+            cachePosition[vertex] = (i < SCORE_CACHE_SIZE) ? i : -1;
+            final float score = VertexCacheOptimizer.score(cachePosition[vertex], remaining[vertex]);
+            final float delta = score - vertexScores[vertex];
+            vertexScores[vertex] = score;
+
+            for (int j = offsets[vertex], end = offsets[vertex] + remaining[vertex]; j < end; j++) {
+               triangleScores[adjacency[j]] += delta;
+            }
+         }
+
+         cacheCount = Math.min(cacheCount, SCORE_CACHE_SIZE);
+         best = -1;
+         float bestScore = -1f;
+
+         for (int i = 0; i < cacheCount; i++) {
+            final int vertex = cache[i];
+
+            for (int j = offsets[vertex], end = offsets[vertex] + remaining[vertex]; j < end; j++) {
+               final int triangle = adjacency[j];
+
+               if (triangleScores[triangle] > bestScore) {
+                  bestScore = triangleScores[triangle];
+                  best = triangle;
+               }
+            }
+         }
+      }
+
+      return output;
+   }
+
+   /**
+    * Returns a new triangle index buffer with the clusters of the given vertex cache ordered faces sorted so that those
+    * facing away from the mesh's centroid, which are likely to occlude the others, come first. Clusters start where the
+    * cache order restarted and are split further wherever the ACMR so far is within the given factor of the whole
+    * cluster's; each keeps its internal order, so the ACMR grows by at most about that factor.
+    *
+    * @param indices
+    *           vertex cache ordered triangle indices (3 per face)
+    * @param positions
+    *           xyz vertex positions (3 per vertex)
+    * @param cacheSize
+    *           the FIFO cache size to measure the clusters with
+    * @param threshold
+    *           the allowed ACMR of a cluster as a factor of its hard cluster's; at least 1
+    * @return
+    */
+   public static int[] optimizeOverdraw(final int[] indices, final float[] positions, final int cacheSize, final double threshold) {
+      final int triangleCount = indices.length / 3;
+
+      if (triangleCount == 0) {
+         return indices.clone();
+      }
+
+      final FifoCache cache = new FifoCache(positions.length / 3, cacheSize);
+
+      // hard boundaries where the cache order found nothing connected and restarted
+      final int[] hard = new int[triangleCount + 1];
+      int hardCount = 0;
+
+      for (int i = 0; i < triangleCount; i++) {
+         if ((cache.triangleMisses(indices, i) == 3) || (i == 0)) {
+            hard[hardCount++] = i;
+         }
+      }
+
+      hard[hardCount] = triangleCount;
+
+      // soft boundaries within each wherever the cluster so far is about as cache efficient as the whole
+      final int[] clusters = new int[triangleCount + 1];
+      int clusterCount = 0;
+
+      for (int h = 0; h < hardCount; h++) {
+         final int start = hard[h];
+         final int end = hard[h + 1];
+         int misses = 0;
+
+         cache.clear();
+
+         for (int i = start; i < end; i++) {
+            misses += cache.triangleMisses(indices, i);
+         }
+
+         final double limit = (threshold * misses) / (end - start);
+         int runMisses = 0;
+         int runTriangles = 0;
+
+         clusters[clusterCount++] = start;
+         cache.clear();
+
+         for (int i = start; i < end; i++) {
+            runMisses += cache.triangleMisses(indices, i);
+            runTriangles++;
+
+            if (((i + 1) < end) && (runMisses <= (limit * runTriangles))) {
+               clusters[clusterCount++] = i + 1;
+               runMisses = 0;
+               runTriangles = 0;
+               cache.clear();
+            }
+         }
+      }
+
+      clusters[clusterCount] = triangleCount;
+
+      // area weighted centroid and normal of each cluster and of the whole mesh
+      final double[] centroids = new double[clusterCount * 3];
+      final double[] normals = new double[clusterCount * 3];
+      final double[] meshCentroid = new double[3];
+      double meshArea = 0;
+
+      for (int c = 0; c < clusterCount; c++) {
+         double area = 0;
+
+         for (int i = clusters[c]; i < clusters[c + 1]; i++) {
+            final int p0 = indices[i * 3] * 3;
+            final int p1 = indices[(i * 3) + 1] * 3;
+            final int p2 = indices[(i * 3) + 2] * 3;
+            final double e1x = positions[p1] - positions[p0];
+            final double e1y = positions[p1 + 1] - positions[p0 + 1];
+            final double e1z = positions[p1 + 2] - positions[p0 + 2];
+            final double e2x = positions[p2] - positions[p0];
+            final double e2y = positions[p2 + 1] - positions[p0 + 1];
+            final double e2z = positions[p2 + 2] - positions[p0 + 2];
+            final double nx = (e1y * e2z) - (e1z * e2y);
+            final double ny = (e1z * e2x) - (e1x * e2z);
+            final double nz = (e1x * e2y) - (e1y * e2x);
+            final double weight = Math.sqrt((nx * nx) + (ny * ny) + (nz * nz));
+
+            for (int j = 0; j < 3; j++) {
+               centroids[(c * 3) + j] += ((positions[p0 + j] + positions[p1 + j] + positions[p2 + j]) / 3.0) * weight;
+            }
+
+            normals[c * 3] += nx;
+            normals[(c * 3) + 1] += ny;
+            normals[(c * 3) + 2] += nz;
+            area += weight;
+         }
+
+         for (int j = 0; j < 3; j++) {
+            meshCentroid[j] += centroids[(c * 3) + j];
+            centroids[(c * 3) + j] = (area > 0) ? centroids[(c * 3) + j] / area : 0;
+         }
+
+         meshArea += area;
+      }
+
+      for (int j = 0; j < 3; j++) {
+         meshCentroid[j] = (meshArea > 0) ? meshCentroid[j] / meshArea : 0;
+      }
+
+      // clusters far out along their own normal occlude the rest; stable so ties keep the cache order
+      final double[] keys = new double[clusterCount];
+      final Integer[] order = new Integer[clusterCount];
+
+      for (int c = 0; c < clusterCount; c++) {
+         final double nx = normals[c * 3];
+         final double ny = normals[(c * 3) + 1];
+         final double nz = normals[(c * 3) + 2];
+         final double length = Math.sqrt((nx * nx) + (ny * ny) + (nz * nz));
+         final double dx = centroids[c * 3] - meshCentroid[0];
+         final double dy = centroids[(c * 3) + 1] - meshCentroid[1];
+         final double dz = centroids[(c * 3) + 2] - meshCentroid[2];
+
+         keys[c] = (length > 0) ? ((dx * nx) + (dy * ny) + (dz * nz)) / length : 0;
+         order[c] = c;
+      }
+
+      Arrays.sort(order, Comparator.comparingDouble((final Integer c) -> keys[c]).reversed());
+
+      final int[] output = new int[indices.length];
+      int written = 0;
+
+      for (final int c : order) {
+         final int length = (clusters[c + 1] - clusters[c]) * 3;
+         System.arraycopy(indices, clusters[c] * 3, output, written, length);
+         written += length;
+      }
+
+      return output;
+   }
+
+   /**
+    * Rewrites the given index buffer in place so that vertices are numbered in the order they are first referenced and
+    * returns the mapping from old to new vertex index. Unreferenced vertices are moved to the end.
+    *
+    * @param indices
+    * @param vertexCount
+    * @return
+    */
+   public static int[] optimizeVertexOrder(final int[] indices, final int vertexCount) {
+      final int[] remap = new int[vertexCount];
+      Arrays.fill(remap, -1);
+      int next = 0;
+
+      for (int i = 0; i < indices.length; i++) {
+         if (remap[indices[i]] < 0) {
+            remap[indices[i]] = next++;
+         }
+
+         indices[i] = remap[indices[i]];
+      }
+
+      for (int i = 0; i < vertexCount; i++) {
+         if (remap[i] < 0) {
+            remap[i] = next++;
+         }
+      }
+
+      return remap;
+   }
+
+   /**
+    * The FIFO cache simulation of {@link #computeACMR(int[], int, int)} that can be emptied in constant time.
+    */
+   private static class FifoCache {
+      private final int[] stamps;
+      private final int   cacheSize;
+      private int         time  = 0;
+      /** stamps before this were inserted before the last clear */
+      private int         epoch = 0;
+
+      private FifoCache(final int vertexCount, final int cacheSize) {
+         this.stamps = new int[vertexCount];
+         this.cacheSize = cacheSize;
+         Arrays.fill(this.stamps, Integer.MIN_VALUE);
+      }
+
+      private void clear() {
+         this.epoch = this.time;
+      }
+
+      /**
+       * Loads the vertices of the given triangle and returns the number that were not cached.
+       */
+      private int triangleMisses(final int[] indices, final int triangle) {
+         int misses = 0;
+
+         for (int i = 0; i < 3; i++) {
+            final int index = indices[(triangle * 3) + i];
+
+            if ((this.stamps[index] < this.epoch) || ((this.time - this.stamps[index]) >= this.cacheSize)) {
+               this.stamps[index] = this.time++;
+               misses++;
+            }
+         }
+
+         return misses;
+      }
+   }
+
+   private static float score(final int cachePosition, final int remaining) {
+      if (remaining == 0) {
+         // no faces left to draw with this vertex
+         return -1f;
+      }
+
+      final float cacheScore = (cachePosition < 0) ? 0f : CACHE_SCORES[cachePosition];
+      return cacheScore + VALENCE_SCORES[Math.min(remaining, MAX_SCORED_VALENCE - 1)];
+   }
+}
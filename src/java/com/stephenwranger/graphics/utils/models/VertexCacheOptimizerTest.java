@@ -0,0 +1,181 @@
+package com.stephenwranger.graphics.utils.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class VertexCacheOptimizerTest {
+   private static final int GRID_SIZE = 64;
+
+   @Test
+   public void testShuffledGridImproves() {
+      final IndexedMesh mesh = VertexCacheOptimizerTest.createShuffledGrid(GRID_SIZE);
+      final VertexCacheOptimizer optimizer = new VertexCacheOptimizer();
+      final IndexedMesh optimized = optimizer.optimize(mesh);
+
+      // a shuffled grid gets almost no reuse; a good ordering gets close to one miss per two triangles
+      assertTrue(optimizer.getACMRBefore() > 2.0);
+      assertTrue("ACMR after: " + optimizer.getACMRAfter(), optimizer.getACMRAfter() < 0.8);
+      assertEquals(optimizer.getACMRAfter(), VertexCacheOptimizer.computeACMR(optimized.getIndices(), optimized.getVertexCount(), VertexCacheOptimizer.DEFAULT_CACHE_SIZE), 0.0);
+
+      assertEquals(VertexCacheOptimizerTest.getTriangles(mesh), VertexCacheOptimizerTest.getTriangles(optimized));
+   }
+
+   @Test
+   public void testLoaderReportsACMR() throws IOException {
+      final IndexedMesh mesh = VertexCacheOptimizerTest.createShuffledGrid(16);
+      final File file = File.createTempFile("grid", ".ply");
+      file.deleteOnExit();
+
+      try (final BufferedWriter fout = new BufferedWriter(new FileWriter(file))) {
+         fout.write("ply\nformat ascii 1.0\nelement vertex " + mesh.getVertexCount() + "\nproperty float x\nproperty float y\nproperty float z\n");
+         fout.write("element face " + mesh.getFaceCount() + "\nproperty list uchar int vertex_indices\nend_header\n");
+
+         for (int i = 0; i < mesh.getPositions().length; i += 3) {
+            fout.write(mesh.getPositions()[i] + " " + mesh.getPositions()[i + 1] + " " + mesh.getPositions()[i + 2] + "\n");
+         }
+
+         for (int i = 0; i < mesh.getIndices().length; i += 3) {
+            fout.write("3 " + mesh.getIndices()[i] + " " + mesh.getIndices()[i + 1] + " " + mesh.getIndices()[i + 2] + "\n");
+         }
+      }
+
+      // the caller's optimizer reports the effect instead of the loader printing it
+      final VertexCacheOptimizer optimizer = new VertexCacheOptimizer();
+      final IndexedMesh optimized = PlyModelLoader.loadIndexedMesh(file, optimizer);
+
+      assertEquals(mesh.getFaceCount(), optimized.getFaceCount());
+      assertEquals(VertexCacheOptimizer.computeACMR(mesh.getIndices(), mesh.getVertexCount(), VertexCacheOptimizer.DEFAULT_CACHE_SIZE), optimizer.getACMRBefore(), 0.0);
+      assertTrue(optimizer.getACMRAfter() < optimizer.getACMRBefore());
+   }
+
+   @Test
+   public void testVerticesInFirstUseOrder() {
+      final IndexedMesh optimized = new VertexCacheOptimizer().optimize(VertexCacheOptimizerTest.createShuffledGrid(8));
+      int next = 0;
+
+      for (final int index : optimized.getIndices()) {
+         assertTrue(index <= next);
+
+         if (index == next) {
+            next++;
+         }
+      }
+
+      assertEquals(optimized.getVertexCount(), next);
+   }
+
+   @Test
+   public void testFifoSimulation() {
+      // two triangles sharing an edge cost 4 misses; with a cache of 3, loading vertex 3 evicts vertex 0
+      assertEquals(2.0, VertexCacheOptimizer.computeACMR(new int[] { 0, 1, 2, 2, 1, 3 }, 4, 16), 0.0);
+      assertEquals(2.0, VertexCacheOptimizer.computeACMR(new int[] { 0, 1, 2, 2, 1, 3 }, 4, 3), 0.0);
+      assertEquals(2.5, VertexCacheOptimizer.computeACMR(new int[] { 0, 1, 2, 2, 3, 0 }, 4, 3), 0.0);
+   }
+
+   @Test
+   public void testOverdrawOrdersOccludersFirst() {
+      // an inner quad facing +z, an outer quad in front of it and a quad facing -z behind both
+      final float[] positions = new float[] {
+            0, 0, 0.5f, 1, 0, 0.5f, 1, 1, 0.5f, 0, 1, 0.5f,
+            0, 0, 1, 1, 0, 1, 1, 1, 1, 0, 1, 1,
+            0, 0, -1.5f, 1, 0, -1.5f, 1, 1, -1.5f, 0, 1, -1.5f };
+      final int[] indices = new int[] { 0, 1, 2, 0, 2, 3, 4, 5, 6, 4, 6, 7, 8, 10, 9, 8, 11, 10 };
+      final IndexedMesh mesh = new IndexedMesh(positions, null, indices);
+
+      final VertexCacheOptimizer optimizer = new VertexCacheOptimizer();
+      final IndexedMesh optimized = optimizer.optimize(mesh);
+
+      // the quads sticking out furthest along their own normals come first; drawn from +z the outer quad hides the inner
+      assertEquals(-1.5f, VertexCacheOptimizerTest.getZ(optimized, 0), 0f);
+      assertEquals(1f, VertexCacheOptimizerTest.getZ(optimized, 2), 0f);
+      assertEquals(0.5f, VertexCacheOptimizerTest.getZ(optimized, 4), 0f);
+      assertEquals(VertexCacheOptimizerTest.getTriangles(mesh), VertexCacheOptimizerTest.getTriangles(optimized));
+      assertEquals(optimizer.getACMRBefore(), optimizer.getACMRAfter(), 0.0);
+
+      // disabled, the cache order is kept
+      optimizer.setOverdrawThreshold(0);
+      final IndexedMesh unsorted = optimizer.optimize(mesh);
+
+      assertEquals(0.5f, VertexCacheOptimizerTest.getZ(unsorted, 0), 0f);
+      assertEquals(1f, VertexCacheOptimizerTest.getZ(unsorted, 2), 0f);
+      assertEquals(-1.5f, VertexCacheOptimizerTest.getZ(unsorted, 4), 0f);
+   }
+
+   private static float getZ(final IndexedMesh mesh, final int triangle) {
+      return mesh.getPositions()[(mesh.getIndices()[triangle * 3] * 3) + 2];
+   }
+
+   private static IndexedMesh createShuffledGrid(final int size) {
+      final float[] positions = new float[(size + 1) * (size + 1) * 3];
+
+      for (int y = 0; y <= size; y++) {
+         for (int x = 0; x <= size; x++) {
+            final int i = ((y * (size + 1)) + x) * 3;
+            positions[i] = x;
+            positions[i + 1] = y;
+         }
+      }
+
+      final List<int[]> faces = new ArrayList<>();
+
+      for (int y = 0; y < size; y++) {
+         for (int x = 0; x < size; x++) {
+            final int v = (y * (size + 1)) + x;
+            faces.add(new int[] { v, v + 1, v + size + 2 });
+            faces.add(new int[] { v, v + size + 2, v + size + 1 });
+         }
+      }
+
+      Collections.shuffle(faces, new Random(42));
+      final int[] indices = new int[faces.size() * 3];
+
+      for (int i = 0; i < faces.size(); i++) {
+         System.arraycopy(faces.get(i), 0, indices, i * 3, 3);
+      }
+
+      return new IndexedMesh(positions, null, indices);
+   }
+
+   /**
+    * Returns each face as a position string rotated to start at its smallest corner so that winding is preserved but
+    * vertex numbering and face order are ignored.
+    */
+   private static Set<String> getTriangles(final IndexedMesh mesh) {
+      final Set<String> triangles = new HashSet<>();
+      final float[] positions = mesh.getPositions();
+
+      for (int face = 0; face < mesh.getFaceCount(); face++) {
+         final String[] corners = new String[3];
+
+         for (int i = 0; i < 3; i++) {
+            final int p = mesh.getFaceVertex(face, i) * 3;
+            corners[i] = positions[p] + "," + positions[p + 1] + "," + positions[p + 2];
+         }
+
+         int first = 0;
+
+         for (int i = 1; i < 3; i++) {
+            if (corners[i].compareTo(corners[first]) < 0) {
+               first = i;
+            }
+         }
+
+         triangles.add(corners[first] + ";" + corners[(first + 1) % 3] + ";" + corners[(first + 2) % 3]);
+      }
+
+      return triangles;
+   }
+}
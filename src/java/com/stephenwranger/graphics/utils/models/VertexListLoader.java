@@ -1,10 +1,8 @@
 package com.stephenwranger.graphics.utils.models;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Collection;
@@ -12,6 +10,7 @@ import java.util.List;
 
 import com.stephenwranger.graphics.math.Tuple2d;
 import com.stephenwranger.graphics.math.Tuple3d;
+import com.stephenwranger.graphics.math.Tuple3dArray;
 
 public class VertexListLoader {
    private VertexListLoader() {
@@ -19,27 +18,134 @@ public class VertexListLoader {
    }
 
    public static void loadVertexList2d(final File file, final List<Tuple2d> output) throws FileNotFoundException, IOException {
-      try (final BufferedReader fin = new BufferedReader(new FileReader(file))) {
-         String line;
-         String[] split;
+      final double[] vertices = VertexListLoader.loadVertexArray2d(file);
 
-         while ((line = fin.readLine()) != null) {
-            split = line.split(" ");
-            output.add(new Tuple2d(Double.parseDouble(split[0]), Double.parseDouble(split[1])));
-         }
+      for (int i = 0; i < vertices.length; i += 2) {
+         output.add(new Tuple2d(vertices[i], vertices[i + 1]));
       }
    }
 
    public static void loadVertexList3d(final File file, final List<Tuple3d> output) throws FileNotFoundException, IOException {
-      try (final BufferedReader fin = new BufferedReader(new FileReader(file))) {
-         String line;
-         String[] split;
+      final double[] vertices = VertexListLoader.loadVertexArray3d(file);
+
+      for (int i = 0; i < vertices.length; i += 3) {
+         output.add(new Tuple3d(vertices[i], vertices[i + 1], vertices[i + 2]));
+      }
+   }
+
+   /**
+    * Loads a whitespace separated "x y" vertex list into a flat array (2 doubles per vertex) using a
+    * {@link ParallelAsciiParser}; {@link #loadVertexList2d(File, List)} wraps it.
+    *
+    * @param file
+    *           the vertex list to load
+    * @return the flat vertex array
+    * @throws IOException
+    */
+   public static double[] loadVertexArray2d(final File file) throws IOException {
+      return VertexListLoader.loadVertexArray(file, 2, new ParallelAsciiParser());
+   }
+
+   /**
+    * Loads a whitespace separated "x y z" vertex list into a flat array (3 doubles per vertex) using a
+    * {@link ParallelAsciiParser}; {@link #loadVertexList3d(File, List)} wraps it.
+    *
+    * @param file
+    *           the vertex list to load
+    * @return the flat vertex array
+    * @throws IOException
+    */
+   public static double[] loadVertexArray3d(final File file) throws IOException {
+      return VertexListLoader.loadVertexArray(file, 3, new ParallelAsciiParser());
+   }
 
-         while ((line = fin.readLine()) != null) {
-            split = line.split(" ");
-            output.add(new Tuple3d(Double.parseDouble(split[0]), Double.parseDouble(split[1]), Double.parseDouble(split[2])));
+   /**
+    * Loads a whitespace separated vertex list with the given number of leading values per line into a flat array;
+    * any additional values on a line are ignored.
+    *
+    * @param file
+    *           the vertex list to load
+    * @param dimensions
+    *           the number of values to read from each line
+    * @param parser
+    *           the parser to split and parse the file with
+    * @return the flat vertex array
+    * @throws IOException
+    */
+   public static double[] loadVertexArray(final File file, final int dimensions, final ParallelAsciiParser parser) throws IOException {
+      final List<ParallelAsciiParser.Chunk> chunks = parser.split(file, 0);
+      final long count = ParallelAsciiParser.getLineCount(chunks) * dimensions;
+
+      if (count > Integer.MAX_VALUE) {
+         throw new IOException("Too many vertices: " + (count / dimensions));
+      }
+
+      final double[] output = new double[(int) count];
+
+      parser.parse(file, chunks, (scanner, chunk) -> {
+         int index = (int) chunk.firstLine * dimensions;
+
+         for (long i = 0; (i < chunk.lineCount) && scanner.nextLine(); i++) {
+            for (int j = 0; j < dimensions; j++) {
+               output[index++] = scanner.nextDouble();
+            }
+
+            scanner.endLine();
          }
+
+         return null;
+      });
+
+      return output;
+   }
+
+   /**
+    * Loads a whitespace separated "x y z" vertex list directly into a {@link Tuple3dArray} using a
+    * {@link ParallelAsciiParser}; values match {@link #loadVertexArray3d(File)} exactly.
+    *
+    * @param file
+    *           the vertex list to load
+    * @return the vertices
+    * @throws IOException
+    */
+   public static Tuple3dArray loadTuple3dArray(final File file) throws IOException {
+      return VertexListLoader.loadTuple3dArray(file, new ParallelAsciiParser());
+   }
+
+   /**
+    * Loads a whitespace separated "x y z" vertex list directly into a {@link Tuple3dArray}; any additional values on a
+    * line are ignored.
+    *
+    * @param file
+    *           the vertex list to load
+    * @param parser
+    *           the parser to split and parse the file with
+    * @return the vertices
+    * @throws IOException
+    */
+   public static Tuple3dArray loadTuple3dArray(final File file, final ParallelAsciiParser parser) throws IOException {
+      final List<ParallelAsciiParser.Chunk> chunks = parser.split(file, 0);
+      final long count = ParallelAsciiParser.getLineCount(chunks);
+
+      if (count > Integer.MAX_VALUE) {
+         throw new IOException("Too many vertices: " + count);
       }
+
+      final Tuple3dArray output = new Tuple3dArray((int) count);
+      output.setSize((int) count);
+
+      parser.parse(file, chunks, (scanner, chunk) -> {
+         int index = (int) chunk.firstLine;
+
+         for (long i = 0; (i < chunk.lineCount) && scanner.nextLine(); i++) {
+            output.set(index++, scanner.nextDouble(), scanner.nextDouble(), scanner.nextDouble());
+            scanner.endLine();
+         }
+
+         return null;
+      });
+
+      return output;
    }
 
    public static void writeVertexList2d(final File output, final Collection<Tuple2d> vertices) throws IOException {
@@ -57,4 +163,12 @@ public class VertexListLoader {
          }
       }
    }
+
+   public static void writeVertexList3d(final File output, final Tuple3dArray vertices) throws IOException {
+      try (final BufferedWriter fout = new BufferedWriter(new FileWriter(output))) {
+         for (int i = 0; i < vertices.size(); i++) {
+            fout.write(vertices.getX(i) + " " + vertices.getY(i) + " " + vertices.getZ(i) + "\n");
+         }
+      }
+   }
 }
@@ -0,0 +1,53 @@
+package com.stephenwranger.graphics.utils.terrain;
+
+import com.stephenwranger.graphics.utils.BiConsumerSupplier;
+
+/**
+ * Supplies terrain altitudes by longitude and latitude without boxing. Implementations are called concurrently from the
+ * terrain loading workers and have to be thread-safe.
+ *
+ * @author rangers
+ *
+ */
+@FunctionalInterface
+public interface AltitudeSource {
+   /**
+    * Returns the altitude at the given location.
+    *
+    * @param lon
+    *           in degrees
+    * @param lat
+    *           in degrees
+    * @return the altitude in meters
+    */
+   public double sample(final double lon, final double lat);
+
+   /**
+    * Samples the altitudes of count locations starting at offset of the given arrays; implementations may override
+    * this to share work between nearby locations.
+    *
+    * @param lon
+    *           in degrees
+    * @param lat
+    *           in degrees
+    * @param out
+    *           receives the altitudes in meters; may be one of the input arrays
+    * @param offset
+    * @param count
+    */
+   public default void sample(final double[] lon, final double[] lat, final double[] out, final int offset, final int count) {
+      for (int i = offset; i < (offset + count); i++) {
+         out[i] = this.sample(lon[i], lat[i]);
+      }
+   }
+
+   /**
+    * Adapts a boxed altitude supplier.
+    *
+    * @param altitudeSupplier
+    * @return
+    */
+   public static AltitudeSource of(final BiConsumerSupplier<Double, Double, Double> altitudeSupplier) {
+      return (lon, lat) -> altitudeSupplier.getValue(lon, lat);
+   }
+}
@@ -0,0 +1,308 @@
+package com.stephenwranger.graphics.utils.terrain;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.stephenwranger.graphics.utils.ResidencyStats;
+
+/**
+ * An {@link AltitudeSource} over a directory of square elevation tiles stored as raw, headerless grids (e.g. SRTM .hgt
+ * files). Each tile covers tileDegrees x tileDegrees from its south west corner and holds samples x samples values in
+ * row major order starting at its north west corner; the outermost rows and columns lie on the tile edges and repeat
+ * those of the neighbours, so every location is bilinearly interpolated within a single tile. Tiles are named after
+ * their south west corner like N37W122.hgt; override {@link #getTileFile(int, int)} for other layouts.<br/>
+ * <br/>
+ * Tiles are memory-mapped on first use and an LRU of at most maxTiles stays mapped, so only the pages actually sampled
+ * are read from disk. Missing tiles and void samples read as 0 (sea level); missing tiles are remembered outside the
+ * LRU, so sampling sparse coverage does not evict mapped tiles. Thread-safe; the LRU is locked for each
+ * tile lookup, which {@link #sample(double[], double[], double[], int, int)} skips for consecutive locations in the
+ * same tile, and samples are read with the absolute get methods that do not modify the shared buffers.
+ *
+ * @author rangers
+ *
+ */
+public class TiledDemAltitudeSource implements AltitudeSource {
+   public enum SampleType {
+      INT16(2),
+      FLOAT32(4);
+
+      public final int bytes;
+
+      private SampleType(final int bytes) {
+         this.bytes = bytes;
+      }
+   }
+
+   public static final int       DEFAULT_MAX_TILES = 64;
+   /** the value SRTM uses for samples without data */
+   public static final int       INT16_VOID        = Short.MIN_VALUE;
+
+   private static final Tile     MISSING           = new Tile(null, 0, null);
+
+   private final File            directory;
+   private final String          extension;
+   private final int             tileDegrees;
+   private final int             samples;
+   private final SampleType      type;
+   private final ByteOrder       order;
+   private final int             maxTiles;
+   private final Map<Long, Tile> tiles             = new LinkedHashMap<>(16, 0.75f, true);
+   /** the keys of tiles without a (readable) file, which are not looked up again; at most one per tile on the globe */
+   private final Set<Long>       missing           = new HashSet<>();
+
+   private long                  mappedBytes       = 0;
+   private long                  hits              = 0;
+   private long                  misses            = 0;
+   private long                  evictions         = 0;
+
+   /**
+    * @param directory
+    *           containing the tiles
+    * @param extension
+    *           of the tile files including the dot, e.g. ".hgt"
+    * @param tileDegrees
+    *           the size of a tile in degrees; 180 and 360 have to be multiples of it
+    * @param samples
+    *           the number of samples along each side of a tile, including both edges
+    * @param type
+    * @param order
+    * @param maxTiles
+    *           the number of tiles kept mapped
+    */
+   public TiledDemAltitudeSource(final File directory, final String extension, final int tileDegrees, final int samples, final SampleType type, final ByteOrder order, final int maxTiles) {
+      if ((tileDegrees <= 0) || ((180 % tileDegrees) != 0)) {
+         throw new IllegalArgumentException("Tile size must divide 180 degrees: " + tileDegrees);
+      }
+
+      if (samples < 2) {
+         throw new IllegalArgumentException("Tiles need at least 2 samples per side: " + samples);
+      }
+
+      if (maxTiles < 1) {
+         throw new IllegalArgumentException("At least one tile has to be kept: " + maxTiles);
+      }
+
+      this.directory = directory;
+      this.extension = extension;
+      this.tileDegrees = tileDegrees;
+      this.samples = samples;
+      this.type = type;
+      this.order = order;
+      this.maxTiles = maxTiles;
+   }
+
+   /**
+    * Returns a source over 1 degree SRTM .hgt tiles, which are big endian 16 bit integers.
+    *
+    * @param directory
+    * @param samples
+    *           1201 for 3 arc second or 3601 for 1 arc second tiles
+    * @return
+    */
+   public static TiledDemAltitudeSource srtm(final File directory, final int samples) {
+      return new TiledDemAltitudeSource(directory, ".hgt", 1, samples, SampleType.INT16, ByteOrder.BIG_ENDIAN, TiledDemAltitudeSource.DEFAULT_MAX_TILES);
+   }
+
+   @Override
+   public double sample(final double lon, final double lat) {
+      final double x = TiledDemAltitudeSource.wrapLongitude(lon) + 180.0;
+      final double y = Math.max(-90.0, Math.min(90.0, lat)) + 90.0;
+      final int tileX = this.getTileIndex(x, 360);
+      final int tileY = this.getTileIndex(y, 180);
+
+      return this.sample(this.getTile(tileX, tileY), x - (tileX * this.tileDegrees), y - (tileY * this.tileDegrees));
+   }
+
+   @Override
+   public void sample(final double[] lon, final double[] lat, final double[] out, final int offset, final int count) {
+      Tile tile = null;
+      int lastX = -1;
+      int lastY = -1;
+
+      for (int i = offset; i < (offset + count); i++) {
+         final double x = TiledDemAltitudeSource.wrapLongitude(lon[i]) + 180.0;
+         final double y = Math.max(-90.0, Math.min(90.0, lat[i])) + 90.0;
+         final int tileX = this.getTileIndex(x, 360);
+         final int tileY = this.getTileIndex(y, 180);
+
+         if ((tileX != lastX) || (tileY != lastY)) {
+            tile = this.getTile(tileX, tileY);
+            lastX = tileX;
+            lastY = tileY;
+         }
+
+         out[i] = this.sample(tile, x - (tileX * this.tileDegrees), y - (tileY * this.tileDegrees));
+      }
+   }
+
+   /**
+    * Returns the counters of the tile LRU; the budget is the mapped size of maxTiles tiles.
+    *
+    * @return
+    */
+   public synchronized ResidencyStats getStats() {
+      return new ResidencyStats(this.tiles.size(), this.mappedBytes, this.maxTiles * this.getTileBytes(), this.hits, this.misses, this.evictions);
+   }
+
+   /**
+    * Unmaps all tiles; they are mapped again when sampled.
+    */
+   public synchronized void clear() {
+      this.tiles.clear();
+      this.missing.clear();
+      this.mappedBytes = 0;
+   }
+
+   /**
+    * Returns the file of the tile with the given south west corner.
+    *
+    * @param lon
+    *           in degrees
+    * @param lat
+    *           in degrees
+    * @return
+    */
+   protected File getTileFile(final int lon, final int lat) {
+      final String name = String.format("%s%02d%s%03d%s", (lat < 0) ? "S" : "N", Math.abs(lat), (lon < 0) ? "W" : "E", Math.abs(lon), this.extension);
+
+      return new File(this.directory, name);
+   }
+
+   private long getTileBytes() {
+      return (long) this.samples * this.samples * this.type.bytes;
+   }
+
+   private int getTileIndex(final double offset, final int range) {
+      // the east and north edges belong to the last tile
+      return Math.min((int) (offset / this.tileDegrees), (range / this.tileDegrees) - 1);
+   }
+
+   /**
+    * Interpolates the given tile at the given offset in degrees from its south west corner.
+    */
+   private double sample(final Tile tile, final double dx, final double dy) {
+      if (tile.buffer == null) {
+         return 0;
+      }
+
+      final int last = this.samples - 1;
+      final double column = (dx / this.tileDegrees) * last;
+      final double row = (1.0 - (dy / this.tileDegrees)) * last;
+      final int c0 = Math.max(0, Math.min((int) column, last - 1));
+      final int r0 = Math.max(0, Math.min((int) row, last - 1));
+      final double u = column - c0;
+      final double v = row - r0;
+
+      final double a00 = tile.get(r0, c0);
+      final double a01 = tile.get(r0, c0 + 1);
+      final double a10 = tile.get(r0 + 1, c0);
+      final double a11 = tile.get(r0 + 1, c0 + 1);
+
+      return (((a00 * (1.0 - u)) + (a01 * u)) * (1.0 - v)) + (((a10 * (1.0 - u)) + (a11 * u)) * v);
+   }
+
+   private synchronized Tile getTile(final int tileX, final int tileY) {
+      final Long key = ((long) tileX << 32) | tileY;
+      Tile tile = this.tiles.get(key);
+
+      if (tile != null) {
+         this.hits++;
+         return tile;
+      }
+
+      if (this.missing.contains(key)) {
+         this.hits++;
+         return TiledDemAltitudeSource.MISSING;
+      }
+
+      this.misses++;
+      tile = this.map(tileX, tileY);
+
+      if (tile == TiledDemAltitudeSource.MISSING) {
+         this.missing.add(key);
+         return tile;
+      }
+
+      this.tiles.put(key, tile);
+      this.mappedBytes += tile.buffer.capacity();
+
+      final Iterator<Tile> iterator = this.tiles.values().iterator();
+
+      while (this.tiles.size() > this.maxTiles) {
+         final Tile eldest = iterator.next();
+         iterator.remove();
+         this.mappedBytes -= eldest.buffer.capacity();
+         this.evictions++;
+      }
+
+      return tile;
+   }
+
+   private Tile map(final int tileX, final int tileY) {
+      final File file = this.getTileFile((tileX * this.tileDegrees) - 180, (tileY * this.tileDegrees) - 90);
+
+      if (!file.isFile()) {
+         return TiledDemAltitudeSource.MISSING;
+      }
+
+      // the mapping stays valid after the channel is closed and is released once the buffer is collected
+      try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         final long size = this.getTileBytes();
+
+         if (channel.size() < size) {
+            throw new IOException("Tile " + file + " has " + channel.size() + " bytes, expected " + size + ".");
+         }
+
+         final ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+         buffer.order(this.order);
+
+         return new Tile(buffer, this.samples, this.type);
+      } catch (final IOException e) {
+         e.printStackTrace();
+      }
+
+      return TiledDemAltitudeSource.MISSING;
+   }
+
+   private static double wrapLongitude(final double lon) {
+      final double wrapped = (lon + 180.0) % 360.0;
+
+      return ((wrapped < 0) ? wrapped + 360.0 : wrapped) - 180.0;
+   }
+
+   private static class Tile {
+      private final ByteBuffer buffer;
+      private final int        samples;
+      private final SampleType type;
+
+      private Tile(final ByteBuffer buffer, final int samples, final SampleType type) {
+         this.buffer = buffer;
+         this.samples = samples;
+         this.type = type;
+      }
+
+      private double get(final int row, final int column) {
+         final int index = (row * this.samples) + column;
+
+         if (this.type == SampleType.INT16) {
+            final short value = this.buffer.getShort(index * 2);
+
+            return (value == TiledDemAltitudeSource.INT16_VOID) ? 0 : value;
+         }
+
+         final float value = this.buffer.getFloat(index * 4);
+
+         return Float.isNaN(value) ? 0 : value;
+      }
+   }
+}
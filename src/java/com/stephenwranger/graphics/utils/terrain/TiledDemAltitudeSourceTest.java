@@ -0,0 +1,184 @@
+package com.stephenwranger.graphics.utils.terrain;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.stephenwranger.graphics.utils.ResidencyStats;
+import com.stephenwranger.graphics.utils.terrain.TiledDemAltitudeSource.SampleType;
+
+public class TiledDemAltitudeSourceTest {
+   private static final int SAMPLES = 11;
+
+   @Test
+   public void testBilinearAcrossTiles() throws IOException {
+      final TiledDemAltitudeSource source = new TiledDemAltitudeSource(TiledDemAltitudeSourceTest.createPlane(), ".dem", 1, SAMPLES, SampleType.FLOAT32, ByteOrder.LITTLE_ENDIAN, 4);
+      final Random random = new Random(7);
+
+      // a plane is reproduced exactly by bilinear interpolation, including on the shared edge
+      for (int i = 0; i < 1000; i++) {
+         final double lon = random.nextDouble() * 2.0;
+         final double lat = random.nextDouble();
+         assertEquals(TiledDemAltitudeSourceTest.plane(lon, lat), source.sample(lon, lat), 1e-2);
+      }
+
+      assertEquals(TiledDemAltitudeSourceTest.plane(1, 0.5), source.sample(1, 0.5), 1e-3);
+      assertEquals(TiledDemAltitudeSourceTest.plane(2 - 1e-9, 1 - 1e-9), source.sample(2 - 1e-9, 1 - 1e-9), 1e-3);
+
+      // no tile, sea level
+      assertEquals(0, source.sample(-10, 45), 0);
+      assertEquals(0, source.sample(179.5, -89.5), 0);
+   }
+
+   @Test
+   public void testSrtmTile() throws IOException {
+      final File directory = Files.createTempDirectory("srtm").toFile();
+      directory.deleteOnExit();
+      final ByteBuffer buffer = ByteBuffer.allocate(3 * 3 * 2).order(ByteOrder.BIG_ENDIAN);
+
+      // rows start at the north edge
+      for (int row = 0; row < 3; row++) {
+         for (int column = 0; column < 3; column++) {
+            buffer.putShort((short) ((row == 1) && (column == 1) ? TiledDemAltitudeSource.INT16_VOID : (row * 10) + column));
+         }
+      }
+
+      TiledDemAltitudeSourceTest.write(new File(directory, "S01W002.hgt"), buffer);
+      final TiledDemAltitudeSource source = TiledDemAltitudeSource.srtm(directory, 3);
+
+      assertEquals(20, source.sample(-2, -1), 0);
+      assertEquals(21, source.sample(-1.5, -1), 0);
+      assertEquals(10, source.sample(-2, -0.5), 0);
+      assertEquals(22, source.sample(-1 - 1e-12, -1), 1e-9);
+      // the void center reads as 0
+      assertEquals(0, source.sample(-1.5, -0.5), 0);
+      assertEquals(2.75, source.sample(-1.75, -0.25), 1e-9);
+      // the north and east edges belong to the neighbours, which are missing
+      assertEquals(0, source.sample(-1, -0.5), 0);
+      assertEquals(0, source.sample(-1.5, 0), 0);
+   }
+
+   @Test
+   public void testEvictsLeastRecentlyUsedTiles() throws IOException {
+      final TiledDemAltitudeSource source = new TiledDemAltitudeSource(TiledDemAltitudeSourceTest.createPlane(), ".dem", 1, SAMPLES, SampleType.FLOAT32, ByteOrder.LITTLE_ENDIAN, 1);
+
+      source.sample(0.5, 0.5);
+      source.sample(0.25, 0.5);
+      source.sample(1.5, 0.5);
+      assertEquals(TiledDemAltitudeSourceTest.plane(0.5, 0.5), source.sample(0.5, 0.5), 1e-2);
+
+      final ResidencyStats stats = source.getStats();
+      assertEquals(1, stats.resident);
+      assertEquals(1, stats.hits);
+      assertEquals(3, stats.misses);
+      assertEquals(2, stats.evictions);
+      assertEquals(SAMPLES * SAMPLES * 4, stats.usedBytes);
+   }
+
+   @Test
+   public void testMissingTilesKeepMappedTiles() throws IOException {
+      final TiledDemAltitudeSource source = new TiledDemAltitudeSource(TiledDemAltitudeSourceTest.createPlane(), ".dem", 1, SAMPLES, SampleType.FLOAT32, ByteOrder.LITTLE_ENDIAN, 1);
+
+      source.sample(0.5, 0.5);
+
+      // sparse coverage; none of these tiles exist
+      for (int lon = 10; lon < 20; lon++) {
+         assertEquals(0, source.sample(lon + 0.5, 0.5), 0);
+      }
+
+      assertEquals(0, source.sample(10.5, 0.5), 0);
+      assertEquals(TiledDemAltitudeSourceTest.plane(0.5, 0.5), source.sample(0.5, 0.5), 1e-2);
+
+      final ResidencyStats stats = source.getStats();
+      assertEquals(1, stats.resident);
+      assertEquals(0, stats.evictions);
+      assertEquals(11, stats.misses);
+      assertEquals(2, stats.hits);
+   }
+
+   @Test
+   public void testConcurrentBatches() throws Exception {
+      final TiledDemAltitudeSource source = new TiledDemAltitudeSource(TiledDemAltitudeSourceTest.createPlane(), ".dem", 1, SAMPLES, SampleType.FLOAT32, ByteOrder.LITTLE_ENDIAN, 1);
+      final Random random = new Random(11);
+      final int count = 4096;
+      final double[] lon = new double[count];
+      final double[] lat = new double[count];
+      final double[] expected = new double[count];
+
+      for (int i = 0; i < count; i++) {
+         lon[i] = random.nextDouble() * 2.0;
+         lat[i] = random.nextDouble();
+         expected[i] = source.sample(lon[i], lat[i]);
+      }
+
+      // a single mapped tile keeps being evicted by threads alternating between the two tiles
+      final ExecutorService executor = Executors.newFixedThreadPool(4);
+      final List<Future<double[]>> results = new ArrayList<>();
+
+      try {
+         for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> {
+               final double[] out = new double[count];
+               source.sample(lon, lat, out, 0, count);
+               return out;
+            }));
+         }
+
+         for (final Future<double[]> result : results) {
+            assertArrayEquals(expected, result.get(), 0);
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   private static double plane(final double lon, final double lat) {
+      return (1000.0 * lon) + (100.0 * lat) + 7.0;
+   }
+
+   /**
+    * Writes the plane to the tiles N00E000 and N00E001.
+    */
+   private static File createPlane() throws IOException {
+      final File directory = Files.createTempDirectory("dem").toFile();
+      directory.deleteOnExit();
+
+      for (int tile = 0; tile < 2; tile++) {
+         final ByteBuffer buffer = ByteBuffer.allocate(SAMPLES * SAMPLES * 4).order(ByteOrder.LITTLE_ENDIAN);
+
+         for (int row = 0; row < SAMPLES; row++) {
+            for (int column = 0; column < SAMPLES; column++) {
+               final double lon = tile + (column / (SAMPLES - 1.0));
+               final double lat = 1.0 - (row / (SAMPLES - 1.0));
+               buffer.putFloat((float) TiledDemAltitudeSourceTest.plane(lon, lat));
+            }
+         }
+
+         TiledDemAltitudeSourceTest.write(new File(directory, "N00E00" + tile + ".dem"), buffer);
+      }
+
+      return directory;
+   }
+
+   private static void write(final File file, final ByteBuffer buffer) throws IOException {
+      file.deleteOnExit();
+
+      try (final FileOutputStream fout = new FileOutputStream(file)) {
+         fout.write(buffer.array());
+      }
+   }
+}
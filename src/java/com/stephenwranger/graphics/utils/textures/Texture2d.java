@@ -198,6 +198,15 @@ public class Texture2d {
       return texId;
    }
    
+   /**
+    * Returns the size of the pixel data, which is also the approximate texture memory used once enabled.
+    * 
+    * @return
+    */
+   public int getSizeInBytes() {
+      return pixelData.capacity();
+   }
+   
    public static Texture2d getTexture(final InputStream inputStream, final int format) {
       try {
          return new Texture2d(inputStream, format);